@@ -0,0 +1,76 @@
+package com.mattbiggin.tradeprocessing;
+
+import com.mattbiggin.tradeprocessing.product.BenchmarkData;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Starts the given number of uploads to POST /api/v1/enrich of a running service at once and reports how they fared.
+ *
+ *   EnrichLoadTest <enrich url> <concurrent uploads> <trades per upload>
+ */
+public class EnrichLoadTest {
+    public static void main(String[] args) throws Exception {
+        final var url = URI.create(args.length > 0 ? args[0] : "http://localhost:8080/api/v1/enrich");
+        final var concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final var trades = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+
+        final var upload = BenchmarkData.trades(trades, 10, 0.01);
+        final var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+        final var ok = new AtomicInteger();
+        final var rejected = new AtomicInteger();
+        final var failed = new AtomicInteger();
+        final var latencies = Collections.synchronizedList(new ArrayList<Long>());
+
+        final var start = System.nanoTime();
+        final var uploads = new ArrayList<CompletableFuture<?>>(concurrency);
+        for (var i = 0; i < concurrency; i++) {
+            final var request = HttpRequest.newBuilder(url)
+                    .header("Content-Type", "text/csv")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(upload))
+                    .build();
+            final var sent = System.nanoTime();
+            uploads.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).handle((response, e) -> {
+                if (e != null) {
+                    failed.incrementAndGet();
+                } else if (response.statusCode() == 429 || response.statusCode() == 503) {
+                    rejected.incrementAndGet();
+                } else if (response.statusCode() == 200) {
+                    ok.incrementAndGet();
+                    latencies.add(System.nanoTime() - sent);
+                } else {
+                    failed.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).join();
+        final var elapsed = System.nanoTime() - start;
+
+        System.out.println("uploads=" + concurrency + " trades_per_upload=" + trades);
+        System.out.println("ok=" + ok + " rejected=" + rejected + " failed=" + failed);
+        System.out.println("elapsed_ms=" + elapsed / 1_000_000);
+        System.out.println("trades_per_second=" + (long) (ok.get() * (double) trades * 1e9 / elapsed));
+        System.out.println("latency_ms p50=" + percentile(latencies, 0.5) + " p99=" + percentile(latencies, 0.99) +
+                " max=" + percentile(latencies, 1.0));
+    }
+
+    private static long percentile(List<Long> latencies, double percentile) {
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        final var sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        final var index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0)) / 1_000_000;
+    }
+}
@@ -0,0 +1,48 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Generated product catalogs and trade files for the benchmarks. Product ids run from 1 to the product count and
+ * generation is deterministic, so runs are comparable.
+ */
+public final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    public static HashMap<String, String> catalog(int productCount) {
+        final var products = new HashMap<String, String>();
+        for (var id = 1; id <= productCount; id++) {
+            products.put(String.valueOf(id), "Product " + id + " Domestic");
+        }
+        return products;
+    }
+
+    public static Products products(int productCount) {
+        final var catalog = catalog(productCount);
+        final var products = new Products(() -> catalog);
+        products.init();
+        return products;
+    }
+
+    /*
+     * A trade file of the given number of rows after the header. The given ratio of rows have an invalid date and one
+     * row in a hundred refers to a product that is not in the catalog.
+     */
+    public static byte[] trades(int tradeCount, int productCount, double invalidRatio) {
+        final var output = new ByteArrayOutputStream(tradeCount * 32);
+        output.writeBytes("date,product_id,currency,price\n".getBytes(UTF_8));
+
+        final var invalidEvery = invalidRatio > 0 ? Math.max(1, (int) Math.round(1 / invalidRatio)) : 0;
+        for (var i = 0; i < tradeCount; i++) {
+            final var date = invalidEvery > 0 && i % invalidEvery == 0 ? "20161301" : "20160101";
+            final var id = i % 100 == 99 ? productCount + 1 : 1 + (i * 7919) % productCount;
+            final var line = date + "," + id + ",EUR," + (i % 1000) + "." + (i % 100) + "\n";
+            output.writeBytes(line.getBytes(UTF_8));
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Lookups against a catalog held on the heap and off it. ProductCatalogGcTest compares their effect on collections.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Thread)
+public class ProductCatalogBenchmark {
+    private static final int IDS = 1 << 16;
+
+    @Param({"heap", "offheap"})
+    String storage;
+
+    /*
+     * Two sizes, so that it shows a change costs the same however large the catalog.
+     */
+    @Param({"100000", "1000000"})
+    int productCount;
+
+    Products products;
+    ProductSnapshot snapshot;
+    Set<String> missing;
+    String[] ids;
+    byte[][] idBytes;
+    int next;
+
+    @Setup
+    public void setup() {
+        final var catalog = BenchmarkData.catalog(productCount);
+        products = new Products(() -> catalog, new ProductJournal(), ProductCatalog.empty(storage));
+        products.init();
+        snapshot = products.getSnapshot();
+        missing = new HashSet<>();
+
+        /*
+         * Random over the whole catalog, so that lookups are neither served from the processor caches nor follow a
+         * stride that the processor can prefetch.
+         */
+        final var random = new Random(1);
+        ids = new String[IDS];
+        idBytes = new byte[IDS][];
+        for (var i = 0; i < IDS; i++) {
+            ids[i] = String.valueOf(1 + random.nextInt(productCount));
+            idBytes[i] = ids[i].getBytes(UTF_8);
+        }
+    }
+
+    /*
+     * The lookup made for each trade by the byte level enricher.
+     */
+    @Benchmark
+    public byte[] lookupName() {
+        final var id = idBytes[next++ & (IDS - 1)];
+        return snapshot.lookupProductName(id, 0, id.length);
+    }
+
+    @Benchmark
+    public String lookupProduct() {
+        return products.lookupProduct(snapshot, ids[next++ & (IDS - 1)], missing);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ProductSnapshot changeProduct() {
+        products.changeProduct(ids[next++ & (IDS - 1)], "Product Changed " + next);
+        return products.getSnapshot();
+    }
+}
@@ -0,0 +1,80 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Loads a catalog held on the heap or off it, then enriches against it while allocating garbage that lives long enough
+ * to be promoted, as the buffers of concurrent uploads do, and reports the collections that this causes.
+ *
+ *   ProductCatalogGcTest <heap|offheap> <products> <seconds>
+ */
+public class ProductCatalogGcTest {
+    public static void main(String[] args) throws Exception {
+        final var storage = args.length > 0 ? args[0] : "heap";
+        final var productCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        final var seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        final var collections = new AtomicLong();
+        final var pauseMillis = new AtomicLong();
+        final var maxPauseMillis = new AtomicLong();
+        for (final var collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                final var info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                final var duration = info.getGcInfo().getDuration();
+                collections.incrementAndGet();
+                pauseMillis.addAndGet(duration);
+                maxPauseMillis.accumulateAndGet(duration, Math::max);
+            }, notification -> notification.getType().equals(
+                    GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION), null);
+        }
+
+        final var loadStart = System.nanoTime();
+        final var products = new Products(() -> BenchmarkData.catalog(productCount), new ProductJournal(),
+                ProductCatalog.empty(storage));
+        products.init();
+        final var snapshot = products.getSnapshot();
+        final var loadMillis = (System.nanoTime() - loadStart) / 1_000_000;
+
+        final var fullStart = System.nanoTime();
+        System.gc();
+        final var fullMillis = (System.nanoTime() - fullStart) / 1_000_000;
+        final var heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        final var direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+        collections.set(0);
+        pauseMillis.set(0);
+        maxPauseMillis.set(0);
+
+        /* A window of upload sized buffers, each kept while the next few thousand are allocated */
+        final var retained = new byte[4096][];
+        final var end = System.nanoTime() + seconds * 1_000_000_000L;
+        var lookups = 0L;
+        var found = 0L;
+        for (var i = 0; System.nanoTime() < end; i++) {
+            retained[i & (retained.length - 1)] = new byte[16 * 1024];
+            for (var j = 0; j < 100; j++) {
+                final var id = String.valueOf(1 + (int) (((long) i * 100 + j) * 7919 % productCount)).getBytes(UTF_8);
+                if (snapshot.lookupProductName(id, 0, id.length) != null) {
+                    found++;
+                }
+                lookups++;
+            }
+        }
+
+        System.out.println("storage=" + storage + " products=" + productCount + " load_ms=" + loadMillis);
+        System.out.println("heap_used_mb=" + heapUsed / (1024 * 1024) + " direct_mb=" + direct / (1024 * 1024) +
+                " full_gc_ms=" + fullMillis);
+        System.out.println("lookups=" + lookups + " found=" + found + " lookups_per_s=" + lookups / seconds);
+        System.out.println("collections=" + collections + " gc_ms=" + pauseMillis + " max_gc_ms=" + maxPauseMillis);
+    }
+}
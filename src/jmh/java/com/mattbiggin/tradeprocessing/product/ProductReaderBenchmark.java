@@ -0,0 +1,78 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Loading of a product list file by the line based and memory mapped readers, and from a binary snapshot of it. For
+ * cold start times, as at service startup, run each in fresh JVMs with -wi 0 -i 1 -f 5.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class ProductReaderBenchmark {
+    @Param({"1000000"})
+    int productCount;
+
+    Path file;
+    ResourceFileProductReader lines;
+    MappedFileProductReader mapped;
+    SnapshotProductReader snapshot;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("products", ".csv");
+        final var catalog = BenchmarkData.catalog(productCount);
+        final var content = new StringBuilder(Products.COLUMNS).append('\n');
+        catalog.forEach((id, name) -> content.append(id).append(',').append(name).append('\n'));
+        Files.writeString(file, content);
+
+        /* Written directly rather than by the snapshot reader, which would warm up the CSV parser */
+        ProductSnapshotFile.write(Path.of(file + ".snapshot"), ProductSnapshotFile.Source.of(file), catalog);
+
+        final var properties = new ConfigurationProperties() {
+            @Override
+            public String getProductListFileName() {
+                return file.toString();
+            }
+
+            @Override
+            public String getProductSnapshotFileName() {
+                return file + ".snapshot";
+            }
+        };
+        lines = new ResourceFileProductReader(properties);
+        mapped = new MappedFileProductReader(properties);
+        snapshot = new SnapshotProductReader(properties);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(Path.of(file + ".snapshot"));
+    }
+
+    @Benchmark
+    public Map<String, String> lines() {
+        return lines.readProducts();
+    }
+
+    @Benchmark
+    public Map<String, String> mapped() {
+        return mapped.readProducts();
+    }
+
+    @Benchmark
+    public Map<String, String> snapshot() {
+        return snapshot.readProducts();
+    }
+}
@@ -0,0 +1,82 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductsBenchmark {
+    @State(Scope.Thread)
+    public static class Lookup {
+        @Param({"10000"})
+        int productCount;
+
+        Products products;
+        ProductSnapshot snapshot;
+        Set<String> missing;
+        String[] ids;
+        String missingId;
+        int next;
+
+        @Setup
+        public void setup() {
+            products = BenchmarkData.products(productCount);
+            snapshot = products.getSnapshot();
+            ids = new String[1024];
+            for (var i = 0; i < ids.length; i++) {
+                ids[i] = String.valueOf(1 + (i * 7919) % productCount);
+            }
+
+            /* Already reported, as it would be after the first miss of an upload */
+            missing = new HashSet<>();
+            missingId = String.valueOf(productCount + 1);
+            products.lookupProduct(snapshot, missingId, missing);
+        }
+    }
+
+    /*
+     * A product list streamed from a catalog held each way, the heap one from its maintained order.
+     */
+    @State(Scope.Thread)
+    public static class Render {
+        @Param({"10000"})
+        int productCount;
+
+        @Param({"heap", "offheap"})
+        String catalogStorage;
+
+        ProductSnapshot snapshot;
+
+        @Setup
+        public void setup() {
+            final var catalog = BenchmarkData.catalog(productCount);
+            snapshot = new ProductSnapshot(1, ProductCatalog.empty(catalogStorage).load(new HashMap<>(catalog), 1),
+                    ProductOrder.of(catalog.keySet()));
+        }
+    }
+
+    @Benchmark
+    public String lookupHit(Lookup state) {
+        return state.products.lookupProduct(state.snapshot, state.ids[state.next++ & 1023], state.missing);
+    }
+
+    @Benchmark
+    public String lookupMiss(Lookup state) {
+        return state.products.lookupProduct(state.snapshot, state.missingId, state.missing);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void renderProducts(Render state) throws IOException {
+        state.snapshot.writeProducts(OutputStream.nullOutputStream());
+    }
+}
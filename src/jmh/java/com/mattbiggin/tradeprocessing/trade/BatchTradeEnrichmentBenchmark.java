@@ -0,0 +1,64 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.BenchmarkData;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The same number of trades enriched as a batch of one file or of many small files, so that the cost of each file in
+ * a batch can be compared with TradeStreamEnrichmentBenchmark for a single upload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchTradeEnrichmentBenchmark {
+    @Param({"1000000"})
+    int tradeCount;
+
+    @Param({"1", "100", "1000"})
+    int fileCount;
+
+    @Param({"10000"})
+    int productCount;
+
+    private BatchTradeEnrichment batch;
+    private ProductSnapshot snapshot;
+    private BatchTradeEnrichment.TradeFile[] files;
+
+    @Setup
+    public void setup() {
+        final var products = BenchmarkData.products(productCount);
+        final var properties = new ConfigurationProperties();
+        batch = new BatchTradeEnrichment(products, new TradeDateValidator(), new TradeValueValidator(), properties,
+                new EnrichmentMetrics(new SimpleMeterRegistry()), new RejectionStore(properties));
+        batch.init();
+        snapshot = products.getSnapshot();
+
+        files = new BatchTradeEnrichment.TradeFile[fileCount];
+        for (var i = 0; i < fileCount; i++) {
+            files[i] = new BatchTradeEnrichment.TradeFile("trades-" + i + ".csv",
+                    BenchmarkData.trades(tradeCount / fileCount, productCount, 0.0));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        batch.shutdown();
+    }
+
+    @Benchmark
+    public void processFiles() throws IOException {
+        final var next = new int[1];
+        batch.enrich("benchmark", snapshot, () -> next[0] < files.length ? files[next[0]++] : null,
+                OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,79 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.format.DateTimeFormatter.BASIC_ISO_DATE;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeDateValidatorBenchmark {
+    private final TradeDateValidator validator = new TradeDateValidator();
+
+    private final byte[] validBytes = "20160101".getBytes(UTF_8);
+
+    /* More distinct dates than the validator caches, every one a real calendar date */
+    private final String[] dates = new String[4096];
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        for (var i = 0; i < dates.length; i++) {
+            dates[i] = LocalDate.of(1900, 1, 1).plusDays(i).format(BASIC_ISO_DATE);
+        }
+    }
+
+    @Benchmark
+    public boolean validDate() {
+        return validator.isValidDate("20160101");
+    }
+
+    @Benchmark
+    public boolean invalidDate() {
+        return validator.isValidDate("20161301");
+    }
+
+    @Benchmark
+    public boolean validDateBytes() {
+        return validator.isValidDate(validBytes, 0, validBytes.length);
+    }
+
+    @Benchmark
+    public boolean distinctDates() {
+        return validator.isValidDate(dates[next++ & 4095]);
+    }
+
+    /* The LocalDate.parse check the validator replaced, as a baseline for the benchmarks above */
+    @Benchmark
+    public boolean validDateParse() {
+        return isValidDateParse("20160101");
+    }
+
+    @Benchmark
+    public boolean invalidDateParse() {
+        return isValidDateParse("20161301");
+    }
+
+    @Benchmark
+    public boolean distinctDatesParse() {
+        return isValidDateParse(dates[next++ & 4095]);
+    }
+
+    private static boolean isValidDateParse(String date) {
+        try {
+            LocalDate.parse(date, BASIC_ISO_DATE);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
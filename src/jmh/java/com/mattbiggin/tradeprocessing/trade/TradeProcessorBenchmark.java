@@ -0,0 +1,51 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.product.BenchmarkData;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeProcessorBenchmark {
+    @Param({"10000"})
+    int productCount;
+
+    private TradeProcessor tradeProcessor;
+    private ProductSnapshot snapshot;
+    private Set<String> missing;
+    private String missingProductTrade;
+
+    @Setup
+    public void setup() {
+        final var products = BenchmarkData.products(productCount);
+        tradeProcessor = new TradeProcessor(products, new TradeDateValidator(), new TradeValueValidator());
+        snapshot = products.getSnapshot();
+        missing = new HashSet<>();
+        missingProductTrade = "20160101," + (productCount + 1) + ",EUR,35.34";
+        tradeProcessor.process(missingProductTrade, snapshot, missing);
+    }
+
+    @Benchmark
+    public Optional<String> validTrade() {
+        return tradeProcessor.process("20160101,1,EUR,10.0", snapshot, missing);
+    }
+
+    @Benchmark
+    public Optional<String> missingProductTrade() {
+        return tradeProcessor.process(missingProductTrade, snapshot, missing);
+    }
+
+    @Benchmark
+    public Optional<String> invalidDateTrade() {
+        return tradeProcessor.process("20161301,1,EUR,10.0", snapshot, missing);
+    }
+}
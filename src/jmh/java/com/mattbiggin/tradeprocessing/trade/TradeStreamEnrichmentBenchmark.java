@@ -0,0 +1,141 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.BenchmarkData;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * End to end enrichment of a generated upload, as POST /api/v1/enrich performs it. The gzip encoding decompresses the
+ * upload and compresses the enriched trades, as for a request with Content-Encoding and Accept-Encoding of gzip.
+ * strict turns on validation of the currency and price columns, and aggregate the totals by product and currency.
+ * pipeline runs an enrichment that is not parallel as separate read, enrich and write stages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TradeStreamEnrichmentBenchmark {
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final String REQUEST_ID = "benchmark";
+
+    @Param({"100000"})
+    int tradeCount;
+
+    @Param({"10000"})
+    int productCount;
+
+    @Param({"0.0", "0.1"})
+    double invalidRatio;
+
+    @Param({"identity", "gzip"})
+    String encoding;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    @Param({"false", "true"})
+    boolean pipeline;
+
+    @Param({"false", "true"})
+    boolean strict;
+
+    @Param({"block"})
+    String waitStrategy;
+
+    @Param({"false", "true"})
+    boolean aggregate;
+
+    private TradeStreamEnrichment enrichment;
+    private ParallelTradeEnrichment parallelEnrichment;
+    private PipelinedTradeEnrichment pipelinedEnrichment;
+    private ProductSnapshot snapshot;
+    private byte[] upload;
+
+    @Setup
+    public void setup() throws IOException {
+        final var products = BenchmarkData.products(productCount);
+        final var dateValidator = new TradeDateValidator();
+        final var properties = new ConfigurationProperties() {
+            @Override
+            public int getParallelChunkSize() {
+                return 1024 * 1024;
+            }
+
+            @Override
+            public boolean isPipelineEnabled() {
+                return pipeline;
+            }
+
+            @Override
+            public int getPipelineBatchSize() {
+                return 64 * 1024;
+            }
+
+            @Override
+            public int getPipelineRingSize() {
+                return 8;
+            }
+
+            @Override
+            public String getPipelineWaitStrategy() {
+                return waitStrategy;
+            }
+        };
+        final var valueValidator = new TradeValueValidator(strict, TradeValueValidator.ISO_4217);
+        parallelEnrichment = new ParallelTradeEnrichment(products, dateValidator, valueValidator, properties);
+        parallelEnrichment.init();
+        final var metrics = new EnrichmentMetrics(new SimpleMeterRegistry());
+        pipelinedEnrichment = new PipelinedTradeEnrichment(products, dateValidator, valueValidator, properties,
+                metrics);
+        pipelinedEnrichment.init();
+        enrichment = new TradeStreamEnrichment(products, new TradeProcessor(products, dateValidator, valueValidator),
+                dateValidator, valueValidator, parallelEnrichment, pipelinedEnrichment, metrics,
+                new RejectionStore(properties), new AggregateStore());
+        snapshot = products.getSnapshot();
+
+        upload = BenchmarkData.trades(tradeCount, productCount, invalidRatio);
+        if (isGzip()) {
+            final var compressed = new ByteArrayOutputStream();
+            try (var output = new GZIPOutputStream(compressed)) {
+                output.write(upload);
+            }
+            upload = compressed.toByteArray();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        parallelEnrichment.shutdown();
+        pipelinedEnrichment.shutdown();
+    }
+
+    @Benchmark
+    public void processTrades() throws IOException {
+        if (isGzip()) {
+            final InputStream input = new GZIPInputStream(new ByteArrayInputStream(upload), GZIP_BUFFER_SIZE);
+            final var output = new GZIPOutputStream(OutputStream.nullOutputStream(), GZIP_BUFFER_SIZE);
+            enrichment.processTrades(REQUEST_ID, snapshot, input, output, parallel, aggregate);
+            output.finish();
+        } else {
+            enrichment.processTrades(REQUEST_ID, snapshot, new ByteArrayInputStream(upload),
+                    OutputStream.nullOutputStream(), parallel, aggregate);
+        }
+    }
+
+    private boolean isGzip() {
+        return "gzip".equals(encoding);
+    }
+}
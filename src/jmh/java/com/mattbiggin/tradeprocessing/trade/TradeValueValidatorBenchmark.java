@@ -0,0 +1,53 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeValueValidatorBenchmark {
+    private final TradeValueValidator validator = new TradeValueValidator(true, TradeValueValidator.ISO_4217);
+
+    /* A trade line with the currency and price columns at 11..14 and 15..21 */
+    private final byte[] trade = "20160101,1,EUR,1234.56\n20160101,2,GBP,1.5\n".getBytes(UTF_8);
+
+    /* Prices of the lengths found in the benchmark trade files, from offset 15 and followed by another trade */
+    private final byte[][] lines = new byte[1024][];
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        for (var i = 0; i < lines.length; i++) {
+            lines[i] = ("20160101,1,EUR," + (i % 1000) + "." + (i % 100) + "\n20160101,1,EUR,1.0\n").getBytes(UTF_8);
+        }
+    }
+
+    @Benchmark
+    public boolean validCurrencyBytes() {
+        return validator.isValidCurrency(trade, 11, 14);
+    }
+
+    @Benchmark
+    public boolean validPriceBytes() {
+        return validator.isValidPrice(trade, 15, 22);
+    }
+
+    @Benchmark
+    public boolean distinctPrices() {
+        final var line = lines[next++ & 1023];
+        return validator.isValidPrice(line, 15, line.length - 20);
+    }
+
+    @Benchmark
+    public boolean validPrice() {
+        return validator.isValidPrice("1234.56");
+    }
+}
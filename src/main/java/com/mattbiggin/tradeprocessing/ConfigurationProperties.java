@@ -2,13 +2,277 @@ package com.mattbiggin.tradeprocessing;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
 @Component
 public class ConfigurationProperties {
     @Value("${static.productListFileName}")
     private String productList;
 
+    @Value("${static.productSnapshotFileName:}")
+    private String productSnapshot;
+
+    @Value("${static.productCatalog:heap}")
+    private String productCatalog;
+
+    @Value("${static.reload.intervalSeconds:0}")
+    private long productReloadIntervalSeconds;
+
+    @Value("${static.journal.directory:}")
+    private String journalDirectory;
+
+    @Value("${static.journal.durability:sync}")
+    private String journalDurability;
+
+    @Value("${static.journal.flushIntervalMillis:100}")
+    private long journalFlushIntervalMillis;
+
+    @Value("${static.journal.compactIntervalSeconds:300}")
+    private long journalCompactIntervalSeconds;
+
+    @Value("${static.remote.url:}")
+    private String remoteUrl;
+
+    @Value("${static.remote.timeoutMillis:2000}")
+    private long remoteTimeoutMillis;
+
+    @Value("${static.remote.batchSize:1000}")
+    private int remoteBatchSize;
+
+    @Value("${static.remote.cacheSize:100000}")
+    private int remoteCacheSize;
+
+    @Value("${static.remote.ttlSeconds:300}")
+    private long remoteTtlSeconds;
+
+    @Value("${static.remote.negativeTtlSeconds:60}")
+    private long remoteNegativeTtlSeconds;
+
+    @Value("${static.remote.failureBackoffMillis:5000}")
+    private long remoteFailureBackoffMillis;
+
+    @Value("${enrich.parallel.threshold:67108864}")
+    private long parallelThreshold;
+
+    @Value("${enrich.parallel.threads:0}")
+    private int parallelThreads;
+
+    @Value("${enrich.parallel.chunkSize:1048576}")
+    private int parallelChunkSize;
+
+    @Value("${enrich.parallel.maxChunksInFlight:0}")
+    private int parallelMaxChunksInFlight;
+
+    @Value("${enrich.pipeline.enabled:false}")
+    private boolean pipelineEnabled;
+
+    @Value("${enrich.pipeline.batchSize:65536}")
+    private int pipelineBatchSize;
+
+    @Value("${enrich.pipeline.ringSize:8}")
+    private int pipelineRingSize;
+
+    @Value("${enrich.pipeline.waitStrategy:block}")
+    private String pipelineWaitStrategy;
+
+    @Value("${enrich.batch.threads:0}")
+    private int batchThreads;
+
+    @Value("${enrich.batch.maxFilesInFlight:0}")
+    private int batchMaxFilesInFlight;
+
+    @Value("${spring.servlet.multipart.max-file-size:1MB}")
+    private DataSize batchMaxFileSize;
+
+    @Value("${spring.servlet.multipart.max-request-size:10MB}")
+    private DataSize batchMaxSize;
+
+    @Value("${enrich.validation.strict:false}")
+    private boolean strictValidation;
+
+    @Value("${enrich.validation.currencies:}")
+    private String currencies;
+
+    @Value("${enrich.file.directory:}")
+    private String fileDirectory;
+
+    @Value("${enrich.rejects.directory:}")
+    private String rejectsDirectory;
+
+    @Value("${enrich.executor.virtualThreads:false}")
+    private boolean virtualThreads;
+
+    @Value("${enrich.maxConcurrent:0}")
+    private int maxConcurrentEnrichments;
+
+    @Value("${enrich.retryAfterSeconds:1}")
+    private int retryAfterSeconds;
+
+    @Value("${enrich.jobs.directory:}")
+    private String jobsDirectory;
+
+    @Value("${enrich.jobs.threads:1}")
+    private int jobThreads;
+
+    @Value("${enrich.jobs.maxAgeMinutes:60}")
+    private long jobMaxAgeMinutes;
+
+    @Value("${enrich.jobs.maxDiskBytes:10737418240}")
+    private long jobMaxDiskBytes;
+
     public String getProductListFileName() {
         return productList;
     }
+
+    public String getProductSnapshotFileName() {
+        return productSnapshot;
+    }
+
+    public String getProductCatalog() {
+        return productCatalog;
+    }
+
+    public long getProductReloadIntervalSeconds() {
+        return productReloadIntervalSeconds;
+    }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public String getJournalDurability() {
+        return journalDurability;
+    }
+
+    public long getJournalFlushIntervalMillis() {
+        return journalFlushIntervalMillis;
+    }
+
+    public long getJournalCompactIntervalSeconds() {
+        return journalCompactIntervalSeconds;
+    }
+
+    public String getRemoteUrl() {
+        return remoteUrl;
+    }
+
+    public long getRemoteTimeoutMillis() {
+        return remoteTimeoutMillis;
+    }
+
+    public int getRemoteBatchSize() {
+        return remoteBatchSize;
+    }
+
+    public int getRemoteCacheSize() {
+        return remoteCacheSize;
+    }
+
+    public long getRemoteTtlSeconds() {
+        return remoteTtlSeconds;
+    }
+
+    public long getRemoteNegativeTtlSeconds() {
+        return remoteNegativeTtlSeconds;
+    }
+
+    public long getRemoteFailureBackoffMillis() {
+        return remoteFailureBackoffMillis;
+    }
+
+    public long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public int getParallelThreads() {
+        return parallelThreads > 0 ? parallelThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getParallelChunkSize() {
+        return parallelChunkSize;
+    }
+
+    public int getParallelMaxChunksInFlight() {
+        return parallelMaxChunksInFlight > 0 ? parallelMaxChunksInFlight : 2 * getParallelThreads();
+    }
+
+    public boolean isPipelineEnabled() {
+        return pipelineEnabled;
+    }
+
+    public int getPipelineBatchSize() {
+        return pipelineBatchSize;
+    }
+
+    public int getPipelineRingSize() {
+        return pipelineRingSize;
+    }
+
+    public String getPipelineWaitStrategy() {
+        return pipelineWaitStrategy;
+    }
+
+    public int getBatchThreads() {
+        return batchThreads > 0 ? batchThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getBatchMaxFilesInFlight() {
+        return batchMaxFilesInFlight > 0 ? batchMaxFilesInFlight : 2 * getBatchThreads();
+    }
+
+    /*
+     * The limits of a multipart batch also bound the entries of a zip batch once decompressed, each entry and all of
+     * them, -1 being unlimited.
+     */
+    public long getBatchMaxFileBytes() {
+        return batchMaxFileSize.toBytes();
+    }
+
+    public long getBatchMaxBytes() {
+        return batchMaxSize.toBytes();
+    }
+
+    public boolean isStrictValidation() {
+        return strictValidation;
+    }
+
+    public String getCurrencies() {
+        return currencies;
+    }
+
+    public String getFileDirectory() {
+        return fileDirectory;
+    }
+
+    public String getRejectsDirectory() {
+        return rejectsDirectory;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getMaxConcurrentEnrichments() {
+        return maxConcurrentEnrichments;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public String getJobsDirectory() {
+        return jobsDirectory;
+    }
+
+    public int getJobThreads() {
+        return Math.max(jobThreads, 1);
+    }
+
+    public long getJobMaxAgeMinutes() {
+        return jobMaxAgeMinutes;
+    }
+
+    public long getJobMaxDiskBytes() {
+        return jobMaxDiskBytes;
+    }
 }
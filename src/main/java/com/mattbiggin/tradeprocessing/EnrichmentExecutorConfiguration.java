@@ -0,0 +1,63 @@
+package com.mattbiggin.tradeprocessing;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Streams enriched trades back from virtual threads when enrich.executor.virtualThreads is set, so that uploads blocked
+ * on slow clients do not each hold a platform thread. Otherwise the default MVC async executor is used, which is sized
+ * with the spring.task.execution.pool properties. Either way the EnrichmentLimiter sees each async request complete.
+ *
+ * Virtual threads are a preview API in Java 19, so they are created reflectively. Where they are not available, for
+ * example on Java 19 without --enable-preview, the default executor is used and a warning logged.
+ */
+@Configuration
+class EnrichmentExecutorConfiguration implements WebMvcConfigurer {
+    private static final Logger log = LoggerFactory.getLogger(EnrichmentExecutorConfiguration.class);
+
+    final private ExecutorService executor;
+
+    final private EnrichmentLimiter limiter;
+
+    @Autowired
+    EnrichmentExecutorConfiguration(ConfigurationProperties properties, EnrichmentLimiter limiter) {
+        this.executor = properties.isVirtualThreads() ? virtualThreadExecutor() : null;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(limiter);
+        if (executor != null) {
+            configurer.setTaskExecutor(new TaskExecutorAdapter(executor));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            final var executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            log.info("Enriching on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            log.warn("Virtual threads not available, enriching on platform threads - " + e);
+            return null;
+        }
+    }
+}
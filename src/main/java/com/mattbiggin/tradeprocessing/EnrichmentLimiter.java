@@ -0,0 +1,83 @@
+package com.mattbiggin.tradeprocessing;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Caps the number of enrichments in progress at enrich.maxConcurrent, 0 being unlimited. Requests over the cap are
+ * turned away at once rather than queued, so that a burst of uploads cannot tie up every connection.
+ *
+ * An enrichment streamed back asynchronously holds a Permit, released when the enrichment finishes or, should it never
+ * run or never finish, when the async request completes. The async executor may cancel a queued task on timeout, and
+ * the request completes on timeouts, errors and disconnected clients alike, so as an interceptor of every async request
+ * the limiter gets its permits back in each case.
+ */
+@Component
+class EnrichmentLimiter implements CallableProcessingInterceptor {
+    private static final String PERMIT_ATTRIBUTE = EnrichmentLimiter.class.getName() + ".permit";
+
+    final private Semaphore permits;
+
+    @Autowired
+    EnrichmentLimiter(ConfigurationProperties properties) {
+        final var maxConcurrent = properties.getMaxConcurrentEnrichments();
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+    }
+
+    boolean tryAcquire() {
+        return permits == null || permits.tryAcquire();
+    }
+
+    void release() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    /*
+     * A permit for the async request, or null when the cap has been reached.
+     */
+    Permit tryAcquire(WebRequest request) {
+        if (!tryAcquire()) {
+            return null;
+        }
+        final var permit = new Permit();
+        request.setAttribute(PERMIT_ATTRIBUTE, permit, RequestAttributes.SCOPE_REQUEST);
+        return permit;
+    }
+
+    /*
+     * Permits free, Integer.MAX_VALUE when unlimited.
+     */
+    int available() {
+        return permits != null ? permits.availablePermits() : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+        if (request.getAttribute(PERMIT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) instanceof Permit permit) {
+            permit.release();
+        }
+    }
+
+    final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /*
+         * Only the first release of a permit returns it to the limiter.
+         */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                EnrichmentLimiter.this.release();
+            }
+        }
+    }
+}
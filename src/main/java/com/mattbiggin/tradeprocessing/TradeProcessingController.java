@@ -1,25 +1,59 @@
 package com.mattbiggin.tradeprocessing;
 
+import com.mattbiggin.tradeprocessing.product.MissingProducts;
+import com.mattbiggin.tradeprocessing.product.ProductBatch;
+import com.mattbiggin.tradeprocessing.product.ProductFileWatcher;
 import com.mattbiggin.tradeprocessing.product.Products;
+import com.mattbiggin.tradeprocessing.trade.AggregateStore;
+import com.mattbiggin.tradeprocessing.trade.BatchTradeEnrichment;
+import com.mattbiggin.tradeprocessing.trade.EnrichmentJob;
+import com.mattbiggin.tradeprocessing.trade.EnrichmentJobs;
+import com.mattbiggin.tradeprocessing.trade.FileTradeEnrichment;
+import com.mattbiggin.tradeprocessing.trade.RejectionStore;
+import com.mattbiggin.tradeprocessing.trade.TradeAggregates;
 import com.mattbiggin.tradeprocessing.trade.TradeStreamEnrichment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.stream.Collectors;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 @RequestMapping("/api/v1")
 @RestController
 public class TradeProcessingController {
+    public static final String PRODUCT_VERSION_HEADER = "X-Product-Version";
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+    public static final String MISSING_PRODUCTS_TRACKED_HEADER = "X-Missing-Products-Tracked";
+    public static final String MISSING_PRODUCTS_UNTRACKED_HEADER = "X-Missing-Products-Untracked-Trades";
+
+    private static final String GZIP = "gzip";
+    private static final String ZIP = "application/zip";
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final Pattern REQUEST_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
     private static final Logger log = LoggerFactory.getLogger(TradeProcessingController.class);
 
     @Autowired
@@ -28,37 +62,331 @@ public class TradeProcessingController {
     @Autowired
     private Products products;
 
+    @Autowired
+    private ProductFileWatcher productFileWatcher;
+
     @Autowired
     private TradeStreamEnrichment tradeStreamEnrichment;
 
+    @Autowired
+    private FileTradeEnrichment fileTradeEnrichment;
+
+    @Autowired
+    private BatchTradeEnrichment batchTradeEnrichment;
+
+    @Autowired
+    private RejectionStore rejectionStore;
+
+    @Autowired
+    private AggregateStore aggregateStore;
+
+    @Autowired
+    private EnrichmentJobs enrichmentJobs;
+
+    @Autowired
+    private EnrichmentLimiter limiter;
+
     @PostMapping("/enrich")
-    public StreamingResponseBody enrich(InputStream trades) {
+    public ResponseEntity<StreamingResponseBody> enrich(InputStream trades,
+                                                        @RequestParam(name = "parallel", required = false) Boolean parallel,
+                                                        @RequestParam(name = "aggregate", defaultValue = "false") boolean aggregate,
+                                                        @RequestHeader(name = HttpHeaders.CONTENT_LENGTH, required = false) Long length,
+                                                        @RequestHeader(name = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                                                        @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                                        @RequestHeader(name = REQUEST_ID_HEADER, required = false) String requestId,
+                                                        WebRequest request) {
         log.info("POST /api/v1/enrich");
 
-        final var reader = new BufferedReader(new InputStreamReader(trades, UTF_8));
-        return outputStream -> tradeStreamEnrichment.processTrades(reader, outputStream);
+        final var permit = limiter.tryAcquire(request);
+        if (permit == null) {
+            return tooManyRequests();
+        }
+
+        final InputStream input;
+        try {
+            input = isGzip(contentEncoding) ? new GZIPInputStream(trades, GZIP_BUFFER_SIZE) : trades;
+        } catch (IOException e) {
+            permit.release();
+            log.error("Invalid gzip request body - " + e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+
+        final var id = requestId(requestId);
+        if (!rejectionStore.reserve(id)) {
+            permit.release();
+            return requestIdInUse(id);
+        }
+        final var isParallel = parallel != null ? parallel : isOverParallelThreshold(length);
+        final var snapshot = products.getSnapshot();
+        final var response = ResponseEntity.ok()
+                .header(REQUEST_ID_HEADER, id)
+                .header(PRODUCT_VERSION_HEADER, String.valueOf(snapshot.version()))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (!acceptsGzip(acceptEncoding)) {
+            return response.body(outputStream -> {
+                try {
+                    tradeStreamEnrichment.processTrades(id, snapshot, input, outputStream, isParallel, aggregate);
+                } finally {
+                    permit.release();
+                }
+            });
+        }
+        return response
+                .header(HttpHeaders.CONTENT_ENCODING, GZIP)
+                .body(outputStream -> {
+                    try {
+                        final var output = new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE);
+                        tradeStreamEnrichment.processTrades(id, snapshot, input, output, isParallel, aggregate);
+                        output.finish();
+                    } finally {
+                        permit.release();
+                    }
+                });
+    }
+
+    /*
+     * Each file part of the request is a trade file, in the order sent.
+     */
+    @PostMapping(value = "/enrich/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> enrichBatch(MultipartHttpServletRequest request,
+                                                             @RequestHeader(name = REQUEST_ID_HEADER, required = false) String requestId,
+                                                             WebRequest webRequest) {
+        log.info("POST /api/v1/enrich/batch");
+
+        final var parts = request.getMultiFileMap().values().stream().flatMap(List::stream).iterator();
+        return enrichBatch(requestId, webRequest, () -> {
+            if (!parts.hasNext()) {
+                return null;
+            }
+            final MultipartFile part = parts.next();
+            return new BatchTradeEnrichment.TradeFile(part.getOriginalFilename(), part.getBytes());
+        });
+    }
+
+    @PostMapping(value = "/enrich/batch", consumes = ZIP)
+    public ResponseEntity<StreamingResponseBody> enrichBatch(InputStream archive,
+                                                             @RequestHeader(name = REQUEST_ID_HEADER, required = false) String requestId,
+                                                             WebRequest request) {
+        log.info("POST /api/v1/enrich/batch");
+
+        final var files = BatchTradeEnrichment.zip(archive, properties.getBatchMaxFileBytes(),
+                properties.getBatchMaxBytes());
+        return enrichBatch(requestId, request, files);
+    }
+
+    private ResponseEntity<StreamingResponseBody> enrichBatch(String requestId, WebRequest request,
+                                                              BatchTradeEnrichment.Files files) {
+        final var permit = limiter.tryAcquire(request);
+        if (permit == null) {
+            return tooManyRequests();
+        }
+
+        final var id = requestId(requestId);
+        if (!rejectionStore.reserve(id)) {
+            permit.release();
+            return requestIdInUse(id);
+        }
+        final var snapshot = products.getSnapshot();
+        return ResponseEntity.ok()
+                .header(REQUEST_ID_HEADER, id)
+                .header(PRODUCT_VERSION_HEADER, String.valueOf(snapshot.version()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + id + ".zip\"")
+                .contentType(MediaType.parseMediaType(ZIP))
+                .body(outputStream -> {
+                    try {
+                        batchTradeEnrichment.processFiles(id, snapshot, files, outputStream);
+                    } finally {
+                        permit.release();
+                    }
+                });
+    }
+
+    @PostMapping("/enrich/file")
+    public ResponseEntity<String> enrichFile(@RequestParam("input") String input,
+                                             @RequestParam("output") String output,
+                                             @RequestHeader(name = REQUEST_ID_HEADER, required = false) String requestId)
+            throws IOException {
+        log.info("POST /api/v1/enrich/file");
+
+        if (!fileTradeEnrichment.isEnabled()) {
+            return new ResponseEntity<>("file enrichment not enabled", HttpStatus.BAD_REQUEST);
+        }
+
+        final var inputPath = fileTradeEnrichment.resolve(input);
+        final var outputPath = fileTradeEnrichment.resolve(output);
+        if (inputPath == null || outputPath == null || inputPath.equals(outputPath)) {
+            return new ResponseEntity<>("invalid file name", HttpStatus.BAD_REQUEST);
+        } else if (!Files.isRegularFile(inputPath)) {
+            return new ResponseEntity<>("input not found", HttpStatus.BAD_REQUEST);
+        }
+        if (!limiter.tryAcquire()) {
+            return tooManyRequests();
+        }
+        try {
+            final var id = requestId(requestId);
+            if (!rejectionStore.reserve(id)) {
+                return requestIdInUse(id);
+            }
+            return ResponseEntity.ok()
+                    .header(REQUEST_ID_HEADER, id)
+                    .body(fileTradeEnrichment.processFile(id, inputPath, outputPath).summary());
+        } finally {
+            limiter.release();
+        }
+    }
+
+    @GetMapping("/enrich/{requestId}/rejects")
+    public ResponseEntity<String> rejects(@PathVariable("requestId") String requestId) {
+        log.info("GET /api/v1/enrich/" + requestId + "/rejects");
+
+        final var summary = rejectionStore.find(requestId);
+        if (summary == null) {
+            return new ResponseEntity<>("request_id not found", HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(summary.summary(), HttpStatus.OK);
+    }
+
+    @GetMapping("/enrich/{requestId}/aggregates")
+    public ResponseEntity<TradeAggregates> aggregates(@PathVariable("requestId") String requestId) {
+        log.info("GET /api/v1/enrich/" + requestId + "/aggregates");
+
+        final var aggregates = aggregateStore.find(requestId);
+        if (aggregates == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(aggregates);
+    }
+
+    @PostMapping("/enrich/jobs")
+    public ResponseEntity<String> submitJob(InputStream trades,
+                                            @RequestHeader(name = HttpHeaders.CONTENT_LENGTH, required = false) Long length,
+                                            @RequestHeader(name = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                                            @RequestHeader(name = REQUEST_ID_HEADER, required = false) String requestId)
+            throws IOException {
+        log.info("POST /api/v1/enrich/jobs");
+
+        if (!enrichmentJobs.isEnabled()) {
+            return new ResponseEntity<>("enrichment jobs not enabled", HttpStatus.BAD_REQUEST);
+        } else if (enrichmentJobs.exceedsQuota(length)) {
+            return new ResponseEntity<>("upload exceeds enrich.jobs.maxDiskBytes", HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+
+        final var id = requestId(requestId);
+        if (!rejectionStore.reserve(id)) {
+            return requestIdInUse(id);
+        }
+        final EnrichmentJob job;
+        try {
+            job = enrichmentJobs.submit(id, trades, isGzip(contentEncoding));
+        } catch (EnrichmentJobs.QuotaExceededException e) {
+            log.warn(e.getMessage());
+            return new ResponseEntity<>("upload exceeds enrich.jobs.maxDiskBytes", HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        if (job == null) {
+            return new ResponseEntity<>("job_id already present", HttpStatus.CONFLICT);
+        }
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/enrich/jobs/" + id))
+                .header(REQUEST_ID_HEADER, id)
+                .header(PRODUCT_VERSION_HEADER, String.valueOf(job.productVersion()))
+                .body(job.summary());
+    }
+
+    @GetMapping("/enrich/jobs/{jobId}")
+    public ResponseEntity<String> job(@PathVariable("jobId") String jobId) {
+        log.info("GET /api/v1/enrich/jobs/" + jobId);
+
+        final var job = enrichmentJobs.find(jobId);
+        if (job == null) {
+            return new ResponseEntity<>("job_id not found", HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(job.summary(), HttpStatus.OK);
+    }
+
+    /*
+     * Range requests are served by Spring from the file resource, so an interrupted download can be resumed.
+     */
+    @GetMapping("/enrich/jobs/{jobId}/output")
+    public ResponseEntity<?> jobOutput(@PathVariable("jobId") String jobId) {
+        log.info("GET /api/v1/enrich/jobs/" + jobId + "/output");
+
+        final var job = enrichmentJobs.find(jobId);
+        if (job == null) {
+            return new ResponseEntity<>("job_id not found", HttpStatus.NOT_FOUND);
+        } else if (job.state() != EnrichmentJob.State.COMPLETE) {
+            return new ResponseEntity<>("job " + job.state(), HttpStatus.CONFLICT);
+        }
+        final Resource output = new FileSystemResource(job.output());
+        return ResponseEntity.ok()
+                .header(PRODUCT_VERSION_HEADER, String.valueOf(job.productVersion()))
+                .contentType(new MediaType("text", "csv", UTF_8))
+                .body(output);
+    }
+
+    private <T> ResponseEntity<T> tooManyRequests() {
+        log.warn("Enrichment rejected, " + properties.getMaxConcurrentEnrichments() + " already in progress");
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(properties.getRetryAfterSeconds()))
+                .build();
+    }
+
+    private <T> ResponseEntity<T> requestIdInUse(String id) {
+        log.warn("Enrichment rejected, request id " + id + " already used");
+        return ResponseEntity.status(HttpStatus.CONFLICT).build();
+    }
+
+    /*
+     * Uses the caller's request id when it is safe to use as a file name, otherwise generates one.
+     */
+    private static String requestId(String requestId) {
+        return requestId != null && REQUEST_ID.matcher(requestId).matches() ? requestId : UUID.randomUUID().toString();
+    }
+
+    private static boolean isGzip(String contentEncoding) {
+        return contentEncoding != null &&
+                (GZIP.equalsIgnoreCase(contentEncoding.trim()) || "x-gzip".equalsIgnoreCase(contentEncoding.trim()));
+    }
+
+    /*
+     * True when gzip is listed in the Accept-Encoding header without being refused by a zero quality value.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (final var coding : acceptEncoding.split(",")) {
+            final var parameters = coding.split(";");
+            if (isGzip(parameters[0])) {
+                for (var i = 1; i < parameters.length; i++) {
+                    final var parameter = parameters[i].trim();
+                    if (parameter.startsWith("q=") && parameter.substring(2).trim().matches("0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isOverParallelThreshold(Long length) {
+        final var threshold = properties.getParallelThreshold();
+        return threshold > 0 && length != null && length >= threshold;
     }
 
     @GetMapping("/products")
-    public String products() {
+    public ResponseEntity<StreamingResponseBody> products(WebRequest request) {
         log.info("GET /api/v1/products");
 
-        final var products = this.products.getProducts();
-        final var productList = products.products()
-                .entrySet().stream()
-                .sorted((o1, o2) -> {
-                    final var key1 = o1.getKey();
-                    final var key2 = o2.getKey();
-
-                    if (products.sortable()) {
-                        return Integer.valueOf(key1).compareTo(Integer.valueOf(key2));
-                    } else {
-                        return key1.compareTo(key2);
-                    }
-                }) // Sort by product id assuming it
-                .map(e -> e.getKey() + "," + e.getValue())
-                .collect(Collectors.joining("\n"));
-        return Products.COLUMNS + "\n" + productList + "\n";
+        final var snapshot = products.getSnapshot();
+        if (request.checkNotModified(snapshot.etag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.etag())
+                .contentType(new MediaType(MediaType.TEXT_PLAIN, UTF_8))
+                .body(snapshot::writeProducts);
     }
 
     @PutMapping("/products")
@@ -85,6 +413,53 @@ public class TradeProcessingController {
         }
     }
 
+    @PostMapping("/products/bulk")
+    public ResponseEntity<String> applyProducts(InputStream mutations,
+                                                @RequestParam(name = "partial", defaultValue = "false") boolean partial)
+            throws IOException {
+        log.info("POST /api/v1/products/bulk");
+
+        final var batch = ProductBatch.read(new BufferedReader(new InputStreamReader(mutations, UTF_8)));
+        final var result = products.applyBatch(batch, partial);
+        return new ResponseEntity<>(result.summary(), result.accepted() ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
+    }
+
+    @GetMapping("/products/reload")
+    public ResponseEntity<String> lastProductReload() {
+        log.info("GET /api/v1/products/reload");
+
+        final var reload = productFileWatcher.getLastReload();
+        if (reload == null) {
+            return new ResponseEntity<>("product list not reloaded", HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(reload.summary(), HttpStatus.OK);
+    }
+
+    @PostMapping("/products/reload")
+    public ResponseEntity<String> reloadProducts() {
+        log.info("POST /api/v1/products/reload");
+
+        final var reload = productFileWatcher.reload();
+        if (reload == null) {
+            return new ResponseEntity<>("product list empty or unreadable", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return new ResponseEntity<>(reload.summary(), HttpStatus.OK);
+    }
+
+    @GetMapping("/products/missing")
+    public ResponseEntity<String> missingProducts(@RequestParam(name = "limit", defaultValue = "100") int limit) {
+        log.info("GET /api/v1/products/missing");
+
+        final var missingProducts = products.getMissingProducts();
+        final var body = new StringBuilder(MissingProducts.COLUMNS).append('\n');
+        missingProducts.top(Math.max(limit, 0)).forEach(product -> body.append(product.toCsv()).append('\n'));
+        return ResponseEntity.ok()
+                .header(MISSING_PRODUCTS_TRACKED_HEADER, String.valueOf(missingProducts.size()))
+                .header(MISSING_PRODUCTS_UNTRACKED_HEADER, String.valueOf(missingProducts.untracked()))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(body.toString());
+    }
+
     @DeleteMapping("/products")
     public ResponseEntity<String> removeProduct(@RequestParam("product_id") String id) {
         log.info("DELETE /api/v1/products");
@@ -0,0 +1,127 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * The catalog on the heap. When every id is a canonical int the products are held only in a ProductIndex, which a
+ * change copies page by page, and the map is a view of it. Otherwise they are held in a HashMap copied on every change.
+ */
+final class HeapProductCatalog implements ProductCatalog {
+    static final HeapProductCatalog EMPTY = new HeapProductCatalog(new HashMap<>());
+
+    private final Map<String, String> products;
+    private final ProductIndex index; // null when the products are held in the map
+
+    /*
+     * The catalog takes ownership of the map, which must not be modified afterwards.
+     */
+    HeapProductCatalog(HashMap<String, String> products) {
+        this.index = ProductIndex.build(products);
+        this.products = index != null ? new View() : Collections.unmodifiableMap(products);
+    }
+
+    private HeapProductCatalog(ProductIndex index) {
+        this.index = index;
+        this.products = new View();
+    }
+
+    @Override
+    public String get(String id) {
+        return index != null ? index.get(id) : products.get(id);
+    }
+
+    @Override
+    public byte[] lookupName(byte[] buffer, int from, int to) {
+        return index != null ? index.lookup(buffer, from, to) : null;
+    }
+
+    @Override
+    public int size() {
+        return products.size();
+    }
+
+    @Override
+    public Map<String, String> asMap() {
+        return products;
+    }
+
+    @Override
+    public ProductCatalog with(Map<String, String> changes, long version) {
+        final var next = index != null ? index.with(changes) : null;
+        if (next != null) {
+            return new HeapProductCatalog(next);
+        }
+
+        final var products = new HashMap<>(this.products);
+        changes.forEach((id, name) -> {
+            if (name == null) {
+                products.remove(id);
+            } else {
+                products.put(id, name);
+            }
+        });
+        return new HeapProductCatalog(products);
+    }
+
+    @Override
+    public ProductCatalog load(HashMap<String, String> products, long version) {
+        return new HeapProductCatalog(products);
+    }
+
+    @Override
+    public boolean keepsOrder() {
+        return true;
+    }
+
+    @Override
+    public void writeRows(ProductOrder order, ProductRows rows) throws IOException {
+        for (var i = 0; i < order.size(); i++) {
+            final var id = order.id(i);
+            rows.row(id.getBytes(UTF_8), index != null ? index.lookup(id) : products.get(id).getBytes(UTF_8));
+        }
+    }
+
+    /*
+     * Read only map view of the index.
+     */
+    private final class View extends AbstractMap<String, String> {
+        @Override
+        public String get(Object id) {
+            return id instanceof String string ? index.get(string) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object id) {
+            return get(id) != null;
+        }
+
+        @Override
+        public int size() {
+            return index.size();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return index.entries();
+                }
+
+                @Override
+                public int size() {
+                    return index.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * A product master reached over HTTP at static.remote.url. The ids are POSTed as CSV, a product_id header followed by
+ * one id a line, and the master answers with the CSV product list of those that exist, in the format of
+ * GET /api/v1/products.
+ */
+@Component
+@ConditionalOnProperty(name = "static.productReader", havingValue = "remote")
+class HttpProductSource implements RemoteProductSource {
+    private static final String CSV = "text/csv";
+
+    final private HttpClient client;
+
+    final private URI uri;
+
+    final private Duration timeout;
+
+    @Autowired
+    HttpProductSource(ConfigurationProperties properties) {
+        this(uri(properties.getRemoteUrl()), Duration.ofMillis(properties.getRemoteTimeoutMillis()));
+    }
+
+    HttpProductSource(URI uri, Duration timeout) {
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        this.uri = uri;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public Map<String, String> fetch(Collection<String> ids) throws IOException {
+        final var body = new StringBuilder(16 + ids.size() * 8).append("product_id\n");
+        ids.forEach(id -> body.append(id).append('\n'));
+        final var request = HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header("Content-Type", CSV)
+                .header("Accept", CSV)
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), UTF_8))
+                .build();
+
+        final HttpResponse<InputStream> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+
+        try (var reader = new BufferedReader(new InputStreamReader(response.body(), UTF_8))) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Product master " + uri + " answered " + response.statusCode());
+            }
+            final var products = new HashMap<String, String>();
+            var line = reader.readLine(); // Ignore the header row
+            line = line != null ? reader.readLine() : null;
+            while (line != null) {
+                final var comma = line.indexOf(',');
+                if (comma > 0) {
+                    products.put(line.substring(0, comma).trim(), line.substring(comma + 1).trim());
+                }
+                line = reader.readLine();
+            }
+            return products;
+        }
+    }
+
+    private static URI uri(String url) {
+        if (url == null || url.isBlank()) {
+            throw new IllegalArgumentException("static.remote.url must be set when static.productReader is remote");
+        }
+        return URI.create(url.trim());
+    }
+}
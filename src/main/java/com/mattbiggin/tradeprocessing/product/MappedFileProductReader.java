@@ -0,0 +1,246 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/*
+ * Reads the product list by memory mapping it and parsing newline aligned segments of it in parallel. Each segment
+ * collects its ids and names in file order, and the catalog map is then built once, presized for every row, so a
+ * large catalog is neither rehashed as it grows nor copied. As with the line based reader, the first line is a header
+ * and the first two columns are the id and name.
+ *
+ * Unlike the line based reader, which fails the load on a duplicate id or a row without a name, the last of any
+ * duplicate ids wins and is counted in a warning, and rows without an id or a name are counted and the first few
+ * reported in the log. Blank lines are skipped.
+ */
+@Component
+@ConditionalOnProperty(name = "static.productReader", havingValue = "mapped", matchIfMissing = true)
+class MappedFileProductReader implements ProductReader {
+    static final int MAX_REPORTED = 10;
+
+    private static final long MIN_SEGMENT_SIZE = 1 << 20;
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    private static final Logger log = LoggerFactory.getLogger(MappedFileProductReader.class);
+
+    final private ConfigurationProperties properties;
+
+    @Autowired
+    MappedFileProductReader(ConfigurationProperties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    public HashMap<String, String> readProducts() {
+        final var start = System.nanoTime();
+        final var file = Paths.get(properties.getProductListFileName());
+        try {
+            final var products = read(file, segmentSize(Files.size(file)));
+            log.info("Loaded " + products.size() + " products from " + file + " in " +
+                    (System.nanoTime() - start) / 1_000_000 + "ms");
+            return products;
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    HashMap<String, String> read(Path file, long segmentSize) throws IOException {
+        try (var channel = FileChannel.open(file, READ)) {
+            final var boundaries = boundaries(channel, segmentSize);
+            final var segments = IntStream.range(0, boundaries.length - 1)
+                    .parallel()
+                    .mapToObj(i -> parse(channel, boundaries[i], boundaries[i + 1], i == 0))
+                    .toList();
+
+            var rows = 0;
+            var malformed = 0L;
+            for (final var segment : segments) {
+                if (segment.failure != null) {
+                    throw segment.failure;
+                }
+                rows += segment.ids.size();
+                malformed += segment.malformed;
+            }
+
+            final var products = HashMap.<String, String>newHashMap(rows);
+            for (final var segment : segments) {
+                for (var i = 0; i < segment.ids.size(); i++) {
+                    products.put(segment.ids.get(i), segment.names.get(i));
+                }
+            }
+
+            if (malformed > 0) {
+                final var report = new StringBuilder();
+                segments.stream().flatMap(segment -> segment.reported.stream()).limit(MAX_REPORTED)
+                        .forEach(row -> report.append('\n').append(row));
+                log.warn(malformed + " malformed product rows ignored in " + file + report);
+            }
+            if (rows > products.size()) {
+                log.warn((rows - products.size()) + " duplicate product ids in " + file + ", the last of each used");
+            }
+            return products;
+        }
+    }
+
+    /*
+     * About one segment per processor, with small files read as a single segment.
+     */
+    private static long segmentSize(long size) {
+        final var processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(Math.max(MIN_SEGMENT_SIZE, (size + processors - 1) / processors), MAX_SEGMENT_SIZE);
+    }
+
+    /*
+     * Splits the file into segments of about the given size, each starting at the beginning of a line.
+     */
+    private static long[] boundaries(FileChannel channel, long segmentSize) throws IOException {
+        final var size = channel.size();
+        final var boundaries = new ArrayList<Long>();
+        boundaries.add(0L);
+        var position = segmentSize;
+        while (position < size) {
+            position = nextLine(channel, position, size);
+            if (position < size) {
+                boundaries.add(position);
+            }
+            position += segmentSize;
+        }
+        boundaries.add(size);
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /*
+     * Returns the position following the first newline at or after the given position, or the file size when there
+     * is none.
+     */
+    private static long nextLine(FileChannel channel, long position, long size) throws IOException {
+        final var buffer = ByteBuffer.allocate(4096);
+        while (position < size) {
+            buffer.clear();
+            final var read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (var i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static Segment parse(FileChannel channel, long from, long to, boolean hasHeader) {
+        final var segment = new Segment();
+        if (from == to) {
+            return segment;
+        }
+        try {
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            final var scratch = new byte[256];
+            var position = 0;
+            final var limit = buffer.limit();
+            var skip = hasHeader;
+            while (position < limit) {
+                final var lineStart = position;
+                var comma = -1;
+                var secondComma = -1;
+                while (position < limit && buffer.get(position) != '\n') {
+                    if (buffer.get(position) == ',') {
+                        if (comma < 0) {
+                            comma = position;
+                        } else if (secondComma < 0) {
+                            secondComma = position;
+                        }
+                    }
+                    position++;
+                }
+                final var lineEnd = position++;
+                if (skip) {
+                    skip = false;
+                } else if (isBlank(buffer, lineStart, lineEnd)) {
+                    continue;
+                } else if (comma < 0) {
+                    segment.malformed(from + lineStart, text(buffer, lineStart, lineEnd, scratch));
+                } else {
+                    final var nameEnd = secondComma < 0 ? lineEnd : secondComma;
+                    final var id = trimmed(buffer, lineStart, comma, scratch);
+                    final var name = trimmed(buffer, comma + 1, nameEnd, scratch);
+                    if (id.isEmpty() || name.isEmpty()) {
+                        segment.malformed(from + lineStart, text(buffer, lineStart, lineEnd, scratch));
+                    } else {
+                        segment.ids.add(id);
+                        segment.names.add(name);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            segment.failure = e;
+        }
+        return segment;
+    }
+
+    private static boolean isBlank(MappedByteBuffer buffer, int from, int to) {
+        for (var i = from; i < to; i++) {
+            if ((buffer.get(i) & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * As String.trim, removing the carriage return of Windows line endings along with any spaces.
+     */
+    private static String trimmed(MappedByteBuffer buffer, int from, int to, byte[] scratch) {
+        while (from < to && (buffer.get(from) & 0xff) <= ' ') {
+            from++;
+        }
+        while (to > from && (buffer.get(to - 1) & 0xff) <= ' ') {
+            to--;
+        }
+        return text(buffer, from, to, scratch);
+    }
+
+    private static String text(MappedByteBuffer buffer, int from, int to, byte[] scratch) {
+        final var bytes = to - from <= scratch.length ? scratch : new byte[to - from];
+        buffer.get(from, bytes, 0, to - from);
+        return new String(bytes, 0, to - from, UTF_8);
+    }
+
+    private static class Segment {
+        private final List<String> ids = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<String> reported = new ArrayList<>();
+        private long malformed;
+        private IOException failure;
+
+        void malformed(long offset, String row) {
+            malformed++;
+            if (reported.size() < MAX_REPORTED) {
+                reported.add("byte " + offset + ": " + row.strip());
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/*
+ * Process wide record of the product ids that trades have referred to but the catalog does not hold, so that the gaps
+ * with the most trades can be filled first. Counts are LongAdders so that concurrent enrichments do not contend on a
+ * popular id, and at most MAX_TRACKED ids are held. Occurrences of ids that arrive once the tracker is full are only
+ * counted in total, but up to MAX_LOGGED of those ids are remembered so that each is still reported as first seen just
+ * once. Beyond that an untracked id is reported as first seen at most once a minute.
+ */
+public final class MissingProducts {
+    public static final String COLUMNS = "product_id,trades,first_seen,last_seen";
+
+    static final int MAX_TRACKED = 10_000;
+    static final int MAX_LOGGED = 100_000;
+
+    private static final long LOG_INTERVAL_MILLIS = 60_000;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder untracked = new LongAdder();
+    private final Set<String> logged = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextLog = new AtomicLong();
+
+    /*
+     * Counts the trades for the id, reporting whether it is seen for the first time and whether it is tracked.
+     */
+    Recorded record(String id, long count) {
+        final var now = System.currentTimeMillis();
+        var entry = entries.get(id);
+        var isNew = false;
+        if (entry == null) {
+            if (entries.size() >= MAX_TRACKED) {
+                untracked.add(count);
+                return new Recorded(isFirstUntracked(id, now), false);
+            }
+            final var created = new Entry(now);
+            entry = entries.putIfAbsent(id, created);
+            if (entry == null) {
+                entry = created;
+                isNew = !logged.remove(id);
+            }
+        }
+        entry.count.add(count);
+        entry.lastSeen = now;
+        return new Recorded(isNew, true);
+    }
+
+    private boolean isFirstUntracked(String id, long now) {
+        if (logged.contains(id)) {
+            return false;
+        } else if (logged.size() < MAX_LOGGED) {
+            return logged.add(id);
+        }
+        final var next = nextLog.get();
+        return now >= next && nextLog.compareAndSet(next, now + LOG_INTERVAL_MILLIS);
+    }
+
+    /*
+     * Forgets an id that has since been added to the catalog.
+     */
+    void remove(String id) {
+        entries.remove(id);
+        logged.remove(id);
+    }
+
+    /*
+     * Forgets every id that a new catalog holds.
+     */
+    void removeIf(Predicate<String> isPresent) {
+        entries.keySet().removeIf(isPresent);
+        logged.removeIf(isPresent);
+    }
+
+    public List<MissingProduct> top(int limit) {
+        return entries.entrySet().stream()
+                .map(entry -> new MissingProduct(entry.getKey(), entry.getValue().count.sum(),
+                        Instant.ofEpochMilli(entry.getValue().firstSeen),
+                        Instant.ofEpochMilli(entry.getValue().lastSeen)))
+                .sorted(Comparator.comparingLong(MissingProduct::trades).reversed()
+                        .thenComparing(MissingProduct::id))
+                .limit(limit)
+                .toList();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long untracked() {
+        return untracked.sum();
+    }
+
+    private static class Entry {
+        private final long firstSeen;
+        private final LongAdder count = new LongAdder();
+        private volatile long lastSeen;
+
+        Entry(long firstSeen) {
+            this.firstSeen = firstSeen;
+            this.lastSeen = firstSeen;
+        }
+    }
+
+    record Recorded(boolean firstSeen, boolean tracked) {
+    }
+
+    public record MissingProduct(String id, long trades, Instant firstSeen, Instant lastSeen) {
+        public String toCsv() {
+            return id + "," + trades + "," + firstSeen + "," + lastSeen;
+        }
+    }
+}
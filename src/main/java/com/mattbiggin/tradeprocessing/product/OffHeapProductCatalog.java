@@ -0,0 +1,153 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * One version of a catalog held in an OffHeapProductStore. Changes are written into the same store under the next
+ * version, so they cost the size of the change rather than of the catalog, and only the latest version can be changed.
+ * Lookups by id bytes are answered from the store, returning a new array of the name, and the sorted ids are not kept
+ * between versions as that would hold every id on the heap.
+ */
+final class OffHeapProductCatalog implements ProductCatalog {
+    private final OffHeapProductStore store;
+    private final long version;
+    private final int size;
+    private final Map<String, String> products = new View();
+
+    OffHeapProductCatalog(OffHeapProductStore store, long version, int size) {
+        this.store = store;
+        this.version = version;
+        this.size = size;
+    }
+
+    static OffHeapProductCatalog empty() {
+        return empty(OffHeapProductStore.DEFAULT_CHUNK_SIZE);
+    }
+
+    static OffHeapProductCatalog empty(int chunkSize) {
+        return new OffHeapProductCatalog(new OffHeapProductStore(chunkSize, 0, 0), 0, 0);
+    }
+
+    long offHeapBytes() {
+        return store.offHeapBytes();
+    }
+
+    @Override
+    public String get(String id) {
+        final var bytes = id.getBytes(UTF_8);
+        final var name = store.name(bytes, 0, bytes.length, version);
+        return name != null ? new String(name, UTF_8) : null;
+    }
+
+    @Override
+    public byte[] lookupName(byte[] buffer, int from, int to) {
+        return store.name(buffer, from, to, version);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Map<String, String> asMap() {
+        return products;
+    }
+
+    @Override
+    public ProductCatalog with(Map<String, String> changes, long version) {
+        if (store.version() != this.version || version <= this.version) {
+            throw new IllegalStateException("Only the latest version of an off heap catalog can be changed");
+        }
+
+        /* Everything is encoded and checked first, so that a change is written whole or not at all */
+        final var encoded = new ArrayList<byte[]>(changes.size() * 2);
+        for (final var change : changes.entrySet()) {
+            final var id = change.getKey().getBytes(UTF_8);
+            final var name = change.getValue() != null ? change.getValue().getBytes(UTF_8) : null;
+            if (!store.fits(id, name)) {
+                throw new IllegalArgumentException("Product too large for the off heap catalog - " + change.getKey());
+            }
+            encoded.add(id);
+            encoded.add(name);
+        }
+
+        store.advance(version);
+        var size = this.size;
+        for (var i = 0; i < encoded.size(); i += 2) {
+            size += store.put(encoded.get(i), encoded.get(i + 1));
+        }
+        if (store.needsCompaction()) {
+            return new OffHeapProductCatalog(store.compact(version, size), version, size);
+        }
+        return new OffHeapProductCatalog(store, version, size);
+    }
+
+    @Override
+    public ProductCatalog load(HashMap<String, String> products, long version) {
+        final var loaded = new OffHeapProductStore(store.chunkSize(), products.size(), version);
+        for (final var product : products.entrySet()) {
+            final var id = product.getKey().getBytes(UTF_8);
+            final var name = product.getValue().getBytes(UTF_8);
+            if (!loaded.fits(id, name)) {
+                throw new IllegalArgumentException("Product too large for the off heap catalog - " + product.getKey());
+            }
+            loaded.put(id, name);
+        }
+        return new OffHeapProductCatalog(loaded, version, products.size());
+    }
+
+    @Override
+    public boolean keepsOrder() {
+        return false;
+    }
+
+    @Override
+    public void writeRows(ProductOrder order, ProductRows rows) throws IOException {
+        store.writeSorted(version, size, rows);
+    }
+
+    /*
+     * Read only map view of this version, decoding ids and names as they are read.
+     */
+    private final class View extends AbstractMap<String, String> {
+        @Override
+        public String get(Object id) {
+            return id instanceof String string ? OffHeapProductCatalog.this.get(string) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object id) {
+            return get(id) != null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return store.entries(version);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,583 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Products held outside the Java heap in direct buffers, so that the heap holds a handful of buffer objects however
+ * large the catalog grows. Entries are appended to an arena of fixed size chunks:
+ *
+ *   version and address of the entry it replaces, as longs, then the hash of the id, the length of the id and the
+ *   length of the name (-1 for a removal), as ints, followed by the UTF-8 id and name
+ *
+ * and found through an open addressing index of entry addresses, hashed on the id bytes so that a trade can be
+ * enriched without creating a String. Address 0 is never used for an entry and marks an empty slot.
+ *
+ * Entries are versioned. A change appends a new entry for the id linked to the one it replaces, so a reader of an
+ * earlier version walks back to the entry it should see, and snapshots never copy the catalog. There is one writer at
+ * a time (Products mutates under its lock) and readers take no locks: an entry is complete before an index slot refers
+ * to it, and slots are written with release and read with acquire semantics. A larger index or a new chunk is
+ * published through a volatile field before any entry refers to it.
+ *
+ * Replaced entries are only reclaimed by compacting into a new store, left to the writer once they outweigh the live
+ * ones. Snapshots of earlier versions keep the old store, whose buffers are freed when the last of them is collected.
+ */
+final class OffHeapProductStore {
+    static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+
+    private static final int VERSION = 0;
+    private static final int PREVIOUS = 8;
+    private static final int HASH = 16;
+    private static final int ID_LENGTH = 20;
+    private static final int NAME_LENGTH = 24;
+    private static final int HEADER = 28;
+    private static final int REMOVED = -1;
+    private static final long TAG_MASK = 0xffffL << 48;
+    private static final long NOT_AN_INT = Long.MIN_VALUE;
+
+    private static final int INDEX_CHUNK_SHIFT = 24;
+    private static final int MIN_CAPACITY = 1024;
+    private static final double LOAD_FACTOR = 0.7;
+
+    private static final VarHandle SLOT = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final int chunkShift;
+    private final int chunkSize;
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile Index index;
+
+    /* Only used by the writer */
+    private long position = 8;
+    private long appended;
+    private long live;
+    private long ids;
+    private long version;
+
+    OffHeapProductStore(int chunkSize, int expectedProducts, long version) {
+        if (Integer.bitCount(chunkSize) != 1 || chunkSize < 1024) {
+            throw new IllegalArgumentException("Chunk size must be a power of two of at least 1024 - " + chunkSize);
+        }
+        this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        this.chunkSize = chunkSize;
+        this.index = new Index(capacityFor(expectedProducts));
+        this.version = version;
+    }
+
+    int chunkSize() {
+        return chunkSize;
+    }
+
+    /*
+     * The latest version, the only one that entries may be written for.
+     */
+    long version() {
+        return version;
+    }
+
+    void advance(long version) {
+        this.version = version;
+    }
+
+    /*
+     * Bytes held outside the heap by the arena and the index.
+     */
+    long offHeapBytes() {
+        return (long) chunks.length * chunkSize + index.capacity * 8;
+    }
+
+    /*
+     * Whether an entry for the id and name can be held in a chunk.
+     */
+    boolean fits(byte[] id, byte[] name) {
+        return entrySize(id.length, name != null ? name.length : 0) <= chunkSize - 8;
+    }
+
+    /*
+     * Returns the UTF-8 name the product had at the version, or null when it was not present.
+     */
+    byte[] name(byte[] buffer, int from, int to, long version) {
+        final var address = resolve(head(buffer, from, to, hash(buffer, from, to)), version);
+        if (address == 0) {
+            return null;
+        }
+        final var chunk = chunk(address);
+        final var offset = offset(address);
+        final var name = new byte[chunk.getInt(offset + NAME_LENGTH)];
+        chunk.get(offset + HEADER + chunk.getInt(offset + ID_LENGTH), name);
+        return name;
+    }
+
+    /*
+     * Sets the name of the product at the latest version, a null name removing it. Returns the change in the number of
+     * products.
+     */
+    int put(byte[] id, byte[] name) {
+        final var hash = hash(id, 0, id.length);
+        var index = this.index;
+        var slot = slot(index, id, hash);
+        final var head = address(index.get(slot));
+        final var present = head != 0 && chunk(head).getInt(offset(head) + NAME_LENGTH) != REMOVED;
+        if (name == null && !present) {
+            return 0;
+        }
+        if (head == 0 && ids + 1 > index.capacity * LOAD_FACTOR) {
+            index = grow();
+            slot = slot(index, id, hash);
+        }
+
+        final var address = append(id, name, hash, version, head);
+        if (present) {
+            live -= size(head);
+        }
+        if (name != null) {
+            live += size(address);
+        }
+        index.set(slot, tag(hash) | address);
+        if (head == 0) {
+            ids++;
+        }
+        return (name != null ? 1 : 0) - (present ? 1 : 0);
+    }
+
+    /*
+     * Whether replaced and removed entries have come to outweigh the live ones.
+     */
+    boolean needsCompaction() {
+        return appended - live > Math.max(live, chunkSize);
+    }
+
+    /*
+     * A new store holding just the products present at the version.
+     */
+    OffHeapProductStore compact(long version, int size) {
+        final var compacted = new OffHeapProductStore(chunkSize, size, version);
+        final var index = this.index;
+        for (var slot = 0L; slot < index.capacity; slot++) {
+            final var address = resolve(address(index.get(slot)), version);
+            if (address != 0) {
+                final var chunk = chunk(address);
+                final var offset = offset(address);
+                final var id = new byte[chunk.getInt(offset + ID_LENGTH)];
+                final var name = new byte[chunk.getInt(offset + NAME_LENGTH)];
+                chunk.get(offset + HEADER, id);
+                chunk.get(offset + HEADER + id.length, name);
+                compacted.put(id, name);
+            }
+        }
+        return compacted;
+    }
+
+    /*
+     * The products present at the version, in index order.
+     */
+    Iterator<Map.Entry<String, String>> entries(long version) {
+        final var index = this.index;
+        return new Iterator<>() {
+            private long slot = -1;
+            private long next = seek();
+
+            private long seek() {
+                while (++slot < index.capacity) {
+                    final var address = resolve(address(index.get(slot)), version);
+                    if (address != 0) {
+                        return address;
+                    }
+                }
+                return 0;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != 0;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (next == 0) {
+                    throw new NoSuchElementException();
+                }
+                final var chunk = chunk(next);
+                final var offset = offset(next);
+                final var idLength = chunk.getInt(offset + ID_LENGTH);
+                final var entry = new AbstractMap.SimpleImmutableEntry<>(
+                        string(chunk, offset + HEADER, idLength),
+                        string(chunk, offset + HEADER + idLength, chunk.getInt(offset + NAME_LENGTH)));
+                next = seek();
+                return entry;
+            }
+        };
+    }
+
+    /*
+     * Writes the products present at the version in GET /api/v1/products order: by int value when every id parses as
+     * an int, otherwise by id. The entries are sorted off the heap, as a key and address for each held in direct
+     * buffers, the key being the int value or the first eight bytes of the id. Ids are compared as UTF-8 bytes, which
+     * orders them as String does but for ids mixing characters beyond U+FFFF with those from U+E000.
+     */
+    void writeSorted(long version, int size, ProductRows rows) throws IOException {
+        final var index = this.index;
+        final var sorted = new SortKeys(size);
+        var count = 0;
+        var sortable = true;
+        for (var slot = 0L; slot < index.capacity && count < size; slot++) {
+            final var address = resolve(address(index.get(slot)), version);
+            if (address != 0) {
+                final var chunk = chunk(address);
+                final var offset = offset(address) + HEADER;
+                final var idLength = chunk.getInt(offset - HEADER + ID_LENGTH);
+                final var value = sortable ? parseInt(chunk, offset, idLength) : NOT_AN_INT;
+                sortable = value != NOT_AN_INT;
+                sorted.set(count++, value, address);
+            }
+        }
+        if (!sortable) {
+            for (var i = 0; i < count; i++) {
+                sorted.set(i, prefix(sorted.address(i)), sorted.address(i));
+            }
+        }
+
+        /* Heapsort, as it needs no room beyond the keys */
+        for (var i = count / 2 - 1; i >= 0; i--) {
+            siftDown(sorted, i, count, sortable);
+        }
+        for (var end = count - 1; end > 0; end--) {
+            sorted.swap(0, end);
+            siftDown(sorted, 0, end, sortable);
+        }
+
+        for (var i = 0; i < count; i++) {
+            final var address = sorted.address(i);
+            final var chunk = chunk(address);
+            final var offset = offset(address);
+            rows.row(chunk, offset + HEADER, chunk.getInt(offset + ID_LENGTH), chunk.getInt(offset + NAME_LENGTH));
+        }
+    }
+
+    private void siftDown(SortKeys sorted, int root, int end, boolean sortable) {
+        while (true) {
+            var largest = root;
+            final var left = 2 * root + 1;
+            if (left < end && compare(sorted, left, largest, sortable) > 0) {
+                largest = left;
+            }
+            if (left + 1 < end && compare(sorted, left + 1, largest, sortable) > 0) {
+                largest = left + 1;
+            }
+            if (largest == root) {
+                return;
+            }
+            sorted.swap(root, largest);
+            root = largest;
+        }
+    }
+
+    private int compare(SortKeys sorted, int i, int j, boolean sortable) {
+        final var key = sortable ? Long.compare(sorted.key(i), sorted.key(j)) :
+                Long.compareUnsigned(sorted.key(i), sorted.key(j));
+        return key != 0 ? key : compareIds(sorted.address(i), sorted.address(j));
+    }
+
+    private int compareIds(long address1, long address2) {
+        final var chunk1 = chunk(address1);
+        final var chunk2 = chunk(address2);
+        final var offset1 = offset(address1);
+        final var offset2 = offset(address2);
+        final var length1 = chunk1.getInt(offset1 + ID_LENGTH);
+        final var length2 = chunk2.getInt(offset2 + ID_LENGTH);
+        final var length = Math.min(length1, length2);
+        for (var i = 0; i < length; i++) {
+            final var comparison = Integer.compare(chunk1.get(offset1 + HEADER + i) & 0xff,
+                    chunk2.get(offset2 + HEADER + i) & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length1, length2);
+    }
+
+    /*
+     * The first eight bytes of the id as an unsigned big endian value, shorter ids padded with zeros.
+     */
+    private long prefix(long address) {
+        final var chunk = chunk(address);
+        final var offset = offset(address);
+        final var length = Math.min(chunk.getInt(offset + ID_LENGTH), 8);
+        var prefix = 0L;
+        for (var i = 0; i < 8; i++) {
+            prefix = (prefix << 8) | (i < length ? chunk.get(offset + HEADER + i) & 0xff : 0);
+        }
+        return prefix;
+    }
+
+    /*
+     * Parses the id as ProductOrder.isInt accepts it, returning NOT_AN_INT when it does not.
+     */
+    private static long parseInt(ByteBuffer chunk, int offset, int length) {
+        if (length == 0) {
+            return NOT_AN_INT;
+        }
+        final var first = chunk.get(offset);
+        final var negative = first == '-';
+        final var start = (negative || first == '+') ? 1 : 0;
+        if (start == length) {
+            return NOT_AN_INT;
+        }
+        final var limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        var value = 0L;
+        for (var i = start; i < length; i++) {
+            final var digit = chunk.get(offset + i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_AN_INT;
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                return NOT_AN_INT;
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /*
+     * Walks back from the latest entry for an id to the one present at the version, returning 0 when the product was
+     * not present.
+     */
+    private long resolve(long address, long version) {
+        while (address != 0) {
+            final var chunk = chunk(address);
+            final var offset = offset(address);
+            if (chunk.getLong(offset + VERSION) <= version) {
+                return chunk.getInt(offset + NAME_LENGTH) != REMOVED ? address : 0;
+            }
+            address = chunk.getLong(offset + PREVIOUS);
+        }
+        return 0;
+    }
+
+    /*
+     * Returns the address of the latest entry for the id, or 0 when there is none.
+     */
+    private long head(byte[] id, int from, int to, int hash) {
+        final var index = this.index;
+        final var mask = index.capacity - 1;
+        final var tag = tag(hash);
+        for (var slot = index.slot(hash); ; slot = (slot + 1) & mask) {
+            final var value = index.get(slot);
+            if (value == 0) {
+                return 0;
+            } else if ((value & TAG_MASK) == tag && matches(address(value), hash, id, from, to)) {
+                return address(value);
+            }
+        }
+    }
+
+    /*
+     * Returns the slot holding the id, or the empty slot where it belongs. Only used by the writer.
+     */
+    private long slot(Index index, byte[] id, int hash) {
+        final var mask = index.capacity - 1;
+        final var tag = tag(hash);
+        for (var slot = index.slot(hash); ; slot = (slot + 1) & mask) {
+            final var value = index.get(slot);
+            if (value == 0 || ((value & TAG_MASK) == tag && matches(address(value), hash, id, 0, id.length))) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean matches(long address, int hash, byte[] id, int from, int to) {
+        final var chunk = chunk(address);
+        final var offset = offset(address);
+        if (chunk.getInt(offset + HASH) != hash || chunk.getInt(offset + ID_LENGTH) != to - from) {
+            return false;
+        }
+        for (var i = 0; i < to - from; i++) {
+            if (chunk.get(offset + HEADER + i) != id[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Index grow() {
+        final var old = index;
+        final var grown = new Index(old.capacity * 2);
+        final var mask = grown.capacity - 1;
+        for (var slot = 0L; slot < old.capacity; slot++) {
+            final var value = old.get(slot);
+            if (value != 0) {
+                final var address = address(value);
+                var target = grown.slot(chunk(address).getInt(offset(address) + HASH));
+                while (grown.get(target) != 0) {
+                    target = (target + 1) & mask;
+                }
+                grown.set(target, value);
+            }
+        }
+        index = grown;
+        return grown;
+    }
+
+    private long append(byte[] id, byte[] name, int hash, long version, long previous) {
+        final var size = entrySize(id.length, name != null ? name.length : 0);
+        if ((position & (chunkSize - 1)) + size > chunkSize) {
+            position = ((position >>> chunkShift) + 1) << chunkShift;
+        }
+        final var chunkNumber = (int) (position >>> chunkShift);
+        if (chunkNumber == chunks.length) {
+            final var grown = Arrays.copyOf(chunks, chunkNumber + 1);
+            grown[chunkNumber] = ByteBuffer.allocateDirect(chunkSize).order(ByteOrder.nativeOrder());
+            chunks = grown;
+        }
+
+        final var address = position;
+        final var chunk = chunks[chunkNumber];
+        final var offset = offset(address);
+        chunk.putLong(offset + VERSION, version);
+        chunk.putLong(offset + PREVIOUS, previous);
+        chunk.putInt(offset + HASH, hash);
+        chunk.putInt(offset + ID_LENGTH, id.length);
+        chunk.putInt(offset + NAME_LENGTH, name != null ? name.length : REMOVED);
+        chunk.put(offset + HEADER, id);
+        if (name != null) {
+            chunk.put(offset + HEADER + id.length, name);
+        }
+        position += size;
+        appended += size;
+        return address;
+    }
+
+    private int size(long address) {
+        final var chunk = chunk(address);
+        final var offset = offset(address);
+        return entrySize(chunk.getInt(offset + ID_LENGTH), Math.max(0, chunk.getInt(offset + NAME_LENGTH)));
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunks[(int) (address >>> chunkShift)];
+    }
+
+    private int offset(long address) {
+        return (int) (address & (chunkSize - 1));
+    }
+
+    /*
+     * Index slots hold the top 16 bits of the hash above the entry address, so that a probe past another id need not
+     * read its entry.
+     */
+    private static long tag(int hash) {
+        return ((long) hash >>> 16) << 48;
+    }
+
+    private static long address(long value) {
+        return value & ~TAG_MASK;
+    }
+
+    private static int entrySize(int idLength, int nameLength) {
+        return (HEADER + idLength + nameLength + 7) & ~7;
+    }
+
+    private static String string(ByteBuffer chunk, int offset, int length) {
+        final var bytes = new byte[length];
+        chunk.get(offset, bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    static int hash(byte[] buffer, int from, int to) {
+        var hash = 1;
+        for (var i = from; i < to; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash;
+    }
+
+    private static long capacityFor(int products) {
+        var capacity = (long) MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < products) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /*
+     * A key and entry address for each product being sorted, in direct buffers of up to 2^20 pairs.
+     */
+    private static final class SortKeys {
+        private static final int CHUNK_SHIFT = 20;
+        private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+        private final ByteBuffer[] chunks;
+
+        SortKeys(int size) {
+            this.chunks = new ByteBuffer[(size + CHUNK_MASK) >>> CHUNK_SHIFT];
+            for (var i = 0; i < chunks.length; i++) {
+                final var pairs = Math.min(size - (i << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+                chunks[i] = ByteBuffer.allocateDirect(pairs * 16).order(ByteOrder.nativeOrder());
+            }
+        }
+
+        long key(int i) {
+            return chunks[i >>> CHUNK_SHIFT].getLong((i & CHUNK_MASK) << 4);
+        }
+
+        long address(int i) {
+            return chunks[i >>> CHUNK_SHIFT].getLong(((i & CHUNK_MASK) << 4) + 8);
+        }
+
+        void set(int i, long key, long address) {
+            final var chunk = chunks[i >>> CHUNK_SHIFT];
+            chunk.putLong((i & CHUNK_MASK) << 4, key);
+            chunk.putLong(((i & CHUNK_MASK) << 4) + 8, address);
+        }
+
+        void swap(int i, int j) {
+            final var key = key(i);
+            final var address = address(i);
+            set(i, key(j), address(j));
+            set(j, key, address);
+        }
+    }
+
+    /*
+     * Slots of entry addresses, in direct buffers of up to 2^24 slots.
+     */
+    private static final class Index {
+        private final ByteBuffer[] chunks;
+        private final long capacity;
+        private final int shift;
+
+        Index(long capacity) {
+            this.capacity = capacity;
+            this.shift = Long.numberOfLeadingZeros(capacity - 1);
+            final var perChunk = Math.min(capacity, 1L << INDEX_CHUNK_SHIFT);
+            this.chunks = new ByteBuffer[(int) (capacity / perChunk)];
+            for (var i = 0; i < chunks.length; i++) {
+                chunks[i] = ByteBuffer.allocateDirect((int) perChunk * 8).order(ByteOrder.nativeOrder());
+            }
+        }
+
+        long slot(int hash) {
+            return (hash * 0x9E3779B97F4A7C15L) >>> shift;
+        }
+
+        long get(long slot) {
+            return (long) SLOT.getAcquire(chunks[(int) (slot >>> INDEX_CHUNK_SHIFT)],
+                    (int) (slot & ((1L << INDEX_CHUNK_SHIFT) - 1)) << 3);
+        }
+
+        void set(long slot, long address) {
+            SLOT.setRelease(chunks[(int) (slot >>> INDEX_CHUNK_SHIFT)],
+                    (int) (slot & ((1L << INDEX_CHUNK_SHIFT) - 1)) << 3, address);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A batch of product mutations read from CSV with the columns operation,product_id,product_name where operation is
+ * ADD, CHANGE or DELETE and product_name may be omitted for DELETE. Rows that cannot be parsed are recorded as
+ * failures against their line number rather than aborting the read.
+ */
+public record ProductBatch(List<ProductMutation> mutations, List<String> failures) {
+    public static final String COLUMNS = "operation,product_id,product_name";
+
+    public static ProductBatch read(BufferedReader reader) throws IOException {
+        final var mutations = new ArrayList<ProductMutation>();
+        final var failures = new ArrayList<String>();
+
+        var lineNumber = 1;
+        var line = reader.readLine(); // Ignore the first header row
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            final var columns = line.split(",");
+            final var operation = columns.length > 0 ? parseOperation(columns[0].trim()) : null;
+            if (operation == null) {
+                failures.add("line " + lineNumber + ": unknown operation");
+            } else if (columns.length < 2 || columns[1].isBlank()) {
+                failures.add("line " + lineNumber + ": product_id missing");
+            } else if (operation == ProductMutation.Operation.DELETE && columns.length <= 3) {
+                mutations.add(new ProductMutation(lineNumber, operation, columns[1].trim(), null));
+            } else if (columns.length != 3 || columns[2].isBlank()) {
+                failures.add("line " + lineNumber + ": expected " + COLUMNS);
+            } else {
+                mutations.add(new ProductMutation(lineNumber, operation, columns[1].trim(), columns[2].trim()));
+            }
+        }
+        return new ProductBatch(mutations, failures);
+    }
+
+    private static ProductMutation.Operation parseOperation(String operation) {
+        for (final var value : ProductMutation.Operation.values()) {
+            if (value.name().equalsIgnoreCase(operation)) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,19 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.util.List;
+
+public record ProductBatchResult(boolean accepted, long version, int applied, List<String> failures) {
+    public static final int MAX_REPORTED_FAILURES = 100;
+
+    public String summary() {
+        final var summary = new StringBuilder()
+                .append("applied=").append(applied).append('\n')
+                .append("failed=").append(failures.size()).append('\n')
+                .append("version=").append(version).append('\n');
+        failures.stream().limit(MAX_REPORTED_FAILURES).forEach(failure -> summary.append(failure).append('\n'));
+        if (failures.size() > MAX_REPORTED_FAILURES) {
+            summary.append("... ").append(failures.size() - MAX_REPORTED_FAILURES).append(" more\n");
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * One version of the product catalog, never modified once it is published in a snapshot. static.productCatalog
+ * chooses where the products are held: heap keeps them in a HashMap, offheap in direct buffers outside the heap so that
+ * very large catalogs do not slow down garbage collection.
+ */
+interface ProductCatalog {
+    static ProductCatalog empty(String storage) {
+        return switch (storage.trim().toLowerCase()) {
+            case "heap" -> HeapProductCatalog.EMPTY;
+            case "offheap" -> OffHeapProductCatalog.empty();
+            default -> throw new IllegalArgumentException("Unknown product catalog storage - " + storage);
+        };
+    }
+
+    /*
+     * Returns the product name or null when the product is not present.
+     */
+    String get(String id);
+
+    /*
+     * Returns the UTF-8 encoded name of the product whose id is held in the byte range, or null when the product is not
+     * found this way and the caller must fall back to get.
+     */
+    byte[] lookupName(byte[] buffer, int from, int to);
+
+    int size();
+
+    /*
+     * A read only view of the products.
+     */
+    Map<String, String> asMap();
+
+    /*
+     * The catalog at the given version, with the changes applied to this one, a null name removing the product.
+     */
+    ProductCatalog with(Map<String, String> changes, long version);
+
+    /*
+     * A catalog held the same way as this one with just the given products, taking ownership of the map.
+     */
+    ProductCatalog load(HashMap<String, String> products, long version);
+
+    /*
+     * Whether the sorted product ids are kept from one version to the next, rather than sorted each time the product
+     * list is rendered.
+     */
+    boolean keepsOrder();
+
+    /*
+     * Writes the products in GET /api/v1/products order, the order given being that of the snapshot when the catalog
+     * keeps order and null otherwise.
+     */
+    void writeRows(ProductOrder order, ProductRows rows) throws IOException;
+}
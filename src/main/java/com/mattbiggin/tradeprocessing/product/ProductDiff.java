@@ -0,0 +1,14 @@
+package com.mattbiggin.tradeprocessing.product;
+
+/*
+ * Products added, renamed and removed by applying a reloaded product list to the catalog.
+ */
+public record ProductDiff(int added, int changed, int removed) {
+    public boolean isEmpty() {
+        return added == 0 && changed == 0 && removed == 0;
+    }
+
+    public int size() {
+        return added + changed + removed;
+    }
+}
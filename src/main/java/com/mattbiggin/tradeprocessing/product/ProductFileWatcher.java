@@ -0,0 +1,167 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Reloads the product list in the background when static.productListFileName changes, polling its size and
+ * modification time every static.reload.intervalSeconds, 0 disabling the watch. Polling rather than a WatchService
+ * also sees files replaced by a rename and files on network mounts. A change is only read once the file has been left
+ * unchanged for a whole interval, so that a file still being copied into place is not loaded.
+ *
+ * The changes between the reloaded list and the one last read are applied to the catalog as a single snapshot, so
+ * products added, changed or removed through the API are kept unless the file changes them too, see Products.reload.
+ * An empty list is taken to be a failed read and ignored, rather than removing every product.
+ */
+@Component
+public class ProductFileWatcher {
+    private static final Logger log = LoggerFactory.getLogger(ProductFileWatcher.class);
+
+    final private Products products;
+
+    final private ProductReader productReader;
+
+    final private ConfigurationProperties properties;
+
+    final private Timer duration;
+
+    final private Counter added;
+
+    final private Counter changed;
+
+    final private Counter removed;
+
+    private ScheduledExecutorService scheduler;
+
+    private FileStamp loaded;
+
+    private FileStamp pending;
+
+    private volatile ProductReload lastReload;
+
+    @Autowired
+    ProductFileWatcher(Products products, ProductReader productReader, ConfigurationProperties properties,
+                       MeterRegistry registry) {
+        this.products = products;
+        this.productReader = productReader;
+        this.properties = properties;
+        this.duration = Timer.builder("products.reload.duration")
+                .description("Time taken to read and apply a reloaded product list")
+                .register(registry);
+        this.added = changes(registry, "added");
+        this.changed = changes(registry, "changed");
+        this.removed = changes(registry, "removed");
+        Gauge.builder("products.count", products, p -> p.getSnapshot().products().size())
+                .description("Products in the current catalog")
+                .register(registry);
+    }
+
+    private static Counter changes(MeterRegistry registry, String type) {
+        return Counter.builder("products.reload.changes")
+                .description("Products changed by reloads of the product list")
+                .tag("type", type)
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void init() {
+        final var interval = properties.getProductReloadIntervalSeconds();
+        if (interval <= 0) {
+            return;
+        }
+        loaded = stamp();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "product-file-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.SECONDS);
+        log.info("Watching " + properties.getProductListFileName() + " for changes every " + interval + "s");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public ProductReload getLastReload() {
+        return lastReload;
+    }
+
+    synchronized void poll() {
+        try {
+            final var current = stamp();
+            if (current == null || current.equals(loaded)) {
+                pending = null;
+            } else if (current.equals(pending)) {
+                reload();
+            } else {
+                pending = current;
+            }
+        } catch (RuntimeException e) {
+            // Thrown out of a scheduled task it would cancel any further polls
+            log.error("Product list reload failed - " + e);
+        }
+    }
+
+    /*
+     * Reads the product list and applies its changes to the catalog now, returning null when the list read is empty.
+     */
+    public synchronized ProductReload reload() {
+        final var start = System.nanoTime();
+        final var stamp = stamp();
+        final var reloaded = productReader.readProducts();
+        if (reloaded.isEmpty()) {
+            log.warn("Product list " + properties.getProductListFileName() + " is empty or unreadable, not reloaded");
+            return null;
+        }
+        final var count = reloaded.size();
+        final var diff = products.reload(reloaded);
+        final var elapsed = System.nanoTime() - start;
+        loaded = stamp;
+        pending = null;
+
+        duration.record(elapsed, TimeUnit.NANOSECONDS);
+        added.increment(diff.added());
+        changed.increment(diff.changed());
+        removed.increment(diff.removed());
+
+        final var reload = new ProductReload(Instant.now(), products.getSnapshot().version(), count, diff,
+                elapsed / 1_000_000);
+        lastReload = reload;
+        log.info("Product list reloaded in " + reload.elapsedMillis() + "ms, " + count + " products, " +
+                diff.added() + " added, " + diff.changed() + " changed, " + diff.removed() + " removed");
+        return reload;
+    }
+
+    private FileStamp stamp() {
+        final var file = Paths.get(properties.getProductListFileName());
+        try {
+            return new FileStamp(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private record FileStamp(long size, long modified) {
+    }
+}
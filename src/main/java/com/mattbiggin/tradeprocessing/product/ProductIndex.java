@@ -0,0 +1,449 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Index for catalogs whose product ids are all canonical non-negative ints (digits only, no sign and no leading zeros),
+ * which is the case for every catalog seen so far. Names are held both as given and pre-encoded as UTF-8, so that a
+ * trade can be enriched straight from the id bytes without creating a String.
+ *
+ * Ids that are close to contiguous are held in a dense table indexed by id, otherwise in an open addressing table of
+ * int keys. Either table is split into pages of 1024 slots, so that a change copies the table of pages and the pages it
+ * touches, sharing the rest with the index it was made from, and costs the size of the change rather than a rebuild of
+ * the catalog. Only a change that outgrows the layout builds the index again.
+ */
+final class ProductIndex {
+    private static final int MAX_ID_DIGITS = 10;
+    private static final int EMPTY = -1;
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final String[][] names; // Dense pages are null until a product is added to them
+    private final byte[][][] encodedNames;
+    private final int[][] keys; // null when dense
+    private final int shift;
+    private final int size;
+    private final int maxId; // At least the largest id held, as removals leave it in place
+
+    private ProductIndex(Pages pages) {
+        this.names = pages.names;
+        this.encodedNames = pages.encodedNames;
+        this.keys = pages.keys;
+        this.shift = pages.shift;
+        this.size = pages.size;
+        this.maxId = pages.maxId;
+    }
+
+    /*
+     * Returns null when any product id is not a canonical int, in which case lookups must use the String map.
+     */
+    static ProductIndex build(Map<String, String> products) {
+        final var ids = new int[products.size()];
+        final var productNames = new String[products.size()];
+        var maxId = -1;
+        var count = 0;
+        for (final var entry : products.entrySet()) {
+            final var id = parseId(entry.getKey());
+            if (id < 0) {
+                return null;
+            }
+            ids[count] = id;
+            productNames[count++] = entry.getValue();
+            maxId = Math.max(maxId, id);
+        }
+
+        final var pages = Pages.layout(count, count, maxId);
+        for (var i = 0; i < count; i++) {
+            pages.put(ids[i], productNames[i], productNames[i].getBytes(UTF_8));
+        }
+        return new ProductIndex(pages);
+    }
+
+    /*
+     * The index with the changes applied, a null name removing the product. Returns null when an added id is not a
+     * canonical int, in which case the catalog must be held in a String map.
+     */
+    ProductIndex with(Map<String, String> changes) {
+        var size = this.size;
+        var peak = this.size;
+        var maxId = this.maxId;
+        for (final var change : changes.entrySet()) {
+            final var id = parseId(change.getKey());
+            if (id < 0) {
+                if (change.getValue() != null) {
+                    return null;
+                }
+                continue;
+            }
+            final var present = slot(id) >= 0;
+            if (change.getValue() == null) {
+                size -= present ? 1 : 0;
+            } else if (!present) {
+                size++;
+                peak++;
+                maxId = Math.max(maxId, id);
+            }
+        }
+
+        final Pages pages;
+        if (keys == null ? maxId < 2 * size + 1024 : 2 * peak <= capacity()) {
+            pages = new Pages(this);
+        } else {
+            /* Built again with every encoded name already held, reused rather than encoded once more */
+            pages = Pages.layout(size, peak, maxId);
+            for (var slot = occupied(0); slot < capacity(); slot = occupied(slot + 1)) {
+                pages.put(id(slot), name(slot), encodedName(slot));
+            }
+        }
+
+        for (final var change : changes.entrySet()) {
+            final var id = parseId(change.getKey());
+            if (id < 0) {
+                continue;
+            }
+            final var name = change.getValue();
+            if (name == null) {
+                pages.remove(id);
+            } else {
+                pages.put(id, name, name.getBytes(UTF_8));
+            }
+        }
+        return new ProductIndex(pages);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /*
+     * Returns the product name or null when there is none.
+     */
+    String get(String id) {
+        final var slot = slot(parseId(id));
+        return slot >= 0 ? name(slot) : null;
+    }
+
+    /*
+     * Returns the encoded name of the product or null when there is none.
+     */
+    byte[] lookup(String id) {
+        final var slot = slot(parseId(id));
+        return slot >= 0 ? encodedName(slot) : null;
+    }
+
+    /*
+     * Returns the encoded name of the product whose id is held in the byte range, or null when there is none.
+     */
+    byte[] lookup(byte[] buffer, int from, int to) {
+        final var slot = slot(parseId(buffer, from, to));
+        return slot >= 0 ? encodedName(slot) : null;
+    }
+
+    /*
+     * The products in slot order, with the ids formatted as they are read.
+     */
+    Iterator<Map.Entry<String, String>> entries() {
+        return new Iterator<>() {
+            private int slot = occupied(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < capacity();
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final var entry = new AbstractMap.SimpleImmutableEntry<>(String.valueOf(id(slot)), name(slot));
+                slot = occupied(slot + 1);
+                return entry;
+            }
+        };
+    }
+
+    /*
+     * The number of pages not shared with the previous index, which is how much of the index a change copied.
+     */
+    int pagesCopied(ProductIndex previous) {
+        var copied = 0;
+        for (var page = 0; page < names.length; page++) {
+            if (page >= previous.names.length || names[page] != previous.names[page]) {
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    private int capacity() {
+        return names.length << PAGE_BITS;
+    }
+
+    /*
+     * The slot holding the id, or -1 when there is none.
+     */
+    private int slot(int id) {
+        if (id < 0) {
+            return -1;
+        } else if (keys == null) {
+            final var page = id >>> PAGE_BITS;
+            return page < names.length && names[page] != null && names[page][id & PAGE_MASK] != null ? id : -1;
+        }
+
+        final var mask = capacity() - 1;
+        var slot = hash(id, shift);
+        for (var key = key(slot); key != EMPTY; key = key(slot)) {
+            if (key == id) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /*
+     * The first slot from the given one that holds a product, or the capacity when there is none.
+     */
+    private int occupied(int slot) {
+        while (slot < capacity()) {
+            final var page = names[slot >>> PAGE_BITS];
+            if (page == null) {
+                slot = (slot | PAGE_MASK) + 1;
+            } else if (page[slot & PAGE_MASK] == null) {
+                slot++;
+            } else {
+                return slot;
+            }
+        }
+        return slot;
+    }
+
+    private int id(int slot) {
+        return keys == null ? slot : key(slot);
+    }
+
+    private int key(int slot) {
+        return keys[slot >>> PAGE_BITS][slot & PAGE_MASK];
+    }
+
+    private String name(int slot) {
+        return names[slot >>> PAGE_BITS][slot & PAGE_MASK];
+    }
+
+    private byte[] encodedName(int slot) {
+        return encodedNames[slot >>> PAGE_BITS][slot & PAGE_MASK];
+    }
+
+    private static int hash(int id, int shift) {
+        return (id * 0x9E3779B9) >>> shift;
+    }
+
+    /*
+     * Returns the id held in canonical form, or -1 when it is not a canonical non-negative int.
+     */
+    static int parseId(String id) {
+        final var length = id.length();
+        if (length == 0 || length > MAX_ID_DIGITS || (id.charAt(0) == '0' && length > 1)) {
+            return -1;
+        }
+
+        var value = 0L;
+        for (var i = 0; i < length; i++) {
+            final var digit = id.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value <= Integer.MAX_VALUE ? (int) value : -1;
+    }
+
+    /*
+     * Returns the id held in canonical form in the byte range, or -1 when it is not a canonical non-negative int.
+     */
+    static int parseId(byte[] buffer, int from, int to) {
+        final var length = to - from;
+        if (length == 0 || length > MAX_ID_DIGITS || (buffer[from] == '0' && length > 1)) {
+            return -1;
+        }
+
+        var value = 0L;
+        for (var i = from; i < to; i++) {
+            final var digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value <= Integer.MAX_VALUE ? (int) value : -1;
+    }
+
+    /*
+     * The tables of an index being made, copying a page of the index it is made from before the first write to it.
+     */
+    private static final class Pages {
+        private String[][] names;
+        private byte[][][] encodedNames;
+        private int[][] keys;
+        private boolean[] owned;
+        private final int shift;
+        private int size;
+        private int maxId;
+
+        private Pages(String[][] names, byte[][][] encodedNames, int[][] keys, boolean[] owned, int shift, int size,
+                      int maxId) {
+            this.names = names;
+            this.encodedNames = encodedNames;
+            this.keys = keys;
+            this.owned = owned;
+            this.shift = shift;
+            this.size = size;
+            this.maxId = maxId;
+        }
+
+        Pages(ProductIndex index) {
+            this(index.names.clone(), index.encodedNames.clone(), index.keys != null ? index.keys.clone() : null,
+                    new boolean[index.names.length], index.shift, index.size, index.maxId);
+        }
+
+        /*
+         * Empty tables for the given number of products, dense when the ids are close to contiguous and otherwise
+         * hashed with room for the peak number held while the tables are filled.
+         */
+        static Pages layout(int size, int peak, int maxId) {
+            if (maxId < 2 * size + 1024) {
+                final var pages = (maxId >> PAGE_BITS) + 1;
+                return new Pages(new String[pages][], new byte[pages][][], null, new boolean[pages], 0, 0, -1);
+            }
+
+            final var capacity = Math.max(PAGE_SIZE, Integer.highestOneBit(Math.max(peak, 1) * 2 - 1) << 1);
+            final var pages = capacity >>> PAGE_BITS;
+            final var keys = new int[pages][];
+            for (var page = 0; page < pages; page++) {
+                keys[page] = new int[PAGE_SIZE];
+                Arrays.fill(keys[page], EMPTY);
+            }
+            final var names = new String[pages][];
+            final var encodedNames = new byte[pages][][];
+            final var owned = new boolean[pages];
+            for (var page = 0; page < pages; page++) {
+                names[page] = new String[PAGE_SIZE];
+                encodedNames[page] = new byte[PAGE_SIZE][];
+                owned[page] = true;
+            }
+            return new Pages(names, encodedNames, keys, owned, Integer.numberOfLeadingZeros(capacity - 1), 0, -1);
+        }
+
+        void put(int id, String name, byte[] encodedName) {
+            maxId = Math.max(maxId, id);
+            final int slot;
+            if (keys == null) {
+                grow(id >>> PAGE_BITS);
+                slot = id;
+            } else {
+                slot = probe(id);
+            }
+
+            final var page = write(slot >>> PAGE_BITS);
+            if (names[page][slot & PAGE_MASK] == null) {
+                size++;
+            }
+            names[page][slot & PAGE_MASK] = name;
+            encodedNames[page][slot & PAGE_MASK] = encodedName;
+            if (keys != null) {
+                keys[page][slot & PAGE_MASK] = id;
+            }
+        }
+
+        void remove(int id) {
+            if (keys == null) {
+                final var page = id >>> PAGE_BITS;
+                if (page < names.length && names[page] != null && names[page][id & PAGE_MASK] != null) {
+                    clear(id);
+                }
+                return;
+            }
+
+            var hole = probe(id);
+            if (key(hole) == EMPTY) {
+                return;
+            }
+
+            /* Moves back each following entry of the run that the hole would cut off from its home slot */
+            final var mask = (names.length << PAGE_BITS) - 1;
+            for (var slot = (hole + 1) & mask; key(slot) != EMPTY; slot = (slot + 1) & mask) {
+                final var home = hash(key(slot), shift);
+                if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                    move(slot, hole);
+                    hole = slot;
+                }
+            }
+            clear(hole);
+        }
+
+        /*
+         * The slot holding the id, or the empty slot where it would be added.
+         */
+        private int probe(int id) {
+            final var mask = (names.length << PAGE_BITS) - 1;
+            var slot = hash(id, shift);
+            while (key(slot) != EMPTY && key(slot) != id) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private int key(int slot) {
+            return keys[slot >>> PAGE_BITS][slot & PAGE_MASK];
+        }
+
+        private void move(int from, int to) {
+            final var page = write(to >>> PAGE_BITS);
+            names[page][to & PAGE_MASK] = names[from >>> PAGE_BITS][from & PAGE_MASK];
+            encodedNames[page][to & PAGE_MASK] = encodedNames[from >>> PAGE_BITS][from & PAGE_MASK];
+            keys[page][to & PAGE_MASK] = keys[from >>> PAGE_BITS][from & PAGE_MASK];
+        }
+
+        private void clear(int slot) {
+            final var page = write(slot >>> PAGE_BITS);
+            names[page][slot & PAGE_MASK] = null;
+            encodedNames[page][slot & PAGE_MASK] = null;
+            if (keys != null) {
+                keys[page][slot & PAGE_MASK] = EMPTY;
+            }
+            size--;
+        }
+
+        /*
+         * Makes the page writable, copying it the first time it is written.
+         */
+        private int write(int page) {
+            if (!owned[page]) {
+                names[page] = names[page] != null ? names[page].clone() : new String[PAGE_SIZE];
+                encodedNames[page] = encodedNames[page] != null ? encodedNames[page].clone() : new byte[PAGE_SIZE][];
+                if (keys != null) {
+                    keys[page] = keys[page].clone();
+                }
+                owned[page] = true;
+            }
+            return page;
+        }
+
+        private void grow(int page) {
+            if (page >= names.length) {
+                final var pages = Math.max(page + 1, names.length + (names.length >>> 3));
+                names = Arrays.copyOf(names, pages);
+                encodedNames = Arrays.copyOf(encodedNames, pages);
+                owned = Arrays.copyOf(owned, pages);
+            }
+        }
+    }
+}
@@ -0,0 +1,543 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ * Append only journal of the product mutations made through the API, kept in static.journal.directory so that they
+ * survive a restart, empty disabling it. Each change to the catalog is appended as one record, so a batch is
+ * recovered whole or not at all:
+ *
+ *   length and CRC32 of the body, as ints, then the body: the mutation count as an int and for each mutation its
+ *   operation as a byte and its id and name (empty for DELETE) as length prefixed UTF-8
+ *
+ * Records are written and forced to disk by a single flusher thread, which takes every record appended since its last
+ * write in one go. With static.journal.durability sync, a mutation is neither published nor acknowledged until its
+ * record has been forced, and concurrent callers share each force (group commit). With batched, records are forced every
+ * static.journal.flushIntervalMillis and a mutation may be lost if the machine fails within that interval. Records
+ * waiting to be written are held to MAX_PENDING_BYTES, appends beyond that waiting for the flusher to catch up. Once a
+ * write has failed the journal takes no more records, and the catalog no more mutations, until a restart.
+ *
+ * Every static.journal.compactIntervalSeconds the catalog is written to a products-<n>.snapshot file and journal files
+ * before journal-<n>.log removed. Startup loads the latest snapshot, or the product list file when there is none, and
+ * replays the journals from it. A record torn by a crash ends the replay and is cut from the file. Only the last journal
+ * can have been torn that way, as a journal is forced before the next is started, so a bad record in any other stops
+ * the startup rather than losing the mutations after it. A catalog too large for a snapshot is not compacted again
+ * until a restart, as each attempt would write up to 2GB only to fail, and its journals are kept instead.
+ */
+@Component
+public class ProductJournal {
+    public enum Durability {SYNC, BATCHED}
+
+    static final String JOURNAL_PREFIX = "journal-";
+    static final String JOURNAL_SUFFIX = ".log";
+    static final String SNAPSHOT_PREFIX = "products-";
+    static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final ProductMutation.Operation[] OPERATIONS = ProductMutation.Operation.values();
+
+    private static final int MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(ProductJournal.class);
+
+    final private Path directory;
+
+    final private Durability durability;
+
+    final private long flushIntervalMillis;
+
+    final private long compactIntervalSeconds;
+
+    final private long maxSnapshotSize;
+
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;
+    private long durable;
+    private long compacted;
+    private boolean tooLargeToCompact;
+    private boolean flushRequested;
+    private IOException failure;
+    private boolean closed;
+
+    private FileChannel channel;
+    private long generation;
+    private Thread flusher;
+    private ScheduledExecutorService compactor;
+
+    @Autowired
+    ProductJournal(ConfigurationProperties properties) {
+        this(properties, ProductSnapshotFile.MAX_SIZE);
+    }
+
+    ProductJournal(ConfigurationProperties properties, long maxSnapshotSize) {
+        final var configured = properties.getJournalDirectory();
+        this.directory = configured == null || configured.isBlank() ? null :
+                Paths.get(configured).toAbsolutePath().normalize();
+        this.durability = Durability.valueOf(properties.getJournalDurability().trim().toUpperCase());
+        this.flushIntervalMillis = properties.getJournalFlushIntervalMillis();
+        this.compactIntervalSeconds = properties.getJournalCompactIntervalSeconds();
+        this.maxSnapshotSize = maxSnapshotSize;
+    }
+
+    /*
+     * A journal that records nothing, for catalogs that need not survive a restart.
+     */
+    ProductJournal() {
+        this.directory = null;
+        this.durability = Durability.BATCHED;
+        this.flushIntervalMillis = 0;
+        this.compactIntervalSeconds = 0;
+        this.maxSnapshotSize = ProductSnapshotFile.MAX_SIZE;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /*
+     * Whether mutations must wait for their records to be forced before they are published.
+     */
+    boolean isSync() {
+        return isEnabled() && durability == Durability.SYNC;
+    }
+
+    /*
+     * Rebuilds the catalog from the latest snapshot, or from the source when there is none, and the journals written
+     * since, then starts a new journal file. Each mutation replayed is passed to replayed with the name the product had
+     * before it, null when it had none. The compaction is run periodically from then on.
+     */
+    HashMap<String, String> recover(Supplier<HashMap<String, String>> source, BiConsumer<String, String> replayed,
+                                    Runnable compaction) {
+        if (!isEnabled()) {
+            return source.get();
+        }
+        final var start = System.nanoTime();
+        HashMap<String, String> products = null;
+        try {
+            Files.createDirectories(directory);
+
+            var base = -1L;
+            final var snapshots = generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+            for (var i = snapshots.size() - 1; i >= 0 && products == null; i--) {
+                final var snapshot = file(SNAPSHOT_PREFIX, snapshots.get(i), SNAPSHOT_SUFFIX);
+                try {
+                    products = ProductSnapshotFile.read(snapshot, ProductSnapshotFile.Source.NONE);
+                    if (products == null) {
+                        log.warn("Ignoring invalid product snapshot " + snapshot);
+                    }
+                } catch (IOException e) {
+                    log.warn("Unable to read product snapshot " + snapshot + " - " + e.getMessage());
+                }
+                if (products != null) {
+                    base = snapshots.get(i);
+                }
+            }
+            if (products == null) {
+                products = source.get();
+            }
+
+            var last = base;
+            var records = 0L;
+            final var journals = generations(JOURNAL_PREFIX, JOURNAL_SUFFIX);
+            for (var i = 0; i < journals.size(); i++) {
+                final var journal = journals.get(i);
+                if (journal >= base) {
+                    records += replay(file(JOURNAL_PREFIX, journal, JOURNAL_SUFFIX), products, replayed,
+                            i == journals.size() - 1);
+                }
+                last = Math.max(last, journal);
+            }
+
+            open(last + 1);
+            log.info("Recovered " + products.size() + " products from " +
+                    (base >= 0 ? "snapshot " + base : "the product list") + " and " + records +
+                    " journal records in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to recover product journal", e);
+        }
+
+        final var interval = compactIntervalSeconds;
+        if (interval > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "product-compactor"));
+            compactor.scheduleWithFixedDelay(() -> {
+                try {
+                    compaction.run();
+                } catch (RuntimeException e) {
+                    // Thrown out of a scheduled task it would cancel any further compactions
+                    log.error("Product journal compaction failed - " + e);
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+        return products;
+    }
+
+    /*
+     * Appends the mutations as one record, returning the sequence number to await. Throws without appending once a
+     * write has failed, so that the caller leaves the catalog as it is.
+     */
+    synchronized long append(List<ProductMutation> mutations) {
+        if (channel == null || mutations.isEmpty()) {
+            return appended;
+        }
+        awaitPending();
+        final var body = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(body)) {
+            output.writeInt(mutations.size());
+            for (final var mutation : mutations) {
+                output.writeByte(mutation.operation().ordinal());
+                writeString(output, mutation.id());
+                writeString(output, mutation.name() != null ? mutation.name() : "");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final var bytes = body.toByteArray();
+        final var crc = new CRC32();
+        crc.update(bytes);
+        pending.writeBytes(ByteBuffer.allocate(8).putInt(bytes.length).putInt((int) crc.getValue()).array());
+        pending.writeBytes(bytes);
+
+        appended++;
+        if (durability == Durability.SYNC) {
+            notifyAll();
+        }
+        return appended;
+    }
+
+    synchronized long append(ProductMutation mutation) {
+        return append(List.of(mutation));
+    }
+
+    /*
+     * The sequence number of the last record forced to disk.
+     */
+    synchronized long durable() {
+        return durable;
+    }
+
+    /*
+     * Waits while the records not yet written reach MAX_PENDING_BYTES, which only the batched flusher lets happen,
+     * throwing if the journal has failed or been closed.
+     */
+    private void awaitPending() {
+        var interrupted = false;
+        while (pending.size() >= MAX_PENDING_BYTES && failure == null && !closed) {
+            flushRequested = true;
+            notifyAll();
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null || closed) {
+            throw new IllegalStateException("Product journal " + (closed ? "closed" : "failed"), failure);
+        }
+    }
+
+    /*
+     * Waits for the record to be forced to disk when durability is sync, otherwise returns at once.
+     */
+    void await(long sequence) {
+        if (durability != Durability.SYNC) {
+            return;
+        }
+        awaitDurable(sequence);
+    }
+
+    private synchronized void awaitDurable(long sequence) {
+        var interrupted = false;
+        while (durable < sequence && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (durable < sequence) {
+            throw new IllegalStateException("Product journal not written", failure);
+        }
+    }
+
+    /*
+     * Starts a new journal file once every record appended so far has been forced to the current one, returning its
+     * generation. Called with the catalog locked, so the catalog at that moment holds exactly the mutations of the
+     * journals before the new generation.
+     */
+    synchronized long rotate() throws IOException {
+        final var sequence = appended;
+        flushRequested = true;
+        notifyAll();
+        awaitDurable(sequence);
+        channel.close();
+        open(generation + 1);
+        return generation;
+    }
+
+    /*
+     * Folds the journals before the generation into a snapshot of the catalog as it was when that generation started.
+     */
+    void compact(long generation, Map<String, String> products) throws IOException {
+        final var start = System.nanoTime();
+        try {
+            ProductSnapshotFile.write(file(SNAPSHOT_PREFIX, generation, SNAPSHOT_SUFFIX),
+                    ProductSnapshotFile.Source.NONE, products, maxSnapshotSize);
+        } catch (ProductSnapshotFile.TooLargeException e) {
+            synchronized (this) {
+                tooLargeToCompact = true;
+            }
+            log.warn("Product journal will not be compacted again until a restart - " + e.getMessage());
+            throw e;
+        }
+        for (final var journal : generations(JOURNAL_PREFIX, JOURNAL_SUFFIX)) {
+            if (journal < generation) {
+                Files.deleteIfExists(file(JOURNAL_PREFIX, journal, JOURNAL_SUFFIX));
+            }
+        }
+        for (final var snapshot : generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (snapshot < generation) {
+                Files.deleteIfExists(file(SNAPSHOT_PREFIX, snapshot, SNAPSHOT_SUFFIX));
+            }
+        }
+        log.info("Product journal compacted into snapshot " + generation + " of " + products.size() + " products in " +
+                (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+
+    /*
+     * True when records have been appended since the last compaction, which is then taken to have happened.
+     */
+    synchronized boolean takeCompaction() {
+        if (channel == null || tooLargeToCompact || compacted == appended) {
+            return false;
+        }
+        compacted = appended;
+        return true;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        synchronized (this) {
+            if (channel == null || closed) {
+                return;
+            }
+            flushRequested = true;
+            notifyAll();
+            try {
+                awaitDurable(appended);
+            } catch (IllegalStateException e) {
+                log.error("Product journal not written on close - " + e.getMessage());
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Unable to close product journal - " + e.getMessage());
+        }
+    }
+
+    private void open(long generation) throws IOException {
+        this.generation = generation;
+        this.channel = FileChannel.open(file(JOURNAL_PREFIX, generation, JOURNAL_SUFFIX), WRITE, CREATE,
+                TRUNCATE_EXISTING);
+        if (flusher == null) {
+            flusher = daemon(this::flush, "product-journal");
+            flusher.start();
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            final ByteArrayOutputStream records;
+            final FileChannel target;
+            final long sequence;
+            synchronized (this) {
+                try {
+                    while (pending.size() == 0 && !closed) {
+                        wait();
+                    }
+                    if (durability == Durability.BATCHED) {
+                        waitForInterval();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                records = pending;
+                pending = new ByteArrayOutputStream(records.size());
+                target = channel;
+                sequence = appended;
+                flushRequested = false;
+                notifyAll(); // Appends held back by MAX_PENDING_BYTES
+            }
+
+            /* Records appended while this write is forced are taken together by the next */
+            try {
+                target.write(ByteBuffer.wrap(records.toByteArray()));
+                target.force(false);
+                synchronized (this) {
+                    durable = sequence;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                log.error("Unable to write product journal - " + e.getMessage());
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /*
+     * Lets records gather for the flush interval, unless a flush is asked for sooner.
+     */
+    private void waitForInterval() throws InterruptedException {
+        final var deadline = System.currentTimeMillis() + flushIntervalMillis;
+        var remaining = flushIntervalMillis;
+        while (remaining > 0 && !flushRequested && !closed) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+
+    /*
+     * Applies the records of a journal to the catalog, returning the number applied. A record that is incomplete or
+     * fails its checksum ends the last journal, and is cut from the file, but is corruption in any other.
+     */
+    private static long replay(Path journal, HashMap<String, String> products, BiConsumer<String, String> replayed,
+                               boolean last) throws IOException {
+        var records = 0L;
+        var position = 0L;
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+            while (true) {
+                final int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    return records;
+                }
+                final var checksum = input.readInt();
+                if (length < 4) {
+                    throw new EOFException("invalid record length " + length);
+                }
+                final var body = input.readNBytes(length);
+                final var crc = new CRC32();
+                crc.update(body);
+                if (body.length < length || (int) crc.getValue() != checksum) {
+                    throw new EOFException("record checksum mismatch");
+                }
+                for (final var mutation : read(body)) {
+                    replayed.accept(mutation.id(), mutation.operation() == ProductMutation.Operation.DELETE ?
+                            products.remove(mutation.id()) : products.put(mutation.id(), mutation.name()));
+                }
+                records++;
+                position += 8 + length;
+            }
+        } catch (EOFException e) {
+            if (!last) {
+                throw new IOException("Product journal " + journal + " is corrupt at byte " + position + " - " +
+                        e.getMessage(), e);
+            }
+            log.warn("Truncating " + journal + " at byte " + position + " after a torn record - " + e.getMessage());
+            try (var channel = FileChannel.open(journal, WRITE)) {
+                channel.truncate(position);
+            }
+            return records;
+        }
+    }
+
+    private static List<ProductMutation> read(byte[] body) throws IOException {
+        try (var input = new DataInputStream(new ByteArrayInputStream(body))) {
+            final var count = input.readInt();
+            final var mutations = new ArrayList<ProductMutation>(count);
+            for (var i = 0; i < count; i++) {
+                final var operation = OPERATIONS[input.readByte()];
+                final var id = readString(input);
+                final var name = readString(input);
+                mutations.add(new ProductMutation(0, operation, id, name));
+            }
+            return mutations;
+        }
+    }
+
+    private List<Long> generations(String prefix, String suffix) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .map(name -> name.substring(prefix.length(), name.length() - suffix.length()))
+                    .filter(number -> !number.isEmpty() && number.chars().allMatch(Character::isDigit))
+                    .map(Long::parseLong)
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path file(String prefix, long generation, String suffix) {
+        return directory.resolve(prefix + generation + suffix);
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        final var thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        final var bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return new String(input.readNBytes(input.readInt()), UTF_8);
+    }
+}
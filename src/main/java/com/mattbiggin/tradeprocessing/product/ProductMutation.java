@@ -0,0 +1,7 @@
+package com.mattbiggin.tradeprocessing.product;
+
+public record ProductMutation(int line, Operation operation, String id, String name) {
+    public enum Operation {
+        ADD, CHANGE, DELETE
+    }
+}
@@ -0,0 +1,60 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * The products recently looked up in the remote product master, at most maxSize of them, evicting the least recently
+ * used. A product that was found is kept for ttlNanos and an id that had no product, a negative entry, for
+ * negativeTtlNanos, so that ids traded without a product do not go back to the master for every upload.
+ *
+ * Plain LRU under a lock is enough as enrichments cache the names they have looked up for the rest of the upload, so
+ * each upload touches an entry once. Times are System.nanoTime values passed in by the caller.
+ */
+final class ProductNearCache {
+    record Entry(String name, long expiresAt) { // A null name for an id without a product
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LinkedHashMap<String, Entry> entries;
+
+    ProductNearCache(int maxSize, long ttlNanos, long negativeTtlNanos) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlNanos;
+        this.negativeTtlNanos = negativeTtlNanos;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ProductNearCache.this.maxSize;
+            }
+        };
+    }
+
+    /*
+     * The entry for the id, or null when there is none or it has expired.
+     */
+    synchronized Entry get(String id, long now) {
+        final var entry = entries.get(id);
+        if (entry != null && now - entry.expiresAt() >= 0) {
+            entries.remove(id);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void put(String id, String name, long now) {
+        if (maxSize > 0) {
+            entries.put(id, new Entry(name, now + (name != null ? ttlNanos : negativeTtlNanos)));
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
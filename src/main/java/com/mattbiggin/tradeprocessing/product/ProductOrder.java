@@ -0,0 +1,171 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/*
+ * Product ids in GET /api/v1/products order: by int value when every id parses as an int, otherwise by String. The
+ * int values are parsed once per id rather than once per comparison. Instances are immutable and single changes are
+ * applied by copying around a binary search rather than re-sorting, unless the change flips whether the ids are
+ * sortable as ints.
+ */
+final class ProductOrder {
+    static final ProductOrder EMPTY = new ProductOrder(new String[0], new int[0], 0);
+
+    private final String[] ids;
+    private final int[] values; // Only meaningful when sortable
+    private final int unsortable;
+
+    private ProductOrder(String[] ids, int[] values, int unsortable) {
+        this.ids = ids;
+        this.values = values;
+        this.unsortable = unsortable;
+    }
+
+    static ProductOrder of(Collection<String> productIds) {
+        final var ids = productIds.toArray(new String[0]);
+        var unsortable = 0;
+        for (final var id : ids) {
+            if (!isInt(id)) {
+                unsortable++;
+            }
+        }
+        return sorted(ids, unsortable);
+    }
+
+    private static ProductOrder sorted(String[] ids, int unsortable) {
+        if (unsortable > 0) {
+            Arrays.sort(ids);
+            return new ProductOrder(ids, new int[0], unsortable);
+        }
+
+        final var keyed = new Keyed[ids.length];
+        for (var i = 0; i < ids.length; i++) {
+            keyed[i] = new Keyed(Integer.parseInt(ids[i]), ids[i]);
+        }
+        Arrays.sort(keyed, Comparator.comparingInt(Keyed::value).thenComparing(Keyed::id));
+
+        final var values = new int[ids.length];
+        for (var i = 0; i < ids.length; i++) {
+            ids[i] = keyed[i].id();
+            values[i] = keyed[i].value();
+        }
+        return new ProductOrder(ids, values, 0);
+    }
+
+    boolean sortable() {
+        return unsortable == 0;
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    String id(int position) {
+        return ids[position];
+    }
+
+    ProductOrder withAdded(String id) {
+        final var isInt = isInt(id);
+        if (sortable() && !isInt) {
+            final var all = Arrays.copyOf(ids, ids.length + 1);
+            all[ids.length] = id;
+            return sorted(all, 1);
+        }
+
+        final var value = sortable() ? Integer.parseInt(id) : 0;
+        final var position = -search(id, value) - 1;
+        final var newIds = new String[ids.length + 1];
+        System.arraycopy(ids, 0, newIds, 0, position);
+        newIds[position] = id;
+        System.arraycopy(ids, position, newIds, position + 1, ids.length - position);
+
+        if (!sortable()) {
+            return new ProductOrder(newIds, values, unsortable + (isInt ? 0 : 1));
+        }
+        final var newValues = new int[values.length + 1];
+        System.arraycopy(values, 0, newValues, 0, position);
+        newValues[position] = value;
+        System.arraycopy(values, position, newValues, position + 1, values.length - position);
+        return new ProductOrder(newIds, newValues, 0);
+    }
+
+    ProductOrder withRemoved(String id) {
+        final var isInt = isInt(id);
+        final var position = search(id, sortable() ? Integer.parseInt(id) : 0);
+        final var newIds = new String[ids.length - 1];
+        System.arraycopy(ids, 0, newIds, 0, position);
+        System.arraycopy(ids, position + 1, newIds, position, ids.length - position - 1);
+
+        if (!sortable()) {
+            final var remaining = unsortable - (isInt ? 0 : 1);
+            return remaining == 0 ? sorted(newIds, 0) : new ProductOrder(newIds, values, remaining);
+        }
+        final var newValues = new int[values.length - 1];
+        System.arraycopy(values, 0, newValues, 0, position);
+        System.arraycopy(values, position + 1, newValues, position, values.length - position - 1);
+        return new ProductOrder(newIds, newValues, 0);
+    }
+
+    /*
+     * Binary search returning the position of the id, or (-(insertion point) - 1) when it is not present.
+     */
+    private int search(String id, int value) {
+        var low = 0;
+        var high = ids.length - 1;
+        while (low <= high) {
+            final var middle = (low + high) >>> 1;
+            final var comparison = sortable()
+                    ? compare(values[middle], ids[middle], value, id)
+                    : ids[middle].compareTo(id);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int compare(int value1, String id1, int value2, String id2) {
+        final var comparison = Integer.compare(value1, value2);
+        return comparison != 0 ? comparison : id1.compareTo(id2);
+    }
+
+    /*
+     * Accepts exactly the Strings that Integer.parseInt accepts, without the cost of throwing for those it does not.
+     */
+    static boolean isInt(String id) {
+        final var length = id.length();
+        if (length == 0) {
+            return false;
+        }
+
+        final var first = id.charAt(0);
+        final var negative = first == '-';
+        final var start = (negative || first == '+') ? 1 : 0;
+        if (start == length) {
+            return false;
+        }
+
+        final var limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        var value = 0L;
+        for (var i = start; i < length; i++) {
+            final var digit = Character.digit(id.charAt(i), 10);
+            if (digit < 0) {
+                return false;
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private record Keyed(int value, String id) {
+    }
+}
@@ -1,7 +1,27 @@
 package com.mattbiggin.tradeprocessing.product;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 interface ProductReader {
-    Map<String, String> readProducts();
+    /*
+     * Products takes ownership of the map, which must not be modified afterwards.
+     */
+    HashMap<String, String> readProducts();
+
+    /*
+     * Whether products the catalog does not hold may still be found by lookupProducts, as they may when the product
+     * static data is held by a remote product master rather than read up front.
+     */
+    default boolean isRemote() {
+        return false;
+    }
+
+    /*
+     * The names of those of the products that exist, for ids the catalog does not hold.
+     */
+    default Map<String, String> lookupProducts(Collection<String> ids) {
+        return Map.of();
+    }
 }
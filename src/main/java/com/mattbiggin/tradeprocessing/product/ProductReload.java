@@ -0,0 +1,15 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.time.Instant;
+
+public record ProductReload(Instant completed, long version, int products, ProductDiff diff, long elapsedMillis) {
+    public String summary() {
+        return "completed=" + completed + "\n" +
+                "version=" + version + "\n" +
+                "products=" + products + "\n" +
+                "added=" + diff.added() + "\n" +
+                "changed=" + diff.changed() + "\n" +
+                "removed=" + diff.removed() + "\n" +
+                "elapsed_ms=" + elapsedMillis + "\n";
+    }
+}
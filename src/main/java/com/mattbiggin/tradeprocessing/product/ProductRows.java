@@ -0,0 +1,86 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Writes the CSV product list to an output through a buffer of BUFFER_SIZE bytes, so that a list of any size is
+ * streamed rather than held whole on the heap.
+ */
+final class ProductRows {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] HEADER = (Products.COLUMNS + "\n").getBytes(UTF_8);
+
+    private final OutputStream output;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    ProductRows(OutputStream output) throws IOException {
+        this.output = output;
+        put(HEADER);
+    }
+
+    void row(byte[] id, byte[] name) throws IOException {
+        put(id);
+        put((byte) ',');
+        put(name);
+        put((byte) '\n');
+    }
+
+    /*
+     * A row whose id and name are held one after the other in the chunk, from the offset.
+     */
+    void row(ByteBuffer chunk, int offset, int idLength, int nameLength) throws IOException {
+        put(chunk, offset, idLength);
+        put((byte) ',');
+        put(chunk, offset + idLength, nameLength);
+        put((byte) '\n');
+    }
+
+    void finish() throws IOException {
+        drain();
+        output.flush();
+    }
+
+    private void put(byte value) throws IOException {
+        if (position == buffer.length) {
+            drain();
+        }
+        buffer[position++] = value;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        var from = 0;
+        while (from < bytes.length) {
+            if (position == buffer.length) {
+                drain();
+            }
+            final var length = Math.min(bytes.length - from, buffer.length - position);
+            System.arraycopy(bytes, from, buffer, position, length);
+            position += length;
+            from += length;
+        }
+    }
+
+    private void put(ByteBuffer chunk, int offset, int length) throws IOException {
+        var from = offset;
+        final var to = offset + length;
+        while (from < to) {
+            if (position == buffer.length) {
+                drain();
+            }
+            final var count = Math.min(to - from, buffer.length - position);
+            chunk.get(from, buffer, position, count);
+            position += count;
+            from += count;
+        }
+    }
+
+    private void drain() throws IOException {
+        output.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -0,0 +1,112 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Immutable, versioned view of the product static data. Products publishes a new snapshot on every change, so an
+ * enrichment that pins a snapshot sees one consistent catalog from its first trade to its last, and reads are plain
+ * field accesses with no locking.
+ */
+public final class ProductSnapshot {
+    static final ProductSnapshot EMPTY = new ProductSnapshot(0, HeapProductCatalog.EMPTY, ProductOrder.EMPTY);
+
+    /*
+     * Distinguishes the versions of this process from those of earlier runs, which restart at zero.
+     */
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private final long version;
+    private final ProductCatalog catalog;
+
+    /*
+     * Sorted on first use when not carried over from the previous snapshot, and only kept when the catalog keeps order.
+     */
+    private volatile ProductOrder order;
+
+    ProductSnapshot(long version, ProductCatalog catalog, ProductOrder order) {
+        this.version = version;
+        this.catalog = catalog;
+        this.order = catalog.keepsOrder() ? order : null;
+    }
+
+    public static ProductSnapshot of(long version, Map<String, String> products) {
+        return new ProductSnapshot(version, new HeapProductCatalog(new HashMap<>(products)), null);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public String etag() {
+        return "\"" + EPOCH + "-" + version + "\"";
+    }
+
+    public Map<String, String> products() {
+        return catalog.asMap();
+    }
+
+    public boolean sortable() {
+        return order().sortable();
+    }
+
+    ProductCatalog catalog() {
+        return catalog;
+    }
+
+    ProductOrder order() {
+        var current = order;
+        if (current == null) {
+            current = ProductOrder.of(catalog.asMap().keySet());
+            if (catalog.keepsOrder()) {
+                order = current;
+            }
+        }
+        return current;
+    }
+
+    /*
+     * The order of the next snapshot, when this one has an order to carry over.
+     */
+    ProductOrder orderWithAdded(String id) {
+        final var current = order;
+        return current != null ? current.withAdded(id) : null;
+    }
+
+    ProductOrder orderWithRemoved(String id) {
+        final var current = order;
+        return current != null ? current.withRemoved(id) : null;
+    }
+
+    ProductOrder orderUnchanged() {
+        return order;
+    }
+
+    /*
+     * Returns the product name or null when the product is not present.
+     */
+    public String get(String id) {
+        return catalog.get(id);
+    }
+
+    /*
+     * Looks up the UTF-8 encoded name of the product whose id is held in the byte range, without creating a String.
+     * Returns null when the product is not found or the catalog cannot look it up this way, in which case the caller
+     * falls back to a String lookup.
+     */
+    public byte[] lookupProductName(byte[] buffer, int from, int to) {
+        return catalog.lookupName(buffer, from, to);
+    }
+
+    /*
+     * Streams the CSV product list in id order to the output. Catalogs that keep order write it from the maintained
+     * order, the off heap catalog sorts its entries off the heap, and neither holds the rendered list in memory.
+     */
+    public void writeProducts(OutputStream output) throws IOException {
+        final var rows = new ProductRows(output);
+        catalog.writeRows(catalog.keepsOrder() ? order() : null, rows);
+        rows.finish();
+    }
+}
@@ -0,0 +1,236 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ * Binary copy of a loaded product list, so that a restart need not parse the CSV again. The file is laid out as
+ *
+ *   header   magic, format, size, modified time and CRC32 of the source CSV, product count, a reserved int,
+ *            payload length and the CRC32 of the payload
+ *   index    the offset of each product within the entries, as longs
+ *   entries  for each product, the length of its UTF-8 id as an int then the id, and likewise its name
+ *
+ * A snapshot is only used while the CSV it was written from is unchanged and its payload checksum matches. The index
+ * lets the entries be decoded in parallel ranges straight into the presized catalog map.
+ *
+ * The whole snapshot is mapped as one buffer, so header and payload together are limited to 2GB, about 40 million
+ * products of typical length. A larger catalog is not written, with a warning, and is parsed from the CSV each start.
+ * Its size is estimated from the lengths of its Strings before anything is written, and checked as each entry is.
+ */
+final class ProductSnapshotFile {
+    static final int MAGIC = 0x50524453; // PRDS
+    static final int FORMAT = 1;
+    static final int HEADER_SIZE = 56;
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private static final int DECODE_RANGE = 64 * 1024;
+
+    private ProductSnapshotFile() {
+    }
+
+    /*
+     * Identifies the content of a source CSV by its size, modification time and checksum.
+     */
+    record Source(long size, long modified, long checksum) {
+        /* For snapshots not written from a product list file, such as the journal's */
+        static final Source NONE = new Source(0, 0, 0);
+
+        static Source of(Path csv) throws IOException {
+            try (var channel = FileChannel.open(csv, READ)) {
+                final var size = channel.size();
+                final var crc = new CRC32();
+                for (var position = 0L; position < size; position += Integer.MAX_VALUE) {
+                    crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(Integer.MAX_VALUE, size - position)));
+                }
+                return new Source(size, Files.getLastModifiedTime(csv).toMillis(), crc.getValue());
+            }
+        }
+    }
+
+    /*
+     * The source recorded in a snapshot's header, read without mapping or checking the rest of the snapshot, or null
+     * when the file is not a snapshot of this format.
+     */
+    static Source source(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, READ)) {
+            final var header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                /* Until the header is read or the file ends */
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != FORMAT) {
+                return null;
+            }
+            return new Source(header.getLong(8), header.getLong(16), header.getLong(24));
+        }
+    }
+
+    static void write(Path file, Source source, Map<String, String> products) throws IOException {
+        write(file, source, products, MAX_SIZE);
+    }
+
+    /*
+     * Writes to a temporary file which then replaces the snapshot, so a reader never sees a partial snapshot. The
+     * temporary file is deleted should the write fail.
+     */
+    static void write(Path file, Source source, Map<String, String> products, long maxSize) throws IOException {
+        final var count = products.size();
+        final var indexSize = 8L * count;
+
+        /* Each char is at least one byte of UTF-8, so a catalog over the limit by this estimate is over it in bytes */
+        var estimate = HEADER_SIZE + indexSize;
+        for (final var product : products.entrySet()) {
+            estimate += 8 + product.getKey().length() + product.getValue().length();
+        }
+        if (estimate > maxSize) {
+            throw new TooLargeException(estimate, maxSize);
+        }
+
+        final var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            write(temporary, source, products, maxSize, indexSize);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    private static void write(Path temporary, Source source, Map<String, String> products, long maxSize,
+                              long indexSize) throws IOException {
+        final var count = products.size();
+        try (var channel = FileChannel.open(temporary, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            final var offsets = new long[count];
+            channel.position(HEADER_SIZE + indexSize);
+            final var entries = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel),
+                    64 * 1024));
+            var entriesSize = 0L;
+            var i = 0;
+            for (final var product : products.entrySet()) {
+                final var id = product.getKey().getBytes(UTF_8);
+                final var name = product.getValue().getBytes(UTF_8);
+                offsets[i++] = entriesSize;
+                entriesSize += 8 + id.length + name.length;
+                if (HEADER_SIZE + indexSize + entriesSize > maxSize) {
+                    throw new TooLargeException(HEADER_SIZE + indexSize + entriesSize, maxSize);
+                }
+                writeBytes(entries, id);
+                writeBytes(entries, name);
+            }
+            entries.flush();
+
+            final var payloadSize = indexSize + entriesSize;
+            final var index = ByteBuffer.allocate((int) indexSize);
+            index.asLongBuffer().put(offsets);
+            channel.write(index, HEADER_SIZE);
+
+            final var crc = new CRC32();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, payloadSize));
+
+            final var header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putInt(FORMAT)
+                    .putLong(source.size())
+                    .putLong(source.modified())
+                    .putLong(source.checksum())
+                    .putInt(count)
+                    .putInt(0)
+                    .putLong(payloadSize)
+                    .putLong(crc.getValue())
+                    .flip();
+            channel.write(header, 0);
+            channel.force(false);
+        }
+    }
+
+    /*
+     * Returns the products of the snapshot, or null when it was written from another version of the source or is
+     * not a complete, valid snapshot.
+     */
+    static HashMap<String, String> read(Path file, Source source) throws IOException {
+        try (var channel = FileChannel.open(file, READ)) {
+            final var size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT ||
+                    !source.equals(new Source(buffer.getLong(8), buffer.getLong(16), buffer.getLong(24)))) {
+                return null;
+            }
+            final var count = buffer.getInt(32);
+            final var payloadSize = buffer.getLong(40);
+            if (count < 0 || HEADER_SIZE + payloadSize != size || 8L * count > payloadSize) {
+                return null;
+            }
+            final var crc = new CRC32();
+            crc.update(buffer.slice(HEADER_SIZE, (int) payloadSize));
+            if (crc.getValue() != buffer.getLong(48)) {
+                return null;
+            }
+            return decode(buffer, count);
+        }
+    }
+
+    private static HashMap<String, String> decode(MappedByteBuffer buffer, int count) {
+        final var entries = HEADER_SIZE + 8 * count;
+        final var ids = new String[count];
+        final var names = new String[count];
+        IntStream.range(0, (count + DECODE_RANGE - 1) / DECODE_RANGE).parallel().forEach(range -> {
+            final var end = Math.min(count, (range + 1) * DECODE_RANGE);
+            var scratch = new byte[256];
+            for (var i = range * DECODE_RANGE; i < end; i++) {
+                final var offset = entries + (int) buffer.getLong(HEADER_SIZE + 8 * i);
+                final var idLength = buffer.getInt(offset);
+                final var nameLength = buffer.getInt(offset + 4 + idLength);
+                if (Math.max(idLength, nameLength) > scratch.length) {
+                    scratch = new byte[Math.max(idLength, nameLength)];
+                }
+                ids[i] = readString(buffer, offset + 4, idLength, scratch);
+                names[i] = readString(buffer, offset + 8 + idLength, nameLength, scratch);
+            }
+        });
+
+        final var products = HashMap.<String, String>newHashMap(count);
+        for (var i = 0; i < count; i++) {
+            products.put(ids[i], names[i]);
+        }
+        return products;
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buffer, int offset, int length, byte[] scratch) {
+        buffer.get(offset, scratch, 0, length);
+        return new String(scratch, 0, length, UTF_8);
+    }
+
+    /*
+     * The catalog does not fit in a snapshot, and will not until it shrinks.
+     */
+    static class TooLargeException extends IOException {
+        TooLargeException(long size, long maxSize) {
+            super("product snapshot of at least " + size + " bytes is over the " +
+                    (maxSize == MAX_SIZE ? "2GB" : maxSize + " byte") + " limit");
+        }
+    }
+}
@@ -1,14 +1,22 @@
 package com.mattbiggin.tradeprocessing.product;
 
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class Products {
@@ -19,73 +27,439 @@ public class Products {
 
     final private ProductReader productReader;
 
-    private final Map<String, String> products = new ConcurrentHashMap<>();
+    final private ProductJournal journal;
+
+    final private boolean remote;
+
+    /*
+     * Replaced, never modified, by the mutators below while holding the lock on this. Readers take whichever snapshot
+     * is current. A mutation is journalled under the same lock, so the journal holds mutations in the order they were
+     * published, but it is awaited outside it so that concurrent mutations share a write to disk.
+     */
+    private volatile ProductSnapshot snapshot;
+
+    /*
+     * With a sync journal, the snapshots of the mutations whose records are not yet on disk, in the order they were
+     * journalled. Mutations are validated against the latest of them, and each is published once its record has been
+     * forced, or dropped should the journal fail. Guarded by the lock on this.
+     */
+    final private ArrayDeque<Unpublished> unpublished = new ArrayDeque<>();
+
+    /*
+     * Whether the product file is watched, and so whether listNames is kept for reloads.
+     */
+    final private boolean watched;
+
+    /*
+     * For each product changed through the API since the product list was last read, the name the list gave it, null
+     * for one the list did not hold. Every other product still has the name the list gave it, so this is all a reload
+     * needs to tell the list's changes from the API's. Null when the file is not watched or the list last read is not
+     * known, the catalog having been recovered from a journal snapshot. Guarded by the lock on this.
+     */
+    private HashMap<String, String> listNames;
+
+    final private MissingProducts missingProducts = new MissingProducts();
 
-    @Autowired
     public Products(ProductReader productReader) {
+        this(productReader, new ProductJournal(), HeapProductCatalog.EMPTY);
+    }
+
+    @Autowired
+    public Products(ProductReader productReader, ProductJournal journal, ConfigurationProperties properties) {
+        this(productReader, journal, ProductCatalog.empty(properties.getProductCatalog()),
+                properties.getProductReloadIntervalSeconds() > 0);
+    }
+
+    Products(ProductReader productReader, ProductJournal journal, ProductCatalog catalog) {
+        this(productReader, journal, catalog, true);
+    }
+
+    Products(ProductReader productReader, ProductJournal journal, ProductCatalog catalog, boolean watched) {
         this.productReader = productReader;
+        this.journal = journal;
+        this.remote = productReader.isRemote();
+        this.watched = watched;
+        this.snapshot = new ProductSnapshot(0, catalog, ProductOrder.EMPTY);
     }
 
-    private static boolean areProductsSortable(Set<String> productIds) {
-        var sortable = true;
-        for (var key : productIds) {
+    /*
+     * The journal's mutations replayed over the product list are changes made through the API since it was read.
+     */
+    @PostConstruct
+    public synchronized void init() {
+        final var products = journal.recover(() -> {
+            listNames = watched ? new HashMap<>() : null;
+            return productReader.readProducts();
+        }, this::listChanged, this::compactJournal);
+        snapshot.products().forEach((id, name) -> {
+            if (products.putIfAbsent(id, name) == null) {
+                listChanged(id, null);
+            }
+        });
+        stage(snapshot.catalog().load(products, snapshot.version() + 1), null, null, 0);
+    }
+
+    /*
+     * Records the name the product list gave a product about to be changed through the API, unless it already has been.
+     */
+    private void listChanged(String id, String listName) {
+        if (listNames != null && !listNames.containsKey(id)) {
+            listNames.put(id, listName);
+        }
+    }
+
+    /*
+     * Starts a new journal with the catalog locked, then writes the catalog as it was at that moment as the snapshot
+     * the earlier journals are replaced by, leaving mutations free to carry on while it is written. Every record is on
+     * disk once the new journal is started, so every mutation is published by then.
+     */
+    void compactJournal() {
+        final ProductSnapshot compacted;
+        final long generation;
+        synchronized (this) {
+            if (!journal.takeCompaction()) {
+                return;
+            }
             try {
-                Integer.parseInt(key);
-            } catch (NumberFormatException e) {
-                sortable = false;
+                generation = journal.rotate();
+            } catch (IOException | IllegalStateException e) {
+                log.error("Unable to start a new product journal - " + e.getMessage());
+                return;
             }
+            publishDurable();
+            compacted = snapshot;
+        }
+        try {
+            journal.compact(generation, compacted.products());
+        } catch (IOException e) {
+            log.error("Unable to compact product journal - " + e.getMessage());
         }
-        return sortable;
     }
 
-    @PostConstruct
-    public void init() {
-        products.putAll(productReader.readProducts());
+    public ProductSnapshot getSnapshot() {
+        return snapshot;
     }
 
     public String lookupProduct(String id, Set<String> missingProductMappings) {
-        if (products.containsKey(id)) {
-            return products.get(id);
-        } else {
-            if (!missingProductMappings.contains(id)) {
-                log.error("Missing product mapping - " + id);
-                missingProductMappings.add(id);
+        return lookupProduct(snapshot, id, missingProductMappings);
+    }
+
+    /*
+     * A missing product is logged the first time it is seen by the process rather than once per request. With a
+     * remote product reader, products the snapshot does not hold are looked up in the product master.
+     */
+    public String lookupProduct(ProductSnapshot snapshot, String id, Set<String> missingProductMappings) {
+        var name = snapshot.get(id);
+        if (name == null && remote) {
+            name = productReader.lookupProducts(List.of(id)).get(id);
+        }
+        return name != null ? name : missingProduct(id, missingProductMappings);
+    }
+
+    /*
+     * Records a trade for a product that has been looked up and not found, returning the name it is enriched with.
+     */
+    public String missingProduct(String id, Set<String> missingProductMappings) {
+        if (!missingProductMappings.contains(id)) {
+            missingProductMappings.add(id);
+        }
+        final var recorded = missingProducts.record(id, 1);
+        if (recorded.firstSeen()) {
+            log.error("Missing product mapping - " + id + (recorded.tracked() ? "" :
+                    " (not tracked, " + MissingProducts.MAX_TRACKED + " missing products already are)"));
+        }
+        return DEFAULT_PRODUCT_NAME;
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+
+    /*
+     * Looks up together the products the snapshot does not hold, returning the names of those found. The caller keeps
+     * the names, and takes the rest to be missing, for the rest of its upload, so each id is looked up once whether or
+     * not the remote product reader could cache it, and not at all again while the product master is unreachable.
+     */
+    public Map<String, String> prefetch(ProductSnapshot snapshot, Collection<String> ids) {
+        final var unknown = new ArrayList<String>(ids.size());
+        for (final var id : ids) {
+            if (snapshot.get(id) == null) {
+                unknown.add(id);
             }
-            return DEFAULT_PRODUCT_NAME;
         }
+        return unknown.isEmpty() ? Map.of() : productReader.lookupProducts(unknown);
+    }
+
+    /*
+     * Counts further trades for a missing product that the caller has already looked up once.
+     */
+    public void recordMissingProduct(String id, long trades) {
+        missingProducts.record(id, trades);
+    }
+
+    public MissingProducts getMissingProducts() {
+        return missingProducts;
     }
 
     public ProductList getProducts() {
-        return new ProductList(products, areProductsSortable(products.keySet()));
+        final var snapshot = this.snapshot;
+        return new ProductList(snapshot.products(), snapshot.sortable());
     }
 
     public boolean addProduct(String id, String name) {
-        if (products.containsKey(id)) {
-            log.warn("Product id " + id + " already present");
-            return false;
-        } else {
-            products.put(id, name);
-            return true;
+        final long sequence;
+        synchronized (this) {
+            final var latest = latest();
+            if (latest.get(id) != null) {
+                log.warn("Product id " + id + " already present");
+                return false;
+            }
+            sequence = journal.append(new ProductMutation(0, ProductMutation.Operation.ADD, id, name));
+            listChanged(id, null);
+            final var changes = Map.of(id, name);
+            stage(next(changes), changes, latest.orderWithAdded(id), sequence);
         }
+        await(sequence);
+        return true;
     }
 
     public boolean changeProduct(String id, String name) {
-        if (products.containsKey(id)) {
-            products.replace(id, name);
-            return true;
-        } else {
-            log.warn("Product id " + id + " not found for replacement");
-            return false;
+        final long sequence;
+        synchronized (this) {
+            final var latest = latest();
+            if (latest.get(id) == null) {
+                log.warn("Product id " + id + " not found for replacement");
+                return false;
+            }
+            sequence = journal.append(new ProductMutation(0, ProductMutation.Operation.CHANGE, id, name));
+            listChanged(id, latest.get(id));
+            final var changes = Map.of(id, name);
+            stage(next(changes), changes, latest.orderUnchanged(), sequence);
         }
+        await(sequence);
+        return true;
     }
 
     public boolean removeProduct(String id) {
-        if (products.containsKey(id)) {
-            products.remove(id);
-            return true;
+        final long sequence;
+        synchronized (this) {
+            final var latest = latest();
+            if (latest.get(id) == null) {
+                log.warn("Product id " + id + " not found for removal");
+                return false;
+            }
+            sequence = journal.append(new ProductMutation(0, ProductMutation.Operation.DELETE, id, null));
+            listChanged(id, latest.get(id));
+            final var changes = Collections.<String, String>singletonMap(id, null);
+            stage(next(changes), changes, latest.orderWithRemoved(id), sequence);
+        }
+        await(sequence);
+        return true;
+    }
+
+    /*
+     * Validates every mutation against the catalog as it stands after the mutations before it, then publishes the
+     * result as a single snapshot. Unless partial is set, any failure (including those already recorded in the batch)
+     * rejects the whole batch and the catalog is left unchanged.
+     */
+    public ProductBatchResult applyBatch(ProductBatch batch, boolean partial) {
+        final ProductBatchResult result;
+        final long sequence;
+        synchronized (this) {
+            final var catalog = latest().catalog();
+            final var changes = new HashMap<String, String>(); // A null name is a removal
+            final var failures = new ArrayList<>(batch.failures());
+            final var applied = new ArrayList<ProductMutation>(batch.mutations().size());
+
+            for (final var mutation : batch.mutations()) {
+                final var id = mutation.id();
+                final var present = changes.containsKey(id) ? changes.get(id) != null : catalog.get(id) != null;
+                final var failure = switch (mutation.operation()) {
+                    case ADD -> present ? "product_id already present" : null;
+                    case CHANGE, DELETE -> present ? null : "product_id not found";
+                };
+                if (failure == null) {
+                    changes.put(id, mutation.operation() == ProductMutation.Operation.DELETE ? null : mutation.name());
+                    applied.add(mutation);
+                } else {
+                    failures.add("line " + mutation.line() + ": " + failure + " - " + id);
+                }
+            }
+
+            final var accepted = partial || failures.isEmpty();
+            if (accepted && !applied.isEmpty()) {
+                sequence = journal.append(applied);
+                changes.keySet().forEach(id -> listChanged(id, catalog.get(id)));
+                stage(next(changes), changes, null, sequence);
+            } else {
+                sequence = 0;
+            }
+            log.info("Product batch of " + (batch.mutations().size() + batch.failures().size()) + " rows " +
+                    (accepted ? "applied" : "rejected") + " with " + failures.size() + " failures");
+            result = new ProductBatchResult(accepted, latest().version(), accepted ? applied.size() : 0, failures);
+        }
+        await(sequence);
+        return result;
+    }
+
+    /*
+     * Applies the changes between the product list last read and a reloaded one to the catalog, taking ownership of
+     * the map. Products added, changed or removed through the API since are kept unless the reloaded list changes them
+     * too, in which case the list wins. When the list last read is not known, because the file is not watched or the
+     * catalog was recovered from a journal snapshot, the reload replaces the catalog with the list instead. The changes
+     * are published as a single snapshot, so enrichments in progress carry on with the catalog they started with, and
+     * nothing is published when there are none.
+     */
+    public ProductDiff reload(HashMap<String, String> products) {
+        final ProductDiff diff;
+        final long sequence;
+        synchronized (this) {
+            final var current = latest().catalog();
+            final var listed = listNames;
+            final var changes = new HashMap<String, String>(); // A null name is a removal
+            for (final var product : products.entrySet()) {
+                final var id = product.getKey();
+                final var name = product.getValue();
+                final var currentName = current.get(id);
+                final var listName = listed == null ? null : listed.containsKey(id) ? listed.get(id) : currentName;
+                if (!name.equals(listName) && !name.equals(currentName)) {
+                    changes.put(id, name);
+                }
+            }
+            for (final var id : current.asMap().keySet()) {
+                final var addedThroughApi = listed != null && listed.containsKey(id) && listed.get(id) == null;
+                if (!products.containsKey(id) && !addedThroughApi) {
+                    changes.put(id, null);
+                }
+            }
+            if (listed == null) {
+                log.warn("Product list last read is not known, replacing the catalog with the reloaded list");
+            }
+
+            var added = 0;
+            var removed = 0;
+            final var mutations = journal.isEnabled() ? new ArrayList<ProductMutation>(changes.size()) : null;
+            for (final var change : changes.entrySet()) {
+                final var operation = change.getValue() == null ? ProductMutation.Operation.DELETE :
+                        current.get(change.getKey()) == null ? ProductMutation.Operation.ADD :
+                                ProductMutation.Operation.CHANGE;
+                switch (operation) {
+                    case ADD -> added++;
+                    case DELETE -> removed++;
+                }
+                if (mutations != null) {
+                    mutations.add(new ProductMutation(0, operation, change.getKey(), change.getValue()));
+                }
+            }
+            diff = new ProductDiff(added, changes.size() - added - removed, removed);
+
+            sequence = mutations != null && !mutations.isEmpty() ? journal.append(mutations) : 0;
+            listNames = watched ? listNames(listed, products, current, changes) : null;
+            if (listed == null && !diff.isEmpty()) {
+                stage(current.load(products, latest().version() + 1), null, null, sequence);
+            } else if (!diff.isEmpty()) {
+                stage(next(changes), changes, null, sequence);
+            }
+        }
+        await(sequence);
+        return diff;
+    }
+
+    /*
+     * The API's changes the reloaded list left in place, with the names the reloaded list gives those products.
+     */
+    private static HashMap<String, String> listNames(Map<String, String> listed, Map<String, String> products,
+                                                     ProductCatalog current, Map<String, String> changes) {
+        final var kept = new HashMap<String, String>();
+        if (listed != null) {
+            for (final var id : listed.keySet()) {
+                final var listName = products.get(id);
+                if (!changes.containsKey(id) && !Objects.equals(listName, current.get(id))) {
+                    kept.put(id, listName);
+                }
+            }
+        }
+        return kept;
+    }
+
+    private ProductCatalog next(Map<String, String> changes) {
+        final var latest = latest();
+        return latest.catalog().with(changes, latest.version() + 1);
+    }
+
+    /*
+     * The snapshot holding every mutation made, published or not.
+     */
+    private ProductSnapshot latest() {
+        return unpublished.isEmpty() ? snapshot : unpublished.getLast().snapshot();
+    }
+
+    /*
+     * Publishes the catalog made by the changes at once, or with a sync journal once the record with the sequence
+     * number is on disk. Null changes are a whole new catalog, and a null order is sorted when it is first needed.
+     */
+    private void stage(ProductCatalog catalog, Map<String, String> changes, ProductOrder order, long sequence) {
+        final var next = new Unpublished(sequence, new ProductSnapshot(latest().version() + 1, catalog, order),
+                changes);
+        if (sequence > 0 && journal.isSync()) {
+            unpublished.addLast(next);
         } else {
-            log.warn("Product id " + id + " not found for removal");
-            return false;
+            publish(List.of(next));
+        }
+    }
+
+    /*
+     * Waits for the record with the sequence number to be forced, then publishes every mutation whose record is on
+     * disk. Should the journal have failed the rest are dropped, leaving the catalog as it was journalled, and the
+     * mutation fails.
+     */
+    private void await(long sequence) {
+        IllegalStateException failure = null;
+        try {
+            journal.await(sequence);
+        } catch (IllegalStateException e) {
+            failure = e;
+        }
+        synchronized (this) {
+            publishDurable();
+            if (failure != null) {
+                unpublished.clear();
+                throw failure;
+            }
+        }
+    }
+
+    private void publishDurable() {
+        final var durable = journal.durable();
+        final var durables = new ArrayList<Unpublished>();
+        while (!unpublished.isEmpty() && unpublished.getFirst().sequence() <= durable) {
+            durables.add(unpublished.removeFirst());
+        }
+        if (!durables.isEmpty()) {
+            publish(durables);
         }
     }
+
+    /*
+     * Publishes the last of the snapshots, then forgets the missing products any of them added. Only the ids changed
+     * are checked, unless a snapshot holds a whole new catalog.
+     */
+    private void publish(List<Unpublished> published) {
+        final var next = published.get(published.size() - 1).snapshot();
+        snapshot = next;
+        for (final var each : published) {
+            if (each.changes() == null) {
+                missingProducts.removeIf(id -> next.catalog().get(id) != null);
+            } else {
+                each.changes().forEach((id, name) -> {
+                    if (name != null) {
+                        missingProducts.remove(id);
+                    }
+                });
+            }
+        }
+    }
+
+    private record Unpublished(long sequence, ProductSnapshot snapshot, Map<String, String> changes) {
+    }
 }
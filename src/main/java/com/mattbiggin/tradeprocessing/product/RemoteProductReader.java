@@ -0,0 +1,186 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Used when static.productReader is remote, for product static data held by a central product master rather than in a
+ * local file. Nothing is read up front: products the catalog does not hold are looked up in the master as trades refer
+ * to them and kept in a ProductNearCache, negative results included. Products added through the API are held in the
+ * catalog and take precedence, and a reload empties the cache while leaving the catalog as it is.
+ *
+ * Enrichments look up the unknown products of each buffer of trades together, which are fetched in requests of at
+ * most static.remote.batchSize ids. An id already being fetched for another enrichment is waited for rather than
+ * fetched again. When the master cannot be reached the trades are enriched as missing products and nothing is cached.
+ * No further requests are made for static.remote.failureBackoffMillis, so an outage costs one failed request rather
+ * than one for every id, and the uploads after it look the products up again.
+ */
+@Component
+@ConditionalOnProperty(name = "static.productReader", havingValue = "remote")
+class RemoteProductReader implements ProductReader {
+    private static final Logger log = LoggerFactory.getLogger(RemoteProductReader.class);
+
+    final private RemoteProductSource source;
+
+    final private ProductNearCache cache;
+
+    final private int batchSize;
+
+    final private long failureBackoffNanos;
+
+    /* System.nanoTime before which lookups are not sent to the master */
+    private volatile long retryAt = System.nanoTime();
+
+    /* Completed with the name, or null when there is no product or the fetch failed */
+    final private Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    final private Counter hits;
+
+    final private Counter misses;
+
+    final private Timer fetches;
+
+    @Autowired
+    RemoteProductReader(RemoteProductSource source, ConfigurationProperties properties, MeterRegistry registry) {
+        this(source, new ProductNearCache(properties.getRemoteCacheSize(),
+                        TimeUnit.SECONDS.toNanos(properties.getRemoteTtlSeconds()),
+                        TimeUnit.SECONDS.toNanos(properties.getRemoteNegativeTtlSeconds())),
+                properties.getRemoteBatchSize(),
+                TimeUnit.MILLISECONDS.toNanos(properties.getRemoteFailureBackoffMillis()), registry);
+    }
+
+    RemoteProductReader(RemoteProductSource source, ProductNearCache cache, int batchSize, long failureBackoffNanos,
+                        MeterRegistry registry) {
+        this.source = source;
+        this.cache = cache;
+        this.batchSize = Math.max(batchSize, 1);
+        this.failureBackoffNanos = failureBackoffNanos;
+        this.hits = Counter.builder("products.remote.cache").tag("result", "hit").register(registry);
+        this.misses = Counter.builder("products.remote.cache").tag("result", "miss").register(registry);
+        this.fetches = Timer.builder("products.remote.fetch").register(registry);
+        Gauge.builder("products.remote.cache.size", cache, ProductNearCache::size).register(registry);
+    }
+
+    @Override
+    public HashMap<String, String> readProducts() {
+        cache.clear();
+        log.info("Products are looked up in the remote product master");
+        return new HashMap<>();
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+
+    @Override
+    public Map<String, String> lookupProducts(Collection<String> ids) {
+        final var now = System.nanoTime();
+        final var products = new HashMap<String, String>();
+        final var fetching = new LinkedHashMap<String, CompletableFuture<String>>();
+        final var waiting = new HashMap<String, CompletableFuture<String>>();
+        final var isBackingOff = now - retryAt < 0;
+        var cached = 0;
+        var skipped = 0;
+        try {
+            for (final var id : ids) {
+                final var entry = cache.get(id, now);
+                if (entry != null) {
+                    cached++;
+                    if (entry.name() != null) {
+                        products.put(id, entry.name());
+                    }
+                    continue;
+                } else if (isBackingOff) {
+                    skipped++;
+                    continue;
+                }
+                final var fetch = new CompletableFuture<String>();
+                final var other = inFlight.putIfAbsent(id, fetch);
+                if (other == null) {
+                    fetching.put(id, fetch);
+                } else {
+                    waiting.put(id, other);
+                }
+            }
+            hits.increment(cached);
+            misses.increment(fetching.size() + waiting.size() + skipped);
+
+            if (!fetching.isEmpty()) {
+                fetch(fetching, products);
+            }
+        } finally {
+            /* Whatever went wrong, no lookup is left waiting on a fetch that will never complete */
+            fetching.forEach((id, fetch) -> {
+                fetch.complete(null);
+                inFlight.remove(id, fetch);
+            });
+        }
+        waiting.forEach((id, fetch) -> {
+            final var name = fetch.join();
+            if (name != null) {
+                products.put(id, name);
+            }
+        });
+        return products;
+    }
+
+    /*
+     * Each id is cached before its fetch is completed and removed from those in flight, so a lookup that no longer
+     * finds it in flight finds it in the cache. Once a batch fails the batches after it are not sent.
+     */
+    private void fetch(Map<String, CompletableFuture<String>> fetching, Map<String, String> products) {
+        final var ids = new ArrayList<>(fetching.keySet());
+        var failed = false;
+        for (var from = 0; from < ids.size(); from += batchSize) {
+            final List<String> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            Map<String, String> fetched = null;
+            if (!failed) {
+                final var start = System.nanoTime();
+                try {
+                    fetched = source.fetch(batch);
+                } catch (IOException | RuntimeException e) {
+                    failed = true;
+                    retryAt = System.nanoTime() + failureBackoffNanos;
+                    log.error("Unable to look up " + batch.size() + " products in the product master, retrying in " +
+                            TimeUnit.NANOSECONDS.toMillis(failureBackoffNanos) + "ms - " + e);
+                } finally {
+                    fetches.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            }
+
+            final var now = System.nanoTime();
+            for (final var id : batch) {
+                final var name = fetched != null ? fetched.get(id) : null;
+                if (fetched != null) {
+                    cache.put(id, name, now);
+                }
+                if (name != null) {
+                    products.put(id, name);
+                }
+                final var fetch = fetching.get(id);
+                fetch.complete(name);
+                inFlight.remove(id, fetch);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/*
+ * A remote product master, such as the HTTP endpoint of a reference data service, that RemoteProductReader asks for
+ * the products it does not have cached.
+ */
+interface RemoteProductSource {
+    /*
+     * The names of those of the products that exist, in one request. Ids without a product are left out.
+     */
+    Map<String, String> fetch(Collection<String> ids) throws IOException;
+}
@@ -4,25 +4,33 @@ import com.mattbiggin.tradeprocessing.ConfigurationProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/*
+ * The original line by line reader, used when static.productReader is lines.
+ */
 @Component
+@ConditionalOnProperty(name = "static.productReader", havingValue = "lines")
 class ResourceFileProductReader implements ProductReader {
     private static final Logger log = LoggerFactory.getLogger(ResourceFileProductReader.class);
 
+    final private ConfigurationProperties properties;
+
     @Autowired
-    private ConfigurationProperties properties;
+    ResourceFileProductReader(ConfigurationProperties properties) {
+        this.properties = properties;
+    }
 
     @Override
-    public Map<String, String> readProducts() {
+    public HashMap<String, String> readProducts() {
         final var productList = properties.getProductListFileName();
         final var products = new HashMap<String, String>();
 
@@ -0,0 +1,98 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+/*
+ * Loads the product list from the binary snapshot written when the CSV was last parsed, used when
+ * static.productReader is snapshot. When there is no snapshot, or the CSV has changed since it was written, the CSV is
+ * parsed by the memory mapped reader and a new snapshot written for the next start.
+ *
+ * A changed size or modification time is seen from the snapshot's header alone, but the CSV is still hashed once on
+ * every start, so the snapshot saves parsing the CSV, not reading it.
+ */
+@Component
+@ConditionalOnProperty(name = "static.productReader", havingValue = "snapshot")
+class SnapshotProductReader implements ProductReader {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotProductReader.class);
+
+    final private ConfigurationProperties properties;
+
+    final private MappedFileProductReader csvReader;
+
+    @Autowired
+    SnapshotProductReader(ConfigurationProperties properties) {
+        this.properties = properties;
+        this.csvReader = new MappedFileProductReader(properties);
+    }
+
+    @Override
+    public HashMap<String, String> readProducts() {
+        final var start = System.nanoTime();
+        final var csv = Paths.get(properties.getProductListFileName());
+        final var snapshot = snapshotFile(csv);
+
+        final long size;
+        final long modified;
+        try {
+            size = Files.size(csv);
+            modified = Files.getLastModifiedTime(csv).toMillis();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return new HashMap<>();
+        }
+
+        ProductSnapshotFile.Source source = null;
+        if (Files.exists(snapshot)) {
+            try {
+                final var recorded = ProductSnapshotFile.source(snapshot);
+                if (recorded != null && recorded.size() == size && recorded.modified() == modified) {
+                    source = ProductSnapshotFile.Source.of(csv);
+                    final var products = ProductSnapshotFile.read(snapshot, source);
+                    if (products != null) {
+                        log.info("Loaded " + products.size() + " products from " + snapshot + " in " +
+                                (System.nanoTime() - start) / 1_000_000 + "ms");
+                        return products;
+                    }
+                }
+                log.info("Product snapshot " + snapshot + " is out of date or invalid, reading " + csv);
+            } catch (IOException e) {
+                log.warn("Unable to read product snapshot " + snapshot + " - " + e.getMessage());
+            }
+        }
+
+        /* Hashed before parsing, so that a change made while the CSV is parsed is seen on the next start */
+        try {
+            if (source == null) {
+                source = ProductSnapshotFile.Source.of(csv);
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return new HashMap<>();
+        }
+
+        final var products = csvReader.readProducts();
+        try {
+            ProductSnapshotFile.write(snapshot, source, products);
+            log.info("Wrote product snapshot " + snapshot);
+        } catch (IOException e) {
+            log.warn("Unable to write product snapshot " + snapshot + " - " + e.getMessage());
+        }
+        return products;
+    }
+
+    private Path snapshotFile(Path csv) {
+        final var configured = properties.getProductSnapshotFileName();
+        return configured.isBlank() ? csv.resolveSibling(csv.getFileName() + ".snapshot") : Paths.get(configured);
+    }
+}
@@ -0,0 +1,30 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Aggregates of the most recent MAX_RETAINED enrichments that asked for them, by request id. Fewer are kept than
+ * rejection summaries as each holds a total for every product traded.
+ */
+@Component
+public class AggregateStore {
+    static final int MAX_RETAINED = 100;
+
+    final private Map<String, TradeAggregates> aggregates = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TradeAggregates> eldest) {
+            return size() > MAX_RETAINED;
+        }
+    };
+
+    public synchronized TradeAggregates find(String requestId) {
+        return aggregates.get(requestId);
+    }
+
+    synchronized void complete(TradeAggregates completed) {
+        aggregates.put(completed.requestId(), completed);
+    }
+}
@@ -0,0 +1,252 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Enriches many trade files in one request, as desks send them at the end of the day. The files are read in turn,
+ * enriched concurrently on a pool of enrich.batch.threads workers and written back as the entries of a zip archive in
+ * the order they were sent, followed by a summary of the batch. No more than enrich.batch.maxFilesInFlight files are
+ * held ahead of the writer.
+ *
+ * Every file is enriched against the same product snapshot, shares one set of missing products, so that each is
+ * logged once per batch, and adds its rejected trades to those of the batch. Entries are stored rather than
+ * compressed, with their checksums calculated by the workers, so the single writer only copies bytes.
+ */
+@Component
+public class BatchTradeEnrichment {
+    static final String SUMMARY = "summary.txt";
+
+    private static final int MAX_FILE_BYTES = Integer.MAX_VALUE - 8; // The largest array, less the header
+
+    private static final Logger log = LoggerFactory.getLogger(BatchTradeEnrichment.class);
+
+    final private Products products;
+
+    final private TradeDateValidator dateValidator;
+
+    final private TradeValueValidator valueValidator;
+
+    final private ConfigurationProperties properties;
+
+    final private EnrichmentMetrics metrics;
+
+    final private RejectionStore rejectionStore;
+
+    private ExecutorService executor;
+
+    /*
+     * The files of a batch in the order they were sent, next returning null after the last.
+     */
+    public interface Files {
+        TradeFile next() throws IOException;
+    }
+
+    public record TradeFile(String name, byte[] content) {
+    }
+
+    private record Enriched(String name, ByteArrayOutputStream output, long crc, EnrichmentStats stats,
+                            RejectedTrades rejected) {
+    }
+
+    @Autowired
+    BatchTradeEnrichment(Products products, TradeDateValidator dateValidator, TradeValueValidator valueValidator,
+                         ConfigurationProperties properties, EnrichmentMetrics metrics,
+                         RejectionStore rejectionStore) {
+        this.products = products;
+        this.dateValidator = dateValidator;
+        this.valueValidator = valueValidator;
+        this.properties = properties;
+        this.metrics = metrics;
+        this.rejectionStore = rejectionStore;
+    }
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(properties.getBatchThreads());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /*
+     * The files of a zip archive, skipping directories. Entries are held in memory to be enriched, so one that
+     * decompresses to more than maxFileBytes, or beyond maxBytes for the archive as a whole, fails the batch as it is
+     * read rather than exhausting the heap. A limit of -1 is only held to the largest array.
+     */
+    public static Files zip(InputStream archive, long maxFileBytes, long maxBytes) {
+        final var zip = new ZipInputStream(archive, UTF_8);
+        final var fileLimit = (int) Math.min(maxFileBytes < 0 ? Long.MAX_VALUE : maxFileBytes, MAX_FILE_BYTES);
+        final var limit = maxBytes < 0 ? Long.MAX_VALUE : maxBytes;
+        final var total = new long[1];
+        return () -> {
+            var entry = zip.getNextEntry();
+            while (entry != null && entry.isDirectory()) {
+                entry = zip.getNextEntry();
+            }
+            if (entry == null) {
+                return null;
+            }
+            final var content = zip.readNBytes((int) Math.min(fileLimit, limit - total[0]) + 1);
+            total[0] += content.length;
+            if (content.length > fileLimit) {
+                throw new IOException("Zip entry " + entry.getName() + " is larger than " + fileLimit + " bytes");
+            } else if (total[0] > limit) {
+                throw new IOException("Zip entries are larger than " + limit + " bytes in total");
+            }
+            return new TradeFile(entry.getName(), content);
+        };
+    }
+
+    public void processFiles(String requestId, ProductSnapshot snapshot, Files files, OutputStream output) {
+        try {
+            enrich(requestId, snapshot, files, output);
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    EnrichmentStats enrich(String requestId, ProductSnapshot snapshot, Files files, OutputStream output)
+            throws IOException {
+        final var start = System.nanoTime();
+        final var maxInFlight = properties.getBatchMaxFilesInFlight();
+        final var pending = new ArrayDeque<Future<Enriched>>(maxInFlight);
+        final var missingProductMappings = ConcurrentHashMap.<String>newKeySet();
+        final var names = new HashSet<>(Set.of(SUMMARY));
+        final var summary = new StringBuilder("file,rows_read,rows_written,rows_rejected\n");
+        final var zip = new ZipOutputStream(output, UTF_8);
+
+        try (var rejected = rejectionStore.open(requestId)) {
+            var stats = EnrichmentStats.EMPTY;
+            var count = 0;
+            var file = files.next();
+            while (file != null) {
+                count++;
+                final var data = file.content();
+                final var name = name(file.name(), count, names);
+                final var fileRejected = rejected.forChunk();
+                pending.add(executor.submit(() -> enrich(snapshot, name, data, missingProductMappings,
+                        fileRejected)));
+
+                if (pending.size() >= maxInFlight) {
+                    stats = stats.plus(write(pending.removeFirst(), zip, rejected, summary));
+                }
+                file = files.next();
+            }
+            while (!pending.isEmpty()) {
+                stats = stats.plus(write(pending.removeFirst(), zip, rejected, summary));
+            }
+
+            final var elapsedNanos = System.nanoTime() - start;
+            final var report = ("request_id=" + requestId + "\n" +
+                    "product_version=" + snapshot.version() + "\n" +
+                    "files=" + count + "\n" +
+                    "rows_read=" + stats.rowsRead() + "\n" +
+                    "rows_written=" + stats.rowsWritten() + "\n" +
+                    "rows_rejected=" + stats.rejected() + "\n" +
+                    "elapsed_ms=" + elapsedNanos / 1_000_000 + "\n" +
+                    summary).getBytes(UTF_8);
+            zip.putNextEntry(new ZipEntry(SUMMARY));
+            zip.write(report);
+            zip.closeEntry();
+            zip.finish();
+            output.flush();
+
+            metrics.record(EnrichmentMetrics.Mode.BATCH, stats, elapsedNanos);
+            rejectionStore.complete(requestId, rejected, stats);
+            return stats;
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private Enriched enrich(ProductSnapshot snapshot, String name, byte[] data, Set<String> missingProductMappings,
+                            RejectedTrades rejected) throws IOException {
+        final var output = new ByteArrayOutputStream(data.length + data.length / 2);
+        final var crc = new CRC32();
+        final var checked = new CheckedOutputStream(output, crc);
+        checked.write(TradeByteEnricher.HEADER);
+        final var enricher = new TradeByteEnricher(products, snapshot, dateValidator, valueValidator,
+                missingProductMappings, rejected, checked);
+        enricher.finish(data, enricher.consume(data, 0, data.length), data.length);
+        enricher.flush();
+        enricher.recordMissingProducts();
+        return new Enriched(name, output, crc.getValue(), enricher.stats().withBytes(data.length, output.size()),
+                rejected);
+    }
+
+    private static EnrichmentStats write(Future<Enriched> pending, ZipOutputStream zip, RejectedTrades rejected,
+                                         StringBuilder summary) throws IOException {
+        try {
+            final var enriched = pending.get();
+            final var entry = new ZipEntry(enriched.name());
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(enriched.output().size());
+            entry.setCompressedSize(enriched.output().size());
+            entry.setCrc(enriched.crc());
+            zip.putNextEntry(entry);
+            enriched.output().writeTo(zip);
+            zip.closeEntry();
+            rejected.addAll(enriched.rejected());
+
+            final var stats = enriched.stats();
+            summary.append(enriched.name()).append(',').append(stats.rowsRead()).append(',')
+                    .append(stats.rowsWritten()).append(',').append(stats.rejected()).append('\n');
+            return stats;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /*
+     * The file name without any directories, made unique within the archive by prefixing its position in the batch
+     * when it is empty or has already been used.
+     */
+    static String name(String fileName, int position, Set<String> names) {
+        var name = fileName == null ? "" : fileName.substring(Math.max(fileName.lastIndexOf('/'),
+                fileName.lastIndexOf('\\')) + 1).replaceAll("[,\r\n]", "_");
+        if (name.isBlank()) {
+            name = "trades.csv";
+        }
+        while (!names.add(name)) {
+            name = position + "-" + name;
+        }
+        return name;
+    }
+}
@@ -0,0 +1,97 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * Reads the input into chunks that end on a line break. The bytes after the last line break of a chunk are carried
+ * into the start of the next one, and a chunk grows when a single line does not fit. Chunk buffers are either recycled
+ * through release once enriched, or supplied by the caller.
+ */
+final class ChunkReader {
+    private final InputStream input;
+    private final int chunkSize;
+    private final BlockingQueue<byte[]> free;
+
+    private byte[] carry = new byte[0];
+    private int carryLength;
+    private int length;
+    private boolean endOfInput;
+
+    ChunkReader(InputStream input, int chunkSize, int maxInFlight) {
+        this.input = input;
+        this.chunkSize = chunkSize;
+        this.free = new ArrayBlockingQueue<>(maxInFlight + 1);
+    }
+
+    byte[] next() throws IOException {
+        return next(free.poll());
+    }
+
+    /*
+     * Fills the chunk, or a new one when it is null or too small for the carried bytes, and returns it, or null at the
+     * end of the input. The chunk returned may be a grown copy of the one supplied.
+     */
+    byte[] next(byte[] chunk) throws IOException {
+        if (endOfInput) {
+            return null;
+        }
+
+        if (chunk == null || chunk.length <= carryLength) {
+            chunk = new byte[Math.max(chunkSize, carryLength * 2)];
+        }
+        System.arraycopy(carry, 0, chunk, 0, carryLength);
+        length = carryLength;
+
+        var end = -1;
+        while (end < 0) {
+            if (length == chunk.length) {
+                chunk = Arrays.copyOf(chunk, chunk.length * 2);
+            }
+            final var read = input.readNBytes(chunk, length, chunk.length - length);
+            final var scanFrom = length;
+            length += read;
+            if (length < chunk.length) {
+                endOfInput = true;
+                end = length;
+            } else {
+                end = lastLineBreak(chunk, scanFrom, length);
+            }
+        }
+
+        carryLength = length - end;
+        if (carry.length < carryLength) {
+            carry = new byte[Math.max(carryLength, chunkSize)];
+        }
+        System.arraycopy(chunk, end, carry, 0, carryLength);
+        length = end;
+
+        return length > 0 ? chunk : null;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void release(byte[] chunk) {
+        if (chunk.length == chunkSize) {
+            free.offer(chunk);
+        }
+    }
+
+    /*
+     * The end of the last line break in the range, other than a \r at its very end whose \n, should it be CRLF, has
+     * not been read yet and would otherwise start the next chunk as an empty line.
+     */
+    private static int lastLineBreak(byte[] chunk, int from, int to) {
+        for (var i = to - 1; i >= from; i--) {
+            if (chunk[i] == '\n' || (chunk[i] == '\r' && i < to - 1)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,166 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+
+import java.nio.file.Path;
+
+/*
+ * An upload spooled to disk and enriched in the background. A job is SPOOLING while its upload arrives and QUEUED once
+ * it has all been spooled. Progress is updated by the job's thread as each buffer of input is read and each buffer of
+ * output written, and may be read from any thread.
+ */
+public class EnrichmentJob {
+    public enum State {SPOOLING, QUEUED, RUNNING, COMPLETE, FAILED}
+
+    final private String id;
+
+    final private ProductSnapshot snapshot;
+
+    final private Path input;
+
+    final private Path output;
+
+    final private boolean gzip;
+
+    final private long submitted;
+
+    private volatile State state = State.SPOOLING;
+    private volatile long inputSize;
+    private volatile long bytesRead;
+    private volatile long bytesWritten;
+    private volatile long linesWritten;
+    private volatile long started;
+    private volatile long finished;
+    private volatile EnrichmentStats stats;
+    private volatile String error;
+
+    /* Bytes of the job's files charged against enrich.jobs.maxDiskBytes, guarded by EnrichmentJobs */
+    private long diskBytes;
+
+    EnrichmentJob(String id, ProductSnapshot snapshot, Path input, Path output, boolean gzip) {
+        this.id = id;
+        this.snapshot = snapshot;
+        this.input = input;
+        this.output = output;
+        this.gzip = gzip;
+        this.submitted = System.currentTimeMillis();
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public Path output() {
+        return output;
+    }
+
+    public long productVersion() {
+        return snapshot.version();
+    }
+
+    ProductSnapshot snapshot() {
+        return snapshot;
+    }
+
+    Path input() {
+        return input;
+    }
+
+    boolean isGzip() {
+        return gzip;
+    }
+
+    long inputSize() {
+        return inputSize;
+    }
+
+    long submitted() {
+        return submitted;
+    }
+
+    long finished() {
+        return finished;
+    }
+
+    boolean isFinished() {
+        final var current = state;
+        return current == State.COMPLETE || current == State.FAILED;
+    }
+
+    long diskBytes() {
+        return diskBytes;
+    }
+
+    void charged(long bytes) {
+        diskBytes += bytes;
+    }
+
+    void spooled(long bytes) {
+        inputSize += bytes;
+    }
+
+    void queued() {
+        state = State.QUEUED;
+    }
+
+    void started() {
+        started = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    void read(long bytes) {
+        bytesRead += bytes;
+    }
+
+    void written(long bytes, long lines) {
+        bytesWritten += bytes;
+        linesWritten += lines;
+    }
+
+    void complete(EnrichmentStats stats) {
+        this.stats = stats;
+        finished = System.currentTimeMillis();
+        state = State.COMPLETE;
+    }
+
+    void fail(String error) {
+        this.error = error;
+        finished = System.currentTimeMillis();
+        state = State.FAILED;
+    }
+
+    /*
+     * Rows are counted from the output lines while the job runs, less the header, and taken from the enrichment once
+     * it completes, when the rows read and rejected are known too.
+     */
+    public String summary() {
+        final var current = state;
+        final var summary = new StringBuilder()
+                .append("job_id=").append(id).append('\n')
+                .append("state=").append(current).append('\n')
+                .append("product_version=").append(productVersion()).append('\n')
+                .append("bytes_total=").append(inputSize).append('\n')
+                .append("bytes_read=").append(bytesRead).append('\n')
+                .append("bytes_written=").append(bytesWritten).append('\n');
+        final var completed = stats;
+        if (completed != null) {
+            summary.append("rows_read=").append(completed.rowsRead()).append('\n')
+                    .append("rows_written=").append(completed.rowsWritten()).append('\n')
+                    .append("rows_rejected=").append(completed.rejected()).append('\n');
+        } else {
+            summary.append("rows_written=").append(Math.max(linesWritten - 1, 0)).append('\n');
+        }
+        if (started > 0) {
+            final var end = finished > 0 ? finished : System.currentTimeMillis();
+            summary.append("elapsed_ms=").append(end - started).append('\n');
+        }
+        if (error != null) {
+            summary.append("error=").append(error).append('\n');
+        }
+        return summary.toString();
+    }
+}
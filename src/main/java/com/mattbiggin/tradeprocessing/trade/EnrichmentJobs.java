@@ -0,0 +1,329 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.Products;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/*
+ * Enrichment jobs for uploads too large to enrich within a client's HTTP timeout. An upload is spooled to
+ * enrich.jobs.directory as it arrives, as it was sent, and enriched in the background on enrich.jobs.threads threads
+ * into an output file that can be downloaded, and resumed, once the job completes. A job's spooled upload is deleted
+ * as soon as it has been enriched.
+ *
+ * Finished jobs are evicted once older than enrich.jobs.maxAgeMinutes, checked whenever a job is submitted or
+ * finishes. The bytes of every spooled upload and output are counted as they are written, and the oldest finished
+ * jobs are evicted to keep them within enrich.jobs.maxDiskBytes; a job that would still exceed it fails.
+ */
+@Component
+public class EnrichmentJobs {
+    static final String INPUT_SUFFIX = ".job-input";
+    static final String OUTPUT_SUFFIX = ".job-output.csv";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(EnrichmentJobs.class);
+
+    final private Products products;
+
+    final private TradeStreamEnrichment tradeStreamEnrichment;
+
+    final private ConfigurationProperties properties;
+
+    final private Map<String, EnrichmentJob> jobs = new LinkedHashMap<>();
+
+    /* Bytes of the files of all jobs, guarded by this */
+    private long used;
+
+    private ExecutorService executor;
+
+    @Autowired
+    EnrichmentJobs(Products products, TradeStreamEnrichment tradeStreamEnrichment, ConfigurationProperties properties) {
+        this.products = products;
+        this.tradeStreamEnrichment = tradeStreamEnrichment;
+        this.properties = properties;
+    }
+
+    /*
+     * Jobs are held in memory only, so the files of jobs from a previous run can no longer be downloaded.
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        executor = Executors.newFixedThreadPool(properties.getJobThreads());
+        try (var files = Files.list(directory())) {
+            for (final var file : files.toList()) {
+                final var name = file.getFileName().toString();
+                if (name.endsWith(INPUT_SUFFIX) || name.endsWith(OUTPUT_SUFFIX)) {
+                    log.info("Removing " + file + " left by a previous run");
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return !properties.getJobsDirectory().isBlank();
+    }
+
+    public boolean exceedsQuota(Long length) {
+        return length != null && length > properties.getJobMaxDiskBytes();
+    }
+
+    public synchronized EnrichmentJob find(String id) {
+        return jobs.get(id);
+    }
+
+    /*
+     * Spools the upload and queues it for enrichment against the products current now, returning null when a job
+     * with the id is already held. The job is held as SPOOLING while the upload arrives, so its id is taken from the
+     * start, and is dropped again should the upload fail or not fit the disk quota.
+     */
+    public EnrichmentJob submit(String id, InputStream upload, boolean gzip) throws IOException {
+        final var job = new EnrichmentJob(id, products.getSnapshot(), directory().resolve(id + INPUT_SUFFIX),
+                directory().resolve(id + OUTPUT_SUFFIX), gzip);
+        synchronized (this) {
+            if (jobs.containsKey(id)) {
+                return null;
+            }
+            jobs.put(id, job);
+        }
+
+        try {
+            spool(job, upload);
+        } catch (IOException e) {
+            synchronized (this) {
+                jobs.remove(id);
+            }
+            delete(job.input());
+            release(job, job.diskBytes());
+            throw e;
+        }
+        job.queued();
+        log.info("Job " + id + " queued, " + job.inputSize() + " bytes spooled");
+        evict();
+        executor.execute(() -> run(job));
+        return job;
+    }
+
+    private void spool(EnrichmentJob job, InputStream upload) throws IOException {
+        try (var out = Files.newOutputStream(job.input(), CREATE_NEW, WRITE)) {
+            final var buffer = new byte[BUFFER_SIZE];
+            var read = upload.read(buffer);
+            while (read >= 0) {
+                charge(job, read);
+                out.write(buffer, 0, read);
+                job.spooled(read);
+                read = upload.read(buffer);
+            }
+        }
+    }
+
+    /*
+     * The spooled upload is deleted before the job is marked finished, so a finished job never has one. The output of
+     * a failed job is deleted too, as it cannot be downloaded.
+     */
+    private void run(EnrichmentJob job) {
+        job.started();
+        try {
+            final var stats = enrich(job);
+            delete(job.input());
+            release(job, job.inputSize());
+            job.complete(stats);
+            log.info("Job " + job.id() + " complete - " + stats);
+        } catch (IOException | RuntimeException e) {
+            delete(job.input());
+            delete(job.output());
+            release(job, job.diskBytes());
+            job.fail(e.getMessage() != null ? e.getMessage() : e.toString());
+            log.error("Job " + job.id() + " failed - " + e);
+        }
+        evict();
+    }
+
+    private EnrichmentStats enrich(EnrichmentJob job) throws IOException {
+        final var parallel = isOverParallelThreshold(job.inputSize());
+        try (var in = new ProgressInputStream(Files.newInputStream(job.input()), job);
+             var out = new BufferedOutputStream(new ProgressOutputStream(Files.newOutputStream(job.output()), job),
+                     BUFFER_SIZE)) {
+            final var input = job.isGzip() ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+            final var stats = tradeStreamEnrichment.enrich(job.id(), job.snapshot(), input, out, parallel,
+                    false);
+            out.flush();
+            return stats;
+        }
+    }
+
+    private boolean isOverParallelThreshold(long size) {
+        final var threshold = properties.getParallelThreshold();
+        return threshold > 0 && size >= threshold;
+    }
+
+    /*
+     * Removes finished jobs past their age, then the oldest finished jobs while the files of all jobs exceed the disk
+     * quota, as they may once the quota is lowered.
+     */
+    synchronized void evict() {
+        final var oldest = System.currentTimeMillis() - properties.getJobMaxAgeMinutes() * 60_000;
+        for (final var job : new ArrayList<>(jobs.values())) {
+            if (job.isFinished() && job.finished() < oldest) {
+                remove(job);
+            }
+        }
+        makeRoom(0);
+    }
+
+    /*
+     * Charges bytes about to be written to a job's files against enrich.jobs.maxDiskBytes, first evicting the oldest
+     * finished jobs to make room. Queued and running jobs are not evicted, so when there is still no room it is the
+     * job writing, whether spooling its upload or writing its output, that fails.
+     */
+    private synchronized void charge(EnrichmentJob job, long bytes) throws QuotaExceededException {
+        makeRoom(bytes);
+        if (used + bytes > properties.getJobMaxDiskBytes()) {
+            throw new QuotaExceededException("job " + job.id() + " exceeds enrich.jobs.maxDiskBytes of " +
+                    properties.getJobMaxDiskBytes() + " bytes");
+        }
+        used += bytes;
+        job.charged(bytes);
+    }
+
+    private synchronized void release(EnrichmentJob job, long bytes) {
+        used -= bytes;
+        job.charged(-bytes);
+    }
+
+    private void makeRoom(long bytes) {
+        final var limit = properties.getJobMaxDiskBytes() - bytes;
+        for (final var job : new ArrayList<>(jobs.values())) {
+            if (used <= limit) {
+                break;
+            } else if (job.isFinished()) {
+                remove(job);
+            }
+        }
+    }
+
+    private void remove(EnrichmentJob job) {
+        log.info("Evicting job " + job.id());
+        jobs.remove(job.id());
+        delete(job.output());
+        release(job, job.diskBytes());
+    }
+
+    private Path directory() {
+        return Paths.get(properties.getJobsDirectory()).toAbsolutePath().normalize();
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.error("Unable to delete " + file + " - " + e.getMessage());
+        }
+    }
+
+    /*
+     * Reports the spooled bytes read, before any decompression, so that progress compares with the spooled size.
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+        private final EnrichmentJob job;
+
+        ProgressInputStream(InputStream in, EnrichmentJob job) {
+            super(in);
+            this.job = job;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final var b = super.read();
+            if (b >= 0) {
+                job.read(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final var count = in.read(buffer, offset, length);
+            if (count > 0) {
+                job.read(count);
+            }
+            return count;
+        }
+    }
+
+    /*
+     * Sits behind a buffer, so progress is updated, and the output charged against the quota, once per buffer of
+     * output rather than once per trade.
+     */
+    private class ProgressOutputStream extends FilterOutputStream {
+        private final EnrichmentJob job;
+
+        ProgressOutputStream(OutputStream out, EnrichmentJob job) {
+            super(out);
+            this.job = job;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            charge(job, 1);
+            out.write(b);
+            job.written(1, b == '\n' ? 1 : 0);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            charge(job, length);
+            out.write(buffer, offset, length);
+            var lines = 0;
+            for (var i = offset; i < offset + length; i++) {
+                if (buffer[i] == '\n') {
+                    lines++;
+                }
+            }
+            job.written(length, lines);
+        }
+    }
+
+    /*
+     * An upload or output that would take the files of all jobs over enrich.jobs.maxDiskBytes.
+     */
+    public static class QuotaExceededException extends IOException {
+        QuotaExceededException(String message) {
+            super(message);
+        }
+    }
+}
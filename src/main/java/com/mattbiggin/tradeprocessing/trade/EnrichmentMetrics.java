@@ -0,0 +1,109 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Aggregate enrichment metrics, published through Micrometer. The meters are updated once per enrichment from its
+ * EnrichmentStats, never from the per trade loop, and each enrichment is also logged with its own counts. Pipelined
+ * enrichments also record the busy time and rate of each stage and the depth of the rings between them.
+ */
+@Component
+class EnrichmentMetrics {
+    private static final Logger log = LoggerFactory.getLogger(EnrichmentMetrics.class);
+
+    enum Mode {STREAM, PARALLEL, PIPELINE, FILE, BATCH}
+
+    final private Counter rowsRead;
+    final private Counter rowsWritten;
+    final private Counter rejectedColumns;
+    final private Counter rejectedDates;
+    final private Counter rejectedCurrencies;
+    final private Counter rejectedPrices;
+    final private Counter productHits;
+    final private Counter productMisses;
+    final private Counter bytesIn;
+    final private Counter bytesOut;
+    final private Map<Mode, Timer> durations = new EnumMap<>(Mode.class);
+    final private Map<Mode, DistributionSummary> rates = new EnumMap<>(Mode.class);
+    final private MeterRegistry registry;
+
+    @Autowired
+    EnrichmentMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        rowsRead = Counter.builder("enrich.rows.read").register(registry);
+        rowsWritten = Counter.builder("enrich.rows.written").register(registry);
+        rejectedColumns = Counter.builder("enrich.rows.rejected").tag("reason", "columns").register(registry);
+        rejectedDates = Counter.builder("enrich.rows.rejected").tag("reason", "date").register(registry);
+        rejectedCurrencies = Counter.builder("enrich.rows.rejected").tag("reason", "currency").register(registry);
+        rejectedPrices = Counter.builder("enrich.rows.rejected").tag("reason", "price").register(registry);
+        productHits = Counter.builder("enrich.product.lookups").tag("result", "hit").register(registry);
+        productMisses = Counter.builder("enrich.product.lookups").tag("result", "miss").register(registry);
+        bytesIn = Counter.builder("enrich.bytes").tag("direction", "in").baseUnit("bytes").register(registry);
+        bytesOut = Counter.builder("enrich.bytes").tag("direction", "out").baseUnit("bytes").register(registry);
+
+        for (final var mode : Mode.values()) {
+            final var tag = mode.name().toLowerCase();
+            durations.put(mode, Timer.builder("enrich.duration")
+                    .tag("mode", tag)
+                    .publishPercentileHistogram()
+                    .register(registry));
+            rates.put(mode, DistributionSummary.builder("enrich.rows.rate")
+                    .tag("mode", tag)
+                    .baseUnit("rows/s")
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    void record(Mode mode, EnrichmentStats stats, long elapsedNanos) {
+        rowsRead.increment(stats.rowsRead());
+        rowsWritten.increment(stats.rowsWritten());
+        rejectedColumns.increment(stats.rejectedColumns());
+        rejectedDates.increment(stats.rejectedDates());
+        rejectedCurrencies.increment(stats.rejectedCurrencies());
+        rejectedPrices.increment(stats.rejectedPrices());
+        productHits.increment(stats.productHits());
+        productMisses.increment(stats.productMisses());
+        bytesIn.increment(stats.bytesIn());
+        bytesOut.increment(stats.bytesOut());
+        durations.get(mode).record(elapsedNanos, TimeUnit.NANOSECONDS);
+        if (elapsedNanos > 0) {
+            rates.get(mode).record(stats.rowsRead() * 1e9 / elapsedNanos);
+        }
+
+        log.info("Enrichment (" + mode.name().toLowerCase() + ") " + stats + " elapsed_ms=" + elapsedNanos / 1_000_000);
+    }
+
+    void record(String requestId, PipelineStats stats) {
+        for (final var stage : new PipelineStats.Stage[]{stats.read(), stats.enrich(), stats.write()}) {
+            Timer.builder("enrich.pipeline.busy")
+                    .tag("stage", stage.name())
+                    .register(registry)
+                    .record(stage.busyNanos(), TimeUnit.NANOSECONDS);
+            DistributionSummary.builder("enrich.pipeline.rate")
+                    .tag("stage", stage.name())
+                    .baseUnit("bytes/s")
+                    .register(registry)
+                    .record(stats.rate(stage));
+        }
+        for (final var queue : new PipelineStats.Queue[]{stats.parsed(), stats.enriched()}) {
+            DistributionSummary.builder("enrich.pipeline.depth")
+                    .tag("queue", queue.name())
+                    .register(registry)
+                    .record(queue.averageDepth());
+        }
+
+        log.info("Enrichment pipeline " + (requestId != null ? requestId + " " : "") + stats);
+    }
+}
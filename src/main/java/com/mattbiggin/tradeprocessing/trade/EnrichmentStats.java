@@ -0,0 +1,37 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+/*
+ * Counts for one enrichment, or one chunk of a parallel enrichment. Trades are counted in plain fields of the
+ * enricher that processes them and only gathered into a record once it has finished.
+ */
+record EnrichmentStats(long rowsRead, long rowsWritten, long rejectedColumns, long rejectedDates,
+                       long rejectedCurrencies, long rejectedPrices, long productHits, long productMisses,
+                       long bytesIn, long bytesOut) {
+    static final EnrichmentStats EMPTY = new EnrichmentStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    EnrichmentStats plus(EnrichmentStats other) {
+        return new EnrichmentStats(rowsRead + other.rowsRead, rowsWritten + other.rowsWritten,
+                rejectedColumns + other.rejectedColumns, rejectedDates + other.rejectedDates,
+                rejectedCurrencies + other.rejectedCurrencies, rejectedPrices + other.rejectedPrices,
+                productHits + other.productHits, productMisses + other.productMisses,
+                bytesIn + other.bytesIn, bytesOut + other.bytesOut);
+    }
+
+    EnrichmentStats withBytes(long bytesIn, long bytesOut) {
+        return new EnrichmentStats(rowsRead, rowsWritten, rejectedColumns, rejectedDates, rejectedCurrencies,
+                rejectedPrices, productHits, productMisses, bytesIn, bytesOut);
+    }
+
+    long rejected() {
+        return rejectedColumns + rejectedDates + rejectedCurrencies + rejectedPrices;
+    }
+
+    @Override
+    public String toString() {
+        return "rows_read=" + rowsRead + " rows_written=" + rowsWritten +
+                " rejected_columns=" + rejectedColumns + " rejected_dates=" + rejectedDates +
+                " rejected_currencies=" + rejectedCurrencies + " rejected_prices=" + rejectedPrices +
+                " product_hits=" + productHits + " product_misses=" + productMisses +
+                " bytes_in=" + bytesIn + " bytes_out=" + bytesOut;
+    }
+}
@@ -0,0 +1,100 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.Products;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ * Enriches a trade file that is already on the server's disk into another file, both under enrich.file.directory,
+ * so the trades never pass through an HTTP request body. The input is read straight into the enricher's buffer, as
+ * the enricher parses byte arrays and a memory mapped input would only have been copied into that buffer in turn,
+ * and the output is written through a FileChannel.
+ */
+@Component
+public class FileTradeEnrichment {
+    private static final Logger log = LoggerFactory.getLogger(FileTradeEnrichment.class);
+
+    final private Products products;
+
+    final private TradeDateValidator dateValidator;
+
+    final private TradeValueValidator valueValidator;
+
+    final private ConfigurationProperties properties;
+
+    final private EnrichmentMetrics metrics;
+
+    final private RejectionStore rejectionStore;
+
+    @Autowired
+    FileTradeEnrichment(Products products, TradeDateValidator dateValidator, TradeValueValidator valueValidator,
+                        ConfigurationProperties properties, EnrichmentMetrics metrics,
+                        RejectionStore rejectionStore) {
+        this.products = products;
+        this.dateValidator = dateValidator;
+        this.valueValidator = valueValidator;
+        this.properties = properties;
+        this.metrics = metrics;
+        this.rejectionStore = rejectionStore;
+    }
+
+    public record Result(long rowsRead, long rowsWritten, long bytesRead, long bytesWritten, long elapsedMillis) {
+        public String summary() {
+            return "rows_read=" + rowsRead + "\n" +
+                    "rows_written=" + rowsWritten + "\n" +
+                    "bytes_read=" + bytesRead + "\n" +
+                    "bytes_written=" + bytesWritten + "\n" +
+                    "elapsed_ms=" + elapsedMillis + "\n";
+        }
+    }
+
+    public boolean isEnabled() {
+        return !properties.getFileDirectory().isBlank();
+    }
+
+    /*
+     * Resolves a file name against the configured directory, returning null when file enrichment is disabled or the
+     * name would escape the directory.
+     */
+    public Path resolve(String fileName) {
+        if (!isEnabled()) {
+            return null;
+        }
+        final var directory = Paths.get(properties.getFileDirectory()).toAbsolutePath().normalize();
+        final var path = directory.resolve(fileName).normalize();
+        return path.startsWith(directory) && !path.equals(directory) ? path : null;
+    }
+
+    public Result processFile(String requestId, Path input, Path output) throws IOException {
+        final var start = System.nanoTime();
+
+        try (var in = Files.newInputStream(input);
+             var out = FileChannel.open(output, WRITE, CREATE, TRUNCATE_EXISTING);
+             var rejected = rejectionStore.open(requestId)) {
+            final var enricher = new TradeByteEnricher(products, products.getSnapshot(), dateValidator,
+                    valueValidator, new HashSet<>(), rejected, Channels.newOutputStream(out));
+            enricher.enrich(in);
+
+            final var stats = enricher.stats();
+            final var elapsed = System.nanoTime() - start;
+            metrics.record(EnrichmentMetrics.Mode.FILE, stats, elapsed);
+            rejectionStore.complete(requestId, rejected, stats);
+            log.info("Enriched " + input + " to " + output);
+            return new Result(stats.rowsRead(), stats.rowsWritten(), stats.bytesIn(), stats.bytesOut(),
+                    elapsed / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * Splits an upload into newline aligned chunks which are enriched concurrently on a worker pool. Results are written
+ * back in input order and at most maxChunksInFlight chunks are read ahead of the writer, so memory use is bounded by
+ * the chunk size rather than the size of the upload.
+ */
+@Component
+class ParallelTradeEnrichment {
+    final private Products products;
+
+    final private TradeDateValidator dateValidator;
+
+    final private TradeValueValidator valueValidator;
+
+    final private ConfigurationProperties properties;
+
+    private ForkJoinPool pool;
+
+    @Autowired
+    ParallelTradeEnrichment(Products products, TradeDateValidator dateValidator, TradeValueValidator valueValidator,
+                            ConfigurationProperties properties) {
+        this.products = products;
+        this.dateValidator = dateValidator;
+        this.valueValidator = valueValidator;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void init() {
+        pool = new ForkJoinPool(properties.getParallelThreads());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    EnrichmentStats processTrades(ProductSnapshot snapshot, InputStream input, OutputStream output,
+                                  Set<String> missingProductMappings, RejectedTrades rejected) throws IOException {
+        return processTrades(snapshot, input, output, missingProductMappings, rejected, null);
+    }
+
+    /*
+     * Each chunk gathers its own aggregates, which are added to the aggregation as the chunk is written.
+     */
+    EnrichmentStats processTrades(ProductSnapshot snapshot, InputStream input, OutputStream output,
+                                  Set<String> missingProductMappings, RejectedTrades rejected,
+                                  TradeAggregation aggregation) throws IOException {
+        final var maxInFlight = properties.getParallelMaxChunksInFlight();
+        final var reader = new ChunkReader(input, properties.getParallelChunkSize(), maxInFlight);
+        final var pending = new ArrayDeque<Future<Chunk>>(maxInFlight);
+
+        output.write(TradeByteEnricher.HEADER);
+        var stats = EnrichmentStats.EMPTY.withBytes(0, TradeByteEnricher.HEADER.length);
+        try {
+            var hasHeader = true;
+            var chunk = reader.next();
+            while (chunk != null) {
+                final var data = chunk;
+                final var length = reader.length();
+                final var isFirst = hasHeader;
+                final var chunkRejected = rejected.forChunk();
+                final var chunkAggregation = aggregation != null ? new TradeAggregation() : null;
+                pending.add(pool.submit(() -> enrich(snapshot, data, length, isFirst, missingProductMappings,
+                        chunkRejected, chunkAggregation, reader)));
+                hasHeader = false;
+
+                if (pending.size() >= maxInFlight) {
+                    stats = stats.plus(write(pending.removeFirst(), output, rejected, aggregation));
+                }
+                chunk = reader.next();
+            }
+            while (!pending.isEmpty()) {
+                stats = stats.plus(write(pending.removeFirst(), output, rejected, aggregation));
+            }
+            output.flush();
+            return stats;
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private Chunk enrich(ProductSnapshot snapshot, byte[] data, int length, boolean hasHeader,
+                         Set<String> missingProductMappings, RejectedTrades rejected, TradeAggregation aggregation,
+                         ChunkReader reader) throws IOException {
+        try {
+            final var output = new ByteArrayOutputStream(length + length / 2);
+            final var enricher = new TradeByteEnricher(products, snapshot, dateValidator, valueValidator,
+                    missingProductMappings, rejected, aggregation, output, hasHeader);
+            enricher.finish(data, enricher.consume(data, 0, length), length);
+            enricher.flush();
+            enricher.recordMissingProducts();
+            return new Chunk(output, enricher.stats().withBytes(length, output.size()), rejected, aggregation);
+        } finally {
+            reader.release(data);
+        }
+    }
+
+    private static EnrichmentStats write(Future<Chunk> pending, OutputStream output, RejectedTrades rejected,
+                                         TradeAggregation aggregation) throws IOException {
+        try {
+            final var chunk = pending.get();
+            chunk.output().writeTo(output);
+            rejected.addAll(chunk.rejected());
+            if (aggregation != null) {
+                aggregation.addAll(chunk.aggregation());
+            }
+            return chunk.stats();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private record Chunk(ByteArrayOutputStream output, EnrichmentStats stats, RejectedTrades rejected,
+                         TradeAggregation aggregation) {
+    }
+}
@@ -0,0 +1,45 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+/*
+ * Where the time of one pipelined enrichment went. A stage is busy when it is not waiting on a ring, so reading from
+ * or writing to a slow client counts as busy for the read or write stage. The stage that is busy for nearly all of the
+ * elapsed time is the bottleneck, with the queue in front of it full and the one after it empty.
+ */
+record PipelineStats(long elapsedNanos, Stage read, Stage enrich, Stage write, Queue parsed, Queue enriched) {
+    /*
+     * Bytes in for the read and enrich stages and bytes out for the write stage, and the time the stage ran for less
+     * the time it waited.
+     */
+    record Stage(String name, long bytes, long busyNanos) {
+    }
+
+    record Queue(String name, int capacity, double averageDepth, int maxDepth) {
+    }
+
+    /*
+     * Bytes per second of busy time, the rate the stage could keep up were it never kept waiting.
+     */
+    double rate(Stage stage) {
+        return stage.busyNanos() > 0 ? stage.bytes() * 1e9 / stage.busyNanos() : 0;
+    }
+
+    double utilisation(Stage stage) {
+        return elapsedNanos > 0 ? (double) stage.busyNanos() / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return toString(read) + " " + toString(enrich) + " " + toString(write) + " " + toString(parsed) + " " +
+                toString(enriched);
+    }
+
+    private String toString(Stage stage) {
+        return stage.name() + "_busy_pct=" + Math.round(utilisation(stage) * 100) + " " + stage.name() + "_mb_s=" +
+                Math.round(rate(stage) / 1_000_000);
+    }
+
+    private static String toString(Queue queue) {
+        return queue.name() + "_depth_avg=" + Math.round(queue.averageDepth() * 10) / 10.0 + " " + queue.name() +
+                "_depth_max=" + queue.maxDepth() + "/" + queue.capacity();
+    }
+}
@@ -0,0 +1,292 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Enriches an upload in three stages, each on its own thread: the read stage fills newline aligned batches from the
+ * input, the enrich stage turns them into batches of enriched trades and the write stage, the calling thread, copies
+ * those to the output. The stages are joined by two RingBuffers of enrich.pipeline.ringSize batches of
+ * enrich.pipeline.batchSize bytes, so a client slow to send or to receive holds up only its own stage until the ring
+ * beside it fills or empties, and the decompression and compression of gzip bodies, which happen in the reads and
+ * writes, run alongside the enrichment rather than in turn with it.
+ *
+ * Trades are enriched in order by the one enrich stage, so the output, counts and rejects are those of a stream
+ * enrichment. Where the time went is recorded as PipelineStats for each enrichment.
+ */
+@Component
+class PipelinedTradeEnrichment {
+    final private Products products;
+
+    final private TradeDateValidator dateValidator;
+
+    final private TradeValueValidator valueValidator;
+
+    final private ConfigurationProperties properties;
+
+    final private EnrichmentMetrics metrics;
+
+    private RingBuffer.WaitStrategy waitStrategy;
+
+    private ExecutorService executor;
+
+    @Autowired
+    PipelinedTradeEnrichment(Products products, TradeDateValidator dateValidator, TradeValueValidator valueValidator,
+                             ConfigurationProperties properties, EnrichmentMetrics metrics) {
+        this.products = products;
+        this.dateValidator = dateValidator;
+        this.valueValidator = valueValidator;
+        this.properties = properties;
+        this.metrics = metrics;
+    }
+
+    /*
+     * Each pipeline holds two threads until it finishes, so they come from a pool that grows with the pipelines in
+     * progress rather than a fixed pool in which stages could wait on each other. The pool itself is unbounded: the
+     * number of pipelines, and so twice that of threads, is bounded only by enrich.maxConcurrent for uploads and by
+     * enrich.jobs.threads for jobs, and an enrich.maxConcurrent of 0 leaves uploads unbounded.
+     */
+    @PostConstruct
+    public void init() {
+        waitStrategy = RingBuffer.WaitStrategy.valueOf(properties.getPipelineWaitStrategy().trim().toUpperCase());
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    boolean isEnabled() {
+        return properties.isPipelineEnabled();
+    }
+
+    EnrichmentStats processTrades(String requestId, ProductSnapshot snapshot, InputStream input, OutputStream output,
+                                  RejectedTrades rejected, TradeAggregation aggregation) throws IOException {
+        final var start = System.nanoTime();
+        final var batchSize = properties.getPipelineBatchSize();
+        final var pipeline = new Pipeline(properties.getPipelineRingSize(), batchSize, waitStrategy, input);
+        try {
+            final var reading = executor.submit(() -> pipeline.run(() -> read(input, batchSize, pipeline)));
+            final var enriching = executor.submit(() -> pipeline.run(() -> enrich(snapshot, rejected, aggregation,
+                    pipeline)));
+            final var write = pipeline.run(() -> write(output, pipeline));
+            final var read = pipeline.join(reading);
+            final var enriched = pipeline.join(enriching);
+            pipeline.check();
+
+            metrics.record(requestId, new PipelineStats(System.nanoTime() - start, read, enriched.stage(), write,
+                    queue("parsed", pipeline.parsed), queue("enriched", pipeline.enriched)));
+            return enriched.stats();
+        } finally {
+            pipeline.abort();
+        }
+    }
+
+    private static PipelineStats.Stage read(InputStream input, int batchSize, Pipeline pipeline) throws IOException {
+        final var start = System.nanoTime();
+        final var reader = new ChunkReader(input, batchSize, 0);
+        final var ring = pipeline.parsed;
+        var bytes = 0L;
+        var batch = ring.claim();
+        var data = reader.next(batch.data);
+        while (data != null) {
+            batch.data = data;
+            batch.length = reader.length();
+            bytes += batch.length;
+            ring.publish();
+            batch = ring.claim();
+            data = reader.next(batch.data);
+        }
+        ring.close();
+        return new PipelineStats.Stage("read", bytes, System.nanoTime() - start - ring.producerWaitNanos());
+    }
+
+    private Enriched enrich(ProductSnapshot snapshot, RejectedTrades rejected, TradeAggregation aggregation,
+                            Pipeline pipeline) throws IOException {
+        final var start = System.nanoTime();
+        final var output = new BatchOutputStream(pipeline.enriched);
+        output.write(TradeByteEnricher.HEADER);
+        final var enricher = new TradeByteEnricher(products, snapshot, dateValidator, valueValidator, new HashSet<>(),
+                rejected, aggregation, output, true);
+        final var ring = pipeline.parsed;
+        var bytes = 0L;
+        var batch = ring.take();
+        while (batch != null) {
+            enricher.finish(batch.data, enricher.consume(batch.data, 0, batch.length), batch.length);
+            bytes += batch.length;
+            ring.release();
+            batch = ring.take();
+        }
+        enricher.flush();
+        enricher.recordMissingProducts();
+        pipeline.enriched.close();
+
+        final var waitNanos = ring.consumerWaitNanos() + pipeline.enriched.producerWaitNanos();
+        return new Enriched(enricher.stats().withBytes(bytes, output.count()),
+                new PipelineStats.Stage("enrich", bytes, System.nanoTime() - start - waitNanos));
+    }
+
+    private static PipelineStats.Stage write(OutputStream output, Pipeline pipeline) throws IOException {
+        final var start = System.nanoTime();
+        final var ring = pipeline.enriched;
+        var bytes = 0L;
+        var batch = ring.take();
+        while (batch != null) {
+            output.write(batch.data, 0, batch.length);
+            bytes += batch.length;
+            ring.release();
+            batch = ring.take();
+        }
+        output.flush();
+        return new PipelineStats.Stage("write", bytes, System.nanoTime() - start - ring.consumerWaitNanos());
+    }
+
+    private static PipelineStats.Queue queue(String name, RingBuffer ring) {
+        return new PipelineStats.Queue(name, ring.capacity(), ring.averageDepth(), ring.maxDepth());
+    }
+
+    private record Enriched(EnrichmentStats stats, PipelineStats.Stage stage) {
+    }
+
+    /*
+     * The rings of one enrichment and the first failure of any of its stages. A failing stage stops the others by
+     * aborting both rings and closing the input, which a read stage blocked on a slow client waits on rather than on
+     * a ring, and as it records its failure before doing so, the failures that follow from the abort are not the ones
+     * reported.
+     */
+    private static final class Pipeline {
+        final RingBuffer parsed;
+        final RingBuffer enriched;
+
+        private final InputStream input;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Pipeline(int ringSize, int batchSize, RingBuffer.WaitStrategy waitStrategy, InputStream input) {
+            parsed = new RingBuffer(ringSize, batchSize, waitStrategy);
+            enriched = new RingBuffer(ringSize, batchSize, waitStrategy);
+            this.input = input;
+        }
+
+        <T> T run(Callable<T> stage) {
+            try {
+                return stage.call();
+            } catch (Throwable e) {
+                fail(e);
+                return null;
+            }
+        }
+
+        <T> T join(Future<T> stage) {
+            try {
+                return stage.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(new InterruptedIOException(e.getMessage()));
+            } catch (ExecutionException e) {
+                fail(e.getCause());
+            }
+            return null;
+        }
+
+        void check() throws IOException {
+            final var e = failure.get();
+            if (e instanceof IOException cause) {
+                throw cause;
+            } else if (e instanceof RuntimeException cause) {
+                throw cause;
+            } else if (e instanceof Error cause) {
+                throw cause;
+            } else if (e != null) {
+                throw new IOException(e);
+            }
+        }
+
+        void abort() {
+            parsed.abort();
+            enriched.abort();
+        }
+
+        private void fail(Throwable e) {
+            if (failure.compareAndSet(null, e)) {
+                abort();
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                    /* The failure being reported is the stage's, not the close's */
+                }
+            }
+        }
+    }
+
+    /*
+     * Fills batches claimed from the ring, publishing each once it is full and the last on flush.
+     */
+    private static final class BatchOutputStream extends OutputStream {
+        private final RingBuffer ring;
+
+        private RingBuffer.Batch batch;
+        private long count;
+
+        BatchOutputStream(RingBuffer ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int from, int length) throws IOException {
+            while (length > 0) {
+                if (batch == null) {
+                    batch = ring.claim();
+                    batch.length = 0;
+                }
+                final var copied = Math.min(length, batch.data.length - batch.length);
+                System.arraycopy(buffer, from, batch.data, batch.length, copied);
+                batch.length += copied;
+                count += copied;
+                from += copied;
+                length -= copied;
+                if (batch.length == batch.data.length) {
+                    publish();
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (batch != null && batch.length > 0) {
+                publish();
+            }
+        }
+
+        long count() {
+            return count;
+        }
+
+        private void publish() {
+            ring.publish();
+            batch = null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import java.util.Arrays;
+
+/*
+ * Request scoped map from raw product id bytes to encoded product name bytes. Open addressing keeps lookups free of
+ * allocation once an id has been seen; the table stops growing at MAX_ENTRIES so a file of unique ids cannot exhaust
+ * the heap, unless it is made for a known number of entries. Each entry counts the lookups it has served.
+ */
+final class ProductNameCache {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_ENTRIES = 1 << 16;
+
+    private final int maxEntries;
+    private byte[][] keys = new byte[INITIAL_CAPACITY][];
+    private byte[][] names = new byte[INITIAL_CAPACITY][];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] hits = new int[INITIAL_CAPACITY];
+    private int size;
+
+    ProductNameCache() {
+        this(MAX_ENTRIES);
+    }
+
+    ProductNameCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    interface Visitor {
+        void visit(byte[] key, byte[] name, int hits);
+    }
+
+    static int hash(byte[] buffer, int from, int to) {
+        var hash = 1;
+        for (var i = from; i < to; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    byte[] get(byte[] buffer, int from, int to, int hash) {
+        final var slot = slot(buffer, from, to, hash);
+        if (slot < 0) {
+            return null;
+        }
+        hits[slot]++;
+        return names[slot];
+    }
+
+    /*
+     * Whether the id has an entry, without counting a lookup against it.
+     */
+    boolean contains(byte[] buffer, int from, int to, int hash) {
+        return slot(buffer, from, to, hash) >= 0;
+    }
+
+    void put(byte[] buffer, int from, int to, int hash, byte[] name) {
+        put(buffer, from, to, hash, name, 0);
+    }
+
+    /*
+     * An entry whose hits start from a count other than zero, -1 for one put ahead of the lookup that counts it.
+     */
+    void put(byte[] buffer, int from, int to, int hash, byte[] name, int hitCount) {
+        if (isFull()) {
+            return;
+        }
+        if (size * 2 >= keys.length) {
+            resize();
+        }
+        insert(Arrays.copyOfRange(buffer, from, to), hash, name, hitCount);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /*
+     * Whether puts are dropped.
+     */
+    boolean isFull() {
+        return size >= maxEntries;
+    }
+
+    void forEach(Visitor visitor) {
+        for (var i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                visitor.visit(keys[i], names[i], hits[i]);
+            }
+        }
+    }
+
+    private int slot(byte[] buffer, int from, int to, int hash) {
+        final var mask = keys.length - 1;
+        var slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, buffer, from, to)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(byte[] key, int hash, byte[] name, int hitCount) {
+        final var mask = keys.length - 1;
+        var slot = hash & mask;
+        while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        names[slot] = name;
+        hashes[slot] = hash;
+        hits[slot] = hitCount;
+    }
+
+    private void resize() {
+        final var oldKeys = keys;
+        final var oldNames = names;
+        final var oldHashes = hashes;
+        final var oldHits = hits;
+
+        keys = new byte[oldKeys.length * 2][];
+        names = new byte[oldKeys.length * 2][];
+        hashes = new int[oldKeys.length * 2];
+        hits = new int[oldKeys.length * 2];
+
+        for (var i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                insert(oldKeys[i], oldHashes[i], oldNames[i], oldHits[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * The trades rejected by one enrichment, or one chunk of a parallel enrichment. Only the first MAX_SAMPLES lines are
+ * kept, so a file of bad trades costs no more than a file of good ones, and every rejected line is copied to the sink
+ * when there is one.
+ */
+final class RejectedTrades implements Closeable {
+    static final int MAX_SAMPLES = 20;
+
+    private final List<String> samples = new ArrayList<>();
+    private final OutputStream sink; // null when rejected trades are not kept
+
+    RejectedTrades(OutputStream sink) {
+        this.sink = sink;
+    }
+
+    /*
+     * Rejected trades for a chunk, held in memory until the chunk is added in input order.
+     */
+    RejectedTrades forChunk() {
+        return new RejectedTrades(sink != null ? new ByteArrayOutputStream() : null);
+    }
+
+    void add(byte[] buffer, int from, int to) throws IOException {
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add(new String(buffer, from, to - from, UTF_8));
+        }
+        if (sink != null) {
+            sink.write(buffer, from, to - from);
+            sink.write('\n');
+        }
+    }
+
+    void addAll(RejectedTrades chunk) throws IOException {
+        for (var i = 0; i < chunk.samples.size() && samples.size() < MAX_SAMPLES; i++) {
+            samples.add(chunk.samples.get(i));
+        }
+        if (sink != null && chunk.sink instanceof ByteArrayOutputStream rejected) {
+            rejected.writeTo(sink);
+        }
+    }
+
+    List<String> samples() {
+        return samples;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sink != null) {
+            sink.close();
+        }
+    }
+}
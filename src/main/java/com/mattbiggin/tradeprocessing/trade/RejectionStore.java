@@ -0,0 +1,107 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Rejection summaries of the most recent MAX_RETAINED enrichments, by request id. Rejected trades are reported once
+ * per enrichment, when it completes, rather than logged as they are found. When enrich.rejects.directory is set every
+ * rejected trade is also written to <request id>.rejects.csv in that directory.
+ *
+ * A request id is reserved before it is used, so that an id reused by a caller is refused rather than overwriting the
+ * rejects of the enrichment that used it first.
+ */
+@Component
+public class RejectionStore {
+    static final int MAX_RETAINED = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(RejectionStore.class);
+
+    final private ConfigurationProperties properties;
+
+    final private Map<String, RejectionSummary> summaries = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RejectionSummary> eldest) {
+            return size() > MAX_RETAINED;
+        }
+    };
+
+    /* Request ids of the most recent MAX_RETAINED enrichments, including those still in progress */
+    final private Map<String, Boolean> reserved = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_RETAINED;
+        }
+    };
+
+    @Autowired
+    RejectionStore(ConfigurationProperties properties) {
+        this.properties = properties;
+    }
+
+    public synchronized RejectionSummary find(String requestId) {
+        return summaries.get(requestId);
+    }
+
+    /*
+     * Claims a request id for an enrichment, returning false when a recent enrichment has already used it, or when its
+     * rejects file is still in the directory from an older one.
+     */
+    public synchronized boolean reserve(String requestId) {
+        final var file = file(requestId);
+        if (reserved.containsKey(requestId) || (file != null && Files.exists(file))) {
+            return false;
+        }
+        reserved.put(requestId, Boolean.TRUE);
+        return true;
+    }
+
+    /*
+     * The request id must be safe to use as a file name. Without one the summary is logged but not retained.
+     */
+    RejectedTrades open(String requestId) {
+        final var file = file(requestId);
+        if (file == null) {
+            return new RejectedTrades(null);
+        }
+
+        try {
+            return new RejectedTrades(new BufferedOutputStream(Files.newOutputStream(file)));
+        } catch (IOException e) {
+            log.error("Unable to write rejected trades to " + file + " - " + e.getMessage());
+            return new RejectedTrades(null);
+        }
+    }
+
+    private Path file(String requestId) {
+        final var directory = properties.getRejectsDirectory();
+        if (requestId == null || directory == null || directory.isBlank()) {
+            return null;
+        }
+        return Paths.get(directory, requestId + ".rejects.csv");
+    }
+
+    void complete(String requestId, RejectedTrades rejected, EnrichmentStats stats) {
+        final var summary = new RejectionSummary(requestId, stats.rowsRead(), stats.rejectedColumns(),
+                stats.rejectedDates(), stats.rejectedCurrencies(), stats.rejectedPrices(), rejected.samples());
+        if (summary.rejected() > 0) {
+            log.warn("Trades rejected\n" + summary.summary());
+        }
+        if (requestId != null) {
+            synchronized (this) {
+                summaries.put(requestId, summary);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import java.util.List;
+
+public record RejectionSummary(String requestId, long rowsRead, long rejectedColumns, long rejectedDates,
+                               long rejectedCurrencies, long rejectedPrices, List<String> samples) {
+    public long rejected() {
+        return rejectedColumns + rejectedDates + rejectedCurrencies + rejectedPrices;
+    }
+
+    public String summary() {
+        final var summary = new StringBuilder()
+                .append("request_id=").append(requestId).append('\n')
+                .append("rows_read=").append(rowsRead).append('\n')
+                .append("rejected_columns=").append(rejectedColumns).append('\n')
+                .append("rejected_dates=").append(rejectedDates).append('\n')
+                .append("rejected_currencies=").append(rejectedCurrencies).append('\n')
+                .append("rejected_prices=").append(rejectedPrices).append('\n');
+        samples.forEach(sample -> summary.append(sample).append('\n'));
+        if (rejected() > samples.size()) {
+            summary.append("... ").append(rejected() - samples.size()).append(" more\n");
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,211 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A fixed ring of reusable batches passed from one producer thread to one consumer thread, in the manner of a
+ * Disruptor. The batches and their buffers are allocated once, and the producer fills the batch after the last one
+ * published while the consumer works through those before it, so a hand over is a sequence increment rather than a
+ * queue node and a lock.
+ *
+ * A thread that finds nothing to take, or no batch free to fill, waits by the WaitStrategy: spin keeps the processor
+ * for the lowest latency, yield gives it to other threads between checks, sleep backs off to short parks and block
+ * parks until woken. Only sleep and block leave a processor for other work when stages outnumber processors.
+ *
+ * Waits and the depth seen by each take are counted by the thread that waits or takes, in plain fields that are read
+ * once both threads have finished.
+ */
+final class RingBuffer {
+    enum WaitStrategy {SPIN, YIELD, SLEEP, BLOCK}
+
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long SLEEP_NANOS = 50_000;
+
+    static final class Batch {
+        byte[] data;
+        int length;
+    }
+
+    private final Batch[] batches;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    /*
+     * Batches published by the producer and released by the consumer, in separate objects so that they are unlikely to
+     * share a cache line. They are written as volatiles rather than lazily, so that a thread parking after checking
+     * one cannot miss the unpark that follows its change.
+     */
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+
+    private volatile boolean closed;
+    private volatile boolean aborted;
+    private volatile Thread parkedProducer;
+    private volatile Thread parkedConsumer;
+
+    /* Counted by the producer */
+    private long producerWaitNanos;
+
+    /* Counted by the consumer */
+    private long consumerWaitNanos;
+    private long takes;
+    private long depthTotal;
+    private int maxDepth;
+
+    /*
+     * The size is rounded up to a power of two.
+     */
+    RingBuffer(int size, int batchSize, WaitStrategy waitStrategy) {
+        final var capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1);
+        this.batches = new Batch[capacity];
+        for (var i = 0; i < capacity; i++) {
+            batches[i] = new Batch();
+            batches[i].data = new byte[batchSize];
+        }
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /*
+     * The next batch for the producer to fill, once the consumer has released it.
+     */
+    Batch claim() throws InterruptedIOException {
+        final var sequence = published.get();
+        if (sequence - released.get() == batches.length) {
+            final var start = System.nanoTime();
+            var attempt = 0;
+            while (sequence - released.get() == batches.length) {
+                checkAborted();
+                parkedProducer = Thread.currentThread();
+                if (sequence - released.get() == batches.length) {
+                    idle(attempt++);
+                }
+                parkedProducer = null;
+            }
+            producerWaitNanos += System.nanoTime() - start;
+        }
+        return batches[(int) sequence & mask];
+    }
+
+    void publish() {
+        published.set(published.get() + 1);
+        unpark(parkedConsumer);
+    }
+
+    /*
+     * There will be no more batches, those already published are still taken.
+     */
+    void close() {
+        closed = true;
+        unpark(parkedConsumer);
+    }
+
+    /*
+     * Stops both threads, which fail their next claim or take.
+     */
+    void abort() {
+        aborted = true;
+        unpark(parkedProducer);
+        unpark(parkedConsumer);
+    }
+
+    /*
+     * The next published batch, or null once the ring is closed and every batch has been taken.
+     */
+    Batch take() throws InterruptedIOException {
+        final var sequence = released.get();
+        var available = published.get() - sequence;
+        if (available == 0) {
+            final var start = System.nanoTime();
+            var attempt = 0;
+            while (available == 0) {
+                checkAborted();
+                if (closed) {
+                    available = published.get() - sequence;
+                    if (available == 0) {
+                        consumerWaitNanos += System.nanoTime() - start;
+                        return null;
+                    }
+                    break;
+                }
+                parkedConsumer = Thread.currentThread();
+                if (published.get() == sequence && !closed) {
+                    idle(attempt++);
+                }
+                parkedConsumer = null;
+                available = published.get() - sequence;
+            }
+            consumerWaitNanos += System.nanoTime() - start;
+        }
+        takes++;
+        depthTotal += available;
+        maxDepth = Math.max(maxDepth, (int) available);
+        return batches[(int) sequence & mask];
+    }
+
+    /*
+     * Returns the batch last taken to the producer.
+     */
+    void release() {
+        released.set(released.get() + 1);
+        unpark(parkedProducer);
+    }
+
+    int capacity() {
+        return batches.length;
+    }
+
+    long producerWaitNanos() {
+        return producerWaitNanos;
+    }
+
+    long consumerWaitNanos() {
+        return consumerWaitNanos;
+    }
+
+    double averageDepth() {
+        return takes > 0 ? (double) depthTotal / takes : 0;
+    }
+
+    int maxDepth() {
+        return maxDepth;
+    }
+
+    private void idle(int attempt) {
+        switch (waitStrategy) {
+            case SPIN -> Thread.onSpinWait();
+            case YIELD -> {
+                if (attempt < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+            case SLEEP -> {
+                if (attempt < SPINS) {
+                    Thread.onSpinWait();
+                } else if (attempt < SPINS + YIELDS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, SLEEP_NANOS);
+                }
+            }
+            case BLOCK -> LockSupport.park(this);
+        }
+    }
+
+    private void checkAborted() throws InterruptedIOException {
+        if (aborted || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Enrichment pipeline stopped");
+        }
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.util.List;
+
+/*
+ * Totals of the trades written by one enrichment, by product id and by currency.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record TradeAggregates(String requestId, long productVersion, long trades, List<TradeTotal> products,
+                              List<TradeTotal> currencies) {
+}
@@ -0,0 +1,127 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/*
+ * Per product and per currency totals of the trades written by an enrichment, gathered by the enricher in the same
+ * pass that writes them rather than by reading the output again. Trades that are rejected are not counted.
+ *
+ * Prices are parsed to longs scaled by 10^PRICE_SCALE. A price that is not a plain decimal, has more than PRICE_SCALE
+ * decimal places or more than MAX_INTEGER_DIGITS digits before the point is counted as a trade but left out of the
+ * total price, as the pricedTrades of each total show. Dates are the first eight digits of the validated date.
+ */
+final class TradeAggregation {
+    static final int PRICE_SCALE = 6;
+    static final long NO_PRICE = Long.MIN_VALUE;
+
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    /* Digits before the point that leave a scaled price below 10^18, so that scaling cannot overflow */
+    private static final int MAX_INTEGER_DIGITS = 18 - PRICE_SCALE;
+    private static final long[] SCALES = {1_000_000, 100_000, 10_000, 1_000, 100, 10, 1};
+
+    private final TradeTotals products = new TradeTotals();
+    private final TradeTotals currencies = new TradeTotals();
+    private long trades;
+
+    void add(byte[] buffer, int dateFrom, int productIdFrom, int productIdTo, byte[] productName, int currencyFrom,
+             int currencyTo, int priceFrom, int priceTo) {
+        final var date = date(buffer, dateFrom);
+        final var price = price(buffer, priceFrom, priceTo);
+        products.add(buffer, productIdFrom, productIdTo, productName, date, price);
+        currencies.add(buffer, currencyFrom, currencyTo, null, date, price);
+        trades++;
+    }
+
+    /*
+     * Adds the totals of a chunk of a parallel enrichment.
+     */
+    void addAll(TradeAggregation chunk) {
+        products.addAll(chunk.products);
+        currencies.addAll(chunk.currencies);
+        trades += chunk.trades;
+    }
+
+    TradeAggregates report(String requestId, long productVersion) {
+        return new TradeAggregates(requestId, productVersion, trades, products.totals(true),
+                currencies.totals(false));
+    }
+
+    /*
+     * The eight validated digits at from as a number.
+     */
+    private static int date(byte[] buffer, int from) {
+        return (int) digits((long) WORD.get(buffer, from));
+    }
+
+    /*
+     * Returns the price scaled by 10^PRICE_SCALE, or NO_PRICE when it cannot be. Prices of up to eight bytes, nearly
+     * all of them, are read as one word as TradeValueValidator checks them; longer prices, and those too near the end
+     * of the buffer to read a word, are scanned.
+     */
+    static long price(byte[] buffer, int from, int to) {
+        final var negative = from < to && buffer[from] == '-';
+        final var start = negative ? from + 1 : from;
+        final var length = to - start;
+        final var price = length > 0 && length <= Long.BYTES && start + Long.BYTES <= buffer.length ?
+                price((long) WORD.get(buffer, start), length) : scan(buffer, start, to);
+        return negative && price != NO_PRICE ? -price : price;
+    }
+
+    /*
+     * The digits either side of the point are moved to the top of a word of their own, so that the bytes below them
+     * read as leading zeros, and each is converted as a date is.
+     */
+    private static long price(long word, int length) {
+        final var nonDigits = TradeValueValidator.nonDigits(word, length);
+        if (nonDigits == 0) {
+            return digits(word << (Long.BYTES - length) * Byte.SIZE) * SCALES[0];
+        }
+        final var point = Long.numberOfTrailingZeros(nonDigits) >>> 3;
+        if ((nonDigits & (nonDigits - 1)) != 0 || (byte) (word >>> point * Byte.SIZE) != '.' || point == 0 ||
+                point == length - 1) {
+            return NO_PRICE;
+        }
+        final var decimals = length - point - 1;
+        final var fraction = (word & -1L >>> (Long.SIZE - length * Byte.SIZE)) >>> (point + 1) * Byte.SIZE;
+        return digits(word << (Long.BYTES - point) * Byte.SIZE) * SCALES[0] +
+                digits(fraction << (Long.BYTES - decimals) * Byte.SIZE) * SCALES[decimals];
+    }
+
+    private static long scan(byte[] buffer, int from, int to) {
+        var value = 0L;
+        var digits = 0;
+        var decimals = -1;
+        for (var i = from; i < to; i++) {
+            final var b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + b - '0';
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (b == '.' && decimals < 0 && digits > 0) {
+                decimals = 0;
+            } else {
+                return NO_PRICE;
+            }
+        }
+        if (digits == 0 || decimals == 0 || decimals > PRICE_SCALE ||
+                digits - Math.max(decimals, 0) > MAX_INTEGER_DIGITS) {
+            return NO_PRICE;
+        }
+        return value * SCALES[Math.max(decimals, 0)];
+    }
+
+    /*
+     * The eight digit bytes of a word as a number, combined in pairs, then fours, then halves. Zero bytes read as
+     * leading zeros.
+     */
+    private static long digits(long word) {
+        var digits = word & 0x0f0f0f0f0f0f0f0fL;
+        digits = (digits * 2561) >>> 8 & 0x00ff00ff00ff00ffL;
+        digits = (digits * 6553601) >>> 16 & 0x0000ffff0000ffffL;
+        return (digits * 42949672960001L) >>> 32;
+    }
+}
@@ -0,0 +1,399 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Enriches trades directly on the UTF-8 input bytes. Lines and columns are located in place and the trimmed date,
+ * currency and price ranges are copied straight into a reusable output buffer alongside pre-encoded product names.
+ * Names come from the numeric product index where the catalog has one, with misses and non-numeric catalogs served by
+ * a per request cache, so once the product ids of a file have been seen no objects are created per trade. With a
+ * remote product master the unknown product ids of each buffer are looked up together before it is enriched.
+ *
+ * Currency and price are only checked when strict validation is on, see TradeValueValidator.
+ *
+ * The output is identical to the BufferedReader/TradeProcessor path: lines end on \n, \r or \r\n, the first line is
+ * the header, a trade must split into exactly four columns (String.split drops trailing empty columns) and each column
+ * is trimmed of characters up to and including space.
+ */
+final class TradeByteEnricher {
+    static final byte[] HEADER = "date,product_name,currency,price\n".getBytes(UTF_8);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte COMMA = ',';
+    private static final byte NEW_LINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte[] MISSING_PRODUCT_NAME = Products.DEFAULT_PRODUCT_NAME.getBytes(UTF_8);
+
+    private final Products products;
+    private final ProductSnapshot snapshot;
+    private final TradeDateValidator dateValidator;
+    private final TradeValueValidator valueValidator;
+    private final Set<String> missingProductMappings;
+    private final RejectedTrades rejected;
+    private final TradeAggregation aggregation; // null when aggregates are not wanted
+    private final ProductNameCache productNames = new ProductNameCache();
+    private ProductNameCache bufferNames; // Names looked up for the current buffer once productNames is full
+    private final OutputStream output;
+    private final boolean remote;
+    private final byte[] out = new byte[BUFFER_SIZE];
+
+    private int outPosition;
+    private long rowsRead;
+    private long rowsWritten;
+    private long rejectedColumns;
+    private long rejectedDates;
+    private long rejectedCurrencies;
+    private long rejectedPrices;
+    private long productHits;
+    private long productMisses;
+    private long bytesIn;
+    private long bytesOut;
+    private boolean headerSkipped;
+    private boolean skipLineFeed;
+
+    TradeByteEnricher(Products products, ProductSnapshot snapshot, TradeDateValidator dateValidator,
+                      TradeValueValidator valueValidator, Set<String> missingProductMappings,
+                      RejectedTrades rejected, OutputStream output) {
+        this(products, snapshot, dateValidator, valueValidator, missingProductMappings, rejected, null, output, true);
+    }
+
+    /*
+     * Chunks of a file other than the first are enriched with hasHeader false so that their first line is a trade.
+     */
+    TradeByteEnricher(Products products, ProductSnapshot snapshot, TradeDateValidator dateValidator,
+                      TradeValueValidator valueValidator, Set<String> missingProductMappings,
+                      RejectedTrades rejected, TradeAggregation aggregation, OutputStream output, boolean hasHeader) {
+        this.products = products;
+        this.snapshot = snapshot;
+        this.dateValidator = dateValidator;
+        this.valueValidator = valueValidator;
+        this.missingProductMappings = missingProductMappings;
+        this.rejected = rejected;
+        this.aggregation = aggregation;
+        this.output = output;
+        this.remote = products.isRemote();
+        this.headerSkipped = !hasHeader;
+    }
+
+    void enrich(InputStream input) throws IOException {
+        put(HEADER, 0, HEADER.length);
+
+        var buffer = new byte[BUFFER_SIZE];
+        var end = 0;
+        var read = input.read(buffer, end, buffer.length - end);
+        while (read >= 0) {
+            bytesIn += read;
+            final var remaining = consume(buffer, 0, end, end + read); // Bytes before end hold no line break
+            end += read;
+
+            if (remaining == 0 && end == buffer.length) { // A single line longer than the buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            } else if (remaining > 0) {
+                System.arraycopy(buffer, remaining, buffer, 0, end - remaining);
+                end -= remaining;
+            }
+            read = input.read(buffer, end, buffer.length - end);
+        }
+        finish(buffer, 0, end);
+        flush();
+        recordMissingProducts();
+    }
+
+    /*
+     * Processes every complete line in the range and returns the offset of the first byte of the trailing partial
+     * line, which the caller must present again once more input is available.
+     */
+    int consume(byte[] buffer, int from, int to) throws IOException {
+        return consume(buffer, from, from, to);
+    }
+
+    private int consume(byte[] buffer, int from, int scanFrom, int to) throws IOException {
+        if (remote) {
+            prefetch(buffer, from, scanFrom, to);
+        }
+        var lineStart = from;
+        for (var i = scanFrom; i < to; i++) {
+            final var b = buffer[i];
+            if (b == NEW_LINE || b == CARRIAGE_RETURN) {
+                if (skipLineFeed && b == NEW_LINE && i == lineStart) { // Second half of a \r\n pair
+                    skipLineFeed = false;
+                    lineStart = i + 1;
+                    continue;
+                }
+                line(buffer, lineStart, i);
+                skipLineFeed = b == CARRIAGE_RETURN;
+                lineStart = i + 1;
+            }
+        }
+        return lineStart;
+    }
+
+    /*
+     * Looks up together the products of the complete trades in the range that are neither in the snapshot nor already
+     * looked up, so that a remote product master is asked for each buffer of trades in one request rather than once
+     * for every new product id. Lines are found as consume finds them and trades as line splits them. The names found,
+     * and the missing product name for the rest, are kept for the rest of the upload, the missing ones with the trade
+     * that recording them counted already taken from their hits. Once productNames is full the names that do not fit
+     * are kept for this buffer only, and looked up again for any later buffer that needs them.
+     */
+    private void prefetch(byte[] buffer, int from, int scanFrom, int to) {
+        recordMissingProducts(bufferNames);
+        bufferNames = null;
+
+        Set<String> ids = null;
+        var lineStart = from;
+        var header = !headerSkipped;
+        var lineFeed = skipLineFeed;
+        for (var i = scanFrom; i < to; i++) {
+            final var b = buffer[i];
+            if (b == NEW_LINE || b == CARRIAGE_RETURN) {
+                if (lineFeed && b == NEW_LINE && i == lineStart) {
+                    lineFeed = false;
+                    lineStart = i + 1;
+                    continue;
+                }
+                if (header) {
+                    header = false;
+                } else {
+                    final var dateEnd = indexOf(buffer, lineStart, i, COMMA);
+                    final var productIdEnd = dateEnd < 0 ? -1 : indexOf(buffer, dateEnd + 1, i, COMMA);
+                    final var currencyEnd = productIdEnd < 0 ? -1 : indexOf(buffer, productIdEnd + 1, i, COMMA);
+                    if (currencyEnd >= 0 && endOfLastColumn(buffer, currencyEnd + 1, i) >= 0) {
+                        final var productIdFrom = trimStart(buffer, dateEnd + 1, productIdEnd);
+                        final var productIdTo = trimEnd(buffer, productIdFrom, productIdEnd);
+                        if (snapshot.lookupProductName(buffer, productIdFrom, productIdTo) == null &&
+                                !productNames.contains(buffer, productIdFrom, productIdTo,
+                                        ProductNameCache.hash(buffer, productIdFrom, productIdTo))) {
+                            if (ids == null) {
+                                ids = new HashSet<>();
+                            }
+                            ids.add(new String(buffer, productIdFrom, productIdTo - productIdFrom, UTF_8));
+                        }
+                    }
+                }
+                lineFeed = b == CARRIAGE_RETURN;
+                lineStart = i + 1;
+            }
+        }
+        if (ids == null) {
+            return;
+        }
+
+        final var found = products.prefetch(snapshot, ids);
+        for (final var id : ids) {
+            if (productNames.isFull() && bufferNames == null) {
+                bufferNames = new ProductNameCache(ids.size());
+            }
+            final var names = productNames.isFull() ? bufferNames : productNames;
+            final var name = found.get(id);
+            final var key = id.getBytes(UTF_8);
+            if (name != null) {
+                names.put(key, 0, key.length, ProductNameCache.hash(key, 0, key.length), name.getBytes(UTF_8));
+            } else {
+                products.missingProduct(id, missingProductMappings);
+                names.put(key, 0, key.length, ProductNameCache.hash(key, 0, key.length), MISSING_PRODUCT_NAME, -1);
+            }
+        }
+    }
+
+    /*
+     * Processes the range as the unterminated last line of the input.
+     */
+    void finish(byte[] buffer, int from, int to) throws IOException {
+        if (to > from) {
+            line(buffer, from, to);
+        }
+    }
+
+    void flush() throws IOException {
+        if (outPosition > 0) {
+            write(outPosition);
+        }
+        output.flush();
+    }
+
+    /*
+     * Passes on the trades for missing products that were served from the cache. The first trade for each was counted
+     * when the product was looked up.
+     */
+    void recordMissingProducts() {
+        recordMissingProducts(productNames);
+        recordMissingProducts(bufferNames);
+        bufferNames = null;
+    }
+
+    private void recordMissingProducts(ProductNameCache names) {
+        if (names == null) {
+            return;
+        }
+        names.forEach((key, name, hits) -> {
+            if (name == MISSING_PRODUCT_NAME && hits > 0) {
+                products.recordMissingProduct(new String(key, UTF_8), hits);
+            }
+        });
+    }
+
+    /*
+     * Bytes in are only counted by enrich, callers of consume and finish know the size of what they present.
+     */
+    EnrichmentStats stats() {
+        return new EnrichmentStats(rowsRead, rowsWritten, rejectedColumns, rejectedDates, rejectedCurrencies,
+                rejectedPrices, productHits, productMisses, bytesIn, bytesOut);
+    }
+
+    private void line(byte[] buffer, int from, int to) throws IOException {
+        if (!headerSkipped) { // Ignore the first header row
+            headerSkipped = true;
+            return;
+        }
+        rowsRead++;
+
+        final var dateEnd = indexOf(buffer, from, to, COMMA);
+        final var productIdEnd = dateEnd < 0 ? -1 : indexOf(buffer, dateEnd + 1, to, COMMA);
+        final var currencyEnd = productIdEnd < 0 ? -1 : indexOf(buffer, productIdEnd + 1, to, COMMA);
+        final var priceEnd = currencyEnd < 0 ? -1 : endOfLastColumn(buffer, currencyEnd + 1, to);
+        if (priceEnd < 0) {
+            rejectedColumns++;
+            rejected.add(buffer, from, to);
+            return;
+        }
+
+        final var dateFrom = trimStart(buffer, from, dateEnd);
+        final var dateTo = trimEnd(buffer, dateFrom, dateEnd);
+        final var productIdFrom = trimStart(buffer, dateEnd + 1, productIdEnd);
+        final var productIdTo = trimEnd(buffer, productIdFrom, productIdEnd);
+        final var currencyFrom = trimStart(buffer, productIdEnd + 1, currencyEnd);
+        final var currencyTo = trimEnd(buffer, currencyFrom, currencyEnd);
+        final var priceFrom = trimStart(buffer, currencyEnd + 1, priceEnd);
+        final var priceTo = trimEnd(buffer, priceFrom, priceEnd);
+
+        final var productName = productName(buffer, productIdFrom, productIdTo);
+        if (productName == MISSING_PRODUCT_NAME) {
+            productMisses++;
+        } else {
+            productHits++;
+        }
+
+        if (!dateValidator.isValidDate(buffer, dateFrom, dateTo)) {
+            rejectedDates++;
+            rejected.add(buffer, from, to);
+        } else if (!valueValidator.isValidCurrency(buffer, currencyFrom, currencyTo)) {
+            rejectedCurrencies++;
+            rejected.add(buffer, from, to);
+        } else if (!valueValidator.isValidPrice(buffer, priceFrom, priceTo)) {
+            rejectedPrices++;
+            rejected.add(buffer, from, to);
+        } else {
+            put(buffer, dateFrom, dateTo - dateFrom);
+            put(COMMA);
+            put(productName, 0, productName.length);
+            put(COMMA);
+            put(buffer, currencyFrom, currencyTo - currencyFrom);
+            put(COMMA);
+            put(buffer, priceFrom, priceTo - priceFrom);
+            put(NEW_LINE);
+            rowsWritten++;
+            if (aggregation != null) {
+                aggregation.add(buffer, dateFrom, productIdFrom, productIdTo, productName, currencyFrom, currencyTo,
+                        priceFrom, priceTo);
+            }
+        }
+    }
+
+    /*
+     * The fourth column must be non-empty and may only be followed by empty columns, mirroring the removal of
+     * trailing empty strings by String.split. Returns -1 when the line does not have four columns.
+     */
+    private static int endOfLastColumn(byte[] buffer, int from, int to) {
+        final var end = indexOf(buffer, from, to, COMMA);
+        if (end == from || (end < 0 && to == from)) {
+            return -1;
+        } else if (end < 0) {
+            return to;
+        }
+        for (var i = end + 1; i < to; i++) {
+            if (buffer[i] != COMMA) {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    private byte[] productName(byte[] buffer, int from, int to) {
+        var name = snapshot.lookupProductName(buffer, from, to);
+        if (name != null) {
+            return name;
+        }
+
+        final var hash = ProductNameCache.hash(buffer, from, to);
+        name = productNames.get(buffer, from, to, hash);
+        if (name == null && bufferNames != null) {
+            name = bufferNames.get(buffer, from, to, hash);
+        }
+        if (name == null) {
+            final var id = new String(buffer, from, to - from, UTF_8);
+            final var productName = products.lookupProduct(snapshot, id, missingProductMappings);
+            name = missingProductMappings.contains(id) ? MISSING_PRODUCT_NAME : productName.getBytes(UTF_8);
+            productNames.put(buffer, from, to, hash, name);
+        }
+        return name;
+    }
+
+    private static int indexOf(byte[] buffer, int from, int to, byte value) {
+        for (var i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int trimStart(byte[] buffer, int from, int to) {
+        while (from < to && (buffer[from] & 0xff) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] buffer, int from, int to) {
+        while (to > from && (buffer[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private void put(byte value) throws IOException {
+        if (outPosition == out.length) {
+            write(outPosition);
+        }
+        out[outPosition++] = value;
+    }
+
+    private void put(byte[] source, int from, int length) throws IOException {
+        while (length > out.length - outPosition) {
+            final var space = out.length - outPosition;
+            System.arraycopy(source, from, out, outPosition, space);
+            write(out.length);
+            from += space;
+            length -= space;
+        }
+        System.arraycopy(source, from, out, outPosition, length);
+        outPosition += length;
+    }
+
+    private void write(int length) throws IOException {
+        output.write(out, 0, length);
+        bytesOut += length;
+        outPosition = 0;
+    }
+}
@@ -0,0 +1,112 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Validates trade dates with the same accept/reject semantics as LocalDate.parse(date, BASIC_ISO_DATE), but checks the
+ * YYYYMMDD digits arithmetically and never throws. Recently seen dates are held in a small direct mapped cache, which
+ * suits trade files that only contain a few hundred distinct dates.
+ *
+ * BASIC_ISO_DATE also accepts a trailing offset such as 20160101Z or 20160101+0100. That form is rare enough that it
+ * is left to the formatter, which is only consulted when a valid date is followed by an offset sign.
+ */
+@Component
+class TradeDateValidator {
+    private static final int DATE_LENGTH = 8;
+    private static final int CACHE_SIZE = 1024;
+    private static final int VALID = 1;
+
+    /*
+     * Each entry holds (yyyymmdd << 1 | VALID) + 1 so that zero marks an empty entry. Entries are single ints, so
+     * racing writers can only replace one valid entry with another.
+     */
+    private final int[] cache = new int[CACHE_SIZE];
+
+    boolean isValidDate(CharSequence date) {
+        final var length = date.length();
+        if (length < DATE_LENGTH) {
+            return false;
+        }
+
+        var value = 0;
+        for (var i = 0; i < DATE_LENGTH; i++) {
+            final var digit = date.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+        }
+
+        if (length == DATE_LENGTH) {
+            return isValidDate(value);
+        } else {
+            return isOffset(date.charAt(DATE_LENGTH)) && isValidDate(value) && parses(date.toString());
+        }
+    }
+
+    boolean isValidDate(byte[] buffer, int from, int to) {
+        final var length = to - from;
+        if (length < DATE_LENGTH) {
+            return false;
+        }
+
+        var value = 0;
+        for (var i = from; i < from + DATE_LENGTH; i++) {
+            final var digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+        }
+
+        if (length == DATE_LENGTH) {
+            return isValidDate(value);
+        } else {
+            return isOffset(buffer[from + DATE_LENGTH]) && isValidDate(value) &&
+                    parses(new String(buffer, from, length, UTF_8));
+        }
+    }
+
+    private boolean isValidDate(int yyyymmdd) {
+        final var slot = (yyyymmdd ^ (yyyymmdd >>> 10)) & (CACHE_SIZE - 1);
+        final var entry = cache[slot] - 1;
+        if (entry >>> 1 == yyyymmdd) {
+            return (entry & VALID) == VALID;
+        }
+
+        final var valid = isValidDate(yyyymmdd / 10000, yyyymmdd / 100 % 100, yyyymmdd % 100);
+        cache[slot] = (yyyymmdd << 1 | (valid ? VALID : 0)) + 1;
+        return valid;
+    }
+
+    private static boolean isValidDate(int year, int month, int day) {
+        return month >= 1 && month <= 12 && day >= 1 && day <= lengthOfMonth(year, month);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    private static boolean isOffset(int c) {
+        return c == '+' || c == '-' || c == 'Z';
+    }
+
+    private static boolean parses(String date) {
+        try {
+            LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
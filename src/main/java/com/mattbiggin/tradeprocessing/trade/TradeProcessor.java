@@ -1,29 +1,29 @@
 package com.mattbiggin.tradeprocessing.trade;
 
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
 import com.mattbiggin.tradeprocessing.product.Products;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.Optional;
 import java.util.Set;
 
 @Component
 class TradeProcessor {
-    private static final Logger log = LoggerFactory.getLogger(TradeProcessor.class);
-
     final private Products products;
 
+    final private TradeDateValidator dateValidator;
+
+    final private TradeValueValidator valueValidator;
+
     @Autowired
-    TradeProcessor(Products products) {
+    TradeProcessor(Products products, TradeDateValidator dateValidator, TradeValueValidator valueValidator) {
         this.products = products;
+        this.dateValidator = dateValidator;
+        this.valueValidator = valueValidator;
     }
 
-    Optional<String> process(String line, Set<String> missingProductMappings) {
+    Optional<String> process(String line, ProductSnapshot snapshot, Set<String> missingProductMappings) {
         final var columns = line.split(",");
 
         if (hasValidColumns(columns)) {
@@ -32,9 +32,10 @@ class TradeProcessor {
             final String currency = columns[2].trim();
             final String price = columns[3].trim();
 
-            final var productName = products.lookupProduct(productId, missingProductMappings);
+            final var productName = products.lookupProduct(snapshot, productId, missingProductMappings);
 
-            if (isValidDate(date, line)) {
+            if (dateValidator.isValidDate(date) && valueValidator.isValidCurrency(currency) &&
+                    valueValidator.isValidPrice(price)) {
                 return Optional.of(String.join(",", date, productName, currency, price) + "\n");
             } else {
                 return Optional.empty();
@@ -47,16 +48,4 @@ class TradeProcessor {
     private boolean hasValidColumns(String[] trade) {
         return trade.length == 4;
     }
-
-    private boolean isValidDate(String date, String trade) {
-        var dateFormatter = DateTimeFormatter.BASIC_ISO_DATE;
-
-        try {
-            LocalDate.parse(date, dateFormatter);
-            return true;
-        } catch (DateTimeParseException e) {
-            log.error("Invalid date, ignoring trade - " + trade);
-            return false;
-        }
-    }
 }
@@ -1,5 +1,6 @@
 package com.mattbiggin.tradeprocessing.trade;
 
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
 import com.mattbiggin.tradeprocessing.product.Products;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,20 +9,111 @@ import org.springframework.stereotype.Component;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class TradeStreamEnrichment {
     private static final Logger log = LoggerFactory.getLogger(TradeStreamEnrichment.class);
 
-    @Autowired
-    private Products products;
+    final private Products products;
+
+    final private TradeProcessor tradeProcessor;
+
+    final private TradeDateValidator dateValidator;
+
+    final private TradeValueValidator valueValidator;
+
+    final private ParallelTradeEnrichment parallelTradeEnrichment;
+
+    final private PipelinedTradeEnrichment pipelinedTradeEnrichment;
+
+    final private EnrichmentMetrics metrics;
+
+    final private RejectionStore rejectionStore;
+
+    final private AggregateStore aggregateStore;
 
     @Autowired
-    private TradeProcessor tradeProcessor;
+    TradeStreamEnrichment(Products products, TradeProcessor tradeProcessor, TradeDateValidator dateValidator,
+                          TradeValueValidator valueValidator, ParallelTradeEnrichment parallelTradeEnrichment,
+                          PipelinedTradeEnrichment pipelinedTradeEnrichment, EnrichmentMetrics metrics,
+                          RejectionStore rejectionStore, AggregateStore aggregateStore) {
+        this.products = products;
+        this.tradeProcessor = tradeProcessor;
+        this.dateValidator = dateValidator;
+        this.valueValidator = valueValidator;
+        this.parallelTradeEnrichment = parallelTradeEnrichment;
+        this.pipelinedTradeEnrichment = pipelinedTradeEnrichment;
+        this.metrics = metrics;
+        this.rejectionStore = rejectionStore;
+        this.aggregateStore = aggregateStore;
+    }
+
+    public void processTrades(InputStream input, OutputStream output) {
+        processTrades(input, output, false);
+    }
+
+    public void processTrades(InputStream input, OutputStream output, boolean parallel) {
+        processTrades(products.getSnapshot(), input, output, parallel);
+    }
+
+    public void processTrades(ProductSnapshot snapshot, InputStream input, OutputStream output, boolean parallel) {
+        processTrades(null, snapshot, input, output, parallel);
+    }
+
+    public void processTrades(String requestId, ProductSnapshot snapshot, InputStream input, OutputStream output,
+                              boolean parallel) {
+        processTrades(requestId, snapshot, input, output, parallel, false);
+    }
+
+    /*
+     * Every trade is enriched against the given snapshot, regardless of product changes made while it runs. The
+     * rejected trades are summarised under the request id once enrichment completes, as are the aggregates of the
+     * written trades when they are asked for.
+     */
+    public void processTrades(String requestId, ProductSnapshot snapshot, InputStream input, OutputStream output,
+                              boolean parallel, boolean aggregate) {
+        try {
+            enrich(requestId, snapshot, input, output, parallel, aggregate);
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    EnrichmentStats enrich(String requestId, ProductSnapshot snapshot, InputStream input, OutputStream output,
+                           boolean parallel, boolean aggregate) throws IOException {
+        final var start = System.nanoTime();
+        final var aggregation = aggregate && requestId != null ? new TradeAggregation() : null;
+        try (var rejected = rejectionStore.open(requestId)) {
+            final EnrichmentStats stats;
+            if (parallel) {
+                stats = parallelTradeEnrichment.processTrades(snapshot, input, output, ConcurrentHashMap.newKeySet(),
+                        rejected, aggregation);
+                metrics.record(EnrichmentMetrics.Mode.PARALLEL, stats, System.nanoTime() - start);
+            } else if (pipelinedTradeEnrichment.isEnabled()) {
+                stats = pipelinedTradeEnrichment.processTrades(requestId, snapshot, input, output, rejected,
+                        aggregation);
+                metrics.record(EnrichmentMetrics.Mode.PIPELINE, stats, System.nanoTime() - start);
+            } else {
+                final var enricher = new TradeByteEnricher(products, snapshot, dateValidator, valueValidator,
+                        new HashSet<>(), rejected, aggregation, output, true);
+                enricher.enrich(input);
+                stats = enricher.stats();
+                metrics.record(EnrichmentMetrics.Mode.STREAM, stats, System.nanoTime() - start);
+            }
+            rejectionStore.complete(requestId, rejected, stats);
+            if (aggregation != null) {
+                aggregateStore.complete(aggregation.report(requestId, snapshot.version()));
+            }
+            return stats;
+        }
+    }
 
     public void processTrades(BufferedReader reader, OutputStream output) {
+        final var snapshot = products.getSnapshot();
         final var missingProductMappings = new HashSet<String>();
 
         try {
@@ -33,7 +125,7 @@ public class TradeStreamEnrichment {
                 if (isFirst) { // Ignore the first header row
                     isFirst = false;
                 } else {
-                    tradeProcessor.process(line, missingProductMappings).ifPresent(t -> {
+                    tradeProcessor.process(line, snapshot, missingProductMappings).ifPresent(t -> {
                         try {
                             output.write(t.getBytes());
                         } catch (IOException e) {
@@ -0,0 +1,17 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.math.BigDecimal;
+
+/*
+ * Totals of the enriched trades for one product id or currency. The product name is only present for products and the
+ * total price only when some of the trades had a price that could be summed.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record TradeTotal(String key, String productName, long trades, long pricedTrades, BigDecimal totalPrice,
+                         String firstDate, String lastDate) {
+}
@@ -0,0 +1,212 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Trade count, price total and date range by key, for the aggregates of one enrichment or one chunk of a parallel
+ * enrichment. Keys are the raw column bytes, so only the first trade for each key allocates.
+ *
+ * The totals for each key are a record of RECORD longs, appended to one array in the order that keys are first seen, so
+ * that the update for a trade touches one or two cache lines rather than a line in each of several parallel arrays. An
+ * open addressing index of hash and record number finds the record, and being a quarter of the size of the records it
+ * mostly stays in the processor caches. The record holds the key itself when it is no longer than a long, as product
+ * ids and currencies nearly always are; such keys are read and hashed as one word, and the key bytes are only compared
+ * for longer keys.
+ *
+ * Prices are scaled longs, summed into 128 bits (high * 2^64 + low, with both signed) so that the total of any number of
+ * trades is exact.
+ */
+final class TradeTotals {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int DATE_LENGTH = 8;
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /* Offsets in a record */
+    private static final int LENGTH = 0;
+    private static final int KEY = 1;
+    private static final int TRADES = 2;
+    private static final int PRICED = 3;
+    private static final int SUM_HIGH = 4;
+    private static final int SUM_LOW = 5;
+    private static final int FIRST_DATE = 6;
+    private static final int LAST_DATE = 7;
+    private static final int RECORD = 8;
+
+    /* Hash in the high half and record number + 1 in the low half, or 0 for an empty slot */
+    private long[] index = new long[INITIAL_CAPACITY];
+    private long[] records = new long[INITIAL_CAPACITY / 2 * RECORD];
+    private byte[][] keys = new byte[INITIAL_CAPACITY / 2][];
+    private byte[][] names = new byte[INITIAL_CAPACITY / 2][];
+    private int size;
+
+    /*
+     * Adds a trade for the key in the range. The name is kept from the first trade for the key, and price is
+     * TradeAggregation.NO_PRICE when the trade has no price that can be summed.
+     */
+    void add(byte[] buffer, int from, int to, byte[] name, int date, long price) {
+        final var key = to - from <= Long.BYTES ? key(buffer, from, to) : 0;
+        final var hash = to - from <= Long.BYTES ? hash(key) : ProductNameCache.hash(buffer, from, to);
+        final var record = record(buffer, from, to, hash, key, name);
+        records[record + TRADES]++;
+        if (price != TradeAggregation.NO_PRICE) {
+            records[record + PRICED]++;
+            add(record, 0, price);
+        }
+        records[record + FIRST_DATE] = Math.min(records[record + FIRST_DATE], date);
+        records[record + LAST_DATE] = Math.max(records[record + LAST_DATE], date);
+    }
+
+    void addAll(TradeTotals other) {
+        for (var i = 0; i < other.index.length; i++) {
+            if (other.index[i] != 0) {
+                final var from = ((int) other.index[i] - 1) * RECORD;
+                final var key = other.keys[from / RECORD];
+                final var record = record(key, 0, key.length, (int) (other.index[i] >>> 32),
+                        other.records[from + KEY], other.names[from / RECORD]);
+                records[record + TRADES] += other.records[from + TRADES];
+                records[record + PRICED] += other.records[from + PRICED];
+                add(record, other.records[from + SUM_HIGH], other.records[from + SUM_LOW]);
+                records[record + FIRST_DATE] = Math.min(records[record + FIRST_DATE], other.records[from + FIRST_DATE]);
+                records[record + LAST_DATE] = Math.max(records[record + LAST_DATE], other.records[from + LAST_DATE]);
+            }
+        }
+    }
+
+    /*
+     * The totals by int value of the key when every key parses as an int, otherwise by key, as GET /api/v1/products
+     * orders product ids. Names are only reported when withNames is set.
+     */
+    List<TradeTotal> totals(boolean withNames) {
+        final var totals = new ArrayList<TradeTotal>(size);
+        var sortable = true;
+        for (var i = 0; i < size; i++) {
+            final var record = i * RECORD;
+            final var key = new String(keys[i], UTF_8);
+            sortable &= isInt(key);
+            totals.add(new TradeTotal(key, withNames ? new String(names[i], UTF_8) : null,
+                    records[record + TRADES], records[record + PRICED], records[record + PRICED] > 0 ?
+                    total(records[record + SUM_HIGH], records[record + SUM_LOW]) : null,
+                    date(records[record + FIRST_DATE]), date(records[record + LAST_DATE])));
+        }
+        totals.sort(sortable ? Comparator.comparingInt(total -> Integer.parseInt(total.key())) :
+                Comparator.comparing(TradeTotal::key));
+        return totals;
+    }
+
+    /*
+     * Adds a 128 bit value to the sum. The low long stays a signed long, so the high long only changes when the add
+     * overflows it, which for a sum of single prices it rarely does.
+     */
+    private void add(int record, long high, long low) {
+        final var sum = records[record + SUM_LOW] + low;
+        if (((records[record + SUM_LOW] ^ sum) & (low ^ sum)) < 0) {
+            high += low < 0 ? -1 : 1;
+        }
+        records[record + SUM_HIGH] += high;
+        records[record + SUM_LOW] = sum;
+    }
+
+    /*
+     * Returns the offset of the record for the key, adding a record if there is none.
+     */
+    private int record(byte[] buffer, int from, int to, int hash, long key, byte[] name) {
+        final var mask = index.length - 1;
+        var slot = hash & mask;
+        while (index[slot] != 0) {
+            if ((int) (index[slot] >>> 32) == hash) {
+                final var record = ((int) index[slot] - 1) * RECORD;
+                if (records[record + LENGTH] == to - from && (to - from <= Long.BYTES ? records[record + KEY] == key :
+                        Arrays.equals(keys[record / RECORD], 0, keys[record / RECORD].length, buffer, from, to))) {
+                    return record;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == keys.length) {
+            records = Arrays.copyOf(records, records.length * 2);
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        final var record = size * RECORD;
+        records[record + LENGTH] = to - from;
+        records[record + KEY] = key;
+        records[record + FIRST_DATE] = Long.MAX_VALUE;
+        records[record + LAST_DATE] = Long.MIN_VALUE;
+        keys[size] = Arrays.copyOfRange(buffer, from, to);
+        names[size] = name;
+        size++;
+        index[slot] = (long) hash << 32 | size;
+        if (size * 2 > index.length) {
+            resize();
+        }
+        return record;
+    }
+
+    private void resize() {
+        final var grown = new long[index.length * 2];
+        final var mask = grown.length - 1;
+        for (final var entry : index) {
+            if (entry != 0) {
+                var slot = (int) (entry >>> 32) & mask;
+                while (grown[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                grown[slot] = entry;
+            }
+        }
+        index = grown;
+    }
+
+    /*
+     * The key bytes in a long, read as one word unless the key is too near the end of the buffer.
+     */
+    private static long key(byte[] buffer, int from, int to) {
+        if (from == to) {
+            return 0;
+        } else if (from + Long.BYTES <= buffer.length) {
+            return (long) WORD.get(buffer, from) & -1L >>> (Long.SIZE - (to - from) * Byte.SIZE);
+        }
+        var key = 0L;
+        for (var i = to - 1; i >= from; i--) {
+            key = key << Byte.SIZE | (buffer[i] & 0xff);
+        }
+        return key;
+    }
+
+    private static int hash(long key) {
+        final var hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static BigDecimal total(long high, long low) {
+        final var unscaled = high == 0 ? BigInteger.valueOf(low) :
+                BigInteger.valueOf(high).shiftLeft(Long.SIZE).add(BigInteger.valueOf(low));
+        final var total = new BigDecimal(unscaled, TradeAggregation.PRICE_SCALE).stripTrailingZeros();
+        return total.scale() < 0 ? total.setScale(0) : total;
+    }
+
+    private static String date(long yyyymmdd) {
+        final var date = Long.toString(yyyymmdd);
+        return date.length() < DATE_LENGTH ? "0".repeat(DATE_LENGTH - date.length()) + date : date;
+    }
+
+    private static boolean isInt(String key) {
+        try {
+            Integer.parseInt(key);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/*
+ * Optional strict validation of the currency and price columns, checked on the column bytes or chars without creating
+ * objects or throwing.
+ *
+ * A currency must be one of a configured set of three letter upper case codes. Codes are packed as base 26 numbers
+ * into a bit set of 26^3 bits (2KB), so a check is three subtractions and a bit test.
+ *
+ * A price must be a plain decimal: an optional minus sign, at least one digit and optionally a point followed by at
+ * least one digit, with no more than MAX_DIGITS digits in all. Exponents, grouping separators and a leading plus sign
+ * are rejected, as are the NaN and Infinity that Double.parseDouble would accept.
+ */
+@Component
+class TradeValueValidator {
+    static final int MAX_DIGITS = 38;
+
+    /* ISO 4217 codes in use as of 2024, excluding funds, precious metals and testing codes */
+    static final String ISO_4217 = "AED,AFN,ALL,AMD,ANG,AOA,ARS,AUD,AWG,AZN,BAM,BBD,BDT,BGN,BHD,BIF,BMD,BND,BOB,BRL," +
+            "BSD,BTN,BWP,BYN,BZD,CAD,CDF,CHF,CLP,CNY,COP,CRC,CUP,CVE,CZK,DJF,DKK,DOP,DZD,EGP,ERN,ETB,EUR,FJD,FKP,GBP," +
+            "GEL,GHS,GIP,GMD,GNF,GTQ,GYD,HKD,HNL,HTG,HUF,IDR,ILS,INR,IQD,IRR,ISK,JMD,JOD,JPY,KES,KGS,KHR,KMF,KPW,KRW," +
+            "KWD,KYD,KZT,LAK,LBP,LKR,LRD,LSL,LYD,MAD,MDL,MGA,MKD,MMK,MNT,MOP,MRU,MUR,MVR,MWK,MXN,MYR,MZN,NAD,NGN,NIO," +
+            "NOK,NPR,NZD,OMR,PAB,PEN,PGK,PHP,PKR,PLN,PYG,QAR,RON,RSD,RUB,RWF,SAR,SBD,SCR,SDG,SEK,SGD,SHP,SLE,SOS,SRD," +
+            "SSP,STN,SVC,SYP,SZL,THB,TJS,TMT,TND,TOP,TRY,TTD,TWD,TZS,UAH,UGX,USD,UYU,UZS,VED,VES,VND,VUV,WST,XAF,XCD," +
+            "XOF,XPF,YER,ZAR,ZMW,ZWL";
+
+    private static final int CODE_LENGTH = 3;
+    private static final int LETTERS = 26;
+
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long HIGH_NIBBLES = 0xf0f0f0f0f0f0f0f0L;
+    private static final long LOW_NIBBLES = 0x0f0f0f0f0f0f0f0fL;
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final boolean enabled;
+    private final int[] currencies = new int[(LETTERS * LETTERS * LETTERS + 31) / 32];
+
+    /*
+     * A validator that accepts every currency and price, the behaviour when strict validation is off.
+     */
+    TradeValueValidator() {
+        this(false, ISO_4217);
+    }
+
+    @Autowired
+    TradeValueValidator(ConfigurationProperties properties) {
+        this(properties.isStrictValidation(), properties.getCurrencies().isBlank() ? ISO_4217 :
+                properties.getCurrencies());
+    }
+
+    TradeValueValidator(boolean enabled, String currencies) {
+        this.enabled = enabled;
+        for (final var currency : currencies.split(",")) {
+            final var code = currency.trim();
+            final var packed = code.length() == CODE_LENGTH ? pack(code.charAt(0), code.charAt(1), code.charAt(2)) : -1;
+            if (packed < 0) {
+                throw new IllegalArgumentException("Invalid currency code - " + currency);
+            }
+            this.currencies[packed >>> 5] |= 1 << packed;
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    boolean isValidCurrency(CharSequence currency) {
+        return !enabled || (currency.length() == CODE_LENGTH &&
+                isCurrency(pack(currency.charAt(0), currency.charAt(1), currency.charAt(2))));
+    }
+
+    boolean isValidCurrency(byte[] buffer, int from, int to) {
+        return !enabled || (to - from == CODE_LENGTH &&
+                isCurrency(pack(buffer[from], buffer[from + 1], buffer[from + 2])));
+    }
+
+    boolean isValidPrice(CharSequence price) {
+        if (!enabled) {
+            return true;
+        }
+        final var length = price.length();
+        final var start = length > 0 && price.charAt(0) == '-' ? 1 : 0;
+        var point = -1;
+        for (var i = start; i < length; i++) {
+            final var c = price.charAt(i);
+            if (!isDigit(c)) {
+                if (c != '.' || point >= 0) {
+                    return false;
+                }
+                point = i;
+            }
+        }
+        return isDecimal(start, point, length);
+    }
+
+    /*
+     * Prices of up to eight bytes, nearly all of them, are checked as one word so that there is no loop whose exit
+     * depends on the length. Longer prices, and those too near the end of the buffer to read a word, are scanned.
+     */
+    boolean isValidPrice(byte[] buffer, int from, int to) {
+        if (!enabled) {
+            return true;
+        }
+        final var start = from < to && buffer[from] == '-' ? from + 1 : from;
+        final var length = to - start;
+        if (length > 0 && length <= Long.BYTES && start + Long.BYTES <= buffer.length) {
+            return isDecimal((long) WORD.get(buffer, start), length);
+        }
+        var point = -1;
+        for (var i = start; i < to; i++) {
+            final var b = buffer[i];
+            if (!isDigit(b)) {
+                if (b != '.' || point >= 0) {
+                    return false;
+                }
+                point = i;
+            }
+        }
+        return isDecimal(start, point, to);
+    }
+
+    /*
+     * Digits from start to end with at most one point, which must have a digit on either side.
+     */
+    private static boolean isDecimal(int start, int point, int end) {
+        final var digits = end - start - (point >= 0 ? 1 : 0);
+        return digits > 0 && digits <= MAX_DIGITS && point != start && point != end - 1;
+    }
+
+    /*
+     * The first length bytes of the word are digits with at most one point, which must not be the first or last byte.
+     * Each byte is a digit when its high nibble is 3 and its low nibble is at most 9; adding 6 to the low nibble carries
+     * into bit 4 just when it is not.
+     */
+    private static boolean isDecimal(long word, int length) {
+        final var nonDigits = nonDigits(word, length);
+        if (nonDigits == 0) {
+            return true;
+        }
+        final var point = Long.numberOfTrailingZeros(nonDigits) >>> 3;
+        return (nonDigits & (nonDigits - 1)) == 0 && (byte) (word >>> point * Byte.SIZE) == '.' &&
+                point != 0 && point != length - 1;
+    }
+
+    /*
+     * The high bit of each of the first length bytes of the word that is not a digit.
+     */
+    static long nonDigits(long word, int length) {
+        final var bytes = -1L >>> (Long.SIZE - length * Byte.SIZE);
+        final var invalid = ((word & HIGH_NIBBLES) ^ 0x3030303030303030L) |
+                (((word & LOW_NIBBLES) + 0x0606060606060606L) & 0x1010101010101010L);
+        return (((invalid & LOW_BITS) + LOW_BITS) | invalid) & HIGH_BITS & bytes;
+    }
+
+    private boolean isCurrency(int packed) {
+        return packed >= 0 && (currencies[packed >>> 5] & (1 << packed)) != 0;
+    }
+
+    /*
+     * Returns the code as a base 26 number, or -1 when it is not three upper case letters.
+     */
+    private static int pack(int first, int second, int third) {
+        final var a = first - 'A';
+        final var b = second - 'A';
+        final var c = third - 'A';
+        if ((a | b | c | LETTERS - 1 - a | LETTERS - 1 - b | LETTERS - 1 - c) < 0) {
+            return -1;
+        }
+        return (a * LETTERS + b) * LETTERS + c;
+    }
+
+    private static boolean isDigit(int c) {
+        return (char) (c - '0') <= 9;
+    }
+}
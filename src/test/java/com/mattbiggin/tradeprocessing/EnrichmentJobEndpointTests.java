@@ -0,0 +1,103 @@
+package com.mattbiggin.tradeprocessing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class EnrichmentJobEndpointTests {
+    private static final String TRADES = "date,product_id,currency,price\n20160101,1,EUR,10.0\n20160101,2,EUR,20.1\n";
+    private static final String ENRICHED = """
+            date,product_name,currency,price
+            20160101,Treasury Bills Domestic,EUR,10.0
+            20160101,Corporate Bonds Domestic,EUR,20.1
+            """;
+
+    @TempDir
+    private static Path directory;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("enrich.jobs.directory", directory::toString);
+    }
+
+    @Test
+    void testJobLifecycle() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/enrich/jobs")
+                        .contentType("text/csv")
+                        .header(TradeProcessingController.REQUEST_ID_HEADER, "job-lifecycle")
+                        .content(TRADES))
+                .andExpect(MockMvcResultMatchers.status().isAccepted())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.LOCATION,
+                        "/api/v1/enrich/jobs/job-lifecycle"))
+                .andExpect(MockMvcResultMatchers.content().string(containsString("job_id=job-lifecycle\n")));
+
+        awaitComplete("job-lifecycle");
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/jobs/job-lifecycle"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(containsString("rows_written=2\n")));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/jobs/job-lifecycle/output"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(MockMvcResultMatchers.content().string(ENRICHED));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/jobs/job-lifecycle/output")
+                        .header(HttpHeaders.RANGE, "bytes=33-"))
+                .andExpect(MockMvcResultMatchers.status().isPartialContent())
+                .andExpect(MockMvcResultMatchers.content().string(ENRICHED.substring(33)));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/job-lifecycle/rejects"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    @Test
+    void testDuplicateJob() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/enrich/jobs")
+                        .header(TradeProcessingController.REQUEST_ID_HEADER, "job-duplicate")
+                        .content(TRADES))
+                .andExpect(MockMvcResultMatchers.status().isAccepted());
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/enrich/jobs")
+                        .header(TradeProcessingController.REQUEST_ID_HEADER, "job-duplicate")
+                        .content(TRADES))
+                .andExpect(MockMvcResultMatchers.status().isConflict());
+    }
+
+    @Test
+    void testUnknownJob() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/jobs/unknown"))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/jobs/unknown/output"))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
+    private void awaitComplete(String id) throws Exception {
+        for (var i = 0; i < 500; i++) {
+            final var status = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/jobs/" + id))
+                    .andReturn().getResponse().getContentAsString();
+            if (status.contains("state=COMPLETE")) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        assertTrue(false, "job " + id + " did not complete");
+    }
+}
@@ -0,0 +1,75 @@
+package com.mattbiggin.tradeprocessing;
+
+import jakarta.servlet.AsyncEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * The default async executor with a single thread, so that an enrichment can be left queued behind a blocked task.
+ */
+@SpringBootTest(properties = {"enrich.maxConcurrent=1", "spring.task.execution.pool.core-size=1",
+        "spring.task.execution.pool.max-size=1"})
+@AutoConfigureMockMvc
+class EnrichmentLimiterEndpointTests {
+    private static final String TRADES = "date,product_id,currency,price\n20160101,1,EUR,10.0\n";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private EnrichmentLimiter limiter;
+
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor executor;
+
+    @Test
+    void testPermitReleasedWhenQueuedEnrichmentTimesOut() throws Exception {
+        final var blocked = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        executor.execute(() -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        blocked.await(10, TimeUnit.SECONDS);
+
+        try {
+            final var result = mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/enrich")
+                            .contentType("text/csv")
+                            .content(TRADES))
+                    .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                    .andReturn();
+            assertEquals(0, limiter.available());
+
+            final var context = (MockAsyncContext) result.getRequest().getAsyncContext();
+            for (final var listener : context.getListeners()) {
+                listener.onTimeout(new AsyncEvent(context));
+            }
+            context.complete();
+            assertEquals(1, limiter.available());
+        } finally {
+            release.countDown();
+        }
+
+        /* The queued enrichment was cancelled rather than run, and the permit is not released twice */
+        Thread.sleep(100);
+        assertEquals(1, limiter.available());
+    }
+}
@@ -0,0 +1,38 @@
+package com.mattbiggin.tradeprocessing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EnrichmentLimiterTest {
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    @Test
+    public void testLimit() {
+        when(mockProperties.getMaxConcurrentEnrichments()).thenReturn(2);
+        final var limiter = new EnrichmentLimiter(mockProperties);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.release();
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testUnlimited() {
+        when(mockProperties.getMaxConcurrentEnrichments()).thenReturn(0);
+        final var limiter = new EnrichmentLimiter(mockProperties);
+
+        for (var i = 0; i < 1_000; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+    }
+}
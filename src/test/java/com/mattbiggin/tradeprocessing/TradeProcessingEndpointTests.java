@@ -1,22 +1,40 @@
 package com.mattbiggin.tradeprocessing;
 
+import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.web.context.WebApplicationContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
-
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 @SpringBootTest
@@ -36,8 +54,9 @@ class TradeProcessingEndpointTests {
                         .accept(MediaType.TEXT_PLAIN_VALUE)
                         .content(getTestTrades("src/test/resources/trade.csv"));
 
-        mockMvc.perform(builder)
+        mockMvc.perform(streamed(builder))
                 .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().exists(TradeProcessingController.PRODUCT_VERSION_HEADER))
                 .andExpect(MockMvcResultMatchers.content().string("""
                         date,product_name,currency,price
                         20160101,Treasury Bills Domestic,EUR,10.0
@@ -56,7 +75,7 @@ class TradeProcessingEndpointTests {
                         .accept(MediaType.TEXT_PLAIN_VALUE)
                         .content(getTestTrades("src/test/resources/trade-invalid-date.csv"));
 
-        mockMvc.perform(builder)
+        mockMvc.perform(streamed(builder))
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(MockMvcResultMatchers.content().string("""
                         date,product_name,currency,price
@@ -67,12 +86,252 @@ class TradeProcessingEndpointTests {
                 .andDo(MockMvcResultHandlers.print());
     }
 
+    @Test
+    void testParallelTradeEnrichment() throws Exception {
+        MockHttpServletRequestBuilder builder =
+                MockMvcRequestBuilders.post("/api/v1/enrich")
+                        .queryParam("parallel", "true")
+                        .contentType("text/csv")
+                        .accept(MediaType.TEXT_PLAIN_VALUE)
+                        .content(getTestTrades("src/test/resources/trade-invalid-date.csv"));
+
+        mockMvc.perform(streamed(builder))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string("""
+                        date,product_name,currency,price
+                        20160101,Treasury Bills Domestic,EUR,10.0
+                        20160101,Corporate Bonds Domestic,EUR,20.1
+                        20160101,Missing Product Name,EUR,35.34
+                        """))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    @Test
+    void testGzipTradeEnrichment() throws Exception {
+        MockHttpServletRequestBuilder builder =
+                MockMvcRequestBuilders.post("/api/v1/enrich")
+                        .contentType("text/csv")
+                        .accept(MediaType.TEXT_PLAIN_VALUE)
+                        .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8")
+                        .content(gzip(getTestTrades("src/test/resources/trade.csv")));
+
+        final var result = mockMvc.perform(streamed(builder))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn();
+
+        try (var input = new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+            assertEquals("""
+                    date,product_name,currency,price
+                    20160101,Treasury Bills Domestic,EUR,10.0
+                    20160101,Corporate Bonds Domestic,EUR,20.1
+                    20160101,REPO Domestic,EUR,30.34
+                    20160101,Missing Product Name,EUR,35.34
+                    """, new String(input.readAllBytes(), UTF_8));
+        }
+    }
+
+    @Test
+    void testGzipRefused() throws Exception {
+        MockHttpServletRequestBuilder builder =
+                MockMvcRequestBuilders.post("/api/v1/enrich")
+                        .contentType("text/csv")
+                        .accept(MediaType.TEXT_PLAIN_VALUE)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0")
+                        .content(getTestTrades("src/test/resources/trade-invalid-date.csv"));
+
+        mockMvc.perform(streamed(builder))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(MockMvcResultMatchers.content().string("""
+                        date,product_name,currency,price
+                        20160101,Treasury Bills Domestic,EUR,10.0
+                        20160101,Corporate Bonds Domestic,EUR,20.1
+                        20160101,Missing Product Name,EUR,35.34
+                        """));
+    }
+
+    @Test
+    void testInvalidGzipRequest() throws Exception {
+        MockHttpServletRequestBuilder builder =
+                MockMvcRequestBuilders.post("/api/v1/enrich")
+                        .contentType("text/csv")
+                        .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .content(getTestTrades("src/test/resources/trade.csv"));
+
+        mockMvc.perform(builder)
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void testRejects() throws Exception {
+        MockHttpServletRequestBuilder builder =
+                MockMvcRequestBuilders.post("/api/v1/enrich")
+                        .contentType("text/csv")
+                        .header(TradeProcessingController.REQUEST_ID_HEADER, "rejects-test")
+                        .content(getTestTrades("src/test/resources/trade-invalid-date.csv"));
+
+        mockMvc.perform(streamed(builder))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string(TradeProcessingController.REQUEST_ID_HEADER,
+                        "rejects-test"));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/rejects-test/rejects"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string("""
+                        request_id=rejects-test
+                        rows_read=4
+                        rejected_columns=0
+                        rejected_dates=1
+                        rejected_currencies=0
+                        rejected_prices=0
+                        20161301,3,EUR,30.34
+                        """));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/unknown/rejects"))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+
+        /* A reused id is refused rather than replacing the first enrichment's summary */
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/enrich")
+                        .contentType("text/csv")
+                        .header(TradeProcessingController.REQUEST_ID_HEADER, "rejects-test")
+                        .content(getTestTrades("src/test/resources/trade.csv")))
+                .andExpect(MockMvcResultMatchers.status().isConflict());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/rejects-test/rejects"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.containsString("rejected_dates=1\n")));
+    }
+
+    @Test
+    void testBatchEnrichment() throws Exception {
+        final var trades = getTestTrades("src/test/resources/trade.csv").getBytes(UTF_8);
+        MockHttpServletRequestBuilder builder =
+                MockMvcRequestBuilders.multipart("/api/v1/enrich/batch")
+                        .file(new MockMultipartFile("file", "desk-a.csv", "text/csv", trades))
+                        .file(new MockMultipartFile("file", "desk-b.csv", "text/csv",
+                                "date,product_id,currency,price\n20161301,1,EUR,1.0\n20160101,2,EUR,2.0".getBytes(UTF_8)))
+                        .header(TradeProcessingController.REQUEST_ID_HEADER, "batch-test");
+
+        final var response = mockMvc.perform(streamed(builder))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType("application/zip"))
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"batch-test.zip\""))
+                .andReturn().getResponse().getContentAsByteArray();
+        final var entries = unzip(response);
+
+        assertEquals(List.of("desk-a.csv", "desk-b.csv", "summary.txt"), List.copyOf(entries.keySet()));
+        assertEquals("""
+                date,product_name,currency,price
+                20160101,Treasury Bills Domestic,EUR,10.0
+                20160101,Corporate Bonds Domestic,EUR,20.1
+                20160101,REPO Domestic,EUR,30.34
+                20160101,Missing Product Name,EUR,35.34
+                """, entries.get("desk-a.csv"));
+        assertEquals("""
+                date,product_name,currency,price
+                20160101,Corporate Bonds Domestic,EUR,2.0
+                """, entries.get("desk-b.csv"));
+        assertTrue(entries.get("summary.txt").endsWith("""
+                file,rows_read,rows_written,rows_rejected
+                desk-a.csv,4,4,0
+                desk-b.csv,2,1,1
+                """));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/batch-test/rejects"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.containsString("rejected_dates=1\n")))
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.endsWith("20161301,1,EUR,1.0\n")));
+    }
+
+    @Test
+    void testBatchEnrichmentOfArchive() throws Exception {
+        final var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("trade.csv"));
+            zip.write(getTestTrades("src/test/resources/trade.csv").getBytes(UTF_8));
+        }
+        MockHttpServletRequestBuilder builder =
+                MockMvcRequestBuilders.post("/api/v1/enrich/batch")
+                        .contentType("application/zip")
+                        .content(archive.toByteArray());
+
+        final var response = mockMvc.perform(streamed(builder))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().exists(TradeProcessingController.REQUEST_ID_HEADER))
+                .andReturn().getResponse().getContentAsByteArray();
+        final var entries = unzip(response);
+
+        assertEquals(List.of("trade.csv", "summary.txt"), List.copyOf(entries.keySet()));
+        assertTrue(entries.get("trade.csv").endsWith("20160101,Missing Product Name,EUR,35.34\n"));
+        assertTrue(entries.get("summary.txt").contains("files=1\nrows_read=4\nrows_written=4\n"));
+    }
+
+    @Test
+    void testAggregates() throws Exception {
+        MockHttpServletRequestBuilder builder =
+                MockMvcRequestBuilders.post("/api/v1/enrich")
+                        .contentType("text/csv")
+                        .queryParam("aggregate", "true")
+                        .header(TradeProcessingController.REQUEST_ID_HEADER, "aggregates-test")
+                        .content(getTestTrades("src/test/resources/trade.csv"));
+
+        mockMvc.perform(streamed(builder))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/aggregates-test/aggregates"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().json("""
+                        {"request_id": "aggregates-test", "trades": 4,
+                         "products": [
+                          {"key": "1", "product_name": "Treasury Bills Domestic", "trades": 1, "priced_trades": 1,
+                           "total_price": 10, "first_date": "20160101", "last_date": "20160101"},
+                          {"key": "2", "product_name": "Corporate Bonds Domestic", "trades": 1, "total_price": 20.1},
+                          {"key": "3", "product_name": "REPO Domestic", "trades": 1, "total_price": 30.34},
+                          {"key": "11", "product_name": "Missing Product Name", "trades": 1, "total_price": 35.34}],
+                         "currencies": [
+                          {"key": "EUR", "trades": 4, "priced_trades": 4, "total_price": 95.78,
+                           "first_date": "20160101", "last_date": "20160101"}]}
+                        """));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/enrich/rejects-test/aggregates"))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
+    @Test
+    void testMissingProducts() throws Exception {
+        MockHttpServletRequestBuilder builder =
+                MockMvcRequestBuilders.post("/api/v1/enrich")
+                        .contentType("text/csv")
+                        .content("date,product_id,currency,price\n20160101,missing-1,EUR,1\n20160101,missing-1,EUR,2\n");
+        mockMvc.perform(streamed(builder))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/products/missing"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.startsWith(
+                        "product_id,trades,first_seen,last_seen\n")))
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.containsString("\nmissing-1,2,")));
+    }
+
+    @Test
+    void testReloadProducts() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/products/reload"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.containsString("products=10\n")));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/products/reload"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.containsString("added=0\n")));
+    }
+
     @Test
     void testGetDefaultProductList() throws Exception {
         MockHttpServletRequestBuilder get =
                 MockMvcRequestBuilders.get("/api/v1/products");
 
-        mockMvc.perform(get)
+        mockMvc.perform(streamed(get))
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(MockMvcResultMatchers.content().string("""
                         product_id,product_name
@@ -90,6 +349,22 @@ class TradeProcessingEndpointTests {
                 .andDo(MockMvcResultHandlers.print());
     }
 
+    @Test
+    void testGetProductListNotModified() throws Exception {
+        final var etag = mockMvc.perform(streamed(MockMvcRequestBuilders.get("/api/v1/products")))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/products").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andExpect(MockMvcResultMatchers.content().string(""));
+
+        mockMvc.perform(streamed(MockMvcRequestBuilders.get("/api/v1/products")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"0-0\"")))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
     @Test
     void testGetUnsortableProductList() throws Exception {
         MockHttpServletRequestBuilder put =
@@ -107,7 +382,7 @@ class TradeProcessingEndpointTests {
         mockMvc.perform(put)
                 .andExpect(MockMvcResultMatchers.status().isOk());
 
-        mockMvc.perform(get)
+        mockMvc.perform(streamed(get))
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(MockMvcResultMatchers.content().string("""
                         product_id,product_name
@@ -150,7 +425,7 @@ class TradeProcessingEndpointTests {
         mockMvc.perform(put)
                 .andExpect(MockMvcResultMatchers.status().isOk());
 
-        mockMvc.perform(get)
+        mockMvc.perform(streamed(get))
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(MockMvcResultMatchers.content().string("""
                         product_id,product_name
@@ -172,7 +447,7 @@ class TradeProcessingEndpointTests {
                 .andExpect(MockMvcResultMatchers.status().isOk());
 
 
-        mockMvc.perform(get)
+        mockMvc.perform(streamed(get))
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(MockMvcResultMatchers.content().string("""
                         product_id,product_name
@@ -211,7 +486,7 @@ class TradeProcessingEndpointTests {
         mockMvc.perform(change)
                 .andExpect(MockMvcResultMatchers.status().isOk());
 
-        mockMvc.perform(get)
+        mockMvc.perform(streamed(get))
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(MockMvcResultMatchers.content().string("""
                         product_id,product_name
@@ -232,7 +507,7 @@ class TradeProcessingEndpointTests {
                 .andExpect(MockMvcResultMatchers.status().isOk());
 
 
-        mockMvc.perform(get)
+        mockMvc.perform(streamed(get))
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(MockMvcResultMatchers.content().string("""
                         product_id,product_name
@@ -250,6 +525,42 @@ class TradeProcessingEndpointTests {
                 .andDo(MockMvcResultHandlers.print());
     }
 
+    /*
+     * The batch adds and then removes a product so that the product list is returned to its original state for other
+     * tests.
+     */
+    @Test
+    void testBulkProductChanges() throws Exception {
+        MockHttpServletRequestBuilder bulk =
+                MockMvcRequestBuilders.post("/api/v1/products/bulk")
+                        .contentType("text/csv")
+                        .content("""
+                                operation,product_id,product_name
+                                ADD,12,Credit Default Swap
+                                CHANGE,12,Credit Default Swap Index
+                                DELETE,12
+                                """);
+
+        MockHttpServletRequestBuilder rejected =
+                MockMvcRequestBuilders.post("/api/v1/products/bulk")
+                        .contentType("text/csv")
+                        .content("""
+                                operation,product_id,product_name
+                                ADD,12,Credit Default Swap
+                                ADD,1,Treasury Bills Domestic
+                                """);
+
+        mockMvc.perform(bulk)
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.startsWith("applied=3\nfailed=0\n")));
+
+        mockMvc.perform(rejected)
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.allOf(
+                        Matchers.startsWith("applied=0\nfailed=1\n"),
+                        Matchers.endsWith("line 3: product_id already present - 1\n"))));
+    }
+
     @Test
     void testAddExistingProductName() throws Exception {
         MockHttpServletRequestBuilder put =
@@ -286,6 +597,35 @@ class TradeProcessingEndpointTests {
                 .andExpect(MockMvcResultMatchers.content().string("product_id not found"));
     }
 
+    /*
+     * The enriched trades and the product list are streamed asynchronously, so the response is only complete once the
+     * async dispatch has been performed.
+     */
+    private RequestBuilder streamed(MockHttpServletRequestBuilder builder) throws Exception {
+        final MvcResult result = mockMvc.perform(builder)
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        return MockMvcRequestBuilders.asyncDispatch(result);
+    }
+
+    private Map<String, String> unzip(byte[] archive) throws IOException {
+        final var entries = new LinkedHashMap<String, String>();
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (var entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.put(entry.getName(), new String(zip.readAllBytes(), UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    private byte[] gzip(String content) throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        try (var output = new GZIPOutputStream(bytes)) {
+            output.write(content.getBytes(UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
     private String getTestTrades(String filename) {
         try (var lines = Files.lines(Path.of(filename))) {
             return lines.collect(Collectors.joining("\n"));
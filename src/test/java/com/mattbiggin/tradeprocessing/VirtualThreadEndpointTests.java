@@ -0,0 +1,82 @@
+package com.mattbiggin.tradeprocessing;
+
+import com.mattbiggin.tradeprocessing.trade.TradeStreamEnrichment;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+
+@SpringBootTest(properties = {"enrich.executor.virtualThreads=true", "enrich.maxConcurrent=1",
+        "enrich.retryAfterSeconds=5"})
+@AutoConfigureMockMvc
+class VirtualThreadEndpointTests {
+    private static final String TRADES = "date,product_id,currency,price\n20160101,1,EUR,10.0\n";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private EnrichmentLimiter limiter;
+
+    @SpyBean
+    private TradeStreamEnrichment tradeStreamEnrichment;
+
+    @Test
+    void testTradeEnrichment() throws Exception {
+        final var virtual = new ArrayList<Boolean>();
+        doAnswer(invocation -> {
+            virtual.add(isVirtual(Thread.currentThread()));
+            return invocation.callRealMethod();
+        }).when(tradeStreamEnrichment).processTrades(anyString(), any(), any(), any(), anyBoolean(), anyBoolean());
+
+        final MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/enrich")
+                        .contentType("text/csv")
+                        .content(TRADES))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string("""
+                        date,product_name,currency,price
+                        20160101,Treasury Bills Domestic,EUR,10.0
+                        """));
+        assertEquals(List.of(true), virtual);
+    }
+
+    @Test
+    void testRejectedOverLimit() throws Exception {
+        limiter.tryAcquire(); // Hold the only permit, as an enrichment in progress would
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/enrich")
+                            .contentType("text/csv")
+                            .content(TRADES))
+                    .andExpect(MockMvcResultMatchers.status().isTooManyRequests())
+                    .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.RETRY_AFTER, "5"));
+        } finally {
+            limiter.release();
+        }
+    }
+
+    /*
+     * Thread.isVirtual is a preview API on the Java 19 target, so it is called reflectively as the executor is created.
+     */
+    private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+        return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+}
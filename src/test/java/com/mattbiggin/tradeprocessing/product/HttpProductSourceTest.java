@@ -0,0 +1,103 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/*
+ * Runs against a stub product master on a local port, which answers with the products it holds of those requested.
+ */
+class HttpProductSourceTest {
+    private static final Map<String, String> MASTER = Map.of(
+            "1", "Treasury Bills Domestic",
+            "2", "Crédit Agricole");
+
+    private final List<String> requests = new ArrayList<>();
+
+    private HttpServer server;
+
+    private volatile int status = 200;
+
+    private HttpProductSource source;
+
+    @BeforeEach
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/v1/products/lookup", exchange -> {
+            final var request = new String(exchange.getRequestBody().readAllBytes(), UTF_8);
+            synchronized (requests) {
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("Content-Type") +
+                        "\n" + request);
+            }
+            final var response = new StringBuilder(Products.COLUMNS).append('\n');
+            request.lines().skip(1).filter(MASTER::containsKey)
+                    .forEach(id -> response.append(id).append(',').append(MASTER.get(id)).append('\n'));
+            final var body = response.toString().getBytes(UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        source = new HttpProductSource(URI.create("http://localhost:" + server.getAddress().getPort() +
+                "/api/v1/products/lookup"), Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testFetch() throws IOException {
+        assertEquals(MASTER, source.fetch(List.of("1", "2", "3")));
+        assertEquals(List.of("POST text/csv\nproduct_id\n1\n2\n3\n"), requests);
+    }
+
+    @Test
+    public void testErrorStatus() {
+        status = 503;
+
+        final var e = assertThrows(IOException.class, () -> source.fetch(List.of("1")));
+        assertTrue(e.getMessage().endsWith("answered 503"));
+    }
+
+    @Test
+    public void testUnsetUrl() {
+        final var properties = mock(ConfigurationProperties.class);
+        when(properties.getRemoteUrl()).thenReturn(" ");
+
+        assertThrows(IllegalArgumentException.class, () -> new HttpProductSource(properties));
+    }
+
+    @Test
+    public void testReaderLooksUpEachProductOnce() {
+        final var reader = new RemoteProductReader(source, new ProductNearCache(100, TimeUnit.HOURS.toNanos(1),
+                TimeUnit.HOURS.toNanos(1)), 1000, 0, new SimpleMeterRegistry());
+        final var products = new Products(reader);
+        products.init();
+
+        products.prefetch(products.getSnapshot(), List.of("1", "2", "3"));
+        assertEquals("Crédit Agricole", products.lookupProduct("2", new HashSet<>()));
+        assertEquals(Products.DEFAULT_PRODUCT_NAME, products.lookupProduct("3", new HashSet<>()));
+        assertEquals(1, requests.size());
+    }
+}
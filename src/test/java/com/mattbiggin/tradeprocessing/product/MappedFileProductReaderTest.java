@@ -0,0 +1,94 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class MappedFileProductReaderTest {
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    @TempDir
+    private Path directory;
+
+    private Path file;
+
+    private MappedFileProductReader reader;
+
+    @BeforeEach
+    public void init() {
+        file = directory.resolve("product.csv");
+        lenient().when(mockProperties.getProductListFileName()).thenReturn(file.toString());
+        reader = new MappedFileProductReader(mockProperties);
+    }
+
+    @Test
+    public void testReadProducts() throws IOException {
+        Files.writeString(file, "product_id, product_name\n1,Treasury Bills Domestic\n 2 , Corporate Bonds Domestic \n");
+
+        assertEquals(Map.of("1", "Treasury Bills Domestic", "2", "Corporate Bonds Domestic"), reader.readProducts());
+    }
+
+    @Test
+    public void testSameAsLineReader() throws IOException {
+        Files.writeString(file, "product_id,product_name\r\n1,Bills\r\n2,Bonds,Extra\r\n3,Crédit Agricole\r\n4,Last");
+
+        assertEquals(Map.of("1", "Bills", "2", "Bonds", "3", "Crédit Agricole", "4", "Last"), reader.readProducts());
+    }
+
+    @Test
+    public void testMalformedRowsIgnored() throws IOException {
+        Files.writeString(file, "product_id,product_name\n1,Bills\nnot a product\n\n2,\n,Bonds\n3,Repo\n");
+
+        assertEquals(Map.of("1", "Bills", "3", "Repo"), reader.readProducts());
+    }
+
+    @Test
+    public void testLastDuplicateWins() throws IOException {
+        Files.writeString(file, "product_id,product_name\n1,Bills\n2,Bonds\n1,Repo\n");
+
+        assertEquals(Map.of("1", "Repo", "2", "Bonds"), reader.readProducts());
+    }
+
+    @Test
+    public void testSegmentsAlignedToLines() throws IOException {
+        final var expected = new HashMap<String, String>();
+        final var content = new StringBuilder("product_id,product_name\n");
+        for (var id = 1; id <= 1000; id++) {
+            expected.put(String.valueOf(id), "Product " + id);
+            content.append(id).append(",Product ").append(id).append('\n');
+        }
+        Files.writeString(file, content);
+
+        for (final var segmentSize : new long[]{1, 7, 64, 4096, content.length()}) {
+            assertEquals(expected, reader.read(file, segmentSize), "segment size " + segmentSize);
+        }
+    }
+
+    @Test
+    public void testMissingFile() {
+        assertTrue(reader.readProducts().isEmpty());
+    }
+
+    @Test
+    public void testHeaderOnly() throws IOException {
+        Files.writeString(file, "product_id,product_name\n");
+
+        assertTrue(reader.readProducts().isEmpty());
+    }
+}
@@ -0,0 +1,204 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapProductCatalogTest {
+    private static final int CHUNK_SIZE = 1024;
+
+    @Test
+    public void testLoadAndLookup() {
+        final var products = new HashMap<>(Map.of("1", "Treasury Bills Domestic", "ABC-7", "Crédit Agricole"));
+        final var catalog = OffHeapProductCatalog.empty(CHUNK_SIZE).load(new HashMap<>(products), 1);
+
+        assertEquals(2, catalog.size());
+        assertEquals("Crédit Agricole", catalog.get("ABC-7"));
+        assertNull(catalog.get("2"));
+        assertArrayEquals("Crédit Agricole".getBytes(UTF_8), lookup(catalog, "x,ABC-7,y", 2, 7));
+        assertNull(lookup(catalog, "x,ABC-8,y", 2, 7));
+        assertEquals(products, catalog.asMap());
+    }
+
+    @Test
+    public void testChanges() {
+        final var catalog = OffHeapProductCatalog.empty(CHUNK_SIZE)
+                .load(new HashMap<>(Map.of("1", "Product A", "2", "Product B")), 1);
+
+        final var changes = new HashMap<String, String>();
+        changes.put("1", "Product Z");
+        changes.put("2", null);
+        changes.put("3", "Product C");
+        changes.put("4", null);
+        final var changed = catalog.with(changes, 2);
+
+        assertEquals(Map.of("1", "Product Z", "3", "Product C"), changed.asMap());
+        assertEquals(2, changed.size());
+        assertNull(changed.get("2"));
+        assertTrue(changed.asMap().containsKey("3"));
+    }
+
+    @Test
+    public void testEarlierVersionsUnchanged() {
+        final var first = OffHeapProductCatalog.empty(CHUNK_SIZE).load(new HashMap<>(Map.of("1", "Product A")), 1);
+        final var second = first.with(Map.of("1", "Product B", "2", "Product C"), 2);
+        final var third = second.with(Collections.singletonMap("1", null), 3);
+
+        assertEquals(Map.of("1", "Product A"), first.asMap());
+        assertEquals(Map.of("1", "Product B", "2", "Product C"), second.asMap());
+        assertEquals(Map.of("2", "Product C"), third.asMap());
+        assertArrayEquals("Product A".getBytes(UTF_8), lookup(first, "1", 0, 1));
+    }
+
+    @Test
+    public void testOnlyLatestVersionChanged() {
+        final var first = OffHeapProductCatalog.empty(CHUNK_SIZE).load(new HashMap<>(Map.of("1", "Product A")), 1);
+        first.with(Map.of("2", "Product B"), 2);
+
+        assertThrows(IllegalStateException.class, () -> first.with(Map.of("3", "Product C"), 3));
+    }
+
+    @Test
+    public void testGrowthAcrossChunksAndIndex() {
+        final var expected = new HashMap<String, String>();
+        ProductCatalog catalog = OffHeapProductCatalog.empty(CHUNK_SIZE);
+        for (var id = 1; id <= 5000; id++) {
+            final var name = "Product " + id;
+            catalog = catalog.with(Map.of(String.valueOf(id), name), id);
+            expected.put(String.valueOf(id), name);
+        }
+
+        assertEquals(5000, catalog.size());
+        assertEquals(expected, catalog.asMap());
+        assertTrue(((OffHeapProductCatalog) catalog).offHeapBytes() > 100 * CHUNK_SIZE);
+    }
+
+    @Test
+    public void testReplacedEntriesCompacted() {
+        ProductCatalog catalog = OffHeapProductCatalog.empty(CHUNK_SIZE)
+                .load(new HashMap<>(Map.of("1", "Product A", "2", "Product B")), 1);
+        final var first = catalog;
+        for (var version = 2; version < 10_000; version++) {
+            catalog = catalog.with(Map.of("1", "Product " + version), version);
+        }
+
+        assertEquals(Map.of("1", "Product 9999", "2", "Product B"), catalog.asMap());
+        assertTrue(((OffHeapProductCatalog) catalog).offHeapBytes() < 32 * CHUNK_SIZE);
+        assertEquals(Map.of("1", "Product A", "2", "Product B"), first.asMap());
+    }
+
+    @Test
+    public void testProductTooLarge() {
+        final var catalog = OffHeapProductCatalog.empty(CHUNK_SIZE).load(new HashMap<>(Map.of("1", "Product A")), 1);
+        final var changes = new HashMap<>(Map.of("2", "Product B", "3", "X".repeat(CHUNK_SIZE)));
+
+        assertThrows(IllegalArgumentException.class, () -> catalog.with(changes, 2));
+        assertNull(catalog.with(Map.of("4", "Product D"), 2).get("2"));
+    }
+
+    @Test
+    public void testReadersSeeTheirVersionWhileWritten() throws Exception {
+        final var products = new HashMap<String, String>();
+        for (var id = 0; id < 1000; id++) {
+            products.put(String.valueOf(id), "Product " + id);
+        }
+        final var first = OffHeapProductCatalog.empty(CHUNK_SIZE).load(new HashMap<>(products), 1);
+        final var done = new AtomicBoolean();
+        final var executor = Executors.newFixedThreadPool(4);
+        try {
+            final var readers = new HashSet<Future<?>>();
+            for (var reader = 0; reader < 3; reader++) {
+                readers.add(executor.submit(() -> {
+                    while (!done.get()) {
+                        for (var id = 0; id < 1000; id++) {
+                            final var bytes = String.valueOf(id).getBytes(UTF_8);
+                            assertArrayEquals(("Product " + id).getBytes(UTF_8),
+                                    first.lookupName(bytes, 0, bytes.length));
+                        }
+                    }
+                }));
+            }
+
+            ProductCatalog catalog = first;
+            for (var version = 2; version < 2000; version++) {
+                final var id = String.valueOf(version % 1500);
+                catalog = catalog.with(Map.of(id, "Changed " + version), version);
+            }
+            done.set(true);
+            for (final var reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testProductsHeldOffHeap() throws IOException {
+        final var products = new Products(() -> new HashMap<>(Map.of("2", "Product B", "10", "Product J")),
+                new ProductJournal(), OffHeapProductCatalog.empty(CHUNK_SIZE));
+        products.init();
+
+        assertTrue(products.addProduct("1", "Product A"));
+        assertTrue(products.changeProduct("2", "Product Z"));
+        assertTrue(products.removeProduct("10"));
+        assertFalse(products.removeProduct("10"));
+        final var result = products.applyBatch(ProductBatch.read(new BufferedReader(new StringReader("""
+                operation,product_id,product_name
+                ADD,3,Product C
+                DELETE,3
+                ADD,3,Product D
+                CHANGE,9,Product I
+                """))), true);
+
+        assertEquals(3, result.applied());
+        assertEquals("Product D", products.getSnapshot().get("3"));
+        assertEquals("product_id,product_name\n1,Product A\n2,Product Z\n3,Product D\n",
+                render(products.getSnapshot()));
+        assertTrue(products.getSnapshot().sortable());
+    }
+
+    @Test
+    public void testProductListStreamedInOrder() throws IOException {
+        for (final var prefix : List.of("", "P-")) {
+            final var products = new HashMap<String, String>();
+            for (var i = 0; i < 5000; i++) {
+                products.put(prefix + (i * 7919 % 10007 - 500), "Product name " + i);
+            }
+            products.put(prefix.isEmpty() ? "+7" : "P-", "Édition");
+
+            final var heap = new ProductSnapshot(1, new HeapProductCatalog(new HashMap<>(products)), null);
+            final var offHeap = new ProductSnapshot(1, OffHeapProductCatalog.empty(CHUNK_SIZE)
+                    .load(new HashMap<>(products), 1), null);
+
+            /* Larger than a chunk of the stream, sorted by int value and by id */
+            final var expected = render(heap);
+            assertTrue(expected.length() > 64 * 1024);
+            assertEquals(expected, render(offHeap));
+        }
+    }
+
+    private static String render(ProductSnapshot snapshot) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        snapshot.writeProducts(output);
+        return output.toString(UTF_8);
+    }
+
+    private static byte[] lookup(ProductCatalog catalog, String buffer, int from, int to) {
+        return catalog.lookupName(buffer.getBytes(UTF_8), from, to);
+    }
+}
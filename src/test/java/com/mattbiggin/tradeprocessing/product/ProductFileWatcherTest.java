@@ -0,0 +1,133 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class ProductFileWatcherTest {
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    @TempDir
+    private Path directory;
+
+    private Path file;
+
+    private Products products;
+
+    private SimpleMeterRegistry registry;
+
+    private ProductFileWatcher watcher;
+
+    @BeforeEach
+    public void init() throws IOException {
+        file = directory.resolve("product.csv");
+        Files.writeString(file, "product_id,product_name\n1,Product A\n2,Product B\n");
+        lenient().when(mockProperties.getProductListFileName()).thenReturn(file.toString());
+        lenient().when(mockProperties.getProductReloadIntervalSeconds()).thenReturn(3600L);
+
+        final var reader = new MappedFileProductReader(mockProperties);
+        products = new Products(reader);
+        products.init();
+        registry = new SimpleMeterRegistry();
+        watcher = new ProductFileWatcher(products, reader, mockProperties, registry);
+        watcher.init();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        watcher.shutdown();
+    }
+
+    @Test
+    public void testUnchangedFileNotReloaded() {
+        final var snapshot = products.getSnapshot();
+
+        watcher.poll();
+        watcher.poll();
+
+        assertSame(snapshot, products.getSnapshot());
+        assertNull(watcher.getLastReload());
+    }
+
+    @Test
+    public void testChangeReloadedOnceSettled() throws IOException {
+        final var snapshot = products.getSnapshot();
+        change("product_id,product_name\n1,Product A\n2,Product C\n3,Product D\n");
+
+        watcher.poll();
+        assertSame(snapshot, products.getSnapshot());
+
+        watcher.poll();
+        assertEquals(Map.of("1", "Product A", "2", "Product C", "3", "Product D"), products.getProducts().products());
+        assertEquals(snapshot.version() + 1, products.getSnapshot().version());
+
+        final var reload = watcher.getLastReload();
+        assertEquals(new ProductDiff(1, 1, 0), reload.diff());
+        assertEquals(3, reload.products());
+        assertEquals(1.0, registry.get("products.reload.changes").tag("type", "added").counter().count());
+        assertEquals(1.0, registry.get("products.reload.changes").tag("type", "changed").counter().count());
+        assertEquals(1, registry.get("products.reload.duration").timer().count());
+        assertEquals(3.0, registry.get("products.count").gauge().value());
+
+        watcher.poll();
+        assertEquals(snapshot.version() + 1, products.getSnapshot().version());
+    }
+
+    @Test
+    public void testFileStillChangingNotReloaded() throws IOException {
+        final var snapshot = products.getSnapshot();
+
+        change("product_id,product_name\n1,Product A\n");
+        watcher.poll();
+        change("product_id,product_name\n1,Product A\n2,Product B\n3,Product C\n");
+        watcher.poll();
+
+        assertSame(snapshot, products.getSnapshot());
+    }
+
+    @Test
+    public void testEmptyFileIgnored() throws IOException {
+        final var snapshot = products.getSnapshot();
+        change("product_id,product_name\n");
+
+        assertNull(watcher.reload());
+        assertSame(snapshot, products.getSnapshot());
+    }
+
+    @Test
+    public void testMissingFileIgnored() throws IOException {
+        final var snapshot = products.getSnapshot();
+        Files.delete(file);
+
+        watcher.poll();
+        watcher.poll();
+
+        assertSame(snapshot, products.getSnapshot());
+    }
+
+    /*
+     * Moves the modification time on, as coarse file system timestamps may not see a rewrite within the test.
+     */
+    private void change(String content) throws IOException {
+        final var modified = Files.getLastModifiedTime(file).toMillis();
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified + 1000));
+    }
+}
@@ -0,0 +1,116 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductIndexTest {
+    @Test
+    public void testParseCanonicalIds() {
+        assertEquals(0, ProductIndex.parseId("0"));
+        assertEquals(10, ProductIndex.parseId("10"));
+        assertEquals(Integer.MAX_VALUE, ProductIndex.parseId("2147483647"));
+    }
+
+    @Test
+    public void testRejectNonCanonicalIds() {
+        for (final var id : new String[]{"", "01", "+1", "-1", "1.0", " 1", "2147483648", "99999999999", "A"}) {
+            assertEquals(-1, ProductIndex.parseId(id), id);
+        }
+    }
+
+    @Test
+    public void testNoIndexForNonCanonicalIds() {
+        assertNull(ProductIndex.build(Map.of("1", "Product A", "01", "Product B")));
+        assertNotNull(ProductIndex.build(Map.of()));
+    }
+
+    @Test
+    public void testLookupDenseAndHashed() {
+        final var dense = new HashMap<String, String>();
+        final var hashed = new HashMap<String, String>();
+        for (var i = 0; i < 5_000; i++) {
+            dense.put(String.valueOf(i), "Product " + i);
+            hashed.put(String.valueOf(i * 7919), "Product " + i);
+        }
+
+        assertIndexMatches(dense, ProductIndex.build(dense));
+        assertIndexMatches(hashed, ProductIndex.build(hashed));
+    }
+
+    @Test
+    public void testChangesMatchRebuild() {
+        for (final var spread : new int[]{1, 7919}) {
+            final var products = new HashMap<String, String>();
+            for (var i = 0; i < 3_000; i++) {
+                products.put(String.valueOf(i * spread), "Product " + i);
+            }
+            var index = ProductIndex.build(products);
+
+            /* Adds, changes and removes in batches, growing past both layouts and shrinking again */
+            final var random = new Random(spread);
+            for (var batch = 0; batch < 200; batch++) {
+                final var changes = new HashMap<String, String>();
+                for (var i = 0; i < 50; i++) {
+                    final var id = String.valueOf(random.nextInt(batch < 100 ? 12_000 : 6_000) * spread);
+                    changes.put(id, random.nextInt(batch < 100 ? 4 : 2) == 0 ? null : "Product " + batch + "-" + i);
+                }
+                index = index.with(changes);
+                changes.forEach((id, name) -> {
+                    if (name == null) {
+                        products.remove(id);
+                    } else {
+                        products.put(id, name);
+                    }
+                });
+                assertEquals(products.size(), index.size());
+            }
+            assertIndexMatches(products, index);
+
+            final var entries = new HashMap<String, String>();
+            index.entries().forEachRemaining(entry -> entries.put(entry.getKey(), entry.getValue()));
+            assertEquals(products, entries);
+        }
+    }
+
+    @Test
+    public void testChangeCopiesOnlyItsPage() {
+        for (final var size : new int[]{10_000, 1_000_000}) {
+            for (final var spread : new int[]{1, 2003}) {
+                final var products = new HashMap<String, String>();
+                for (var i = 1; i <= size; i++) {
+                    products.put(String.valueOf(i * spread), "Product");
+                }
+                final var index = ProductIndex.build(products);
+
+                final var changed = index.with(Map.of(String.valueOf(5 * spread), "Product Changed"));
+                assertEquals(1, changed.pagesCopied(index), size + " products spread " + spread);
+                assertEquals("Product Changed", changed.get(String.valueOf(5 * spread)));
+                assertEquals("Product", index.get(String.valueOf(5 * spread)));
+            }
+        }
+    }
+
+    @Test
+    public void testNoIndexForAddedNonCanonicalId() {
+        final var index = ProductIndex.build(Map.of()).with(Map.of("1", "Product A"));
+
+        assertNull(index.with(Map.of("01", "Product B")));
+        assertEquals(1, index.with(Collections.singletonMap("01", null)).size());
+    }
+
+    private static void assertIndexMatches(Map<String, String> products, ProductIndex index) {
+        for (var i = 0; i < 50_000; i++) {
+            final var id = String.valueOf(i).getBytes(UTF_8);
+            final var expected = products.get(String.valueOf(i));
+            final var name = index.lookup(id, 0, id.length);
+            assertEquals(expected, name == null ? null : new String(name, UTF_8));
+        }
+    }
+}
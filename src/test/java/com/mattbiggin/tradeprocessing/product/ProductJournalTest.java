@@ -0,0 +1,313 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProductJournalTest {
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    @Mock
+    private ProductReader mockReader;
+
+    @TempDir
+    private Path directory;
+
+    private final List<ProductJournal> journals = new ArrayList<>();
+
+    @BeforeEach
+    public void init() {
+        lenient().when(mockProperties.getJournalDirectory()).thenReturn(directory.toString());
+        lenient().when(mockProperties.getJournalDurability()).thenReturn("sync");
+        lenient().when(mockProperties.getJournalFlushIntervalMillis()).thenReturn(5L);
+        lenient().when(mockProperties.getJournalCompactIntervalSeconds()).thenReturn(0L);
+        lenient().when(mockReader.readProducts()).thenAnswer(invocation ->
+                new HashMap<>(Map.of("1", "Product A", "2", "Product B")));
+    }
+
+    @AfterEach
+    public void shutdown() {
+        journals.forEach(ProductJournal::close);
+    }
+
+    @Test
+    public void testMutationsRecovered() {
+        final var products = start();
+        products.addProduct("3", "Product C");
+        products.changeProduct("1", "Product Z");
+        products.removeProduct("2");
+        final var expected = products.getSnapshot().products();
+
+        restart();
+        final var recovered = start();
+
+        assertEquals(expected, recovered.getSnapshot().products());
+        assertEquals(Map.of("1", "Product Z", "3", "Product C"), expected);
+    }
+
+    @Test
+    public void testBatchRecovered() throws IOException {
+        final var products = start();
+        final var batch = batch("""
+                operation,product_id,product_name
+                ADD,3,Product C
+                ADD,4,Product D
+                DELETE,1
+                CHANGE,5,Product E
+                """);
+        assertTrue(products.applyBatch(batch, true).accepted());
+
+        restart();
+
+        assertEquals(Map.of("2", "Product B", "3", "Product C", "4", "Product D"), start().getSnapshot().products());
+    }
+
+    @Test
+    public void testRejectedBatchNotJournalled() throws IOException {
+        final var products = start();
+        final var batch = batch("""
+                operation,product_id,product_name
+                ADD,3,Product C
+                CHANGE,5,Product E
+                """);
+        assertFalse(products.applyBatch(batch, false).accepted());
+
+        restart();
+
+        assertEquals(Map.of("1", "Product A", "2", "Product B"), start().getSnapshot().products());
+    }
+
+    @Test
+    public void testReloadJournalled() {
+        final var products = start();
+        products.reload(new HashMap<>(Map.of("1", "Product A", "2", "Product Y", "4", "Product D")));
+
+        restart();
+
+        assertEquals(Map.of("1", "Product A", "2", "Product Y", "4", "Product D"), start().getSnapshot().products());
+    }
+
+    @Test
+    public void testReloadKeepsReplayedApiChanges() {
+        final var products = start();
+        products.changeProduct("1", "Product X");
+        products.addProduct("3", "Product C");
+
+        restart();
+        final var recovered = start();
+
+        /* The replayed changes are the API's, so only the list's own change to product 2 is applied */
+        assertEquals(new ProductDiff(0, 1, 0), recovered.reload(new HashMap<>(Map.of("1", "Product A",
+                "2", "Product Y"))));
+        assertEquals(Map.of("1", "Product X", "2", "Product Y", "3", "Product C"),
+                recovered.getSnapshot().products());
+    }
+
+    @Test
+    public void testCompactionReplacesJournals() throws IOException {
+        final var products = start();
+        products.addProduct("3", "Product C");
+        products.compactJournal();
+        products.addProduct("4", "Product D");
+
+        assertEquals(List.of("journal-1.log", "products-1.snapshot"), files());
+
+        restart();
+        final var recovered = start();
+
+        assertEquals(Map.of("1", "Product A", "2", "Product B", "3", "Product C", "4", "Product D"),
+                recovered.getSnapshot().products());
+        verify(mockReader, times(1)).readProducts();
+    }
+
+    @Test
+    public void testCompactionSkippedWithoutMutations() throws IOException {
+        final var products = start();
+        products.compactJournal();
+
+        assertEquals(List.of("journal-0.log"), files());
+    }
+
+    @Test
+    public void testOversizedCatalogNotCompactedAgain() throws IOException {
+        final var journal = new ProductJournal(mockProperties, 100);
+        journals.add(journal);
+        final var products = new Products(mockReader, journal, HeapProductCatalog.EMPTY);
+        products.init();
+        products.addProduct("3", "Product C");
+        products.compactJournal();
+        products.addProduct("4", "Product D");
+        products.compactJournal();
+
+        assertEquals(List.of("journal-0.log", "journal-1.log"), files());
+
+        restart();
+        final var recovered = start();
+
+        assertEquals(Map.of("1", "Product A", "2", "Product B", "3", "Product C", "4", "Product D"),
+                recovered.getSnapshot().products());
+    }
+
+    @Test
+    public void testTornRecordCutFromJournal() throws IOException {
+        final var products = start();
+        products.addProduct("3", "Product C");
+        restart();
+
+        final var journal = directory.resolve("journal-0.log");
+        final var size = Files.size(journal);
+        try (var channel = FileChannel.open(journal, APPEND)) {
+            channel.write(ByteBuffer.allocate(6).putInt(100).putShort((short) 1).flip());
+        }
+
+        assertEquals("Product C", start().getSnapshot().get("3"));
+        assertEquals(size, Files.size(journal));
+    }
+
+    @Test
+    public void testCorruptRecordEndsReplay() throws IOException {
+        final var products = start();
+        products.addProduct("3", "Product C");
+        products.addProduct("4", "Product D");
+        restart();
+
+        final var journal = directory.resolve("journal-0.log");
+        try (var channel = FileChannel.open(journal, WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), Files.size(journal) - 1);
+        }
+        final var recovered = start();
+
+        assertEquals("Product C", recovered.getSnapshot().get("3"));
+        assertNull(recovered.getSnapshot().get("4"));
+    }
+
+    @Test
+    public void testCorruptEarlierJournalStopsRecovery() throws IOException {
+        start().addProduct("3", "Product C");
+        restart();
+        start().addProduct("4", "Product D");
+        restart();
+
+        final var journal = directory.resolve("journal-0.log");
+        final var size = Files.size(journal);
+        try (var channel = FileChannel.open(journal, WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), size - 1);
+        }
+
+        /* Product D, in the journal after it, would be lost were the record cut as a torn one */
+        assertThrows(UncheckedIOException.class, this::start);
+        assertEquals(size, Files.size(journal));
+    }
+
+    @Test
+    public void testFailedWriteNotPublished() throws IOException {
+        final var full = Path.of("/dev/full");
+        assumeTrue(Files.isWritable(full));
+        final var products = start();
+        products.addProduct("3", "Product C");
+        Files.createSymbolicLink(directory.resolve("journal-1.log"), full);
+        products.compactJournal();
+
+        try {
+            assertThrows(IllegalStateException.class, () -> products.addProduct("4", "Product D"));
+            assertNull(products.getSnapshot().get("4"));
+
+            /* Rejected before it is journalled or validated, so the catalog stays as it was journalled */
+            assertThrows(IllegalStateException.class, () -> products.addProduct("4", "Product D"));
+            assertThrows(IllegalStateException.class, () -> products.removeProduct("3"));
+            assertEquals(Map.of("1", "Product A", "2", "Product B", "3", "Product C"),
+                    products.getSnapshot().products());
+        } finally {
+            restart();
+            Files.delete(directory.resolve("journal-1.log"));
+        }
+    }
+
+    @Test
+    public void testConcurrentMutationsRecovered() throws Exception {
+        for (final var durability : List.of("sync", "batched")) {
+            lenient().when(mockProperties.getJournalDurability()).thenReturn(durability);
+            final var products = start();
+            final var executor = Executors.newFixedThreadPool(8);
+            try {
+                final var futures = new ArrayList<Future<Boolean>>();
+                for (var i = 0; i < 400; i++) {
+                    final var id = durability + i;
+                    futures.add(executor.submit(() -> products.addProduct(id, "Product " + id)));
+                }
+                for (final var future : futures) {
+                    assertTrue(future.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+            final var expected = products.getSnapshot().products();
+
+            restart();
+
+            assertEquals(expected, start().getSnapshot().products());
+            restart();
+        }
+    }
+
+    @Test
+    public void testDisabledJournal() throws IOException {
+        lenient().when(mockProperties.getJournalDirectory()).thenReturn("");
+        final var products = start();
+        products.addProduct("3", "Product C");
+
+        assertTrue(files().isEmpty());
+        assertNull(start().getSnapshot().get("3"));
+    }
+
+    private Products start() {
+        final var journal = new ProductJournal(mockProperties);
+        journals.add(journal);
+        final var products = new Products(mockReader, journal, HeapProductCatalog.EMPTY);
+        products.init();
+        return products;
+    }
+
+    private void restart() {
+        shutdown();
+        journals.clear();
+    }
+
+    private List<String> files() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static ProductBatch batch(String content) throws IOException {
+        return ProductBatch.read(new BufferedReader(new StringReader(content)));
+    }
+}
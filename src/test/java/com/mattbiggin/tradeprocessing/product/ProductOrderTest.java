@@ -0,0 +1,76 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductOrderTest {
+    @Test
+    public void testIsIntMatchesParseInt() {
+        for (final var id : new String[]{"", "+", "-", "0", "+1", "-1", "007", "2147483647", "2147483648",
+                "-2147483648", "-2147483649", "00000000002147483647", "1.0", " 1", "A", "١٢", "99999999999"}) {
+            assertEquals(parses(id), ProductOrder.isInt(id), id);
+        }
+    }
+
+    @Test
+    public void testSortsByIntValue() {
+        final var order = ProductOrder.of(List.of("10", "2", "1", "9"));
+
+        assertTrue(order.sortable());
+        assertEquals(List.of("1", "2", "9", "10"), ids(order));
+    }
+
+    @Test
+    public void testSortsByStringWhenUnsortable() {
+        final var order = ProductOrder.of(List.of("10", "2", "B", "1"));
+
+        assertFalse(order.sortable());
+        assertEquals(List.of("1", "10", "2", "B"), ids(order));
+    }
+
+    @Test
+    public void testIncrementalChangesMatchFullSort() {
+        final var random = new Random(7);
+        final var current = new ArrayList<String>();
+        var order = ProductOrder.EMPTY;
+
+        for (var i = 0; i < 2_000; i++) {
+            if (!current.isEmpty() && random.nextInt(3) == 0) {
+                final var id = current.remove(random.nextInt(current.size()));
+                order = order.withRemoved(id);
+            } else {
+                final var id = random.nextInt(20) == 0 ? "P" + i : String.valueOf(random.nextInt(100_000));
+                if (!current.contains(id)) {
+                    current.add(id);
+                    order = order.withAdded(id);
+                }
+            }
+
+            final var expected = ProductOrder.of(current);
+            assertEquals(expected.sortable(), order.sortable());
+            assertEquals(ids(expected), ids(order));
+        }
+    }
+
+    private static List<String> ids(ProductOrder order) {
+        final var ids = new ArrayList<String>();
+        for (var i = 0; i < order.size(); i++) {
+            ids.add(order.id(i));
+        }
+        return ids;
+    }
+
+    private static boolean parses(String id) {
+        try {
+            Integer.parseInt(id);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
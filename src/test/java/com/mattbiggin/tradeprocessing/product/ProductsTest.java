@@ -6,11 +6,21 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class ProductsTest {
@@ -49,6 +59,55 @@ class ProductsTest {
         assertEquals("Missing Product Name", name);
     }
 
+    @Test
+    public void testMissingProductsTracked() {
+        products.lookupProduct("9", missingProductMappings);
+        products.lookupProduct("9", new HashSet<>());
+        products.recordMissingProduct("9", 5);
+        products.lookupProduct("8", missingProductMappings);
+
+        final var top = products.getMissingProducts().top(10);
+        assertEquals(List.of("9", "8"), top.stream().map(MissingProducts.MissingProduct::id).toList());
+        assertEquals(7, top.get(0).trades());
+        assertEquals(1, top.get(1).trades());
+        assertFalse(top.get(0).lastSeen().isBefore(top.get(0).firstSeen()));
+        assertEquals(1, products.getMissingProducts().top(1).size());
+
+        products.addProduct("9", "Product 9");
+        assertEquals(List.of("8"), products.getMissingProducts().top(10).stream()
+                .map(MissingProducts.MissingProduct::id).toList());
+    }
+
+    @Test
+    public void testMissingProductsBounded() {
+        for (var i = 0; i < MissingProducts.MAX_TRACKED + 10; i++) {
+            products.lookupProduct(String.valueOf(i), missingProductMappings);
+        }
+        products.recordMissingProduct("0", 1);
+
+        assertEquals(MissingProducts.MAX_TRACKED, products.getMissingProducts().size());
+        assertEquals(10, products.getMissingProducts().untracked());
+        assertEquals(2, products.getMissingProducts().top(1).get(0).trades());
+    }
+
+    @Test
+    public void testUntrackedMissingProductsSeenOnce() {
+        final var missingProducts = new MissingProducts();
+        for (var i = 0; i < MissingProducts.MAX_TRACKED; i++) {
+            assertEquals(new MissingProducts.Recorded(true, true), missingProducts.record(String.valueOf(i), 1));
+        }
+
+        assertEquals(new MissingProducts.Recorded(true, false), missingProducts.record("X", 1));
+        assertEquals(new MissingProducts.Recorded(false, false), missingProducts.record("X", 1));
+        assertEquals(new MissingProducts.Recorded(true, false), missingProducts.record("Y", 1));
+        assertEquals(new MissingProducts.Recorded(false, true), missingProducts.record("0", 1));
+        assertEquals(3, missingProducts.untracked());
+
+        /* Tracked once there is room, without being reported a second time */
+        missingProducts.removeIf("0"::equals);
+        assertEquals(new MissingProducts.Recorded(false, true), missingProducts.record("X", 1));
+    }
+
     @Test
     public void testAddProduct() {
         assertTrue(products.addProduct("1", "Product A"));
@@ -103,8 +162,262 @@ class ProductsTest {
         assertFalse(products.addProduct("1", "Product B"));
     }
 
+    @Test
+    public void testLookupProductNameFromBytes() {
+        assertTrue(products.addProduct("1", "Product A"));
+        assertTrue(products.addProduct("2", "Produit É"));
+
+        assertArrayEquals("Produit É".getBytes(UTF_8), products.getSnapshot().lookupProductName(bytes("x,2,y"), 2, 3));
+        assertNull(products.getSnapshot().lookupProductName(bytes("3"), 0, 1));
+        assertNull(products.getSnapshot().lookupProductName(bytes("01"), 0, 2));
+    }
+
+    @Test
+    public void testLookupProductNameSeesChanges() {
+        assertTrue(products.addProduct("1", "Product A"));
+        assertTrue(products.changeProduct("1", "Product B"));
+        assertArrayEquals(bytes("Product B"), products.getSnapshot().lookupProductName(bytes("1"), 0, 1));
+
+        assertTrue(products.removeProduct("1"));
+        assertNull(products.getSnapshot().lookupProductName(bytes("1"), 0, 1));
+    }
+
+    @Test
+    public void testLookupProductNameForSparseIds() {
+        assertTrue(products.addProduct("7", "Product A"));
+        assertTrue(products.addProduct("2147483647", "Product B"));
+
+        assertArrayEquals(bytes("Product A"), products.getSnapshot().lookupProductName(bytes("7"), 0, 1));
+        assertArrayEquals(bytes("Product B"), products.getSnapshot().lookupProductName(bytes("2147483647"), 0, 10));
+        assertNull(products.getSnapshot().lookupProductName(bytes("2147483648"), 0, 10));
+    }
+
+    @Test
+    public void testLookupProductNameForNonNumericCatalog() {
+        assertTrue(products.addProduct("1", "Product A"));
+        assertTrue(products.addProduct("ONE", "Product B"));
+
+        assertNull(products.getSnapshot().lookupProductName(bytes("1"), 0, 1));
+        assertEquals("Product A", products.lookupProduct("1", missingProductMappings));
+    }
+
+    @Test
+    public void testSnapshotUnaffectedByLaterChanges() {
+        assertTrue(products.addProduct("1", "Product A"));
+        final var snapshot = products.getSnapshot();
+
+        assertTrue(products.changeProduct("1", "Product B"));
+        assertTrue(products.addProduct("2", "Product C"));
+
+        assertEquals("Product A", products.lookupProduct(snapshot, "1", missingProductMappings));
+        assertEquals("Missing Product Name", products.lookupProduct(snapshot, "2", missingProductMappings));
+        assertArrayEquals(bytes("Product A"), snapshot.lookupProductName(bytes("1"), 0, 1));
+        assertEquals("Product B", products.lookupProduct("1", missingProductMappings));
+        assertEquals(snapshot.version() + 2, products.getSnapshot().version());
+    }
+
+    @Test
+    public void testFailedChangeKeepsSnapshot() {
+        assertTrue(products.addProduct("1", "Product A"));
+        final var snapshot = products.getSnapshot();
+
+        assertFalse(products.addProduct("1", "Product B"));
+        assertFalse(products.removeProduct("2"));
+
+        assertSame(snapshot, products.getSnapshot());
+    }
+
+    @Test
+    public void testApplyBatch() throws Exception {
+        assertTrue(products.addProduct("1", "Product A"));
+        final var version = products.getSnapshot().version();
+
+        final var result = products.applyBatch(batch("""
+                operation,product_id,product_name
+                ADD,2,Product B
+                CHANGE,2,Product C
+                delete,1
+                """), false);
+
+        assertTrue(result.accepted());
+        assertEquals(3, result.applied());
+        assertEquals(version + 1, result.version());
+        assertEquals(Map.of("2", "Product C"), products.getProducts().products());
+    }
+
+    @Test
+    public void testRejectBatchWithFailures() throws Exception {
+        assertTrue(products.addProduct("1", "Product A"));
+        final var snapshot = products.getSnapshot();
+
+        final var result = products.applyBatch(batch("""
+                operation,product_id,product_name
+                ADD,2,Product B
+                ADD,1,Product C
+                RENAME,3,Product D
+                CHANGE,4
+                """), false);
+
+        assertFalse(result.accepted());
+        assertEquals(0, result.applied());
+        assertEquals(List.of("line 4: unknown operation", "line 5: expected operation,product_id,product_name",
+                "line 3: product_id already present - 1"), result.failures());
+        assertSame(snapshot, products.getSnapshot());
+    }
+
+    @Test
+    public void testApplyPartialBatch() throws Exception {
+        assertTrue(products.addProduct("1", "Product A"));
+
+        final var result = products.applyBatch(batch("""
+                operation,product_id,product_name
+                ADD,1,Product B
+                ADD,2,Product C
+                DELETE,3
+                """), true);
+
+        assertTrue(result.accepted());
+        assertEquals(1, result.applied());
+        assertEquals(2, result.failures().size());
+        assertEquals(Map.of("1", "Product A", "2", "Product C"), products.getProducts().products());
+    }
+
+    @Test
+    public void testReload() {
+        assertTrue(products.addProduct("1", "Product A"));
+        assertTrue(products.addProduct("2", "Product B"));
+        assertTrue(products.addProduct("3", "Product C"));
+        final var pinned = products.getSnapshot();
+
+        final var diff = products.reload(new HashMap<>(Map.of("1", "Product A", "2", "Product D", "4", "Product E",
+                "5", "Product F")));
+
+        assertEquals(new ProductDiff(2, 1, 1), diff);
+        assertEquals(pinned.version() + 1, products.getSnapshot().version());
+        assertEquals(Map.of("1", "Product A", "2", "Product D", "4", "Product E", "5", "Product F"),
+                products.getProducts().products());
+        assertEquals("Product B", pinned.get("2"));
+        assertNull(pinned.get("4"));
+    }
+
+    @Test
+    public void testReloadKeepsApiChanges() {
+        when(mockReader.readProducts()).thenReturn(new HashMap<>(Map.of("1", "Product A", "2", "Product B",
+                "3", "Product C")));
+        products.init();
+        assertTrue(products.addProduct("9", "Product Z"));
+        assertTrue(products.changeProduct("1", "Product X"));
+        assertTrue(products.changeProduct("2", "Product Y"));
+        assertTrue(products.removeProduct("3"));
+
+        final var diff = products.reload(new HashMap<>(Map.of("1", "Product A", "2", "Product D", "3", "Product C",
+                "4", "Product E")));
+
+        /* Only the product the list renamed, and the one it added, are changed */
+        assertEquals(new ProductDiff(1, 1, 0), diff);
+        assertEquals(Map.of("1", "Product X", "2", "Product D", "4", "Product E", "9", "Product Z"),
+                products.getProducts().products());
+
+        assertEquals(new ProductDiff(0, 0, 1), products.reload(new HashMap<>(Map.of("1", "Product A",
+                "2", "Product D", "3", "Product C"))));
+        assertEquals(Map.of("1", "Product X", "2", "Product D", "9", "Product Z"), products.getProducts().products());
+    }
+
+    @Test
+    public void testUnwatchedReloadReplacesCatalog() {
+        when(mockReader.readProducts()).thenReturn(new HashMap<>(Map.of("1", "Product A", "2", "Product B")));
+        final var products = new Products(mockReader, new ProductJournal(), HeapProductCatalog.EMPTY, false);
+        products.init();
+        assertTrue(products.changeProduct("1", "Product X"));
+        assertTrue(products.addProduct("9", "Product Z"));
+
+        final var diff = products.reload(new HashMap<>(Map.of("1", "Product A", "2", "Product B")));
+
+        assertEquals(new ProductDiff(0, 1, 1), diff);
+        assertEquals(Map.of("1", "Product A", "2", "Product B"), products.getProducts().products());
+    }
+
+    @Test
+    public void testReloadUnchanged() {
+        assertTrue(products.addProduct("1", "Product A"));
+        final var snapshot = products.getSnapshot();
+
+        final var diff = products.reload(new HashMap<>(Map.of("1", "Product A")));
+
+        assertTrue(diff.isEmpty());
+        assertSame(snapshot, products.getSnapshot());
+    }
+
+    @Test
+    public void testReloadForgetsFoundMissingProducts() {
+        products.lookupProduct("1", missingProductMappings);
+        assertEquals(1, products.getMissingProducts().size());
+
+        products.reload(new HashMap<>(Map.of("1", "Product A")));
+
+        assertEquals(0, products.getMissingProducts().size());
+    }
+
+    @Test
+    public void testChangesForgetOnlyTheMissingProductsTheyAdd() throws IOException {
+        when(mockReader.readProducts()).thenReturn(new HashMap<>(Map.of("1", "Product A")));
+        products.init();
+        products.lookupProduct("2", missingProductMappings);
+        products.lookupProduct("3", missingProductMappings);
+        products.lookupProduct("4", missingProductMappings);
+
+        products.applyBatch(ProductBatch.read(new BufferedReader(new StringReader("""
+                operation,product_id,product_name
+                ADD,2,Product B
+                """))), false);
+        products.reload(new HashMap<>(Map.of("1", "Product A", "3", "Product C")));
+
+        assertEquals(List.of("4"), products.getMissingProducts().top(10).stream()
+                .map(MissingProducts.MissingProduct::id).toList());
+    }
+
     @Test
     public void testRemoveMissingProduct() {
         assertFalse(products.removeProduct("1"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLookupRemoteProduct() {
+        final var lookups = new ArrayList<Collection<String>>();
+        final var products = new Products(new ProductReader() {
+            @Override
+            public HashMap<String, String> readProducts() {
+                return new HashMap<>(Map.of("1", "Product A"));
+            }
+
+            @Override
+            public boolean isRemote() {
+                return true;
+            }
+
+            @Override
+            public Map<String, String> lookupProducts(Collection<String> ids) {
+                lookups.add(List.copyOf(ids));
+                return ids.contains("2") ? Map.of("2", "Product B") : Map.of();
+            }
+        });
+        products.init();
+
+        assertTrue(products.isRemote());
+        assertEquals("Product A", products.lookupProduct("1", missingProductMappings));
+        assertEquals("Product B", products.lookupProduct("2", missingProductMappings));
+        assertEquals("Missing Product Name", products.lookupProduct("3", missingProductMappings));
+        assertEquals(Set.of("3"), missingProductMappings);
+
+        assertEquals(Map.of("2", "Product B"), products.prefetch(products.getSnapshot(), List.of("1", "2", "4")));
+        assertEquals(List.of(List.of("2"), List.of("3"), List.of("2", "4")), lookups);
+    }
+
+    private static ProductBatch batch(String csv) throws IOException {
+        return ProductBatch.read(new BufferedReader(new StringReader(csv)));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(UTF_8);
+    }
+}
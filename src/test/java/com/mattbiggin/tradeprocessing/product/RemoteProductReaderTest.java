@@ -0,0 +1,235 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteProductReaderTest {
+    private static final Map<String, String> MASTER = Map.of(
+            "1", "Treasury Bills Domestic",
+            "2", "Corporate Bonds Domestic",
+            "3", "Repo Domestic");
+
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    private final List<List<String>> fetches = new ArrayList<>();
+
+    private SimpleMeterRegistry registry;
+
+    private RemoteProductReader reader;
+
+    @BeforeEach
+    public void init() {
+        reader = reader(ids -> {
+            fetches.add(List.copyOf(ids));
+            return master(ids);
+        }, 2);
+    }
+
+    @Test
+    public void testReadsNothingUpFront() {
+        assertTrue(reader.isRemote());
+        assertTrue(reader.readProducts().isEmpty());
+        assertTrue(fetches.isEmpty());
+    }
+
+    @Test
+    public void testMissesFetchedInBatches() {
+        final var products = reader.lookupProducts(List.of("1", "2", "3", "4", "5"));
+
+        assertEquals(MASTER, products);
+        assertEquals(List.of(List.of("1", "2"), List.of("3", "4"), List.of("5")), fetches);
+        assertEquals(3, registry.get("products.remote.fetch").timer().count());
+        assertEquals(5, registry.get("products.remote.cache.size").gauge().value());
+    }
+
+    @Test
+    public void testCachedProductsNotFetchedAgain() {
+        reader.lookupProducts(List.of("1", "4"));
+        fetches.clear();
+
+        assertEquals(Map.of("1", "Treasury Bills Domestic", "2", "Corporate Bonds Domestic"),
+                reader.lookupProducts(List.of("1", "2", "4")));
+        assertEquals(List.of(List.of("2")), fetches);
+        assertEquals(2, registry.get("products.remote.cache").tag("result", "hit").counter().count());
+        assertEquals(3, registry.get("products.remote.cache").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    public void testReloadEmptiesCache() {
+        reader.lookupProducts(List.of("1"));
+        reader.readProducts();
+        reader.lookupProducts(List.of("1"));
+
+        assertEquals(List.of(List.of("1"), List.of("1")), fetches);
+    }
+
+    @Test
+    public void testFailedFetchNotCached() {
+        final var failures = new int[]{1};
+        reader = reader(ids -> {
+            fetches.add(List.copyOf(ids));
+            if (failures[0]-- > 0) {
+                throw new IOException("Connection refused");
+            }
+            return master(ids);
+        }, 10);
+
+        assertTrue(reader.lookupProducts(List.of("1", "4")).isEmpty());
+        assertEquals(Map.of("1", "Treasury Bills Domestic"), reader.lookupProducts(List.of("1", "4")));
+        assertEquals(List.of(List.of("1", "4"), List.of("1", "4")), fetches);
+    }
+
+    @Test
+    public void testUncachedProductsReturned() {
+        reader = reader(ids -> {
+            fetches.add(List.copyOf(ids));
+            return master(ids);
+        }, new ProductNearCache(0, HOUR, HOUR), 10, HOUR);
+
+        assertEquals(MASTER, reader.lookupProducts(List.of("1", "2", "3", "4")));
+        assertEquals(List.of(List.of("1", "2", "3", "4")), fetches);
+        assertEquals(0, registry.get("products.remote.cache.size").gauge().value());
+    }
+
+    @Test
+    public void testFailureBacksOff() {
+        reader = reader(ids -> {
+            fetches.add(List.copyOf(ids));
+            throw new IOException("Connection refused");
+        }, new ProductNearCache(0, HOUR, HOUR), 2, HOUR);
+
+        assertTrue(reader.lookupProducts(List.of("1", "2", "3", "4")).isEmpty());
+        assertTrue(reader.lookupProducts(List.of("1")).isEmpty());
+        assertTrue(reader.lookupProducts(List.of("3")).isEmpty());
+
+        /* The batch after the failed one is not sent, nor are the lookups made while backing off */
+        assertEquals(List.of(List.of("1", "2")), fetches);
+        assertEquals(6, registry.get("products.remote.cache").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    public void testConcurrentLookupsShareFetch() throws Exception {
+        final var fetching = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        reader = reader(ids -> {
+            synchronized (fetches) {
+                fetches.add(List.copyOf(ids));
+            }
+            fetching.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return master(ids);
+        }, 10);
+
+        final var first = CompletableFuture.supplyAsync(() -> reader.lookupProducts(List.of("1", "2")));
+        assertTrue(fetching.await(10, TimeUnit.SECONDS));
+        final var second = CompletableFuture.supplyAsync(() -> reader.lookupProducts(List.of("2", "3")));
+        while (registry.get("products.remote.cache").tag("result", "miss").counter().count() < 4) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertEquals(Map.of("1", "Treasury Bills Domestic", "2", "Corporate Bonds Domestic"),
+                first.get(10, TimeUnit.SECONDS));
+        assertEquals(Map.of("2", "Corporate Bonds Domestic", "3", "Repo Domestic"), second.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of("1", "2"), List.of("3")), fetches);
+    }
+
+    @Test
+    public void testFetchesCompletedWhenLookupFails() throws Exception {
+        final var fetching = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        reader = reader(ids -> {
+            synchronized (fetches) {
+                fetches.add(List.copyOf(ids));
+            }
+            if (ids.contains("1")) {
+                fetching.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new Error("Product master client failed");
+            }
+            return master(ids);
+        }, 10);
+
+        final var first = CompletableFuture.supplyAsync(() -> reader.lookupProducts(List.of("1", "2")));
+        assertTrue(fetching.await(10, TimeUnit.SECONDS));
+        final var second = CompletableFuture.supplyAsync(() -> reader.lookupProducts(List.of("2", "3")));
+        while (registry.get("products.remote.cache").tag("result", "miss").counter().count() < 4) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        final var failure = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+        assertEquals("Product master client failed", failure.getCause().getMessage());
+        assertEquals(Map.of("3", "Repo Domestic"), second.get(10, TimeUnit.SECONDS));
+
+        /* Nothing is left in flight, so the ids are fetched again rather than waited for */
+        assertEquals(Map.of("2", "Corporate Bonds Domestic"), reader.lookupProducts(List.of("2")));
+        assertEquals(List.of(List.of("1", "2"), List.of("3"), List.of("2")), fetches);
+    }
+
+    @Test
+    public void testNearCacheEvictsLeastRecentlyUsed() {
+        final var cache = new ProductNearCache(2, HOUR, HOUR);
+        cache.put("1", "Product A", 0);
+        cache.put("2", "Product B", 0);
+        cache.get("1", 0);
+        cache.put("3", null, 0);
+
+        assertEquals(2, cache.size());
+        assertEquals("Product A", cache.get("1", 0).name());
+        assertNull(cache.get("2", 0));
+        assertNull(cache.get("3", 0).name());
+    }
+
+    @Test
+    public void testNearCacheExpiresEntries() {
+        final var cache = new ProductNearCache(10, HOUR, 10);
+        cache.put("1", "Product A", 0);
+        cache.put("2", null, 0);
+
+        assertNotNull(cache.get("1", 9));
+        assertNotNull(cache.get("2", 9));
+        assertNull(cache.get("2", 10));
+        assertNotNull(cache.get("1", 10));
+        assertNull(cache.get("1", HOUR));
+        assertEquals(0, cache.size());
+    }
+
+    private RemoteProductReader reader(RemoteProductSource source, int batchSize) {
+        return reader(source, new ProductNearCache(100, HOUR, HOUR), batchSize, 0);
+    }
+
+    private RemoteProductReader reader(RemoteProductSource source, ProductNearCache cache, int batchSize,
+                                       long failureBackoffNanos) {
+        registry = new SimpleMeterRegistry();
+        return new RemoteProductReader(source, cache, batchSize, failureBackoffNanos, registry);
+    }
+
+    private static Map<String, String> master(Collection<String> ids) {
+        final var products = new HashMap<String, String>();
+        ids.stream().filter(MASTER::containsKey).forEach(id -> products.put(id, MASTER.get(id)));
+        return products;
+    }
+}
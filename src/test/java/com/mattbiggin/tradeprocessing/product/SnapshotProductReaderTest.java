@@ -0,0 +1,156 @@
+package com.mattbiggin.tradeprocessing.product;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class SnapshotProductReaderTest {
+    private static final String PRODUCTS = "product_id,product_name\n1,Treasury Bills Domestic\n2,Crédit Agricole\n";
+
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    @TempDir
+    private Path directory;
+
+    private Path csv;
+
+    private Path snapshot;
+
+    private SnapshotProductReader reader;
+
+    @BeforeEach
+    public void init() throws IOException {
+        csv = directory.resolve("product.csv");
+        snapshot = directory.resolve("product.csv.snapshot");
+        Files.writeString(csv, PRODUCTS);
+        lenient().when(mockProperties.getProductListFileName()).thenReturn(csv.toString());
+        lenient().when(mockProperties.getProductSnapshotFileName()).thenReturn("");
+        reader = new SnapshotProductReader(mockProperties);
+    }
+
+    @Test
+    public void testSnapshotWrittenThenRead() throws IOException {
+        final var expected = Map.of("1", "Treasury Bills Domestic", "2", "Crédit Agricole");
+
+        assertEquals(expected, reader.readProducts());
+        assertTrue(Files.exists(snapshot));
+        assertEquals(expected, ProductSnapshotFile.read(snapshot, ProductSnapshotFile.Source.of(csv)));
+
+        final var written = Files.getLastModifiedTime(snapshot);
+        assertEquals(expected, reader.readProducts());
+        assertEquals(written, Files.getLastModifiedTime(snapshot));
+    }
+
+    @Test
+    public void testConfiguredSnapshotFile() {
+        final var configured = directory.resolve("catalog.bin");
+        lenient().when(mockProperties.getProductSnapshotFileName()).thenReturn(configured.toString());
+
+        reader.readProducts();
+
+        assertTrue(Files.exists(configured));
+        assertFalse(Files.exists(snapshot));
+    }
+
+    @Test
+    public void testChangedSourceReparsed() throws IOException {
+        reader.readProducts();
+        final var modified = Files.getLastModifiedTime(csv);
+
+        /* Same size and modification time, so only the checksum tells the two apart */
+        Files.writeString(csv, PRODUCTS.replace("Bills", "Notes"));
+        Files.setLastModifiedTime(csv, modified);
+
+        assertEquals("Treasury Notes Domestic", reader.readProducts().get("1"));
+        assertEquals("Treasury Notes Domestic",
+                ProductSnapshotFile.read(snapshot, ProductSnapshotFile.Source.of(csv)).get("1"));
+    }
+
+    @Test
+    public void testCorruptSnapshotIgnored() throws IOException {
+        reader.readProducts();
+        try (var channel = FileChannel.open(snapshot, WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), Files.size(snapshot) - 1);
+        }
+
+        assertNull(ProductSnapshotFile.read(snapshot, ProductSnapshotFile.Source.of(csv)));
+        assertEquals("Crédit Agricole", reader.readProducts().get("2"));
+        assertNotNull(ProductSnapshotFile.read(snapshot, ProductSnapshotFile.Source.of(csv)));
+    }
+
+    @Test
+    public void testTruncatedSnapshotIgnored() throws IOException {
+        reader.readProducts();
+        try (var channel = FileChannel.open(snapshot, WRITE)) {
+            channel.truncate(Files.size(snapshot) - 4);
+        }
+
+        assertNull(ProductSnapshotFile.read(snapshot, ProductSnapshotFile.Source.of(csv)));
+        assertEquals(2, reader.readProducts().size());
+    }
+
+    @Test
+    public void testRoundTripOfLargeCatalog() throws IOException {
+        final var products = new HashMap<String, String>();
+        for (var id = 1; id <= 200_000; id++) {
+            products.put(String.valueOf(id), "Product " + id);
+        }
+        final var source = new ProductSnapshotFile.Source(1, 2, 3);
+
+        ProductSnapshotFile.write(snapshot, source, products);
+
+        assertEquals(products, ProductSnapshotFile.read(snapshot, source));
+        assertNull(ProductSnapshotFile.read(snapshot, new ProductSnapshotFile.Source(1, 2, 4)));
+    }
+
+    @Test
+    public void testOversizedSnapshotNotWritten() throws IOException {
+        final var oversized = directory.resolve("oversized.snapshot");
+        final var source = new ProductSnapshotFile.Source(1, 2, 3);
+
+        /* Over the limit by the String lengths, then only once encoded */
+        assertThrows(ProductSnapshotFile.TooLargeException.class,
+                () -> ProductSnapshotFile.write(oversized, source, Map.of("1", "a".repeat(100)), 120));
+        assertThrows(ProductSnapshotFile.TooLargeException.class,
+                () -> ProductSnapshotFile.write(oversized, source, Map.of("1", "é".repeat(40)), 120));
+
+        assertFalse(Files.exists(oversized));
+        assertFalse(Files.exists(directory.resolve("oversized.snapshot.tmp")));
+        ProductSnapshotFile.write(oversized, source, Map.of("1", "é".repeat(20)), 120);
+        assertEquals(Map.of("1", "é".repeat(20)), ProductSnapshotFile.read(oversized, source));
+    }
+
+    @Test
+    public void testSourceReadFromHeader() throws IOException {
+        reader.readProducts();
+
+        assertEquals(ProductSnapshotFile.Source.of(csv), ProductSnapshotFile.source(snapshot));
+        assertNull(ProductSnapshotFile.source(csv));
+    }
+
+    @Test
+    public void testMissingSource() throws IOException {
+        Files.delete(csv);
+
+        assertTrue(reader.readProducts().isEmpty());
+        assertFalse(Files.exists(snapshot));
+    }
+}
@@ -0,0 +1,224 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BatchTradeEnrichmentTest {
+    private static final ProductSnapshot SNAPSHOT = ProductSnapshot.of(1, Map.of());
+
+    @Mock
+    private Products mockProducts;
+
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    private RejectionStore rejectionStore;
+
+    private BatchTradeEnrichment batch;
+
+    private TradeStreamEnrichment enrichment;
+
+    @BeforeEach
+    public void init() {
+        lenient().when(mockProducts.getSnapshot()).thenReturn(SNAPSHOT);
+        when(mockProperties.getBatchThreads()).thenReturn(4);
+        lenient().when(mockProperties.getBatchMaxFilesInFlight()).thenReturn(3);
+        lenient().when(mockProducts.lookupProduct(any(), anyString(), anySet())).thenAnswer(invocation -> {
+            final String id = invocation.getArgument(1);
+            final Set<String> missingProductMappings = invocation.getArgument(2);
+            if (id.length() > 1) {
+                missingProductMappings.add(id);
+                return Products.DEFAULT_PRODUCT_NAME;
+            }
+            return "Product " + id;
+        });
+
+        final var dateValidator = new TradeDateValidator();
+        final var valueValidator = new TradeValueValidator();
+        final var metrics = new EnrichmentMetrics(new SimpleMeterRegistry());
+        rejectionStore = new RejectionStore(mockProperties);
+        batch = new BatchTradeEnrichment(mockProducts, dateValidator, valueValidator, mockProperties, metrics,
+                rejectionStore);
+        batch.init();
+        enrichment = new TradeStreamEnrichment(mockProducts,
+                new TradeProcessor(mockProducts, dateValidator, valueValidator), dateValidator, valueValidator,
+                null, new PipelinedTradeEnrichment(mockProducts, dateValidator, valueValidator, mockProperties, metrics),
+                metrics, rejectionStore, new AggregateStore());
+    }
+
+    @AfterEach
+    public void shutdown() {
+        batch.shutdown();
+    }
+
+    @Test
+    public void testFilesInInputOrder() throws IOException {
+        final var files = new ArrayList<BatchTradeEnrichment.TradeFile>();
+        for (var i = 0; i < 25; i++) {
+            final var trades = new StringBuilder("date,product_id,currency,price\n");
+            for (var j = 0; j < i * 40; j++) {
+                trades.append(j % 7 == 0 ? "20161301" : "20160101").append(',').append(j % 12).append(",EUR,")
+                        .append(j).append(j % 3 == 0 ? "\r\n" : "\n");
+            }
+            files.add(new BatchTradeEnrichment.TradeFile("trades-" + i + ".csv", trades.toString().getBytes(UTF_8)));
+        }
+
+        final var output = new ByteArrayOutputStream();
+        final var stats = batch.enrich("batch-1", SNAPSHOT, files(files), output);
+        final var entries = unzip(output.toByteArray());
+
+        assertEquals(26, entries.size());
+        final var names = new ArrayList<>(entries.keySet());
+        for (var i = 0; i < files.size(); i++) {
+            assertEquals("trades-" + i + ".csv", names.get(i));
+            assertEquals(enrich(files.get(i).content()), entries.get(names.get(i)));
+        }
+        assertEquals(BatchTradeEnrichment.SUMMARY, names.get(25));
+        assertEquals(12_000, stats.rowsRead());
+        assertEquals(1_725, stats.rejectedDates());
+        assertEquals(1_725, rejectionStore.find("batch-1").rejectedDates());
+        assertEquals(RejectedTrades.MAX_SAMPLES, rejectionStore.find("batch-1").samples().size());
+    }
+
+    @Test
+    public void testSummary() throws IOException {
+        final var output = new ByteArrayOutputStream();
+        batch.enrich("batch-1", SNAPSHOT, files(List.of(
+                new BatchTradeEnrichment.TradeFile("a.csv", "date,product_id,currency,price\n20160101,1,EUR,1\n"
+                        .getBytes(UTF_8)),
+                new BatchTradeEnrichment.TradeFile("b.csv", "date,product_id,currency,price\n20161301,1,EUR,1\n"
+                        .getBytes(UTF_8)))), output);
+
+        final var summary = unzip(output.toByteArray()).get(BatchTradeEnrichment.SUMMARY);
+
+        assertTrue(summary.startsWith("""
+                request_id=batch-1
+                product_version=1
+                files=2
+                rows_read=2
+                rows_written=1
+                rows_rejected=1
+                elapsed_ms="""), summary);
+        assertTrue(summary.endsWith("""
+                file,rows_read,rows_written,rows_rejected
+                a.csv,1,1,0
+                b.csv,1,0,1
+                """), summary);
+    }
+
+    @Test
+    public void testEmptyBatch() throws IOException {
+        final var output = new ByteArrayOutputStream();
+        batch.enrich("batch-1", SNAPSHOT, files(List.of()), output);
+
+        final var entries = unzip(output.toByteArray());
+        assertEquals(List.of(BatchTradeEnrichment.SUMMARY), new ArrayList<>(entries.keySet()));
+        assertTrue(entries.get(BatchTradeEnrichment.SUMMARY).contains("files=0\n"));
+    }
+
+    @Test
+    public void testZipArchive() throws IOException {
+        final var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("desk/"));
+            zip.putNextEntry(new ZipEntry("desk/a.csv"));
+            zip.write("date,product_id,currency,price\n20160101,1,EUR,1\n".getBytes(UTF_8));
+            zip.putNextEntry(new ZipEntry("b.csv"));
+            zip.write("date,product_id,currency,price\n20160101,2,EUR,2".getBytes(UTF_8));
+        }
+
+        final var files = BatchTradeEnrichment.zip(new ByteArrayInputStream(archive.toByteArray()), -1, -1);
+
+        assertEquals("desk/a.csv", files.next().name());
+        final var file = files.next();
+        assertEquals("b.csv", file.name());
+        assertEquals("date,product_id,currency,price\n20160101,2,EUR,2", new String(file.content(), UTF_8));
+        assertNull(files.next());
+    }
+
+    @Test
+    public void testZipEntriesBounded() throws IOException {
+        final var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            for (final var name : new String[]{"a.csv", "b.csv", "c.csv"}) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(new byte[1_000]); // Deflates to a few bytes
+            }
+        }
+
+        final var files = BatchTradeEnrichment.zip(new ByteArrayInputStream(archive.toByteArray()), 999, -1);
+        final var e = assertThrows(IOException.class, files::next);
+        assertEquals("Zip entry a.csv is larger than 999 bytes", e.getMessage());
+
+        final var total = BatchTradeEnrichment.zip(new ByteArrayInputStream(archive.toByteArray()), 1_000, 2_500);
+        assertEquals(1_000, total.next().content().length);
+        assertEquals(1_000, total.next().content().length);
+        assertThrows(IOException.class, total::next);
+    }
+
+    @Test
+    public void testEntryNames() {
+        final var names = new HashSet<>(Set.of(BatchTradeEnrichment.SUMMARY));
+
+        assertEquals("a.csv", BatchTradeEnrichment.name("desk/a.csv", 1, names));
+        assertEquals("2-a.csv", BatchTradeEnrichment.name("C:\\desk\\a.csv", 2, names));
+        assertEquals("3-summary.txt", BatchTradeEnrichment.name("summary.txt", 3, names));
+        assertEquals("trades.csv", BatchTradeEnrichment.name(null, 4, names));
+        assertEquals("5-trades.csv", BatchTradeEnrichment.name("desk/", 5, names));
+        assertEquals("a_b_.csv", BatchTradeEnrichment.name("a,b\n.csv", 6, names));
+    }
+
+    private String enrich(byte[] trades) {
+        final var output = new ByteArrayOutputStream();
+        enrichment.processTrades(new ByteArrayInputStream(trades), output, false);
+        return output.toString(UTF_8);
+    }
+
+    private static BatchTradeEnrichment.Files files(List<BatchTradeEnrichment.TradeFile> files) {
+        final Iterator<BatchTradeEnrichment.TradeFile> iterator = files.iterator();
+        return () -> iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private static Map<String, String> unzip(byte[] archive) throws IOException {
+        final var entries = new LinkedHashMap<String, String>();
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            var entry = zip.getNextEntry();
+            while (entry != null) {
+                entries.put(entry.getName(), new String(zip.readAllBytes(), UTF_8));
+                entry = zip.getNextEntry();
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,213 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class EnrichmentJobsTest {
+    private static final String TRADES = "date,product_id,currency,price\n20160101,1,EUR,10.0\n20161301,1,EUR,20.0\n";
+    private static final String ENRICHED = "date,product_name,currency,price\n20160101,Treasury Bills,EUR,10.0\n";
+
+    @Mock
+    private Products mockProducts;
+
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    @TempDir
+    private Path directory;
+
+    private EnrichmentJobs jobs;
+
+    @BeforeEach
+    public void init() throws IOException {
+        lenient().when(mockProducts.getSnapshot()).thenReturn(ProductSnapshot.of(3, Map.of("1", "Treasury Bills")));
+        lenient().when(mockProperties.getJobsDirectory()).thenReturn(directory.toString());
+        lenient().when(mockProperties.getJobThreads()).thenReturn(1);
+        lenient().when(mockProperties.getJobMaxAgeMinutes()).thenReturn(60L);
+        lenient().when(mockProperties.getJobMaxDiskBytes()).thenReturn(1_000_000L);
+        lenient().when(mockProperties.getRejectsDirectory()).thenReturn("");
+
+        final var dateValidator = new TradeDateValidator();
+        final var valueValidator = new TradeValueValidator();
+        final var metrics = new EnrichmentMetrics(new SimpleMeterRegistry());
+        final var enrichment = new TradeStreamEnrichment(mockProducts,
+                new TradeProcessor(mockProducts, dateValidator, valueValidator), dateValidator, valueValidator,
+                null, new PipelinedTradeEnrichment(mockProducts, dateValidator, valueValidator, mockProperties, metrics),
+                metrics, new RejectionStore(mockProperties), new AggregateStore());
+        jobs = new EnrichmentJobs(mockProducts, enrichment, mockProperties);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        jobs.shutdown();
+    }
+
+    @Test
+    public void testJobEnrichesSpooledUpload() throws Exception {
+        jobs.init();
+        final var job = jobs.submit("job-1", upload(TRADES), false);
+
+        awaitFinished(job);
+
+        assertEquals(EnrichmentJob.State.COMPLETE, job.state());
+        assertEquals(ENRICHED, Files.readString(job.output()));
+        assertFalse(Files.exists(directory.resolve("job-1" + EnrichmentJobs.INPUT_SUFFIX)));
+        assertSame(job, jobs.find("job-1"));
+        assertEquals(3, job.productVersion());
+
+        final var summary = job.summary();
+        assertTrue(summary.contains("state=COMPLETE\n"));
+        assertTrue(summary.contains("bytes_total=" + TRADES.length() + "\n"));
+        assertTrue(summary.contains("bytes_read=" + TRADES.length() + "\n"));
+        assertTrue(summary.contains("bytes_written=" + ENRICHED.length() + "\n"));
+        assertTrue(summary.contains("rows_read=2\n"));
+        assertTrue(summary.contains("rows_written=1\n"));
+        assertTrue(summary.contains("rows_rejected=1\n"));
+    }
+
+    @Test
+    public void testGzipUpload() throws Exception {
+        jobs.init();
+        final var compressed = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(TRADES.getBytes(UTF_8));
+        }
+
+        final var job = jobs.submit("job-1", new ByteArrayInputStream(compressed.toByteArray()), true);
+        awaitFinished(job);
+
+        assertEquals(EnrichmentJob.State.COMPLETE, job.state());
+        assertEquals(ENRICHED, Files.readString(job.output()));
+        assertTrue(job.summary().contains("bytes_total=" + compressed.size() + "\n"));
+    }
+
+    @Test
+    public void testInvalidGzipFailsJob() throws Exception {
+        jobs.init();
+        final var job = jobs.submit("job-1", upload(TRADES), true);
+
+        awaitFinished(job);
+
+        assertEquals(EnrichmentJob.State.FAILED, job.state());
+        assertTrue(job.summary().contains("error="));
+        assertFalse(Files.exists(directory.resolve("job-1" + EnrichmentJobs.INPUT_SUFFIX)));
+    }
+
+    @Test
+    public void testDuplicateJobId() throws Exception {
+        jobs.init();
+        awaitFinished(jobs.submit("job-1", upload(TRADES), false));
+
+        assertNull(jobs.submit("job-1", upload(TRADES), false));
+    }
+
+    @Test
+    public void testOldestJobEvictedOverQuota() throws Exception {
+        /* Room for one job's upload and output while it runs, but not for a second job's beside its output */
+        lenient().when(mockProperties.getJobMaxDiskBytes()).thenReturn((long) TRADES.length() + ENRICHED.length() + 1);
+        jobs.init();
+
+        final var first = jobs.submit("job-1", upload(TRADES), false);
+        awaitFinished(first);
+        final var second = jobs.submit("job-2", upload(TRADES), false);
+        awaitFinished(second);
+
+        assertNull(jobs.find("job-1"));
+        assertFalse(Files.exists(first.output()));
+        assertSame(second, jobs.find("job-2"));
+        assertTrue(Files.exists(second.output()));
+    }
+
+    @Test
+    public void testUploadOverQuotaRefused() throws Exception {
+        lenient().when(mockProperties.getJobMaxDiskBytes()).thenReturn((long) TRADES.length() - 1);
+        jobs.init();
+
+        assertThrows(EnrichmentJobs.QuotaExceededException.class, () -> jobs.submit("job-1", upload(TRADES), false));
+
+        assertNull(jobs.find("job-1"));
+        assertFalse(Files.exists(directory.resolve("job-1" + EnrichmentJobs.INPUT_SUFFIX)));
+        final var job = jobs.submit("job-2", upload(TRADES.substring(0, 31)), false);
+        awaitFinished(job);
+        assertEquals(EnrichmentJob.State.COMPLETE, job.state());
+    }
+
+    @Test
+    public void testRunningJobOverQuotaFails() throws Exception {
+        lenient().when(mockProperties.getJobMaxDiskBytes()).thenReturn((long) TRADES.length() + 10);
+        jobs.init();
+
+        final var job = jobs.submit("job-1", upload(TRADES), false);
+        awaitFinished(job);
+
+        assertEquals(EnrichmentJob.State.FAILED, job.state());
+        assertTrue(job.summary().contains("exceeds enrich.jobs.maxDiskBytes"));
+        assertFalse(Files.exists(directory.resolve("job-1" + EnrichmentJobs.INPUT_SUFFIX)));
+        assertFalse(Files.exists(job.output()));
+
+        /* The failed job's bytes were released, so a job that fits still runs */
+        final var next = jobs.submit("job-2", upload(TRADES.substring(0, 31)), false);
+        awaitFinished(next);
+        assertEquals(EnrichmentJob.State.COMPLETE, next.state());
+    }
+
+    @Test
+    public void testJobEvictedByAge() throws Exception {
+        lenient().when(mockProperties.getJobMaxAgeMinutes()).thenReturn(0L);
+        jobs.init();
+        final var job = jobs.submit("job-1", upload(TRADES), false);
+        awaitFinished(job);
+
+        Thread.sleep(5);
+        jobs.evict();
+
+        assertNull(jobs.find("job-1"));
+        assertFalse(Files.exists(job.output()));
+    }
+
+    @Test
+    public void testFilesOfPreviousRunRemoved() throws Exception {
+        final var input = Files.writeString(directory.resolve("old" + EnrichmentJobs.INPUT_SUFFIX), TRADES);
+        final var output = Files.writeString(directory.resolve("old" + EnrichmentJobs.OUTPUT_SUFFIX), ENRICHED);
+        final var other = Files.writeString(directory.resolve("trades.csv"), TRADES);
+
+        jobs.init();
+
+        assertFalse(Files.exists(input));
+        assertFalse(Files.exists(output));
+        assertTrue(Files.exists(other));
+    }
+
+    private static ByteArrayInputStream upload(String trades) {
+        return new ByteArrayInputStream(trades.getBytes(UTF_8));
+    }
+
+    private static void awaitFinished(EnrichmentJob job) throws InterruptedException {
+        for (var i = 0; i < 500 && !job.isFinished(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished());
+    }
+}
@@ -0,0 +1,86 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class FileTradeEnrichmentTest {
+    @Mock
+    private Products mockProducts;
+
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    @TempDir
+    private Path directory;
+
+    private FileTradeEnrichment enrichment;
+
+    @BeforeEach
+    public void init() {
+        lenient().when(mockProducts.getSnapshot()).thenReturn(ProductSnapshot.of(1, Map.of("1", "Treasury Bills")));
+        lenient().when(mockProperties.getFileDirectory()).thenReturn(directory.toString());
+        enrichment = new FileTradeEnrichment(mockProducts, new TradeDateValidator(), new TradeValueValidator(),
+                mockProperties, new EnrichmentMetrics(new SimpleMeterRegistry()), new RejectionStore(mockProperties));
+    }
+
+    @Test
+    public void testProcessFile() throws IOException {
+        final var input = directory.resolve("trades.csv");
+        final var output = directory.resolve("enriched.csv");
+        Files.writeString(input, "date,product_id,currency,price\n20160101,1,EUR,10.0\n20161301,1,EUR,20.0\n");
+
+        final var result = enrichment.processFile("file-1", input, output);
+
+        assertEquals("date,product_name,currency,price\n20160101,Treasury Bills,EUR,10.0\n",
+                Files.readString(output));
+        assertEquals(2, result.rowsRead());
+        assertEquals(1, result.rowsWritten());
+        assertEquals(Files.size(input), result.bytesRead());
+        assertEquals(Files.size(output), result.bytesWritten());
+    }
+
+    @Test
+    public void testProcessEmptyFile() throws IOException {
+        final var input = Files.createFile(directory.resolve("empty.csv"));
+        final var output = directory.resolve("enriched.csv");
+
+        final var result = enrichment.processFile("file-2", input, output);
+
+        assertEquals("date,product_name,currency,price\n", Files.readString(output));
+        assertEquals(0, result.rowsRead());
+    }
+
+    @Test
+    public void testResolve() {
+        assertEquals(directory.resolve("trades.csv").toAbsolutePath(), enrichment.resolve("trades.csv"));
+        assertEquals(directory.resolve("in/trades.csv").toAbsolutePath(), enrichment.resolve("in/../in/trades.csv"));
+        assertNull(enrichment.resolve("../trades.csv"));
+        assertNull(enrichment.resolve("/etc/passwd"));
+        assertNull(enrichment.resolve("."));
+    }
+
+    @Test
+    public void testDisabled() {
+        lenient().when(mockProperties.getFileDirectory()).thenReturn("");
+
+        assertFalse(enrichment.isEnabled());
+        assertNull(enrichment.resolve("trades.csv"));
+    }
+}
@@ -0,0 +1,164 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ParallelTradeEnrichmentTest {
+    @Mock
+    private Products mockProducts;
+
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    private ParallelTradeEnrichment parallel;
+
+    private TradeStreamEnrichment enrichment;
+
+    @BeforeEach
+    public void init() {
+        lenient().when(mockProducts.getSnapshot()).thenReturn(ProductSnapshot.of(1, Map.of()));
+        when(mockProperties.getParallelThreads()).thenReturn(4);
+        when(mockProperties.getParallelChunkSize()).thenReturn(64);
+        when(mockProperties.getParallelMaxChunksInFlight()).thenReturn(3);
+        lenient().when(mockProducts.lookupProduct(any(), anyString(), anySet())).thenAnswer(invocation -> {
+            final String id = invocation.getArgument(1);
+            final Set<String> missingProductMappings = invocation.getArgument(2);
+            if (id.length() > 1) {
+                missingProductMappings.add(id);
+                return Products.DEFAULT_PRODUCT_NAME;
+            }
+            return "Product " + id;
+        });
+
+        final var dateValidator = new TradeDateValidator();
+        final var valueValidator = new TradeValueValidator();
+        parallel = new ParallelTradeEnrichment(mockProducts, dateValidator, valueValidator, mockProperties);
+        parallel.init();
+        final var metrics = new EnrichmentMetrics(new SimpleMeterRegistry());
+        enrichment = new TradeStreamEnrichment(mockProducts,
+                new TradeProcessor(mockProducts, dateValidator, valueValidator), dateValidator, valueValidator,
+                parallel, new PipelinedTradeEnrichment(mockProducts, dateValidator, valueValidator, mockProperties,
+                metrics), metrics, new RejectionStore(mockProperties), new AggregateStore());
+    }
+
+    @AfterEach
+    public void shutdown() {
+        parallel.shutdown();
+    }
+
+    @Test
+    public void testOutputInInputOrder() {
+        final var trades = new StringBuilder("date,product_id,currency,price\n");
+        for (var i = 0; i < 5_000; i++) {
+            trades.append(i % 97 == 0 ? "20161301" : "20160101").append(',').append(i % 10).append(",EUR,")
+                    .append(i).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+
+        assertEquals(enrich(trades.toString(), false), enrich(trades.toString(), true));
+    }
+
+    @Test
+    public void testLinesLongerThanChunk() {
+        final var trades = "date,product_id,currency,price\r\n20160101,1,EUR," + "9".repeat(500) +
+                "\r\n20160101,2,EUR,1\r" + "x".repeat(300) + "\n20160101,3,EUR,2";
+
+        assertEquals(enrich(trades, false), enrich(trades, true));
+    }
+
+    @Test
+    public void testCrlfSplitAcrossChunks() throws Exception {
+        /* The first chunk of 64 bytes ends on the \r of the first trade, leaving its \n for the next read */
+        final var trades = "date,product_id,currency,price\r\n20160101,1,EUR,1234567890.12345\r\n" +
+                "20160101,2,EUR,1\r\n".repeat(20);
+        final var bytes = trades.getBytes(UTF_8);
+        assertEquals('\r', bytes[63]);
+        final var snapshot = ProductSnapshot.of(1, Map.of());
+
+        final var sequential = new TradeByteEnricher(mockProducts, snapshot, new TradeDateValidator(),
+                new TradeValueValidator(), new HashSet<>(), new RejectedTrades(null), new ByteArrayOutputStream());
+        sequential.enrich(new ByteArrayInputStream(bytes));
+        final var stats = parallel.processTrades(snapshot, new ByteArrayInputStream(bytes),
+                new ByteArrayOutputStream(), ConcurrentHashMap.newKeySet(), new RejectedTrades(null));
+
+        assertEquals(sequential.stats(), stats);
+        assertEquals(21, stats.rowsRead());
+        assertEquals(enrich(trades, false), enrich(trades, true));
+    }
+
+    @Test
+    public void testHeaderOnly() {
+        assertEquals("date,product_name,currency,price\n", enrich("date,product_id,currency,price", true));
+        assertEquals("date,product_name,currency,price\n", enrich("", true));
+    }
+
+    @Test
+    public void testMissingProductsCollectedAcrossChunks() throws Exception {
+        final var trades = new StringBuilder("date,product_id,currency,price\n");
+        for (var i = 0; i < 1_000; i++) {
+            trades.append("20160101,").append(10 + i % 5).append(",EUR,1.0\n");
+        }
+        final var missingProductMappings = ConcurrentHashMap.<String>newKeySet();
+
+        parallel.processTrades(ProductSnapshot.of(1, Map.of()),
+                new ByteArrayInputStream(trades.toString().getBytes(UTF_8)), new ByteArrayOutputStream(),
+                missingProductMappings, new RejectedTrades(null));
+
+        assertEquals(Set.of("10", "11", "12", "13", "14"), missingProductMappings);
+    }
+
+    @Test
+    public void testStatsAndRejectsMatchSequential() throws Exception {
+        final var trades = new StringBuilder("date,product_id,currency,price\n");
+        for (var i = 0; i < 2_000; i++) {
+            trades.append(i % 13 == 0 ? "20161301" : "20160101").append(',').append(i % 20).append(",EUR,")
+                    .append(i).append(i % 31 == 0 ? ",,x\n" : "\n");
+        }
+        final var bytes = trades.toString().getBytes(UTF_8);
+        final var snapshot = ProductSnapshot.of(1, Map.of());
+
+        final var sequentialSink = new ByteArrayOutputStream();
+        final var sequentialRejected = new RejectedTrades(sequentialSink);
+        final var sequential = new TradeByteEnricher(mockProducts, snapshot, new TradeDateValidator(),
+                new TradeValueValidator(), new HashSet<>(), sequentialRejected, new ByteArrayOutputStream());
+        sequential.enrich(new ByteArrayInputStream(bytes));
+        final var parallelSink = new ByteArrayOutputStream();
+        final var parallelRejected = new RejectedTrades(parallelSink);
+        final var stats = parallel.processTrades(snapshot, new ByteArrayInputStream(bytes),
+                new ByteArrayOutputStream(), ConcurrentHashMap.newKeySet(), parallelRejected);
+
+        assertEquals(sequential.stats(), stats);
+        assertEquals(sequentialRejected.samples(), parallelRejected.samples());
+        assertEquals(RejectedTrades.MAX_SAMPLES, parallelRejected.samples().size());
+        assertEquals(sequentialSink.toString(UTF_8), parallelSink.toString(UTF_8));
+    }
+
+    private String enrich(String trades, boolean isParallel) {
+        final var output = new ByteArrayOutputStream();
+        enrichment.processTrades(new ByteArrayInputStream(trades.getBytes(UTF_8)), output, isParallel);
+        return output.toString(UTF_8);
+    }
+}
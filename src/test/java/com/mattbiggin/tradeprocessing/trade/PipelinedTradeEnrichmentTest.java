@@ -0,0 +1,244 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PipelinedTradeEnrichmentTest {
+    private static final ProductSnapshot SNAPSHOT = ProductSnapshot.of(1, Map.of());
+
+    @Mock
+    private Products mockProducts;
+
+    @Mock
+    private ConfigurationProperties mockProperties;
+
+    private SimpleMeterRegistry registry;
+
+    private PipelinedTradeEnrichment pipeline;
+
+    private TradeStreamEnrichment enrichment;
+
+    @BeforeEach
+    public void init() {
+        lenient().when(mockProducts.getSnapshot()).thenReturn(SNAPSHOT);
+        lenient().when(mockProperties.isPipelineEnabled()).thenReturn(true);
+        when(mockProperties.getPipelineBatchSize()).thenReturn(64);
+        when(mockProperties.getPipelineRingSize()).thenReturn(2);
+        lenient().when(mockProducts.lookupProduct(any(), anyString(), anySet())).thenAnswer(invocation -> {
+            final String id = invocation.getArgument(1);
+            final Set<String> missingProductMappings = invocation.getArgument(2);
+            if (id.length() > 1) {
+                missingProductMappings.add(id);
+                return Products.DEFAULT_PRODUCT_NAME;
+            }
+            return "Product " + id;
+        });
+
+        registry = new SimpleMeterRegistry();
+        pipeline = pipeline("block");
+        enrichment = new TradeStreamEnrichment(mockProducts, null, new TradeDateValidator(),
+                new TradeValueValidator(), null, pipeline, new EnrichmentMetrics(registry),
+                new RejectionStore(mockProperties), new AggregateStore());
+    }
+
+    @AfterEach
+    public void shutdown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testOutputMatchesStreamForEachWaitStrategy() throws IOException {
+        final var trades = new StringBuilder("date,product_id,currency,price\n");
+        for (var i = 0; i < 5_000; i++) {
+            trades.append(i % 97 == 0 ? "20161301" : "20160101").append(',').append(i % 10).append(",EUR,")
+                    .append(i).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        final var bytes = trades.toString().getBytes(UTF_8);
+        final var expected = new ByteArrayOutputStream();
+        new TradeByteEnricher(mockProducts, SNAPSHOT, new TradeDateValidator(), new TradeValueValidator(),
+                new HashSet<>(), new RejectedTrades(null), expected).enrich(new ByteArrayInputStream(bytes));
+
+        /* Larger batches, as spin hands each batch over only when the scheduler switches threads on a single core */
+        when(mockProperties.getPipelineBatchSize()).thenReturn(1_024);
+        for (final var waitStrategy : new String[]{"spin", "yield", "sleep", "block"}) {
+            final var pipeline = pipeline(waitStrategy);
+            try {
+                final var output = new ByteArrayOutputStream();
+                pipeline.processTrades(null, SNAPSHOT, new ByteArrayInputStream(bytes), output,
+                        new RejectedTrades(null), null);
+                assertEquals(expected.toString(UTF_8), output.toString(UTF_8), waitStrategy);
+            } finally {
+                pipeline.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testLinesLongerThanBatch() {
+        final var trades = "date,product_id,currency,price\r\n20160101,1,EUR," + "9".repeat(500) +
+                "\r\n20160101,2,EUR,1\r" + "x".repeat(300) + "\n20160101,3,EUR,2";
+
+        assertEquals(enrich(trades, false), enrich(trades, true));
+    }
+
+    @Test
+    public void testHeaderOnly() {
+        assertEquals("date,product_name,currency,price\n", enrich("date,product_id,currency,price", true));
+        assertEquals("date,product_name,currency,price\n", enrich("", true));
+    }
+
+    @Test
+    public void testStatsAndRejectsMatchSequential() throws Exception {
+        final var trades = new StringBuilder("date,product_id,currency,price\n");
+        for (var i = 0; i < 2_000; i++) {
+            trades.append(i % 13 == 0 ? "20161301" : "20160101").append(',').append(i % 20).append(",EUR,")
+                    .append(i).append(i % 31 == 0 ? ",,x\n" : "\n");
+        }
+        final var bytes = trades.toString().getBytes(UTF_8);
+
+        final var sequentialSink = new ByteArrayOutputStream();
+        final var sequentialRejected = new RejectedTrades(sequentialSink);
+        final var sequential = new TradeByteEnricher(mockProducts, SNAPSHOT, new TradeDateValidator(),
+                new TradeValueValidator(), new HashSet<>(), sequentialRejected, new ByteArrayOutputStream());
+        sequential.enrich(new ByteArrayInputStream(bytes));
+        final var pipelinedSink = new ByteArrayOutputStream();
+        final var pipelinedRejected = new RejectedTrades(pipelinedSink);
+        final var stats = pipeline.processTrades(null, SNAPSHOT, new ByteArrayInputStream(bytes),
+                new ByteArrayOutputStream(), pipelinedRejected, null);
+
+        assertEquals(sequential.stats(), stats);
+        assertEquals(sequentialRejected.samples(), pipelinedRejected.samples());
+        assertEquals(sequentialSink.toString(UTF_8), pipelinedSink.toString(UTF_8));
+    }
+
+    @Test
+    public void testReadFailureIsReported() {
+        final var input = new InputStream() {
+            private int remaining = 10_000;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- <= 0) {
+                    throw new IOException("Connection reset");
+                }
+                return remaining % 20 == 0 ? '\n' : '1';
+            }
+        };
+
+        final var e = assertThrows(IOException.class, () -> pipeline.processTrades(null, SNAPSHOT, input,
+                OutputStream.nullOutputStream(), new RejectedTrades(null), null));
+        assertEquals("Connection reset", e.getMessage());
+    }
+
+    @Test
+    public void testWriteFailureStopsPipeline() {
+        final var trades = "date,product_id,currency,price\n" + "20160101,1,EUR,1\n".repeat(10_000);
+        final var output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        final var e = assertThrows(IOException.class, () -> pipeline.processTrades(null, SNAPSHOT,
+                new ByteArrayInputStream(trades.getBytes(UTF_8)), output, new RejectedTrades(null), null));
+        assertEquals("Broken pipe", e.getMessage());
+    }
+
+    @Test
+    public void testWriteFailureUnblocksRead() {
+        final var trades = ("date,product_id,currency,price\n" + "20160101,1,EUR,1\n".repeat(10_000)).getBytes(UTF_8);
+        final var closed = new CountDownLatch(1);
+        final var input = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                if (position < trades.length) {
+                    return trades[position++];
+                }
+                /* A client that has stopped sending but not gone away */
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Stream closed");
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        };
+        final var output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        final var e = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(IOException.class,
+                () -> pipeline.processTrades(null, SNAPSHOT, input, output, new RejectedTrades(null), null)));
+        assertEquals("Broken pipe", e.getMessage());
+    }
+
+    @Test
+    public void testStageMetrics() {
+        enrich("date,product_id,currency,price\n" + "20160101,1,EUR,1\n".repeat(1_000), true);
+
+        for (final var stage : new String[]{"read", "enrich", "write"}) {
+            assertEquals(1, registry.get("enrich.pipeline.busy").tag("stage", stage).timer().count());
+            assertEquals(1, registry.get("enrich.pipeline.rate").tag("stage", stage).summary().count());
+        }
+        for (final var queue : new String[]{"parsed", "enriched"}) {
+            assertEquals(1, registry.get("enrich.pipeline.depth").tag("queue", queue).summary().count());
+        }
+        assertEquals(1, registry.get("enrich.duration").tag("mode", "pipeline").timer().count());
+    }
+
+    private PipelinedTradeEnrichment pipeline(String waitStrategy) {
+        when(mockProperties.getPipelineWaitStrategy()).thenReturn(waitStrategy);
+        final var pipeline = new PipelinedTradeEnrichment(mockProducts, new TradeDateValidator(),
+                new TradeValueValidator(), mockProperties, new EnrichmentMetrics(registry));
+        pipeline.init();
+        return pipeline;
+    }
+
+    private String enrich(String trades, boolean isPipelined) {
+        when(mockProperties.isPipelineEnabled()).thenReturn(isPipelined);
+        final var output = new ByteArrayOutputStream();
+        enrichment.processTrades(new ByteArrayInputStream(trades.getBytes(UTF_8)), output);
+        return output.toString(UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TradeAggregationTest {
+    private static final byte[] NAME = "Product".getBytes(UTF_8);
+
+    @Test
+    public void testScaledPrices() {
+        assertEquals(10_000_000, price("10"));
+        assertEquals(10_000_000, price("10.0"));
+        assertEquals(-500_000, price("-0.5"));
+        assertEquals(1, price("0.000001"));
+        assertEquals(999_999_999_999_999_999L, price("999999999999.999999"));
+        assertEquals(12_345_678_000_000L, price("12345678"));
+        assertEquals(1_234_567_800_000L, price("1234567.8"));
+        assertEquals(1_234_567L, price("1.234567"));
+        assertEquals(-98_760_000L, price("-98.76"));
+        for (final var price : new String[]{"", "-", ".5", "5.", "1.2.3", "1e3", "-1-", "1..2", "12345.6.", "1234567.", "--1", "1/2", "0.0000001", "NaN", " 1",
+                "9999999999999999999", "9999999999999"}) {
+            assertEquals(TradeAggregation.NO_PRICE, price(price), price);
+        }
+    }
+
+    @Test
+    public void testTotalsByProductAndCurrency() {
+        final var aggregation = new TradeAggregation();
+        add(aggregation, "20160102,10,EUR,1.5");
+        add(aggregation, "20160101,9,EUR,2");
+        add(aggregation, "20160103,10,GBP,x");
+        add(aggregation, "20151231,10,EUR,-0.25");
+
+        final var report = aggregation.report("request-1", 7);
+
+        assertEquals(4, report.trades());
+        assertEquals(7, report.productVersion());
+        assertEquals(List.of(
+                new TradeTotal("9", "Product", 1, 1, new BigDecimal("2"), "20160101", "20160101"),
+                new TradeTotal("10", "Product", 3, 2, new BigDecimal("1.25"), "20151231", "20160103")),
+                report.products());
+        assertEquals(List.of(
+                new TradeTotal("EUR", null, 3, 3, new BigDecimal("3.25"), "20151231", "20160102"),
+                new TradeTotal("GBP", null, 1, 0, null, "20160103", "20160103")),
+                report.currencies());
+    }
+
+    @Test
+    public void testTotalsExactBeyondLong() {
+        final var aggregation = new TradeAggregation();
+        for (var i = 0; i < 20; i++) {
+            add(aggregation, "20160101,1,EUR,999999999999.999999");
+        }
+        add(aggregation, "20160101,1,EUR,-999999999999.999999");
+
+        assertEquals(new BigDecimal("18999999999999.999981"),
+                aggregation.report("request-1", 1).currencies().get(0).totalPrice());
+
+        final var negative = new TradeAggregation();
+        for (var i = 0; i < 20; i++) {
+            add(negative, "20160101,1,EUR,-999999999999.999999");
+            add(negative, "20160101,1,EUR,-0.000001");
+        }
+        assertEquals(new BigDecimal("-20000000000000"),
+                negative.report("request-1", 1).currencies().get(0).totalPrice());
+    }
+
+    @Test
+    public void testChunksAdded() {
+        final var total = new TradeAggregation();
+        final var expected = new TradeAggregation();
+        for (var chunk = 0; chunk < 3; chunk++) {
+            final var aggregation = new TradeAggregation();
+            for (var i = 0; i < 100; i++) {
+                final var trade = "2016010" + (chunk + 1) + "," + i + ",EUR," + i + ".5";
+                add(aggregation, trade);
+                add(expected, trade);
+            }
+            total.addAll(aggregation);
+        }
+
+        assertEquals(expected.report("request-1", 1), total.report("request-1", 1));
+        assertEquals(100, total.report("request-1", 1).products().size());
+        assertEquals(new BigDecimal("15000"), total.report("request-1", 1).currencies().get(0).totalPrice());
+    }
+
+    @Test
+    public void testKeysSortedAsStringsUnlessAllInts() {
+        final var aggregation = new TradeAggregation();
+        add(aggregation, "20160101,B,EUR,1");
+        add(aggregation, "20160101,10,EUR,1");
+        add(aggregation, "20160101,9,EUR,1");
+
+        assertEquals(List.of("10", "9", "B"),
+                aggregation.report("request-1", 1).products().stream().map(TradeTotal::key).toList());
+    }
+
+    /*
+     * Parses the price both where it can be read as a word and at the end of a buffer, where it is scanned.
+     */
+    private static long price(String price) {
+        final var padded = ("," + price + ",20160101,1,EUR,1\n").getBytes(UTF_8);
+        final var end = ("," + price).getBytes(UTF_8);
+        final var scaled = TradeAggregation.price(padded, 1, price.length() + 1);
+        assertEquals(scaled, TradeAggregation.price(end, 1, end.length), price);
+        return scaled;
+    }
+
+    private static void add(TradeAggregation aggregation, String trade) {
+        final var bytes = trade.getBytes(UTF_8);
+        final var productId = trade.indexOf(',') + 1;
+        final var currency = trade.indexOf(',', productId) + 1;
+        final var price = trade.indexOf(',', currency) + 1;
+        aggregation.add(bytes, 0, productId, currency - 1, NAME, currency, price - 1, price, bytes.length);
+    }
+}
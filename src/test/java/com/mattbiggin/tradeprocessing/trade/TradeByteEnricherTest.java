@@ -0,0 +1,327 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import com.mattbiggin.tradeprocessing.ConfigurationProperties;
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
+import com.mattbiggin.tradeprocessing.product.Products;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TradeByteEnricherTest {
+    private static final Map<String, String> CATALOG = Map.of(
+            "1", "Treasury Bills Domestic",
+            "2", "Corporate Bonds Domestic",
+            "X", "Crédit Agricole");
+
+    @Mock
+    private Products mockProducts;
+
+    private SimpleMeterRegistry registry;
+
+    private RejectionStore rejectionStore;
+
+    private TradeStreamEnrichment enrichment;
+
+    @BeforeEach
+    public void init() {
+        lenient().when(mockProducts.getSnapshot()).thenReturn(ProductSnapshot.of(1, Map.of()));
+        lenient().when(mockProducts.lookupProduct(any(), anyString(), anySet())).thenAnswer(invocation -> {
+            final String id = invocation.getArgument(1);
+            if (!CATALOG.containsKey(id)) {
+                invocation.<Set<String>>getArgument(2).add(id);
+            }
+            return CATALOG.getOrDefault(id, Products.DEFAULT_PRODUCT_NAME);
+        });
+        final var dateValidator = new TradeDateValidator();
+        registry = new SimpleMeterRegistry();
+        rejectionStore = new RejectionStore(mock(ConfigurationProperties.class));
+        final var valueValidator = new TradeValueValidator();
+        enrichment = enrichment(dateValidator, valueValidator);
+    }
+
+    @Test
+    public void testEnrichTrades() {
+        assertEquals("""
+                date,product_name,currency,price
+                20160101,Treasury Bills Domestic,EUR,10.0
+                20160101,Missing Product Name,EUR,35.34
+                """, enrich("date,product_id,currency,price\n20160101,1,EUR,10.0\n20160101,11,EUR,35.34\n"));
+    }
+
+    @Test
+    public void testMatchesReaderForLineEndings() {
+        assertMatchesReader("date,product_id,currency,price\r\n20160101,1,EUR,10.0\r\n20160102,2,USD,1\r\n");
+        assertMatchesReader("date,product_id,currency,price\r20160101,1,EUR,10.0\r\r\n\n20160102,2,USD,1");
+        assertMatchesReader("\n20160101,1,EUR,10.0\n\n");
+        assertMatchesReader("");
+    }
+
+    @Test
+    public void testMatchesReaderForColumns() {
+        assertMatchesReader("""
+                header
+                20160101,1,EUR,10.0,
+                20160101,1,EUR,10.0,,,
+                20160101,1,EUR,,
+                20160101,1,EUR,10.0, ,
+                20160101,1,EUR
+                20160101,1,EUR,10.0,extra
+                 20160101 ,\t2\t, GBP ,  99.5\s
+                20160101,,,x
+                ,,,
+                20160101,X,EUR,10.0
+                """);
+    }
+
+    @Test
+    public void testMatchesReaderForDates() {
+        assertMatchesReader("""
+                date,product_id,currency,price
+                20161301,1,EUR,10.0
+                20160229,1,EUR,10.0
+                20170229,1,EUR,10.0
+                2016011,1,EUR,10.0
+                201601011,1,EUR,10.0
+                20160101Z,1,EUR,10.0
+                20160101+0100,1,EUR,10.0
+                2016-01-01,1,EUR,10.0
+                """);
+    }
+
+    @Test
+    public void testLinesSplitAcrossReads() {
+        final var trades = "date,product_id,currency,price\r\n20160101,1,EUR,10.0\r\n20160101,2,EUR," +
+                "1".repeat(200_000) + "\r\n20160101,X,EUR,3\r";
+        final var output = new ByteArrayOutputStream();
+
+        enrichment.processTrades(new OneByteInputStream(trades.getBytes(UTF_8)), output);
+
+        assertEquals(readerOutput(trades), output.toString(UTF_8));
+    }
+
+    @Test
+    public void testProductLookedUpOncePerId() {
+        enrich("date,product_id,currency,price\n20160101,1,EUR,10.0\n20160101,1,EUR,11.0\n20160101,1,EUR,12.0\n");
+
+        verify(mockProducts, times(1)).lookupProduct(any(), eq("1"), anySet());
+    }
+
+    @Test
+    public void testMetrics() {
+        final var trades = "date,product_id,currency,price\n20160101,1,EUR,10.0\n20160101,11,EUR,35.34\n" +
+                "20161301,2,EUR,1\n20160101,1,EUR\n\n20160101,11,EUR,36\n";
+        final var output = enrich(trades);
+
+        assertEquals(6, registry.counter("enrich.rows.read").count());
+        assertEquals(3, registry.counter("enrich.rows.written").count());
+        assertEquals(2, registry.counter("enrich.rows.rejected", "reason", "columns").count());
+        assertEquals(1, registry.counter("enrich.rows.rejected", "reason", "date").count());
+        assertEquals(2, registry.counter("enrich.product.lookups", "result", "hit").count());
+        assertEquals(2, registry.counter("enrich.product.lookups", "result", "miss").count());
+        assertEquals(trades.length(), registry.counter("enrich.bytes", "direction", "in").count());
+        assertEquals(output.length(), registry.counter("enrich.bytes", "direction", "out").count());
+        assertEquals(1, registry.timer("enrich.duration", "mode", "stream").count());
+    }
+
+    @Test
+    public void testMissingProductTradesRecorded() {
+        enrich("date,product_id,currency,price\n20160101,11,EUR,1\n20160101,1,EUR,2\n20160101,11,EUR,3\n" +
+                "20160101,11,EUR,4\n20160101,12,EUR,5\n");
+
+        verify(mockProducts, times(1)).lookupProduct(any(), eq("11"), anySet());
+        verify(mockProducts).recordMissingProduct("11", 2);
+        verify(mockProducts, never()).recordMissingProduct(eq("12"), anyLong());
+        verify(mockProducts, never()).recordMissingProduct(eq("1"), anyLong());
+    }
+
+    @Test
+    public void testRejectionSummary() {
+        final var trades = new StringBuilder("date,product_id,currency,price\n20160101,1,EUR\n");
+        for (var i = 0; i < 100; i++) {
+            trades.append("20161301,1,EUR,").append(i).append('\n');
+        }
+
+        enrichment.processTrades("request-1", ProductSnapshot.of(1, Map.of()),
+                new ByteArrayInputStream(trades.toString().getBytes(UTF_8)), new ByteArrayOutputStream(), false);
+
+        final var summary = rejectionStore.find("request-1");
+        assertEquals(101, summary.rowsRead());
+        assertEquals(1, summary.rejectedColumns());
+        assertEquals(100, summary.rejectedDates());
+        assertEquals(RejectedTrades.MAX_SAMPLES, summary.samples().size());
+        assertEquals("20160101,1,EUR", summary.samples().get(0));
+        assertEquals("20161301,1,EUR,0", summary.samples().get(1));
+        assertTrue(summary.summary().endsWith("... 81 more\n"));
+        assertNull(rejectionStore.find("request-2"));
+    }
+
+    @Test
+    public void testStrictValidation() {
+        final var dateValidator = new TradeDateValidator();
+        final var valueValidator = new TradeValueValidator(true, "EUR,GBP");
+        final var strict = enrichment(dateValidator, valueValidator);
+        final var trades = "date,product_id,currency,price\n20160101,1,EUR,10.0\n20160101,1,USD,10.0\n" +
+                "20160101,1,eur,10.0\n20160101,2, GBP ,-0.5\n20160101,2,GBP,1e3\n20160101,2,GBP,.5\n" +
+                "20161301,2,XXX,x\n";
+
+        final var output = new ByteArrayOutputStream();
+        strict.processTrades("strict", ProductSnapshot.of(1, Map.of()),
+                new ByteArrayInputStream(trades.getBytes(UTF_8)), output, false);
+        final var readerOutput = new ByteArrayOutputStream();
+        strict.processTrades(new BufferedReader(new StringReader(trades)), readerOutput);
+
+        assertEquals("""
+                date,product_name,currency,price
+                20160101,Treasury Bills Domestic,EUR,10.0
+                20160101,Corporate Bonds Domestic,GBP,-0.5
+                """, output.toString(UTF_8));
+        assertEquals(output.toString(UTF_8), readerOutput.toString(UTF_8));
+        final var summary = rejectionStore.find("strict");
+        assertEquals(1, summary.rejectedDates());
+        assertEquals(2, summary.rejectedCurrencies());
+        assertEquals(2, summary.rejectedPrices());
+        assertEquals(2, registry.counter("enrich.rows.rejected", "reason", "price").count());
+    }
+
+    @Test
+    public void testRemoteProductsLookedUpTogether() {
+        when(mockProducts.isRemote()).thenReturn(true);
+        when(mockProducts.prefetch(any(), anySet())).thenReturn(Map.of("1", "Treasury Bills Domestic"));
+
+        final var output = enrich("date,product_id,currency,price\r\n20160101, 1 ,EUR,10.0\r\n20160101,11,EUR,1\r\n" +
+                "bad\r\n20160102,1,EUR,2\r\n20160102,11,EUR,3\r\n20160102,X,EUR,3");
+
+        assertEquals("""
+                date,product_name,currency,price
+                20160101,Treasury Bills Domestic,EUR,10.0
+                20160101,Missing Product Name,EUR,1
+                20160102,Treasury Bills Domestic,EUR,2
+                20160102,Missing Product Name,EUR,3
+                20160102,Crédit Agricole,EUR,3
+                """, output);
+        verify(mockProducts).prefetch(any(), eq(Set.of("1", "11")));
+        verify(mockProducts).missingProduct(eq("11"), anySet());
+        verify(mockProducts).recordMissingProduct("11", 1);
+        /* The last line is unterminated, so it is looked up on its own */
+        verify(mockProducts).lookupProduct(any(), eq("X"), anySet());
+        verifyNoMoreInteractions(ignoreStubs(mockProducts));
+    }
+
+    @Test
+    public void testRemoteProductsLookedUpOncePerUpload() {
+        when(mockProducts.isRemote()).thenReturn(true);
+        when(mockProducts.prefetch(any(), anySet())).thenReturn(Map.of()); // As when the product master is unreachable
+        final var trades = "date,product_id,currency,price\n20160101,1,EUR,1\n20160101,2,EUR,2\n20160101,1,EUR,3\n";
+
+        enrichment.processTrades(new OneByteInputStream(trades.getBytes(UTF_8)), new ByteArrayOutputStream());
+
+        verify(mockProducts).prefetch(any(), eq(Set.of("1")));
+        verify(mockProducts).prefetch(any(), eq(Set.of("2")));
+        verify(mockProducts, never()).lookupProduct(any(), anyString(), anySet());
+        verify(mockProducts).recordMissingProduct("1", 1);
+    }
+
+    @Test
+    public void testRemoteProductsBeyondCacheLookedUpPerBuffer() throws IOException {
+        /* Every product looked up is counted, odd ids are missing from the product master */
+        final var fetched = new AtomicLong();
+        final var missing = new AtomicLong();
+        when(mockProducts.isRemote()).thenReturn(true);
+        when(mockProducts.prefetch(any(), anySet())).thenAnswer(invocation -> {
+            final Set<String> ids = invocation.getArgument(1);
+            fetched.addAndGet(ids.size());
+            final var found = new HashMap<String, String>();
+            ids.stream().filter(id -> Integer.parseInt(id) % 2 == 0).forEach(id -> found.put(id, "Product " + id));
+            return found;
+        });
+        when(mockProducts.missingProduct(anyString(), anySet())).thenAnswer(invocation -> {
+            missing.incrementAndGet();
+            return Products.DEFAULT_PRODUCT_NAME;
+        });
+        doAnswer(invocation -> missing.addAndGet(invocation.<Long>getArgument(1)))
+                .when(mockProducts).recordMissingProduct(anyString(), anyLong());
+
+        /* More distinct ids than the cache holds, each traded twice in a row */
+        final var ids = 70_000;
+        final var trades = new StringBuilder("date,product_id,currency,price\n");
+        final var expected = new StringBuilder(new String(TradeByteEnricher.HEADER, UTF_8));
+        for (var id = 100_000; id < 100_000 + ids; id++) {
+            final var name = id % 2 == 0 ? "Product " + id : Products.DEFAULT_PRODUCT_NAME;
+            for (var trade = 0; trade < 2; trade++) {
+                trades.append("20160101,").append(id).append(",EUR,1\n");
+                expected.append("20160101,").append(name).append(",EUR,1\n");
+            }
+        }
+        final var output = new ByteArrayOutputStream();
+        final var enricher = new TradeByteEnricher(mockProducts, ProductSnapshot.of(1, Map.of()),
+                new TradeDateValidator(), new TradeValueValidator(), new HashSet<>(), new RejectedTrades(null), output);
+
+        enricher.enrich(new ByteArrayInputStream(trades.toString().getBytes(UTF_8)));
+
+        assertEquals(expected.toString(), output.toString(UTF_8));
+        verify(mockProducts, never()).lookupProduct(any(), anyString(), anySet());
+        assertEquals(ids, missing.get()); // One for each trade of an odd id
+        /* Only ids with trades in two buffers are looked up twice */
+        final var buffers = mockingDetails(mockProducts).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals("prefetch")).count();
+        assertTrue(fetched.get() <= ids + buffers, fetched + " fetched in " + buffers + " buffers");
+    }
+
+    /*
+     * A stream enrichment, with the pipeline there but not enabled.
+     */
+    private TradeStreamEnrichment enrichment(TradeDateValidator dateValidator, TradeValueValidator valueValidator) {
+        final var metrics = new EnrichmentMetrics(registry);
+        return new TradeStreamEnrichment(mockProducts,
+                new TradeProcessor(mockProducts, dateValidator, valueValidator), dateValidator, valueValidator, null,
+                new PipelinedTradeEnrichment(mockProducts, dateValidator, valueValidator,
+                        mock(ConfigurationProperties.class), metrics), metrics, rejectionStore, new AggregateStore());
+    }
+
+    private void assertMatchesReader(String trades) {
+        assertEquals(readerOutput(trades), enrich(trades), trades);
+    }
+
+    private String enrich(String trades) {
+        final var output = new ByteArrayOutputStream();
+        enrichment.processTrades(new ByteArrayInputStream(trades.getBytes(UTF_8)), output);
+        return output.toString(UTF_8);
+    }
+
+    private String readerOutput(String trades) {
+        final var output = new ByteArrayOutputStream();
+        enrichment.processTrades(new BufferedReader(new StringReader(trades)), output);
+        return output.toString(UTF_8);
+    }
+
+    private static class OneByteInputStream extends ByteArrayInputStream {
+        OneByteInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
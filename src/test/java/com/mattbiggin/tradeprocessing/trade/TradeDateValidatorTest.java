@@ -0,0 +1,65 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TradeDateValidatorTest {
+    private final TradeDateValidator validator = new TradeDateValidator();
+
+    @Test
+    public void testMatchesFormatter() {
+        for (final var year : new int[]{0, 1900, 2000, 2016, 2023, 2100, 9999}) {
+            for (var monthDay = 0; monthDay < 10000; monthDay++) {
+                assertMatchesFormatter(String.format("%04d%04d", year, monthDay));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesFormatterForOtherForms() {
+        for (final var date : new String[]{"", "2016010", "201601011", "2016-01-01", "2016O101", "20160101 ",
+                "20160101Z", "20160101+01", "20160101+0100", "20160101-01:30", "20160101+1", "20160101+25",
+                "20160101Zulu", "20161301Z", "+2016010", "２０１６０１０１"}) {
+            assertMatchesFormatter(date);
+        }
+    }
+
+    @Test
+    public void testCachedResultsAreStable() {
+        for (var i = 0; i < 3; i++) {
+            assertTrue(validator.isValidDate("20160229"));
+            assertFalse(validator.isValidDate("20170229"));
+            assertTrue(validator.isValidDate("20170228"));
+        }
+    }
+
+    @Test
+    public void testValidatesByteRange() {
+        final var bytes = "x,20160101,y".getBytes(UTF_8);
+
+        assertTrue(validator.isValidDate(bytes, 2, 10));
+        assertFalse(validator.isValidDate(bytes, 2, 9));
+        assertFalse(validator.isValidDate(bytes, 0, 8));
+    }
+
+    private void assertMatchesFormatter(String date) {
+        final var bytes = date.getBytes(UTF_8);
+        assertEquals(parses(date), validator.isValidDate(date), date);
+        assertEquals(parses(date), validator.isValidDate(bytes, 0, bytes.length), date);
+    }
+
+    private static boolean parses(String date) {
+        try {
+            LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.mattbiggin.tradeprocessing.trade;
 
+import com.mattbiggin.tradeprocessing.product.ProductSnapshot;
 import com.mattbiggin.tradeprocessing.product.Products;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -7,6 +8,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -17,14 +19,16 @@ class TradeProcessorTest {
     @Mock
     private Products mockProducts;
 
+    private final ProductSnapshot snapshot = ProductSnapshot.of(1, Map.of());
+
     private final Set<String> missingProductMappings = new HashSet<>();
 
     @Test
     public void testProcessTrade() {
-        final var processor = new TradeProcessor(mockProducts);
-        when(mockProducts.lookupProduct("A", missingProductMappings)).thenReturn("Product Name");
+        final var processor = new TradeProcessor(mockProducts, new TradeDateValidator(), new TradeValueValidator());
+        when(mockProducts.lookupProduct(snapshot, "A", missingProductMappings)).thenReturn("Product Name");
 
-        final var trade = processor.process("20160101,A,B,C", missingProductMappings);
+        final var trade = processor.process("20160101,A,B,C", snapshot, missingProductMappings);
 
         assertTrue(trade.isPresent());
         assertEquals("20160101,Product Name,B,C\n", trade.get());
@@ -32,19 +36,19 @@ class TradeProcessorTest {
 
     @Test
     public void testInvalidColumnsCount() {
-        final var processor = new TradeProcessor(mockProducts);
+        final var processor = new TradeProcessor(mockProducts, new TradeDateValidator(), new TradeValueValidator());
 
-        final var trade = processor.process("20160101,A,B", missingProductMappings);
+        final var trade = processor.process("20160101,A,B", snapshot, missingProductMappings);
 
         assertFalse(trade.isPresent());
     }
 
     @Test
     public void testHandleInvalidDate() {
-        final var processor = new TradeProcessor(mockProducts);
-        when(mockProducts.lookupProduct("A", missingProductMappings)).thenReturn("Product Name");
+        final var processor = new TradeProcessor(mockProducts, new TradeDateValidator(), new TradeValueValidator());
+        when(mockProducts.lookupProduct(snapshot, "A", missingProductMappings)).thenReturn("Product Name");
 
-        final var trade = processor.process("20161301,A,B,C", missingProductMappings);
+        final var trade = processor.process("20161301,A,B,C", snapshot, missingProductMappings);
 
         assertFalse(trade.isPresent());
     }
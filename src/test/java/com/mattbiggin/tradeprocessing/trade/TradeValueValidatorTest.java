@@ -0,0 +1,90 @@
+package com.mattbiggin.tradeprocessing.trade;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TradeValueValidatorTest {
+    private final TradeValueValidator validator = new TradeValueValidator(true, TradeValueValidator.ISO_4217);
+
+    @Test
+    public void testCurrencies() {
+        for (final var currency : TradeValueValidator.ISO_4217.split(",")) {
+            assertValidCurrency(true, currency);
+        }
+        for (final var currency : new String[]{"", "EU", "EURO", "eur", "Eur", "XXX", "AAA", "ZZZ", "E@R", "E[R",
+                "ÉUR", "EUR "}) {
+            assertValidCurrency(false, currency);
+        }
+    }
+
+    @Test
+    public void testConfiguredCurrencies() {
+        final var configured = new TradeValueValidator(true, "EUR, XTS");
+
+        assertTrue(configured.isValidCurrency("XTS"));
+        assertFalse(configured.isValidCurrency("GBP"));
+        assertThrows(IllegalArgumentException.class, () -> new TradeValueValidator(true, "EUR,GB"));
+    }
+
+    @Test
+    public void testPrices() {
+        for (final var price : new String[]{"0", "10", "10.0", "30.34", "-0.5", "007", "1".repeat(38),
+                "1".repeat(20) + "." + "1".repeat(18), "12345678", "-1234567", "1234.567", "1.234567"}) {
+            assertValidPrice(true, price);
+        }
+        for (final var price : new String[]{"", "-", ".", "-.5", ".5", "5.", "1.2.3", "+1", "1e3", "1,000", "NaN",
+                "Infinity", " 1", "1 ", "--1", "1".repeat(39), "1".repeat(20) + "." + "1".repeat(19), "١٢", "1234567.", ".1234567", "12345:7", "12/4", "1\u00b9",
+                "1 2", "1..2", "12.3.4"}) {
+            assertValidPrice(false, price);
+        }
+    }
+
+    @Test
+    public void testAcceptedPricesParse() {
+        for (final var price : new String[]{"0", "10.0", "-0.5", "007", "1".repeat(38)}) {
+            assertTrue(validator.isValidPrice(price));
+            assertDoesNotThrow(() -> new BigDecimal(price));
+        }
+    }
+
+    @Test
+    public void testDisabledAcceptsAnything() {
+        final var disabled = new TradeValueValidator();
+        final var bytes = "x,1e3,y".getBytes(UTF_8);
+
+        assertFalse(disabled.isEnabled());
+        assertTrue(disabled.isValidCurrency("euro"));
+        assertTrue(disabled.isValidPrice(bytes, 2, 5));
+    }
+
+    @Test
+    public void testValidatesByteRange() {
+        final var bytes = "x,EUR,12.5,y".getBytes(UTF_8);
+
+        assertTrue(validator.isValidCurrency(bytes, 2, 5));
+        assertFalse(validator.isValidCurrency(bytes, 1, 4));
+        assertTrue(validator.isValidPrice(bytes, 6, 10));
+        assertFalse(validator.isValidPrice(bytes, 6, 11));
+    }
+
+    private void assertValidCurrency(boolean expected, String currency) {
+        final var bytes = currency.getBytes(UTF_8);
+        assertEquals(expected, validator.isValidCurrency(currency), currency);
+        assertEquals(expected, validator.isValidCurrency(bytes, 0, bytes.length), currency);
+    }
+
+    /*
+     * Also checks the price within a line, where short prices are read as a word along with the bytes around them.
+     */
+    private void assertValidPrice(boolean expected, String price) {
+        final var bytes = price.getBytes(UTF_8);
+        final var line = ("1.EUR," + price + "9.-.1e\n").getBytes(UTF_8);
+        assertEquals(expected, validator.isValidPrice(price), price);
+        assertEquals(expected, validator.isValidPrice(bytes, 0, bytes.length), price);
+        assertEquals(expected, validator.isValidPrice(line, 6, 6 + bytes.length), price);
+    }
+}